@@ -28,6 +28,8 @@ public class Constants {
     public static final int TRANSMIT_VOICE_ACTIVITY = 0;
     public static final int TRANSMIT_PUSH_TO_TALK = 1;
     public static final int TRANSMIT_CONTINUOUS = 2;
+    /** Voice activity against an adaptive noise floor, ignoring clicks and steady noise. */
+    public static final int TRANSMIT_ADAPTIVE_VOICE_ACTIVITY = 3;
 
     public static final int PROTOCOL_VERSION = (PROTOCOL_MAJOR << 16) | (PROTOCOL_MINOR << 8) | PROTOCOL_PATCH;
     public static final String PROTOCOL_STRING = PROTOCOL_MAJOR+ "." +PROTOCOL_MINOR+"."+PROTOCOL_PATCH;
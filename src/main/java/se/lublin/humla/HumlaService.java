@@ -35,14 +35,17 @@ import android.util.Log;
 
 import org.minidns.dnsserverlookup.android21.AndroidUsingLinkProperties;
 
+import java.io.File;
 import java.security.Security;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import se.lublin.humla.audio.AudioOutput;
 import se.lublin.humla.audio.BluetoothScoReceiver;
 import se.lublin.humla.audio.inputmode.ActivityInputMode;
+import se.lublin.humla.audio.inputmode.AdaptiveActivityInputMode;
 import se.lublin.humla.audio.inputmode.ContinuousInputMode;
 import se.lublin.humla.audio.inputmode.IInputMode;
 import se.lublin.humla.audio.inputmode.ToggleInputMode;
@@ -60,12 +63,15 @@ import se.lublin.humla.model.TalkState;
 import se.lublin.humla.model.User;
 import se.lublin.humla.model.WhisperTarget;
 import se.lublin.humla.model.WhisperTargetList;
+import se.lublin.humla.net.DatagramBuffer;
 import se.lublin.humla.net.HumlaConnection;
 import se.lublin.humla.net.HumlaTCPMessageType;
 import se.lublin.humla.net.HumlaUDPMessageType;
 import se.lublin.humla.protobuf.Mumble;
 import se.lublin.humla.protocol.AudioHandler;
+import se.lublin.humla.protocol.BlobRequestScheduler;
 import se.lublin.humla.protocol.ModelHandler;
+import se.lublin.humla.util.BlobCache;
 import se.lublin.humla.util.HumlaCallbacks;
 import se.lublin.humla.util.HumlaDisconnectedException;
 import se.lublin.humla.util.HumlaException;
@@ -118,7 +124,27 @@ public class HumlaService extends Service implements IHumlaService, IHumlaSessio
     /** A list of users that should be local ignored upon connection. */
     public static final String EXTRAS_LOCAL_IGNORE_HISTORY = "local_ignore_history";
     public static final String EXTRAS_ENABLE_PREPROCESSOR = "enable_preprocessor";
+    /**
+     * "system" for the platform's echo canceller, "speex" to cancel the echo of our own playback
+     * in software, or "none".
+     */
     public static final String EXTRAS_ECHO_CANCELLATION_METHOD = "echo_cancellation_method";
+    /** Whether to stop sending packets while the input is silent. Opus only. */
+    public static final String EXTRAS_DTX = "dtx";
+    /** The jitter buffer used for incoming speech, "speex" (the default) or "adaptive". */
+    public static final String EXTRAS_JITTER_BUFFER = "jitter_buffer";
+    /** How long to keep a speaker's decoder after they stop talking, in milliseconds. */
+    public static final String EXTRAS_SPEAKER_GRACE_PERIOD = "speaker_grace_period";
+    /**
+     * The frame duration in samples at 48kHz: 480 (10ms, the default), 240 or 120. Shorter frames
+     * lower latency, but need Opus. Unless {@link #EXTRAS_FRAMES_PER_PACKET} makes packets of at
+     * least 10ms, only other Humla clients will understand them.
+     */
+    public static final String EXTRAS_FRAME_SIZE = "frame_size";
+    /** The number of bytes of textures, comments and descriptions to keep in memory. */
+    public static final String EXTRAS_BLOB_CACHE_MEMORY_LIMIT = "blob_cache_memory_limit";
+    /** The number of bytes of textures, comments and descriptions to keep on disk. */
+    public static final String EXTRAS_BLOB_CACHE_DISK_LIMIT = "blob_cache_disk_limit";
 
     // Service settings
     private Server mServer;
@@ -137,6 +163,7 @@ public class HumlaService extends Service implements IHumlaService, IHumlaSessio
     private List<Integer> mLocalMuteHistory;
     private List<Integer> mLocalIgnoreHistory;
     private AudioHandler.Builder mAudioBuilder;
+    private BlobCache mBlobCache;
     private int mTransmitMode;
 
     private byte mVoiceTargetId;
@@ -149,10 +176,12 @@ public class HumlaService extends Service implements IHumlaService, IHumlaSessio
     private HumlaConnection mConnection;
     private ConnectionState mConnectionState;
     private ModelHandler mModelHandler;
+    private BlobRequestScheduler mBlobRequestScheduler;
     private AudioHandler mAudioHandler;
     private BluetoothScoReceiver mBluetoothReceiver;
 
     private ActivityInputMode mActivityInputMode;
+    private AdaptiveActivityInputMode mAdaptiveActivityInputMode;
     private ToggleInputMode mToggleInputMode;
     private ContinuousInputMode mContinuousInputMode;
 
@@ -185,9 +214,11 @@ public class HumlaService extends Service implements IHumlaService, IHumlaSessio
     private final AudioHandler.AudioEncodeListener mAudioInputListener =
             new AudioHandler.AudioEncodeListener() {
                 @Override
-                public void onAudioEncoded(byte[] data, int length) {
+                public void onAudioEncoded(DatagramBuffer datagram) {
                     if(mConnection != null && mConnection.isSynchronized()) {
-                        mConnection.sendUDPMessage(data, length, false);
+                        mConnection.sendUDPMessage(datagram, false);
+                    } else {
+                        datagram.release();
                     }
                 }
 
@@ -274,8 +305,15 @@ public class HumlaService extends Service implements IHumlaService, IHumlaSessio
         registerReceiver(mBluetoothReceiver, new IntentFilter(AudioManager.ACTION_SCO_AUDIO_STATE_UPDATED));
         mToggleInputMode = new ToggleInputMode();
         mActivityInputMode = new ActivityInputMode(0); // FIXME: reasonable default
+        mAdaptiveActivityInputMode = new AdaptiveActivityInputMode();
         mContinuousInputMode = new ContinuousInputMode();
         mWhisperTargetList = new WhisperTargetList();
+        mBlobCache = new BlobCache(new File(getCacheDir(), "blobs"), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mHandler.post(command);
+            }
+        });
 
         // initialize minidns dns lookup mechanisms
         AndroidUsingLinkProperties.setup(this);
@@ -289,6 +327,7 @@ public class HumlaService extends Service implements IHumlaService, IHumlaSessio
         } catch (IllegalArgumentException e) {
             Log.e(TAG, "Error unregistering bluetooth receiver: " + e.getMessage());
         }
+        mBlobCache.close();
     }
 
     public IBinder onBind(Intent intent) {
@@ -309,8 +348,9 @@ public class HumlaService extends Service implements IHumlaService, IHumlaSessio
             mConnection.setTrustStore(mTrustStore, mTrustStorePassword, mTrustStoreFormat);
 
             mModelHandler = new ModelHandler(this, mCallbacks, this,
-                    mLocalMuteHistory, mLocalIgnoreHistory);
-            mConnection.addTCPMessageHandlers(mModelHandler);
+                    mLocalMuteHistory, mLocalIgnoreHistory, mBlobCache);
+            mBlobRequestScheduler = new BlobRequestScheduler(mConnection, mHandler);
+            mConnection.addTCPMessageHandlers(mModelHandler, mBlobRequestScheduler);
 
             mConnectionState = ConnectionState.CONNECTING;
 
@@ -388,6 +428,7 @@ public class HumlaService extends Service implements IHumlaService, IHumlaSessio
                     mVoiceTargetId);
             mConnection.addTCPMessageHandlers(mAudioHandler);
             mConnection.addUDPMessageHandlers(mAudioHandler);
+            mAudioHandler.setConnection(mConnection);
         } catch (AudioException e) {
             e.printStackTrace();
             onConnectionWarning(e.getMessage());
@@ -424,7 +465,12 @@ public class HumlaService extends Service implements IHumlaService, IHumlaSessio
             mAudioHandler.shutdown();
         }
 
+        if (mBlobRequestScheduler != null) {
+            mBlobRequestScheduler.cancel();
+        }
+
         mModelHandler = null;
+        mBlobRequestScheduler = null;
         mAudioHandler = null;
         mVoiceTargetId = 0;
         mWhisperTargetList.clear();
@@ -494,6 +540,19 @@ public class HumlaService extends Service implements IHumlaService, IHumlaSessio
         }
     }
 
+    /**
+     * Applies the current audio settings to the audio handler in place. If that fails, the
+     * handler shuts itself down, and a new one is created with the same settings instead.
+     */
+    private void reconfigureAudioHandler() throws AudioException {
+        try {
+            mAudioHandler.reconfigure(mAudioBuilder);
+        } catch (AudioException e) {
+            Log.w(TAG, "Failed to reconfigure audio in place, recreating the audio handler", e);
+            createAudioHandler();
+        }
+    }
+
     /**
      * Instantiates an audio handler with the current service settings, destroying any previous
      * handler. Requires synchronization with the server, as the maximum bandwidth and session must
@@ -507,7 +566,8 @@ public class HumlaService extends Service implements IHumlaService, IHumlaSessio
         if (mAudioHandler != null) {
             mConnection.removeTCPMessageHandler(mAudioHandler);
             mConnection.removeUDPMessageHandler(mAudioHandler);
-            mAudioHandler.shutdown();
+            if (mAudioHandler.isInitialized())
+                mAudioHandler.shutdown();
         }
 
         try {
@@ -517,6 +577,7 @@ public class HumlaService extends Service implements IHumlaService, IHumlaSessio
                     mVoiceTargetId);
             mConnection.addTCPMessageHandlers(mAudioHandler);
             mConnection.addUDPMessageHandlers(mAudioHandler);
+            mAudioHandler.setConnection(mConnection);
         } catch (NotSynchronizedException e) {
             throw new RuntimeException("Attempted to create audio handler when not synchronized!");
         }
@@ -551,6 +612,7 @@ public class HumlaService extends Service implements IHumlaService, IHumlaSessio
         }
         if (extras.containsKey(EXTRAS_DETECTION_THRESHOLD)) {
             mActivityInputMode.setThreshold(extras.getFloat(EXTRAS_DETECTION_THRESHOLD));
+            mAdaptiveActivityInputMode.setThreshold(extras.getFloat(EXTRAS_DETECTION_THRESHOLD));
         }
         if (extras.containsKey(EXTRAS_AMPLITUDE_BOOST)) {
             mAudioBuilder.setAmplitudeBoost(extras.getFloat(EXTRAS_AMPLITUDE_BOOST));
@@ -568,6 +630,9 @@ public class HumlaService extends Service implements IHumlaService, IHumlaSessio
                 case Constants.TRANSMIT_VOICE_ACTIVITY:
                     inputMode = mActivityInputMode;
                     break;
+                case Constants.TRANSMIT_ADAPTIVE_VOICE_ACTIVITY:
+                    inputMode = mAdaptiveActivityInputMode;
+                    break;
                 default:
                     throw new IllegalArgumentException();
             }
@@ -636,17 +701,35 @@ public class HumlaService extends Service implements IHumlaService, IHumlaSessio
             mLocalIgnoreHistory = extras.getIntegerArrayList(EXTRAS_LOCAL_IGNORE_HISTORY);
             reconnectNeeded = true;
         }
+        if (extras.containsKey(EXTRAS_BLOB_CACHE_MEMORY_LIMIT)
+                || extras.containsKey(EXTRAS_BLOB_CACHE_DISK_LIMIT)) {
+            mBlobCache.setLimits(
+                    extras.getInt(EXTRAS_BLOB_CACHE_MEMORY_LIMIT, mBlobCache.getMemoryLimit()),
+                    extras.getLong(EXTRAS_BLOB_CACHE_DISK_LIMIT, mBlobCache.getDiskLimit()));
+        }
         if (extras.containsKey(EXTRAS_ENABLE_PREPROCESSOR)) {
             mAudioBuilder.setPreprocessorEnabled(extras.getBoolean(EXTRAS_ENABLE_PREPROCESSOR));
         }
         if (extras.containsKey(EXTRAS_ECHO_CANCELLATION_METHOD)) {
             mAudioBuilder.setEchoCancellationMethod(extras.getString(EXTRAS_ECHO_CANCELLATION_METHOD));
         }
+        if (extras.containsKey(EXTRAS_DTX)) {
+            mAudioBuilder.setDtxEnabled(extras.getBoolean(EXTRAS_DTX));
+        }
+        if (extras.containsKey(EXTRAS_JITTER_BUFFER)) {
+            mAudioBuilder.setJitterBuffer(extras.getString(EXTRAS_JITTER_BUFFER));
+        }
+        if (extras.containsKey(EXTRAS_SPEAKER_GRACE_PERIOD)) {
+            mAudioBuilder.setSpeakerGracePeriod(extras.getInt(EXTRAS_SPEAKER_GRACE_PERIOD));
+        }
+        if (extras.containsKey(EXTRAS_FRAME_SIZE)) {
+            mAudioBuilder.setFrameSize(extras.getInt(EXTRAS_FRAME_SIZE));
+        }
 
-        // Reload audio subsystem if initialized
+        // Apply to the audio subsystem in place if initialized
         if (mAudioHandler != null && mAudioHandler.isInitialized()) {
-            createAudioHandler();
-            Log.i(TAG, "Audio subsystem reloaded after settings change.");
+            reconfigureAudioHandler();
+            Log.i(TAG, "Audio subsystem reconfigured after settings change.");
         }
         return reconnectNeeded;
     }
@@ -657,7 +740,7 @@ public class HumlaService extends Service implements IHumlaService, IHumlaSessio
         mAudioBuilder.setBluetoothEnabled(true);
         if (mAudioHandler != null) {
             try {
-                createAudioHandler();
+                reconfigureAudioHandler();
             } catch (AudioException e) {
                 e.printStackTrace();
             }
@@ -670,7 +753,7 @@ public class HumlaService extends Service implements IHumlaService, IHumlaSessio
         mAudioBuilder.setBluetoothEnabled(false);
         if (mAudioHandler != null) {
             try {
-                createAudioHandler();
+                reconfigureAudioHandler();
             } catch (AudioException e) {
                 e.printStackTrace();
             }
@@ -985,24 +1068,42 @@ public class HumlaService extends Service implements IHumlaService, IHumlaSessio
     }
 
     @Override
-    public void requestComment(int session) {
-        Mumble.RequestBlob.Builder rbb = Mumble.RequestBlob.newBuilder();
-        rbb.addSessionComment(session);
-        getConnection().sendTCPMessage(rbb.build(), HumlaTCPMessageType.RequestBlob);
+    public void requestComment(final int session) {
+        Runnable request = new Runnable() {
+            @Override
+            public void run() {
+                if (mBlobRequestScheduler != null)
+                    mBlobRequestScheduler.request(BlobRequestScheduler.BlobType.COMMENT, session);
+            }
+        };
+        if (mModelHandler == null || !mModelHandler.loadCachedComment(session, request))
+            request.run();
     }
 
     @Override
-    public void requestAvatar(int session) {
-        Mumble.RequestBlob.Builder rbb = Mumble.RequestBlob.newBuilder();
-        rbb.addSessionTexture(session);
-        getConnection().sendTCPMessage(rbb.build(), HumlaTCPMessageType.RequestBlob);
+    public void requestAvatar(final int session) {
+        Runnable request = new Runnable() {
+            @Override
+            public void run() {
+                if (mBlobRequestScheduler != null)
+                    mBlobRequestScheduler.request(BlobRequestScheduler.BlobType.TEXTURE, session);
+            }
+        };
+        if (mModelHandler == null || !mModelHandler.loadCachedTexture(session, request))
+            request.run();
     }
 
     @Override
-    public void requestChannelDescription(int channel) {
-        Mumble.RequestBlob.Builder rbb = Mumble.RequestBlob.newBuilder();
-        rbb.addChannelDescription(channel);
-        getConnection().sendTCPMessage(rbb.build(), HumlaTCPMessageType.RequestBlob);
+    public void requestChannelDescription(final int channel) {
+        Runnable request = new Runnable() {
+            @Override
+            public void run() {
+                if (mBlobRequestScheduler != null)
+                    mBlobRequestScheduler.request(BlobRequestScheduler.BlobType.DESCRIPTION, channel);
+            }
+        };
+        if (mModelHandler == null || !mModelHandler.loadCachedDescription(channel, request))
+            request.run();
     }
 
     @Override
@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.audio;
+
+import android.os.SystemClock;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A pure Java adaptive jitter buffer.
+ *
+ * Packets are held in a ring of slots indexed by frame sequence number, using primitive arrays
+ * only. The playback delay adapts to the network: for each packet we record how long after its
+ * nominal stream time it arrived, and aim for a delay that covers the 95th percentile of that
+ * lateness over recent packets. Delay is grown by holding back playback for a frame, and shrunk by
+ * skipping a frame while the buffer runs persistently deeper than needed.
+ *
+ * Compared to {@link SpeexJitterBuffer}, taking a frame costs no JNI crossings, and all statistics
+ * are observable through {@link #getStats()}.
+ */
+public class AdaptiveJitterBuffer implements IJitterBuffer {
+    /** Supplies the arrival time of packets, in samples. */
+    public interface Clock {
+        long now();
+    }
+
+    /** Number of packet slots. Must be a power of two; covers 640ms of 10ms frames. */
+    private static final int SLOTS = 64;
+    /** The target delay before any packets have been seen, in frames. */
+    private static final int INITIAL_DELAY_FRAMES = 2;
+    /** Number of recent packets the delay estimate is based on. */
+    private static final int HISTORY = 128;
+    private static final int PERCENTILE = 95;
+    /** How many packets to wait for before recomputing the target delay. */
+    private static final int ESTIMATE_INTERVAL = 8;
+    /** How many consecutive frames the buffer must run too deep before a frame is skipped. */
+    private static final int SHRINK_PATIENCE = 50;
+    /** The minimum number of frames between two inserted frames. */
+    private static final int GROW_INTERVAL = 10;
+    /** How many frames we wait for the target depth before starting playback regardless. */
+    private static final int MAX_PREFILL_WAIT = 20;
+    /** How far back to look for a packet overlapping the playback position, in frames. */
+    private static final int MAX_SPAN_FRAMES = 12;
+
+    private final int mFrameSize;
+    private final Clock mClock;
+    private final int mMaxDelay;
+
+    private final byte[][] mData = new byte[SLOTS][];
+    private final int[] mLength = new int[SLOTS];
+    private final int[] mTimestamp = new int[SLOTS];
+    private final int[] mSpan = new int[SLOTS];
+    private final int[] mUserDataSlots = new int[SLOTS];
+    private final boolean[] mOccupied = new boolean[SLOTS];
+    private int mCount;
+    /** The end of the newest packet received, in stream time. */
+    private int mNewestEnd;
+
+    private boolean mStarted;
+    private int mPointer;
+    private int mUserData;
+    private int mPrefillWait;
+    private int mDeepFrames;
+    private int mFramesSinceGrow;
+
+    private final long[] mLateness = new long[HISTORY];
+    private final long[] mSorted = new long[HISTORY];
+    private int mLatenessCount;
+    private int mLatenessIndex;
+    private int mSinceEstimate;
+    private int mTargetDelay;
+    private int mJitter;
+
+    private int mReceived;
+    private int mPlayed;
+    private int mLost;
+    private int mLate;
+    private int mDuplicates;
+    private int mDropped;
+    private int mInsertions;
+
+    /**
+     * Creates a jitter buffer timed by the system's uptime clock.
+     * @param frameSize The number of samples in a frame.
+     * @param sampleRate The sample rate of the stream, used to convert arrival times.
+     */
+    public AdaptiveJitterBuffer(int frameSize, final int sampleRate) {
+        this(frameSize, new Clock() {
+            @Override
+            public long now() {
+                return SystemClock.elapsedRealtimeNanos() / (1000000000L / sampleRate);
+            }
+        });
+    }
+
+    /**
+     * @param frameSize The number of samples in a frame.
+     * @param clock The clock measuring packet arrival, in samples.
+     */
+    public AdaptiveJitterBuffer(int frameSize, Clock clock) {
+        mFrameSize = frameSize;
+        mClock = clock;
+        mMaxDelay = (SLOTS / 2) * frameSize;
+        mTargetDelay = INITIAL_DELAY_FRAMES * frameSize;
+    }
+
+    private static int slot(int sequence) {
+        return sequence & (SLOTS - 1);
+    }
+
+    private int sequence(int timestamp) {
+        return timestamp / mFrameSize;
+    }
+
+    @Override
+    public synchronized void put(byte[] data, int length, int timestamp, int span, int userData) {
+        mReceived++;
+        if (span <= 0)
+            span = mFrameSize;
+        if (mStarted && timestamp + span <= mPointer) {
+            mLate++;
+            recordLateness(timestamp);
+            return;
+        }
+
+        int slot = slot(sequence(timestamp));
+        if (mOccupied[slot]) {
+            if (mTimestamp[slot] == timestamp) {
+                mDuplicates++;
+                return;
+            }
+            // The slot holds a packet a full ring away. Keep whichever is due sooner.
+            if (mTimestamp[slot] < timestamp && (!mStarted || mTimestamp[slot] + mSpan[slot] > mPointer)) {
+                mDropped++;
+                return;
+            }
+            remove(slot);
+            mDropped++;
+        }
+
+        byte[] buffer = mData[slot];
+        if (buffer == null || buffer.length < length) {
+            // Slots only grow until they fit the largest packet seen; steady state is allocation-free.
+            buffer = new byte[Math.max(length, 256)];
+            mData[slot] = buffer;
+        }
+        System.arraycopy(data, 0, buffer, 0, length);
+        mLength[slot] = length;
+        mTimestamp[slot] = timestamp;
+        mSpan[slot] = span;
+        mUserDataSlots[slot] = userData;
+        mOccupied[slot] = true;
+        mCount++;
+        if (mCount == 1 || timestamp + span > mNewestEnd)
+            mNewestEnd = timestamp + span;
+
+        recordLateness(timestamp);
+    }
+
+    private void remove(int slot) {
+        mOccupied[slot] = false;
+        mCount--;
+    }
+
+    private void recordLateness(int timestamp) {
+        mLateness[mLatenessIndex] = mClock.now() - timestamp;
+        mLatenessIndex = (mLatenessIndex + 1) % HISTORY;
+        if (mLatenessCount < HISTORY)
+            mLatenessCount++;
+        if (++mSinceEstimate >= ESTIMATE_INTERVAL) {
+            mSinceEstimate = 0;
+            estimateDelay();
+        }
+    }
+
+    /**
+     * Sets the target delay to cover the chosen percentile of arrival lateness, relative to the
+     * earliest arrival in the window.
+     */
+    private void estimateDelay() {
+        int count = mLatenessCount;
+        System.arraycopy(mLateness, 0, mSorted, 0, count);
+        Arrays.sort(mSorted, 0, count);
+        long min = mSorted[0];
+        long percentile = mSorted[Math.min(count - 1, (count * PERCENTILE) / 100)];
+        mJitter = (int) Math.min(Integer.MAX_VALUE, percentile - min);
+        // Round up to whole frames, plus one frame of headroom for scheduling.
+        int frames = (mJitter + mFrameSize - 1) / mFrameSize + 1;
+        mTargetDelay = Math.max(mFrameSize, Math.min(mMaxDelay, frames * mFrameSize));
+    }
+
+    /**
+     * Finds the buffered packet covering the playback position, discarding any that ended before
+     * it. Returns the slot, or -1.
+     */
+    private int findDue() {
+        int sequence = sequence(mPointer);
+        int found = -1;
+        for (int i = MAX_SPAN_FRAMES; i >= 0; i--) {
+            int slot = slot(sequence - i);
+            if (!mOccupied[slot])
+                continue;
+            int start = mTimestamp[slot];
+            int end = start + mSpan[slot];
+            if (end <= mPointer) {
+                // Passed while we waited for it; arrived too late to matter.
+                remove(slot);
+                mLate++;
+            } else if (start <= mPointer + mFrameSize - 1 && end > mPointer && found == -1) {
+                found = slot;
+            }
+        }
+        return found;
+    }
+
+    private int oldestTimestamp() {
+        int oldest = 0;
+        boolean any = false;
+        for (int i = 0; i < SLOTS; i++) {
+            if (mOccupied[i] && (!any || mTimestamp[i] < oldest)) {
+                oldest = mTimestamp[i];
+                any = true;
+            }
+        }
+        return oldest;
+    }
+
+    @Override
+    public synchronized int get(ByteBuffer dst) {
+        if (!mStarted) {
+            if (mCount == 0)
+                return MISSING;
+            int oldest = oldestTimestamp();
+            if (mNewestEnd - oldest < mTargetDelay && mPrefillWait++ < MAX_PREFILL_WAIT)
+                return MISSING;
+            mStarted = true;
+            mPointer = oldest;
+        }
+
+        int depth = mNewestEnd - mPointer;
+        mFramesSinceGrow++;
+        if (mCount > 0 && depth < mTargetDelay - mFrameSize && mFramesSinceGrow >= GROW_INTERVAL) {
+            // Hold playback back one frame; the decoder conceals it.
+            mFramesSinceGrow = 0;
+            mInsertions++;
+            return INSERTION;
+        }
+
+        int slot = findDue();
+        if (slot != -1 && depth > mTargetDelay + 2 * mFrameSize) {
+            if (++mDeepFrames >= SHRINK_PATIENCE) {
+                // Consistently deeper than needed; skip this packet to cut latency.
+                mDeepFrames = 0;
+                mPointer = mTimestamp[slot] + mSpan[slot];
+                remove(slot);
+                mDropped++;
+                slot = findDue();
+            }
+        } else {
+            mDeepFrames = 0;
+        }
+
+        if (slot == -1) {
+            if (mCount == 0) {
+                // Nothing to play; the speaker paused or the network stalled. Late packets will
+                // show up in the late count.
+                mPointer += mFrameSize;
+                return MISSING;
+            }
+            int oldest = oldestTimestamp();
+            if (oldest - mPointer > mMaxDelay) {
+                // The stream jumped far ahead of us; resynchronise rather than count it as loss.
+                mPointer = oldest;
+                return MISSING;
+            }
+            mLost++;
+            mPointer += mFrameSize;
+            return MISSING;
+        }
+
+        int length = mLength[slot];
+        dst.clear();
+        dst.put(mData[slot], 0, length);
+        dst.flip();
+        mUserData = mUserDataSlots[slot];
+        mPointer = mTimestamp[slot] + mSpan[slot];
+        remove(slot);
+        mPlayed++;
+        return length;
+    }
+
+    @Override
+    public synchronized int peek(int timestamp, ByteBuffer dst) {
+        int slot = slot(sequence(timestamp));
+        if (!mOccupied[slot] || mTimestamp[slot] != timestamp)
+            return -1;
+        int length = mLength[slot];
+        dst.clear();
+        dst.put(mData[slot], 0, length);
+        dst.flip();
+        return length;
+    }
+
+    @Override
+    public synchronized int getUserData() {
+        return mUserData;
+    }
+
+    @Override
+    public synchronized int getPointerTimestamp() {
+        return mStarted ? mPointer : 0;
+    }
+
+    @Override
+    public synchronized int getAvailableCount() {
+        return mCount;
+    }
+
+    @Override
+    public synchronized int getDepth() {
+        return mCount > 0 ? Math.max(0, mNewestEnd - (mStarted ? mPointer : oldestTimestamp())) : 0;
+    }
+
+    @Override
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    @Override
+    public synchronized int getTargetDelay() {
+        return mTargetDelay;
+    }
+
+    @Override
+    public void updateDelay() {
+        // The target delay is re-estimated continuously as packets arrive.
+    }
+
+    @Override
+    public void tick() {
+        // Time is measured by the arrival clock and the playback pointer.
+    }
+
+    @Override
+    public synchronized void restart() {
+        Arrays.fill(mOccupied, false);
+        mCount = 0;
+        mNewestEnd = 0;
+        mStarted = false;
+        mPointer = 0;
+        mUserData = 0;
+        mPrefillWait = 0;
+        mDeepFrames = 0;
+        mFramesSinceGrow = 0;
+        // Arrival offsets are relative to the sender's clock, which may have jumped since the last
+        // talk spurt. Start a new window, but keep the current target until it is re-estimated.
+        mLatenessCount = 0;
+        mLatenessIndex = 0;
+        mSinceEstimate = 0;
+    }
+
+    @Override
+    public synchronized void reset() {
+        restart();
+        mTargetDelay = INITIAL_DELAY_FRAMES * mFrameSize;
+        mJitter = 0;
+        mReceived = 0;
+        mPlayed = 0;
+        mLost = 0;
+        mLate = 0;
+        mDuplicates = 0;
+        mDropped = 0;
+        mInsertions = 0;
+    }
+
+    @Override
+    public synchronized JitterBufferStats getStats() {
+        return new JitterBufferStats(mReceived, mPlayed, mLost, mLate, mDuplicates, mDropped,
+                mInsertions, mCount, mTargetDelay, getDepth(), mJitter);
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.audio;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Decodes speech ahead of playback on a dedicated thread.
+ *
+ * Speakers are scheduled when a packet arrives, or when playback drains their PCM buffer below the
+ * decode-ahead watermark. The decode thread then tops up the speaker's buffer, so the playback
+ * thread only ever copies out ready samples and mixes them.
+ *
+ * All decoder state of an {@link AudioOutputSpeech} is confined to this thread, including its
+ * destruction once retired.
+ */
+class AudioDecodeScheduler implements Runnable {
+    private static final String TAG = AudioDecodeScheduler.class.getName();
+
+    interface DecodeListener {
+        /**
+         * Called on the decode thread after new samples were made available for playback.
+         */
+        void onSamplesDecoded();
+    }
+
+    private final BlockingQueue<AudioOutputSpeech> mQueue;
+    private final DecodeListener mListener;
+    /** Decoder output scratch, shared by all speakers since they are decoded one at a time. */
+    private final float[] mScratch = new float[AudioOutputSpeech.MAX_DECODE_SAMPLES];
+    private Thread mThread;
+    private volatile boolean mRunning;
+    /** Total time spent decoding. Only modified by the decode thread. */
+    private volatile long mBusyNanos;
+
+    AudioDecodeScheduler(DecodeListener listener) {
+        mQueue = new LinkedBlockingQueue<>();
+        mListener = listener;
+    }
+
+    void start() {
+        if (mThread != null)
+            return;
+        mRunning = true;
+        mThread = new Thread(this, "HumlaDecode");
+        mThread.start();
+    }
+
+    /**
+     * Stops the decode thread, destroying any speakers that were retired but not yet cleaned up.
+     * Speakers still in use must be destroyed by the caller afterwards.
+     */
+    void stop() {
+        if (mThread == null)
+            return;
+        mRunning = false;
+        mThread.interrupt();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        mThread = null;
+        AudioOutputSpeech speech;
+        while ((speech = mQueue.poll()) != null) {
+            speech.clearScheduled();
+            if (speech.isRetired())
+                speech.destroy();
+        }
+    }
+
+    /**
+     * @return the total time the decode thread has spent decoding, in nanoseconds.
+     */
+    long getBusyNanos() {
+        return mBusyNanos;
+    }
+
+    /**
+     * Requests that the given speaker's PCM buffer be topped up. Has no effect if the speaker is
+     * already scheduled. May be called from any thread.
+     */
+    void schedule(AudioOutputSpeech speech) {
+        if (speech.markScheduled())
+            mQueue.offer(speech);
+    }
+
+    /**
+     * Marks the speaker as no longer in use. Its native resources are freed on the decode thread.
+     * The speaker must already have been removed from playback.
+     */
+    void retire(AudioOutputSpeech speech) {
+        speech.setRetired();
+        if (speech.markScheduled())
+            mQueue.offer(speech);
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+        while (mRunning) {
+            AudioOutputSpeech speech;
+            try {
+                speech = mQueue.take();
+            } catch (InterruptedException e) {
+                continue; // Re-check whether we're still running.
+            }
+            speech.clearScheduled();
+            if (speech.isRetired()) {
+                speech.destroy();
+                continue;
+            }
+            long start = System.nanoTime();
+            int decoded = 0;
+            try {
+                decoded = speech.decodeAhead(mScratch);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to decode audio for session " + speech.getSession(), e);
+            }
+            mBusyNanos += System.nanoTime() - start;
+            if (decoded > 0)
+                mListener.onSamplesDecoded();
+        }
+    }
+}
@@ -19,20 +19,38 @@ package se.lublin.humla.audio;
 
 import android.media.AudioFormat;
 import android.media.AudioRecord;
+import android.media.AudioTimestamp;
 import android.media.audiofx.AcousticEchoCanceler;
+import android.os.Build;
 import android.util.Log;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
 import se.lublin.humla.exception.AudioInitializationException;
 import se.lublin.humla.exception.NativeAudioException;
 import se.lublin.humla.protocol.AudioHandler;
 
 /**
+ * Captures audio on one thread and hands it to the listener on another, through a preallocated
+ * {@link CaptureRing}. The capture thread only ever reads from the {@link AudioRecord} and copies
+ * frames into the ring, so encoder swaps or garbage collection pauses on the encode thread cannot
+ * overrun the hardware buffer.
+ *
+ * After sustained silence the listener may put capture to idle with {@link #enterIdle()}. The
+ * capture thread then only checks raw frames for an onset with an {@link IdleGate}, keeping the
+ * most recent ones, and the encode thread sleeps. On an onset the kept frames are handed over
+ * ahead of the current one, so that the start of the first word is not lost.
  * Created by andrew on 23/08/13.
  */
 public class AudioInput implements Runnable {
     private static final String TAG = AudioInput.class.getName();
 
     public static final int[] SAMPLE_RATES = {48000, 44100, 16000, 8000};
+    /** How far the encode thread may fall behind, in milliseconds. */
+    private static final int CAPTURE_RING_MS = 320;
+    /** How much audio before an onset is kept while idle, in nanoseconds. */
+    private static final long LOOK_BACK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
 
     // AudioRecord state
     private AudioInputListener mListener;
@@ -41,12 +59,48 @@ public class AudioInput implements Runnable {
     private AcousticEchoCanceler aec;
     private final int mFrameSize;
 
+    private final CaptureRing mCaptureRing;
+    /** The frames captured just before now while idle. Only touched by the capture thread. */
+    private final CaptureRing mLookBack;
+    private final int mLookBackFrames;
+    private final IdleGate mIdleGate;
+    /** How long the hardware buffer lasts, in nanoseconds. */
+    private final long mHardwareBufferNanos;
+    /** The duration of one frame. */
+    private final long mFrameNanos;
+
     private Thread mRecordThread;
-    private boolean mRecording;
+    private Thread mEncodeThread;
+    private volatile boolean mRecording;
+    /** Set while the listener waits for input, e.g. for push-to-talk. */
+    private volatile boolean mEncoderIdle;
+    /** Set by the capture thread when it discarded frames because the encoder was idle. */
+    private volatile boolean mIdleDiscarded;
+    /** Set while capture waits for an onset before waking the encode thread. */
+    private volatile boolean mIdle;
+    /** Frames only checked for an onset. Only written by capture. */
+    private volatile long mIdleFrames;
+    /** Time spent checking frames for an onset. Only written by capture. */
+    private volatile long mIdleGateNanos;
+    /** Reads that came too late to have kept the hardware buffer from overflowing. */
+    private volatile int mCaptureOverruns;
 
     public AudioInput(AudioInputListener listener, int audioSource, int targetSampleRate,
                       String echoCancellationMethod)
             throws NativeAudioException, AudioInitializationException {
+        this(listener, audioSource, targetSampleRate, echoCancellationMethod,
+                AudioHandler.FRAME_SIZE);
+    }
+
+    /**
+     * @param frameSize The frame duration, as a number of samples at
+     *                  {@link AudioHandler#SAMPLE_RATE}. Frames that would not be a whole number
+     *                  of samples at the rate recorded at fall back to
+     *                  {@link AudioHandler#FRAME_SIZE}.
+     */
+    public AudioInput(AudioInputListener listener, int audioSource, int targetSampleRate,
+                      String echoCancellationMethod, int frameSize)
+            throws NativeAudioException, AudioInitializationException {
         mListener = listener;
         this.mEchoCancellationMethod = echoCancellationMethod;
 
@@ -72,8 +126,22 @@ public class AudioInput implements Runnable {
         }
 
         int sampleRate = getSampleRate();
+        if ((sampleRate * frameSize) % AudioHandler.SAMPLE_RATE != 0) {
+            Log.w(TAG, frameSize + " sample frames do not fit " + sampleRate + "Hz, using "
+                    + AudioHandler.FRAME_SIZE);
+            frameSize = AudioHandler.FRAME_SIZE;
+        }
         // FIXME: does not work properly if 10ms frames cannot be represented as integers
-        mFrameSize = (sampleRate * AudioHandler.FRAME_SIZE) / AudioHandler.SAMPLE_RATE;
+        mFrameSize = (sampleRate * frameSize) / AudioHandler.SAMPLE_RATE;
+        mCaptureRing = new CaptureRing(mFrameSize,
+                CAPTURE_RING_MS * AudioHandler.SAMPLE_RATE / 1000 / frameSize);
+        int bufferSamples = AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_MONO,
+                AudioFormat.ENCODING_PCM_16BIT) / 2;
+        mHardwareBufferNanos = TimeUnit.SECONDS.toNanos(bufferSamples) / sampleRate;
+        mFrameNanos = TimeUnit.SECONDS.toNanos(mFrameSize) / sampleRate;
+        mLookBackFrames = (int) ((LOOK_BACK_NANOS + mFrameNanos - 1) / mFrameNanos);
+        mLookBack = new CaptureRing(mFrameSize, mLookBackFrames);
+        mIdleGate = new IdleGate((int) (TimeUnit.SECONDS.toNanos(1) / mFrameNanos));
     }
 
     private static AudioRecord setupAudioRecord(int sampleRate, int audioSource) throws AudioInitializationException {
@@ -114,6 +182,8 @@ public class AudioInput implements Runnable {
             }
             aec.setEnabled(true);
             return true;
+        } else if (mEchoCancellationMethod.equals("speex")) {
+            Log.i(TAG, "echo cancellation done in software, on the playback mix");
         } else if (mEchoCancellationMethod.equals("none")) {
             Log.w(TAG, "echocancellation not enabled by user");
         } else {
@@ -123,17 +193,23 @@ public class AudioInput implements Runnable {
     }
 
     /**
-     * Starts the recording thread.
+     * Starts the recording and encode threads.
      * Not thread-safe.
      */
     public void startRecording() {
         mRecording = true;
-        mRecordThread = new Thread(this);
+        mEncoderIdle = false;
+        mIdleDiscarded = false;
+        mIdle = false;
+        mCaptureRing.clear();
+        mEncodeThread = new Thread(mEncodeRunnable, "HumlaEncode");
+        mEncodeThread.start();
+        mRecordThread = new Thread(this, "HumlaCapture");
         mRecordThread.start();
     }
 
     /**
-     * Stops the record loop after the current iteration, joining it.
+     * Stops the record and encode loops after their current iteration, joining them.
      * Not thread-safe.
      */
     public void stopRecording() {
@@ -143,9 +219,71 @@ public class AudioInput implements Runnable {
             mRecordThread.interrupt();
             mRecordThread.join();
             mRecordThread = null;
+            // Also wakes the encoder from waiting for input.
+            mEncodeThread.interrupt();
+            mEncodeThread.join();
+            mEncodeThread = null;
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
+        Log.i(TAG, "Dropped " + getDroppedFrames() + " frame(s), " + mCaptureOverruns
+                + " capture overrun(s), idled through " + mIdleFrames + " frame(s) at "
+                + getIdleGateNanos() + "ns each");
+    }
+
+    /**
+     * Marks the listener as deliberately not consuming audio, such as while waiting for
+     * push-to-talk. Frames captured meanwhile are discarded without counting as dropped.
+     * Must only be called from the listener.
+     */
+    public void setEncoderIdle(boolean idle) {
+        mEncoderIdle = idle;
+        if (!idle && mIdleDiscarded) {
+            // There is a gap after whatever queued up before the wait, which is stale now.
+            mIdleDiscarded = false;
+            mCaptureRing.clear();
+            // Having waited, the listener wants every frame, not just those after an onset.
+            mIdle = false;
+        }
+    }
+
+    /**
+     * Stops handing frames to the listener until the capture thread hears an onset. Meant for
+     * sustained silence in voice activation, where processing every frame finds nothing to send.
+     * Must only be called from the listener.
+     */
+    public void enterIdle() {
+        mIdle = true;
+    }
+
+    /**
+     * @return the number of frames only checked for an onset, rather than handed to the listener.
+     */
+    public long getIdleFrames() {
+        return mIdleFrames;
+    }
+
+    /**
+     * @return the mean time taken to check an idle frame for an onset, in nanoseconds.
+     */
+    public long getIdleGateNanos() {
+        long frames = mIdleFrames;
+        return frames > 0 ? mIdleGateNanos / frames : 0;
+    }
+
+    /**
+     * @return the number of captured frames discarded because encoding fell behind.
+     */
+    public int getDroppedFrames() {
+        return mCaptureRing.getDropped();
+    }
+
+    /**
+     * @return the number of times the capture thread was late enough for the hardware buffer to
+     *         have overflowed.
+     */
+    public int getCaptureOverruns() {
+        return mCaptureOverruns;
     }
 
     /**
@@ -183,6 +321,13 @@ public class AudioInput implements Runnable {
         return mFrameSize;
     }
 
+    /**
+     * @return the number of samples in a frame once resampled to {@link AudioHandler#SAMPLE_RATE}.
+     */
+    public int getOutputFrameSize() {
+        return mFrameSize * AudioHandler.SAMPLE_RATE / getSampleRate();
+    }
+
     @Override
     public void run() {
         android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_URGENT_AUDIO);
@@ -195,11 +340,52 @@ public class AudioInput implements Runnable {
             return;
 
         final short[] mAudioBuffer = new short[mFrameSize];
+        final short[] lookBackFrame = new short[mFrameSize];
+        final Thread encodeThread = mEncodeThread;
+        // Capture timestamps are only available from Nougat.
+        final AudioTimestamp timestamp =
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? new AudioTimestamp() : null;
+        long framesRead = 0;
+        long lastRead = 0;
+        boolean idling = false;
         // We loop when the 'recording' instance var is true instead of checking audio record state because we want to always cleanly shutdown.
         while(mRecording) {
+            long start = System.nanoTime();
+            if (lastRead != 0 && start - lastRead > mHardwareBufferNanos)
+                mCaptureOverruns++;
             int shortsRead = mAudioRecord.read(mAudioBuffer, 0, mFrameSize);
+            lastRead = System.nanoTime();
             if(shortsRead > 0) {
-                mListener.onAudioInputReceived(mAudioBuffer, mFrameSize);
+                long captureTime = getCaptureTime(timestamp, framesRead, lastRead);
+                framesRead += shortsRead;
+                if (mEncoderIdle) {
+                    mIdleDiscarded = true;
+                    continue;
+                }
+                if (mIdle) {
+                    if (!idling) {
+                        idling = true;
+                        mIdleGate.reset();
+                        mLookBack.clear();
+                    }
+                    long gateStart = System.nanoTime();
+                    boolean onset = mIdleGate.isOnset(mAudioBuffer, shortsRead);
+                    mIdleGateNanos += System.nanoTime() - gateStart;
+                    mIdleFrames++;
+                    if (!onset) {
+                        if (mLookBack.available() >= mLookBackFrames)
+                            mLookBack.poll(lookBackFrame);
+                        mLookBack.offer(mAudioBuffer, captureTime);
+                        continue;
+                    }
+                    mIdle = false;
+                    // Hand over the moments before the onset, so the first syllable is kept.
+                    while (mLookBack.poll(lookBackFrame))
+                        mCaptureRing.offer(lookBackFrame, mLookBack.getPolledTime());
+                }
+                idling = false;
+                if (mCaptureRing.offer(mAudioBuffer, captureTime))
+                    LockSupport.unpark(encodeThread);
             } else {
                 Log.e(TAG, "Error fetching audio! AudioRecord error " + shortsRead);
             }
@@ -210,7 +396,47 @@ public class AudioInput implements Runnable {
         Log.i(TAG, "stopped");
     }
 
+    /**
+     * Works out when the first sample of a frame was captured, in {@link System#nanoTime()} time.
+     * @param timestamp Reused for the recorder's own timestamp, if supported.
+     * @param framePosition The number of frames read before this one.
+     * @param readTime When the read of the frame returned.
+     */
+    private long getCaptureTime(AudioTimestamp timestamp, long framePosition, long readTime) {
+        if (timestamp != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                && mAudioRecord.getTimestamp(timestamp, AudioTimestamp.TIMEBASE_MONOTONIC)
+                        == AudioRecord.SUCCESS) {
+            return timestamp.nanoTime + (framePosition - timestamp.framePosition)
+                    * TimeUnit.SECONDS.toNanos(1) / mAudioRecord.getSampleRate();
+        }
+        // Otherwise, the read returned as soon as the last sample was in.
+        return readTime - mFrameNanos;
+    }
+
+    /**
+     * Passes captured frames to the listener, on a thread of its own.
+     */
+    private final Runnable mEncodeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_AUDIO);
+            final short[] frame = new short[mFrameSize];
+            while (mRecording) {
+                if (!mCaptureRing.poll(frame)) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                mListener.onAudioInputReceived(frame, mFrameSize,
+                        mCaptureRing.getPolledTime());
+            }
+        }
+    };
+
     public interface AudioInputListener {
-        void onAudioInputReceived(short[] frame, int frameSize);
+        /**
+         * Called on the encode thread for each captured frame. The frame may be modified.
+         * @param captureTime The {@link System#nanoTime()} at which its first sample was captured.
+         */
+        void onAudioInputReceived(short[] frame, int frameSize, long captureTime);
     }
 }
@@ -17,24 +17,23 @@
 
 package se.lublin.humla.audio;
 
+import android.media.AudioAttributes;
 import android.media.AudioFormat;
 import android.media.AudioTrack;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import se.lublin.humla.exception.AudioInitializationException;
 import se.lublin.humla.exception.NativeAudioException;
@@ -45,61 +44,198 @@ import se.lublin.humla.net.PacketBuffer;
 import se.lublin.humla.protocol.AudioHandler;
 
 /**
+ * Plays back and mixes the speech of other users.
+ * Decoding happens ahead of time on an {@link AudioDecodeScheduler}; the playback thread only
+ * mixes audio that is already decoded.
  * Created by andrew on 16/07/13.
  */
-public class AudioOutput implements Runnable, AudioOutputSpeech.TalkStateListener {
+public class AudioOutput implements Runnable, AudioOutputSpeech.TalkStateListener,
+        AudioDecodeScheduler.DecodeListener {
     private static final String TAG = AudioOutput.class.getName();
 
-    private Map<Integer, AudioOutputSpeech> mAudioOutputs = new HashMap<>();
+    /** Queues incoming packets in the native Speex jitter buffer. */
+    public static final String JITTER_BUFFER_SPEEX = "speex";
+    /** Queues incoming packets in an {@link AdaptiveJitterBuffer}. */
+    public static final String JITTER_BUFFER_ADAPTIVE = "adaptive";
+    /**
+     * How long a speaker's decoding state is kept after they stop talking, in milliseconds. Short
+     * pauses between utterances are usually well below this.
+     */
+    public static final int DEFAULT_GRACE_PERIOD_MS = 3000;
+
+    /**
+     * Active speakers by session. Only the ingest thread adds speakers; whichever thread removes a
+     * speaker from the registry is responsible for retiring it.
+     */
+    private final ConcurrentHashMap<Integer, AudioOutputSpeech> mAudioOutputs = new ConcurrentHashMap<>();
     private AudioTrack mAudioTrack;
+    /** The number of samples mixed and written to the track at a time. */
     private int mBufferSize;
+    /** The frame size speakers are decoded in, in samples. Takes effect on the next track. */
+    private volatile int mFrameSize;
+    /** How long the audio last written to the track waited for what was queued before it. */
+    private volatile long mPlaybackLatencyNanos;
     private Thread mThread;
     private final Object mInactiveLock = new Object(); // Lock that the audio thread waits on when there's no audio to play. Wake when we get a frame.
-    private final Lock mPacketLock;
     private boolean mRunning = false;
+    /** Set to stop the playback thread while its audio track is replaced. */
+    private volatile boolean mReopening;
     private Handler mMainHandler;
     private AudioOutputListener mListener;
     private final IAudioMixer<float[], short[]> mMixer;
-    private ExecutorService mDecodeExecutorService;
+    private final AudioDecodeScheduler mDecodeScheduler;
+    private final List<IAudioMixerSource<float[]>> mSources = new ArrayList<>();
+    private final SpeechResourcePool mPool;
+    private volatile int mGracePeriod;
+    private final DecodeGovernor mGovernor;
+    // Speaker ranking scratch, only touched on the playback thread.
+    private AudioOutputSpeech[] mCandidates = new AudioOutputSpeech[8];
+    private float[] mScores = new float[8];
+    private boolean[] mSelected = new boolean[8];
+    private long mLastDecodeNanos;
+    private volatile int mCulledSpeakers;
+    private volatile boolean mDeafened;
+    /** Receives the played mix for echo cancellation, if enabled. */
+    private volatile EchoReference mEchoReference;
+    /** Talk state transitions not yet applied on the main thread, by session. */
+    private final ConcurrentHashMap<Integer, TalkState> mPendingTalkStates = new ConcurrentHashMap<>();
+    private final AtomicBoolean mTalkStatesPosted = new AtomicBoolean();
+    private final Runnable mPublishTalkStates = new Runnable() {
+        @Override
+        public void run() {
+            // Clear first, so transitions arriving while we apply these get a post of their own.
+            mTalkStatesPosted.set(false);
+            for (Map.Entry<Integer, TalkState> entry : mPendingTalkStates.entrySet()) {
+                int session = entry.getKey();
+                TalkState state = entry.getValue();
+                if (!mPendingTalkStates.remove(session, state))
+                    continue; // Superseded; applied on the next pass.
+                final User user = mListener.getUser(session);
+                if(user != null && user.getTalkState() != state) {
+                    user.setTalkState(state);
+                    mListener.onUserTalkStateUpdated(user);
+                }
+            }
+        }
+    };
 
     public AudioOutput(AudioOutputListener listener) {
+        this(listener, JITTER_BUFFER_SPEEX, DEFAULT_GRACE_PERIOD_MS);
+    }
+
+    /**
+     * @param listener The listener for talk state updates and user lookups.
+     * @param jitterBuffer The jitter buffer implementation to use for each speaker, one of
+     *                     {@link #JITTER_BUFFER_SPEEX} or {@link #JITTER_BUFFER_ADAPTIVE}.
+     * @param gracePeriod How long to keep a speaker's state after they stop talking, in
+     *                    milliseconds. Speakers talking again within this time reuse it.
+     */
+    public AudioOutput(AudioOutputListener listener, String jitterBuffer, int gracePeriod) {
+        this(listener, jitterBuffer, gracePeriod, AudioHandler.FRAME_SIZE);
+    }
+
+    /**
+     * @param listener The listener for talk state updates and user lookups.
+     * @param jitterBuffer The jitter buffer implementation to use for each speaker, one of
+     *                     {@link #JITTER_BUFFER_SPEEX} or {@link #JITTER_BUFFER_ADAPTIVE}.
+     * @param gracePeriod How long to keep a speaker's state after they stop talking, in
+     *                    milliseconds. Speakers talking again within this time reuse it.
+     * @param frameSize The number of samples speakers are decoded and buffered in. Smaller
+     *                  frames also shrink the playback buffer, for lower latency.
+     */
+    public AudioOutput(AudioOutputListener listener, String jitterBuffer, int gracePeriod,
+                       int frameSize) {
         mListener = listener;
+        mFrameSize = frameSize;
+        mPool = new SpeechResourcePool(jitterBuffer, frameSize);
+        mGracePeriod = gracePeriod;
+        mGovernor = new DecodeGovernor(DecodeGovernor.DEFAULT_MAX_SPEAKERS);
         mMainHandler = new Handler(Looper.getMainLooper());
-        mDecodeExecutorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-        mPacketLock = new ReentrantLock();
-        mMixer = new BasicClippingShortMixer();
+        mDecodeScheduler = new AudioDecodeScheduler(this);
+        mMixer = new SoftLimitingShortMixer();
     }
 
     public Thread startPlaying(int audioStream) throws AudioInitializationException {
         if (mThread != null || mRunning)
             return null;
 
+        openTrack(audioStream);
+        mDecodeScheduler.start();
+        mRunning = true;
+        mThread = new Thread(this);
+        mThread.start();
+        return mThread;
+    }
+
+    private void openTrack(int audioStream) throws AudioInitializationException {
         int minBufferSize = AudioTrack.getMinBufferSize(AudioHandler.SAMPLE_RATE,
                 AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
-        mBufferSize = Math.min(minBufferSize, AudioHandler.FRAME_SIZE * 12);
-        Log.v(TAG, "Using buffer size " + mBufferSize + ", system's min buffer size: " + minBufferSize);
+        if (minBufferSize <= 0)
+            throw new AudioInitializationException("Playback format unsupported: " + minBufferSize);
+        final int frameSize = mFrameSize;
+        // Mix whole frames at a time: a single one for short frames, where latency is the point,
+        // otherwise up to the track's minimum buffer. Samples are 16-bit mono.
+        int frames = 1;
+        if (frameSize >= AudioHandler.FRAME_SIZE)
+            frames = Math.max(1, Math.min(minBufferSize / 2, frameSize * 12) / frameSize);
+        mBufferSize = frames * frameSize;
+        // The track never holds less than the system asks for.
+        int trackBytes = Math.max(minBufferSize, mBufferSize * 2);
+        Log.v(TAG, "Mixing " + mBufferSize + " samples at a time into a buffer of " + trackBytes
+                + " bytes, system's min buffer size: " + minBufferSize);
 
-        try {
-            mAudioTrack = new AudioTrack(audioStream,
-                    AudioHandler.SAMPLE_RATE,
-                    AudioFormat.CHANNEL_OUT_MONO,
-                    AudioFormat.ENCODING_PCM_16BIT,
-                    mBufferSize,
-                    AudioTrack.MODE_STREAM);
-        } catch (IllegalArgumentException e) {
-            throw new AudioInitializationException(e);
+        mAudioTrack = null;
+        if (frameSize < AudioHandler.FRAME_SIZE && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // Short frames are asking for the fast mixer path, where the device has one.
+            try {
+                mAudioTrack = checkTrack(new AudioTrack.Builder()
+                        .setAudioAttributes(new AudioAttributes.Builder()
+                                .setLegacyStreamType(audioStream)
+                                .build())
+                        .setAudioFormat(new AudioFormat.Builder()
+                                .setSampleRate(AudioHandler.SAMPLE_RATE)
+                                .setChannelMask(AudioFormat.CHANNEL_OUT_MONO)
+                                .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                                .build())
+                        .setBufferSizeInBytes(trackBytes)
+                        .setTransferMode(AudioTrack.MODE_STREAM)
+                        .setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
+                        .build());
+            } catch (AudioInitializationException | IllegalArgumentException
+                    | UnsupportedOperationException e) {
+                Log.w(TAG, "Low latency playback unavailable, using a regular track", e);
+            }
+        }
+        if (mAudioTrack == null) {
+            try {
+                mAudioTrack = checkTrack(new AudioTrack(audioStream,
+                        AudioHandler.SAMPLE_RATE,
+                        AudioFormat.CHANNEL_OUT_MONO,
+                        AudioFormat.ENCODING_PCM_16BIT,
+                        trackBytes,
+                        AudioTrack.MODE_STREAM));
+            } catch (IllegalArgumentException e) {
+                throw new AudioInitializationException(e);
+            }
         }
-
-        mThread = new Thread(this);
-        mThread.start();
-        return mThread;
     }
 
-    public void stopPlaying() {
-        if(!mRunning)
-            return;
+    /**
+     * @return the track, if it initialized.
+     * @throws AudioInitializationException if it did not, after releasing it.
+     */
+    private static AudioTrack checkTrack(AudioTrack track) throws AudioInitializationException {
+        if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+            track.release();
+            throw new AudioInitializationException("Audio track failed to initialize");
+        }
+        return track;
+    }
 
-        mRunning = false;
+    /**
+     * Joins the playback thread, leaving decoding and the audio track alone.
+     */
+    private void joinPlaybackThread() {
         synchronized (mInactiveLock) {
             mInactiveLock.notify(); // Wake inactive lock if active
         }
@@ -109,16 +245,73 @@ public class AudioOutput implements Runnable, AudioOutputSpeech.TalkStateListene
             e.printStackTrace();
         }
         mThread = null;
+    }
+
+    /**
+     * Moves playback to another stream, e.g. when Bluetooth SCO comes and goes. Only the audio
+     * track is replaced; speakers keep their decoders and buffered audio, and packets keep being
+     * received meanwhile. If the frame size changed, the playback buffer changes with it, and
+     * speakers set up for the old sizes are replaced as they next send audio.
+     * Calls must be serialized with {@link #queueVoiceData(byte[], HumlaUDPMessageType)}.
+     * @param audioStream The stream to play on.
+     */
+    public void reopen(int audioStream) throws AudioInitializationException {
+        if (!mRunning)
+            return;
+
+        mReopening = true;
+        joinPlaybackThread();
+        mReopening = false;
+        mAudioTrack.release();
+        mAudioTrack = null;
+        final EchoReference reference = mEchoReference;
+        if (reference != null)
+            reference.clear();
 
-        mPacketLock.lock();
+        try {
+            openTrack(audioStream);
+        } catch (AudioInitializationException e) {
+            // Leave the output stopped, as if playback had never started.
+            mRunning = false;
+            mDecodeScheduler.stop();
+            throw e;
+        }
+
+        // Speakers' buffers are sized for the playback buffer they were created with. Retire any
+        // that no longer fit; ingest is serialized with us and playback is stopped.
+        for (AudioOutputSpeech speech : mAudioOutputs.values()) {
+            if (!speech.matches(mBufferSize, mFrameSize)
+                    && mAudioOutputs.remove(speech.getSession(), speech)) {
+                onTalkStateUpdated(speech.getSession(), TalkState.PASSIVE);
+                mDecodeScheduler.retire(speech);
+            }
+        }
+        mThread = new Thread(this);
+        mThread.start();
+    }
+
+    public void stopPlaying() {
+        if(!mRunning)
+            return;
+
+        mRunning = false;
+        joinPlaybackThread();
+        mDecodeScheduler.stop();
+        final EchoReference reference = mEchoReference;
+        if (reference != null)
+            reference.clear();
+
+        // Both threads are stopped and ingest is serialized with this call, so nothing else can
+        // touch the registry now.
         for(AudioOutputSpeech speech : mAudioOutputs.values()) {
             speech.destroy();
         }
-        mPacketLock.unlock();
-
         mAudioOutputs.clear();
-        mAudioTrack.release();
-        mAudioTrack = null;
+        mPool.clear();
+        if (mAudioTrack != null) {
+            mAudioTrack.release();
+            mAudioTrack = null;
+        }
     }
 
     public boolean isPlaying() {
@@ -133,10 +326,20 @@ public class AudioOutput implements Runnable, AudioOutputSpeech.TalkStateListene
         mAudioTrack.play();
 
         final short[] mix = new short[mBufferSize];
+        // Frame counts as the track reports them, wrapping at 32 bits.
+        int framesWritten = mAudioTrack.getPlaybackHeadPosition();
 
-        while(mRunning) {
+        while(mRunning && !mReopening) {
             if(fetchAudio(mix, 0, mBufferSize)) {
+                // The mix plays once everything queued before it has.
+                int queued = framesWritten - mAudioTrack.getPlaybackHeadPosition();
+                long latency = TimeUnit.SECONDS.toNanos(Math.max(queued, 0)) / AudioHandler.SAMPLE_RATE;
+                mPlaybackLatencyNanos = latency;
+                final EchoReference reference = mEchoReference;
+                if (reference != null)
+                    reference.write(mix, 0, mBufferSize, System.nanoTime() + latency);
                 mAudioTrack.write(mix, 0, mBufferSize);
+                framesWritten += mBufferSize;
             } else {
                 Log.v(TAG, "Pausing thread.");
                 synchronized (mInactiveLock) {
@@ -144,12 +347,15 @@ public class AudioOutput implements Runnable, AudioOutputSpeech.TalkStateListene
                     mAudioTrack.pause();
 
                     try {
-                        mInactiveLock.wait();
+                        // Unless told to stop before we got here.
+                        if (mRunning && !mReopening)
+                            mInactiveLock.wait();
                     } catch (InterruptedException e) {
                         e.printStackTrace();
                     }
 
                     mAudioTrack.play();
+                    framesWritten = mAudioTrack.getPlaybackHeadPosition();
                 }
                 Log.v(TAG, "Resuming thread.");
             }
@@ -168,43 +374,78 @@ public class AudioOutput implements Runnable, AudioOutputSpeech.TalkStateListene
      * @return true if the buffer contains audio data.
      */
     private boolean fetchAudio(short[] buffer, int bufferOffset, int bufferSize) {
+        final long start = System.nanoTime();
         Arrays.fill(buffer, bufferOffset, bufferOffset + bufferSize, (short) 0);
-        final List<IAudioMixerSource<float[]>> sources = new ArrayList<>();
-        try {
-            mPacketLock.lock();
-            // Parallelize decoding using a fixed thread pool equal to the number of cores
-            List<Future<AudioOutputSpeech.Result>> futureResults =
-                    mDecodeExecutorService.invokeAll(mAudioOutputs.values());
-            for(Future<AudioOutputSpeech.Result> future : futureResults) {
-                AudioOutputSpeech.Result result = future.get();
-                if (result.isAlive()) {
-                    sources.add(result);
-                } else {
-                    AudioOutputSpeech speech = result.getSpeechOutput();
+        final List<IAudioMixerSource<float[]>> sources = mSources;
+        sources.clear();
+        final long now = SystemClock.uptimeMillis();
+        int count = 0;
+        for (AudioOutputSpeech speech : mAudioOutputs.values()) {
+            if (speech.isExpired(now, mGracePeriod)) {
+                if (mAudioOutputs.remove(speech.getSession(), speech)) {
                     Log.v(TAG, "Deleted audio user " + speech.getUser().getName());
-                    mAudioOutputs.remove(speech.getSession());
-                    speech.destroy();
+                    // Culled speakers never got to report that they stopped talking.
+                    if (speech.isCulled())
+                        onTalkStateUpdated(speech.getSession(), TalkState.PASSIVE);
+                    mDecodeScheduler.retire(speech);
+                }
+            } else if (speech.isFinished()) {
+                // Nothing left to decode, only buffered audio to play out.
+                IAudioMixerSource<float[]> source = speech.readPlayback(bufferSize);
+                if (source != null)
+                    sources.add(source);
+            } else {
+                if (count == mCandidates.length) {
+                    mCandidates = Arrays.copyOf(mCandidates, count * 2);
+                    mScores = Arrays.copyOf(mScores, count * 2);
+                    mSelected = Arrays.copyOf(mSelected, count * 2);
                 }
+                mCandidates[count] = speech;
+                mScores[count] = speech.getScore();
+                count++;
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-            return false;
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-            return false;
-        } finally {
-            mPacketLock.unlock();
         }
 
+        // Decode only the best ranked speakers the device can keep up with, and no one if we
+        // can't hear them anyway.
+        mCulledSpeakers = mGovernor.select(mScores, count, mDeafened ? 0 : Integer.MAX_VALUE,
+                mSelected);
+        for (int i = 0; i < count; i++) {
+            AudioOutputSpeech speech = mCandidates[i];
+            mCandidates[i] = null;
+            speech.setCulled(!mSelected[i]);
+            if (!mSelected[i])
+                continue;
+            IAudioMixerSource<float[]> source = speech.readPlayback(bufferSize);
+            if (source != null)
+                sources.add(source);
+            // Top the speaker back up to the watermark before the next buffer is due.
+            if (speech.needsDecode())
+                mDecodeScheduler.schedule(speech);
+        }
+
+        publishTalkStates();
+
         if (sources.size() == 0)
             return false;
 
         mMixer.mix(sources, buffer, bufferOffset, bufferSize);
+
+        long elapsed = System.nanoTime() - start;
+        long decodeNanos = mDecodeScheduler.getBusyNanos();
+        mGovernor.update(elapsed + decodeNanos - mLastDecodeNanos,
+                TimeUnit.SECONDS.toNanos(bufferSize) / AudioHandler.SAMPLE_RATE, count);
+        mLastDecodeNanos = decodeNanos;
         return true;
     }
 
+    /**
+     * Queues an incoming voice packet for decoding. Never waits for decoding or mixing.
+     * Calls must be serialized by the caller, as each speaker accepts packets from one thread at a
+     * time.
+     */
     public void queueVoiceData(byte[] data, HumlaUDPMessageType messageType) {
-        if(!mRunning)
+        if(!mRunning || mDeafened)
             return;
 
         byte msgFlags = (byte) (data[0] & 0x1f);
@@ -216,16 +457,20 @@ public class AudioOutput implements Runnable, AudioOutputSpeech.TalkStateListene
             // TODO check for whispers here
             int seq = (int) pds.readLong();
 
-            // Synchronize so we don't destroy an output while we add a buffer to it.
-            mPacketLock.lock();
             AudioOutputSpeech aop = mAudioOutputs.get(session);
-            if(aop != null && aop.getCodec() != messageType) {
-                aop.destroy();
+            if(aop != null && (aop.getCodec() != messageType
+                    || aop.isExpired(SystemClock.uptimeMillis(), mGracePeriod))) {
+                // Speakers that finished within the grace period are revived by the decode thread.
+                // Others are replaced, and their resources pooled. Playback may have removed it
+                // already.
+                if (mAudioOutputs.remove(session, aop))
+                    mDecodeScheduler.retire(aop);
                 aop = null;
             }
             if(aop == null) {
                 try {
-                    aop = new AudioOutputSpeech(user, messageType, mBufferSize, this);
+                    aop = new AudioOutputSpeech(user, messageType, mPool, mBufferSize,
+                            mFrameSize, this);
                 } catch (NativeAudioException e) {
                     Log.v(TAG, "Failed to create audio user " + user.getName());
                     e.printStackTrace();
@@ -234,30 +479,105 @@ public class AudioOutput implements Runnable, AudioOutputSpeech.TalkStateListene
                 Log.v(TAG, "Created audio user " + user.getName());
                 mAudioOutputs.put(session, aop);
             }
-            mPacketLock.unlock();
 
             PacketBuffer dataBuffer = new PacketBuffer(pds.bufferBlock(pds.left()));
             aop.addFrameToBuffer(dataBuffer, msgFlags, seq);
-
-            synchronized (mInactiveLock) {
-                mInactiveLock.notify();
-            }
+            // The decode thread wakes playback once samples are ready.
+            mDecodeScheduler.schedule(aop);
         }
 
     }
 
+    /**
+     * Stops decoding all speech while the local user is deafened.
+     */
+    public void setDeafened(boolean deafened) {
+        mDeafened = deafened;
+    }
+
+    /**
+     * Changes the jitter buffer and frame size used by speakers who start talking from now on.
+     * The playback buffer follows the frame size once the track is reopened.
+     * @param jitterBuffer One of {@link #JITTER_BUFFER_SPEEX} or {@link #JITTER_BUFFER_ADAPTIVE}.
+     * @param frameSize The number of samples speakers are decoded and buffered in.
+     * @see #reopen(int)
+     */
+    public void setJitterBuffer(String jitterBuffer, int frameSize) {
+        mFrameSize = frameSize;
+        mPool.setJitterBufferType(jitterBuffer, frameSize);
+    }
+
+    /**
+     * @return how long the last mix written had to wait for earlier audio in the track, in
+     *         nanoseconds. Excludes the latency of the device below the track.
+     */
+    public long getPlaybackLatencyNanos() {
+        return mPlaybackLatencyNanos;
+    }
+
+    /**
+     * @param gracePeriod How long to keep a speaker's state after they stop talking, in
+     *                    milliseconds.
+     */
+    public void setGracePeriod(int gracePeriod) {
+        mGracePeriod = gracePeriod;
+    }
+
+    /**
+     * Starts or stops recording the played mix for an echo canceller.
+     * @param reference The reference to write to, or null.
+     */
+    public void setEchoReference(EchoReference reference) {
+        mEchoReference = reference;
+    }
+
+    /**
+     * @return the number of speakers that may currently be decoded at once. Lowered when the
+     *         device cannot keep up with decoding and mixing.
+     */
+    public int getSpeakerBudget() {
+        return mGovernor.getBudget();
+    }
+
+    /**
+     * @return the number of talking speakers not being decoded, as of the last playback buffer.
+     */
+    public int getCulledSpeakerCount() {
+        return mCulledSpeakers;
+    }
+
+    /**
+     * Returns the jitter buffer statistics of a user currently being played back.
+     * @param session The session of the user.
+     * @return a snapshot of the statistics, or null if the user has no active audio.
+     */
+    public JitterBufferStats getJitterStats(int session) {
+        AudioOutputSpeech aop = mAudioOutputs.get(session);
+        return aop != null ? aop.getJitterStats() : null;
+    }
+
+    @Override
+    public void onSamplesDecoded() {
+        synchronized (mInactiveLock) {
+            mInactiveLock.notify();
+        }
+    }
+
+    /**
+     * Records a talk state transition, to be applied with all others of the same mix cycle.
+     */
     @Override
-    public void onTalkStateUpdated(final int session, final TalkState state) {
-        mMainHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                final User user = mListener.getUser(session);
-                if(user != null && user.getTalkState() != state) {
-                    user.setTalkState(state);
-                    mListener.onUserTalkStateUpdated(user);
-                }
-            }
-        });
+    public void onTalkStateUpdated(int session, TalkState state) {
+        mPendingTalkStates.put(session, state);
+    }
+
+    /**
+     * Applies pending talk state transitions on the main thread, with at most one post in flight.
+     * Called once per mix cycle on the playback thread.
+     */
+    private void publishTalkStates() {
+        if (!mPendingTalkStates.isEmpty() && mTalkStatesPosted.compareAndSet(false, true))
+            mMainHandler.post(mPublishTalkStates);
     }
 
     public static interface AudioOutputListener {
@@ -17,20 +17,16 @@
 
 package se.lublin.humla.audio;
 
-import com.googlecode.javacpp.IntPointer;
+import android.os.SystemClock;
+import android.util.Log;
 
 import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.Queue;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import se.lublin.humla.audio.javacpp.CELT11;
-import se.lublin.humla.audio.javacpp.CELT7;
 import se.lublin.humla.audio.javacpp.Opus;
-import se.lublin.humla.audio.javacpp.Speex;
 import se.lublin.humla.exception.NativeAudioException;
 import se.lublin.humla.model.TalkState;
 import se.lublin.humla.model.User;
@@ -39,124 +35,235 @@ import se.lublin.humla.net.PacketBuffer;
 import se.lublin.humla.protocol.AudioHandler;
 
 /**
+ * Decodes a single user's speech. Decoding happens ahead of playback on the
+ * {@link AudioDecodeScheduler}'s thread, which keeps a buffer of PCM topped up to one playback
+ * buffer. The playback thread drains that buffer using {@link #readPlayback(int)}.
  * Created by andrew on 16/07/13.
  */
-public class AudioOutputSpeech implements Callable<AudioOutputSpeech.Result> {
+public class AudioOutputSpeech {
+    private static final String TAG = AudioOutputSpeech.class.getName();
+
+    /** The largest number of samples a single decode can produce: 120ms of Opus. */
+    static final int MAX_DECODE_SAMPLES = AudioHandler.FRAME_SIZE * 12;
+    /** The largest voice packet payload the jitter buffer hands out. */
+    static final int MAX_PACKET_SIZE = 4096;
+    /** The number of packets that may arrive between two decode passes; 320ms or more. */
+    private static final int INGEST_CAPACITY = 32;
+    /** How far ahead to look for the packet following a lost one, in 10ms frames. */
+    private static final int MAX_FEC_LOOKAHEAD = 6;
+    /** The largest speed-up; excess latency of 100ms drains in about a second. */
+    private static final float MAX_SPEEDUP = 0.1f;
+    /** The largest slow-down, kept smaller since it only buys safety margin. */
+    private static final float MAX_SLOWDOWN = 0.05f;
+    /** The speed adjustment per sample of depth error. Errors of one second hit the limits. */
+    private static final float STRETCH_GAIN = 1f / AudioHandler.SAMPLE_RATE;
+    /** Smoothing for the jitter buffer depth, which jumps by a packet at a time. */
+    private static final float DEPTH_SMOOTHING = 0.1f;
+    /** Bytes per 10ms taken as loud speech when estimating a culled speaker's level; 32kbps. */
+    private static final int LOUD_SPEECH_BYTES = 40;
+    /** The RMS level a culled speaker spending {@link #LOUD_SPEECH_BYTES} is estimated at. */
+    private static final float LOUD_SPEECH_RMS = 0.3f;
+    /** Smoothing for the speaker's level, per decode pass or culled packet. */
+    private static final float ENERGY_SMOOTHING = 0.3f;
 
     interface TalkStateListener {
+        /**
+         * Called on the decode thread when a speaker's talk state changes.
+         */
         public void onTalkStateUpdated(int session, TalkState state);
     }
 
-    private IDecoder mDecoder;
-    private Speex.JitterBuffer mJitterBuffer;
-    private final Object mJitterLock = new Object();
+    private final SpeechResourcePool mPool;
+    private final IDecoder mDecoder;
+    /** The decoder if it can recover lost packets from in-band FEC, otherwise null. */
+    private final Opus.OpusDecoder mFecDecoder;
+    /** Only touched by the decode thread; packets reach it through {@link #mIngest}. */
+    private final IJitterBuffer mJitterBuffer;
+    private final VoicePacketRing mIngest;
 
     private User mUser;
     private HumlaUDPMessageType mCodec;
     private int mAudioBufferSize = AudioHandler.FRAME_SIZE;
     private int mRequestedSamples; // Number of samples requested
+    /**
+     * The number of samples the jitter buffer advances by per tick, and concealment produces per
+     * lost frame. Also how far the jitter buffer may stray from its target before playout speed
+     * is adjusted.
+     */
+    private final int mFrameSize;
+    /** Decoded samples not yet accounted for by a jitter buffer tick. */
+    private int mTickSamples;
 
     // State-specific
     private float[] mBuffer;
-    private float[] mOut;
     private float[] mFadeOut;
     private float[] mFadeIn;
-    private Queue<ByteBuffer> mFrames = new ConcurrentLinkedQueue<ByteBuffer>();
     private int mMissCount = 0;
     private boolean mHasTerminator = false;
     private boolean mLastAlive = true;
     private int mBufferFilled, mLastConsume = 0;
     private int ucFlags;
-    private IntPointer avail = new IntPointer(1);
+
+    // Preallocated so that steady-state decoding never allocates, in Java or natively.
+    private final ByteBuffer mPacketData;
+    private final VoiceFrameQueue mFrames;
+    private final ByteBuffer mFrameData;
+    private final ByteBuffer mPeekData;
+    private final VoiceFrameQueue mPeekFrames;
+    private final ByteBuffer mFecData;
+    /** Samples of a lost packet already recovered by FEC, beyond the current frame. */
+    private int mFecAhead;
+    private volatile int mRecoveredFrames;
+    private volatile int mConcealedFrames;
+    private final Result mResult;
+    /** Changes playout speed to steer the jitter buffer towards its target. */
+    private final TimeStretcher mStretcher;
+    private final float[] mStretchData;
+    private float mSmoothedDepth = -1;
 
     private TalkStateListener mTalkStateListener;
+    /** The talk state last reported to the listener. Only touched by the decode thread. */
+    private TalkState mPublishedTalkState;
+
+    // Decode-ahead state, shared between the decode and playback threads.
+    private final SpeakerPlayback mPlayback;
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    /** Set by the decode thread once the speaker stopped talking and all audio was buffered. */
+    private volatile boolean mFinished;
+    /** When the speaker last finished talking, in {@link SystemClock#uptimeMillis()}. */
+    private volatile long mFinishedAt;
+    /** When the last packet was queued, in {@link SystemClock#uptimeMillis()}. */
+    private volatile long mLastPacketAt;
+    /** Set by the playback thread while the decode governor has this speaker culled. */
+    private volatile boolean mCulled;
+    /** Whether packets were discarded while culled. Only touched by the decode thread. */
+    private boolean mSkipped;
+    /**
+     * Smoothed RMS level of decoded audio, estimated from packet sizes while culled. New speakers
+     * start loud so they get a fair hearing.
+     */
+    private volatile float mEnergy = 1;
+    /** Whether the speaker is whispering or shouting to us. */
+    private volatile boolean mDirected;
+    private volatile boolean mRetired;
+    private boolean mDestroyed;
 
-    public AudioOutputSpeech(User user, HumlaUDPMessageType codec, int requestedSamples, TalkStateListener listener) throws NativeAudioException {
+    /**
+     * @param pool The pool to take this speaker's decoder and jitter buffer from. They are
+     *             returned to it by {@link #destroy()}.
+     * @param frameSize The frame size of the pool's jitter buffers, in samples.
+     */
+    AudioOutputSpeech(User user, HumlaUDPMessageType codec, SpeechResourcePool pool,
+                      int requestedSamples, int frameSize, TalkStateListener listener)
+            throws NativeAudioException {
         // TODO: consider implementing resampling if some Android devices not support 48kHz?
         mUser = user;
         mCodec = codec;
+        mPool = pool;
         mRequestedSamples = requestedSamples;
+        // Legacy codecs only come in 10ms frames.
+        mFrameSize = codec == HumlaUDPMessageType.UDPVoiceOpus ? frameSize : AudioHandler.FRAME_SIZE;
         mTalkStateListener = listener;
-        switch (codec) {
-            case UDPVoiceOpus:
-                mAudioBufferSize *= 12;
-                mDecoder = new Opus.OpusDecoder(AudioHandler.SAMPLE_RATE, 1);
-                break;
-            case UDPVoiceCELTBeta:
-                mDecoder = new CELT11.CELT11Decoder(AudioHandler.SAMPLE_RATE, 1);
-                break;
-            case UDPVoiceCELTAlpha:
-                mDecoder = new CELT7.CELT7Decoder(AudioHandler.SAMPLE_RATE, AudioHandler.FRAME_SIZE, 1);
-                break;
-            case UDPVoiceSpeex:
-                mDecoder = new Speex.SpeexDecoder();
-                break;
+        if (codec == HumlaUDPMessageType.UDPVoiceOpus)
+            mAudioBufferSize = MAX_DECODE_SAMPLES;
+        mDecoder = pool.acquireDecoder(codec);
+        mFecDecoder = mDecoder instanceof Opus.OpusDecoder ? (Opus.OpusDecoder) mDecoder : null;
+        mJitterBuffer = pool.acquireJitterBuffer();
+
+        // A decode pass stops once the requested samples are filled, overshooting by at most one
+        // decode. Size the buffer for the worst case so it never needs to grow.
+        mBuffer = new float[requestedSamples + mAudioBufferSize];
+        mFadeIn = new float[mFrameSize];
+        mFadeOut = new float[mFrameSize];
+
+        // Sine function to represent fade in/out. Period is one frame.
+        float mul = (float)(Math.PI / (2.0 * (float) mFrameSize));
+        for (int i = 0; i < mFrameSize; i++)
+            mFadeIn[i] = mFadeOut[mFrameSize-i-1] = (float) Math.sin((float) i * mul);
+
+        mIngest = new VoicePacketRing(INGEST_CAPACITY);
+        mPacketData = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+        mFrames = new VoiceFrameQueue(mPacketData);
+        mFrameData = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+        if (mFecDecoder != null) {
+            mPeekData = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+            mPeekFrames = new VoiceFrameQueue(mPeekData);
+            mFecData = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+        } else {
+            mPeekData = null;
+            mPeekFrames = null;
+            mFecData = null;
         }
+        mResult = new Result(this);
+        mStretcher = new TimeStretcher();
+        mStretchData = new float[requestedSamples];
 
-        mBuffer = new float[mAudioBufferSize*2]; // Make initial buffer size larger so we can save performance by not resizing at runtime.
-        mOut = new float[mAudioBufferSize];
-        mFadeIn = new float[AudioHandler.FRAME_SIZE];
-        mFadeOut = new float[AudioHandler.FRAME_SIZE];
-
-        // Sine function to represent fade in/out. Period is FRAME_SIZE.
-        float mul = (float)(Math.PI / (2.0 * (float) AudioHandler.FRAME_SIZE));
-        for (int i = 0; i < AudioHandler.FRAME_SIZE; i++)
-            mFadeIn[i] = mFadeOut[AudioHandler.FRAME_SIZE-i-1] = (float) Math.sin((float) i * mul);
-
-        mJitterBuffer = new Speex.JitterBuffer(AudioHandler.FRAME_SIZE);
-        IntPointer margin = new IntPointer(1);
-        margin.put(10 * AudioHandler.FRAME_SIZE);
-        mJitterBuffer.control(Speex.JitterBuffer.JITTER_BUFFER_SET_MARGIN, margin);
+        mPlayback = new SpeakerPlayback(requestedSamples);
     }
 
+    /**
+     * Queues a packet for decoding. Never blocks on the decode thread.
+     * Must only be called from one thread at a time.
+     */
     public void addFrameToBuffer(PacketBuffer pb, byte flags, int seq) {
         if(pb.capacity() < 2)
             return;
-
-        synchronized (mJitterLock) {
-            try {
-                int samples = 0;
-                if (mCodec == HumlaUDPMessageType.UDPVoiceOpus) {
-                    long header = pb.readLong();
-                    int size = (int) (header & ((1 << 13) - 1));
-
-                    if (size > 0) {
-                        byte[] data = pb.dataBlock(size);
-                        if (data.length != size) return;
-
-                        int frames = Opus.opus_packet_get_nb_frames(data, size);
-                        samples = frames * Opus.opus_packet_get_samples_per_frame(data, AudioHandler.SAMPLE_RATE);
-                    } else {
-                        return;
-                    }
+        mLastPacketAt = SystemClock.uptimeMillis();
+        // Known before decoding, so that culled speakers are ranked by it too.
+        mDirected = flags != 0;
+
+        try {
+            int samples = 0;
+            int unit = AudioHandler.FRAME_SIZE;
+            if (mCodec == HumlaUDPMessageType.UDPVoiceOpus) {
+                long header = pb.readLong();
+                int size = (int) (header & ((1 << 13) - 1));
+
+                if (size > 0) {
+                    byte[] data = pb.dataBlock(size);
+                    if (data.length != size) return;
+
+                    int frames = Opus.opus_packet_get_nb_frames(data, size);
+                    int frameSamples = Opus.opus_packet_get_samples_per_frame(data, AudioHandler.SAMPLE_RATE);
+                    samples = frames * frameSamples;
+                    // Sequence numbers count 10ms units, except in packets shorter than that.
+                    unit = AudioHandler.getSequenceUnit(samples, frameSamples);
                 } else {
-                    try {
-                        int header;
-                        do {
-                            header = pb.next();
-                            samples += AudioHandler.FRAME_SIZE;
-                            pb.skip(header & 0x7f);
-                        } while ((header & 0x80) > 0);
-                    } catch (BufferUnderflowException e) {
-                        // reached end of buffer
-                    }
+                    return;
                 }
-                pb.rewind();
-
-                int size = pb.left();
-                byte[] data = pb.dataBlock(size);
-                Speex.JitterBufferPacket packet = new Speex.JitterBufferPacket(data, size, AudioHandler.FRAME_SIZE * seq, samples, 0, flags);
-                synchronized (mJitterLock) {
-                    mJitterBuffer.put(packet);
+            } else {
+                try {
+                    int header;
+                    do {
+                        header = pb.next();
+                        samples += AudioHandler.FRAME_SIZE;
+                        pb.skip(header & 0x7f);
+                    } while ((header & 0x80) > 0);
+                } catch (BufferUnderflowException e) {
+                    // reached end of buffer
                 }
-            } catch (BufferOverflowException e) {
-                e.printStackTrace();
             }
+            pb.rewind();
+
+            int size = pb.left();
+            if (mCulled && samples > 0)
+                estimateEnergy(size, samples);
+            byte[] data = pb.dataBlock(size);
+            if (!mIngest.offer(data, size, unit * seq, samples, flags))
+                Log.w(TAG, "Decoder for session " + mUser.getSession() + " fell behind, dropped packet");
+        } catch (BufferOverflowException e) {
+            e.printStackTrace();
         }
     }
 
-    @Override
-    public Result call() throws Exception {
+    /**
+     * Performs one decoding pass, producing the requested number of samples.
+     * Must only be called on the decode thread.
+     * @param out Scratch space for a single decode, at least {@link #MAX_DECODE_SAMPLES} long.
+     *            May be shared between speakers decoded on the same thread.
+     * @return the result of the pass. The same instance is reused by every pass.
+     */
+    Result decode(float[] out) {
         if (mBufferFilled - mLastConsume > 0) {
             // Shift over the remaining unconsumed data in the buffer.
             System.arraycopy(mBuffer, mLastConsume, mBuffer, 0, mBufferFilled - mLastConsume);
@@ -166,140 +273,119 @@ public class AudioOutputSpeech implements Callable<AudioOutputSpeech.Result> {
         mLastConsume = mRequestedSamples;
 
         if(mBufferFilled >= mRequestedSamples)
-            return new Result(this, mLastAlive, mBuffer, mBufferFilled);
+            return mResult.set(mLastAlive, mBuffer, mBufferFilled);
 
         boolean nextAlive = mLastAlive;
 
         while(mBufferFilled < mRequestedSamples) {
-            int decodedSamples = AudioHandler.FRAME_SIZE;
-            resizeBuffer(mBufferFilled + mAudioBufferSize);
+            int decodedSamples = mFrameSize;
 
             if(!mLastAlive)
-                Arrays.fill(mOut, 0);
+                Arrays.fill(out, 0, decodedSamples, 0);
             else {
-                avail.put(0);
-
-                int ts;
-                synchronized (mJitterLock) {
-                    ts = mJitterBuffer.getPointerTimestamp();
-                    mJitterBuffer.control(Speex.JitterBuffer.JITTER_BUFFER_GET_AVAILABLE_COUNT, avail);
-                }
-                float availPackets = (float) avail.get();
+                int ts = mJitterBuffer.getPointerTimestamp();
+                float availPackets = (float) mJitterBuffer.getAvailableCount();
 
                 // This bit of code here will make sure that we have enough packets in the jitter
                 // buffer before we even begin decoding, based on the average # of packets available.
                 // It's useful in preventing a metallic 'twang' when the user starts talking,
                 // caused by buffer underrun. The official Mumble project uses the same technique.
-                if(ts == 0) {
+                // Buffers that steer their own delay already hold back playback until it is met.
+                if(ts == 0 && mJitterBuffer.getTargetDelay() < 0) {
                     int want = (int) Math.ceil(mUser.getAverageAvailable());
                     if (availPackets < want) {
                         mMissCount++;
                         if(mMissCount < 20) {
-                            Arrays.fill(mOut, 0);
-                            System.arraycopy(mOut, 0, mBuffer, mBufferFilled, decodedSamples);
+                            Arrays.fill(mBuffer, mBufferFilled, mBufferFilled + decodedSamples, 0);
                             mBufferFilled += decodedSamples;
                             continue;
                         }
                     }
                 }
 
+                int fecSamples = 0;
+                boolean recovered = false;
+                boolean inserted = false;
                 if(mFrames.isEmpty()) {
-                    ByteBuffer packet = ByteBuffer.allocateDirect(4096);
-                    Speex.JitterBufferPacket jbp = new Speex.JitterBufferPacket(packet, 4096, 0, 0, 0, 0);
-                    int result;
-
-                    synchronized (mJitterLock) {
-                        result = mJitterBuffer.get(jbp, null);
-                    }
-
-                    if(result == Speex.JitterBuffer.JITTER_BUFFER_OK) {
-                        packet.limit(jbp.getLength());
-                        PacketBuffer pb = new PacketBuffer(packet);
+                    // The jitter buffer copies the payload to the start of our packet buffer.
+                    int length = mJitterBuffer.get(mPacketData);
 
+                    if(length >= 0) {
+                        mFecAhead = 0;
                         mMissCount = 0;
-                        ucFlags = jbp.getUserData();
-
-                        mHasTerminator = false;
-                        try {
-                            if (mCodec == HumlaUDPMessageType.UDPVoiceOpus) {
-                                long header = pb.readLong();
-                                int size = (int) (header & ((1 << 13) - 1));
-                                mHasTerminator = (header & (1 << 13)) > 0;
-
-                                ByteBuffer audioData = pb.bufferBlock(size);
-                                mFrames.add(audioData);
-                            } else {
-                                int header;
-                                do {
-                                    header = pb.next();
-                                    int size = header & 0x7f;
-                                    if (header > 0) {
-                                        mFrames.add(pb.bufferBlock(size));
-                                    } else {
-                                        mHasTerminator = true;
-                                    }
-                                } while ((header & 0x80) > 0);
-                            }
-                        } catch (BufferOverflowException e) {
-                            e.printStackTrace();
-                        } catch (BufferUnderflowException e) {
-                            e.printStackTrace();
-                        }
+                        ucFlags = mJitterBuffer.getUserData();
+
+                        mFrames.parse(length, mCodec == HumlaUDPMessageType.UDPVoiceOpus);
+                        mHasTerminator = mFrames.hasTerminator();
 
                         if(availPackets >= mUser.getAverageAvailable())
                             mUser.setAverageAvailable(availPackets);
                         else
                             mUser.setAverageAvailable(mUser.getAverageAvailable() * 0.99f);
 
+                    } else if (length == IJitterBuffer.INSERTION) {
+                        // The buffer holds back playback to grow its delay. Nothing was lost, so
+                        // conceal the frame without recovering the packet still due.
+                        inserted = true;
+                    } else if (mFecAhead > 0) {
+                        // This frame was part of a packet already recovered below.
+                        mFecAhead -= mFrameSize;
+                        recovered = true;
                     } else {
-                        synchronized (mJitterLock) {
-                            mJitterBuffer.updateDelay(jbp, null);
-                        }
+                        mJitterBuffer.updateDelay();
+                        fecSamples = prepareFec(ts);
 
-                        mMissCount++;
-                        if(mMissCount > 10)
-                            nextAlive = false;
+                        if (fecSamples == 0) {
+                            mMissCount++;
+                            if(mMissCount > 10)
+                                nextAlive = false;
+                        }
                     }
                 }
 
                 try {
                     if(!mFrames.isEmpty()) {
-                        ByteBuffer data = mFrames.poll();
+                        int size = mFrames.poll(mFrameData);
 
-                        decodedSamples = mDecoder.decodeFloat(data, data.limit(), mOut, mAudioBufferSize);
+                        decodedSamples = mDecoder.decodeFloat(mFrameData, size, out, mAudioBufferSize);
 
                         if(mFrames.isEmpty())
-                            synchronized (mJitterLock) {
-                                mJitterBuffer.updateDelay(null, new IntPointer(1));
-                            }
+                            mJitterBuffer.updateDelay();
 
                         if(mFrames.isEmpty() && mHasTerminator)
                             nextAlive = false;
+                    } else if (recovered) {
+                        decodedSamples = 0;
+                    } else if (fecSamples > 0) {
+                        decodedSamples = mFecDecoder.decodeFecFloat(mFecData, mFecData.limit(), out, fecSamples);
+                        mFecAhead = decodedSamples - mFrameSize;
+                        mRecoveredFrames += decodedSamples / mFrameSize;
                     } else {
-                        decodedSamples = mDecoder.decodeFloat(null, 0, mOut, AudioHandler.FRAME_SIZE);
+                        decodedSamples = mDecoder.decodeFloat(null, 0, out, mFrameSize);
+                        if (!inserted)
+                            mConcealedFrames++;
                     }
                 } catch (NativeAudioException e) {
                     e.printStackTrace();
-                    decodedSamples = AudioHandler.FRAME_SIZE;
+                    decodedSamples = mFrameSize;
                 }
 
                 if (!nextAlive) {
-                    for (int i = 0; i < AudioHandler.FRAME_SIZE; i++) {
-                        mOut[i] *= mFadeOut[i];
+                    for (int i = 0; i < mFrameSize; i++) {
+                        out[i] *= mFadeOut[i];
                     }
                 } else if (ts == 0) {
-                    for (int i = 0; i < AudioHandler.FRAME_SIZE; i++) {
-                        mOut[i] *= mFadeIn[i];
+                    for (int i = 0; i < mFrameSize; i++) {
+                        out[i] *= mFadeIn[i];
                     }
                 }
 
-                synchronized (mJitterLock) {
-                    for(int i = decodedSamples / AudioHandler.FRAME_SIZE; i > 0; i--)
-                        mJitterBuffer.tick();
-                }
+                // A packet may be shorter than a frame if the sender uses shorter frames than us.
+                for (mTickSamples += decodedSamples; mTickSamples >= mFrameSize; mTickSamples -= mFrameSize)
+                    mJitterBuffer.tick();
             }
 
-            System.arraycopy(mOut, 0, mBuffer, mBufferFilled, decodedSamples);
+            System.arraycopy(out, 0, mBuffer, mBufferFilled, decodedSamples);
             mBufferFilled += decodedSamples;
         }
 
@@ -321,19 +407,285 @@ public class AudioOutputSpeech implements Callable<AudioOutputSpeech.Result> {
                 break;
         }
 
-        mTalkStateListener.onTalkStateUpdated(mUser.getSession(), talkState);
+        if (talkState != mPublishedTalkState) {
+            mPublishedTalkState = talkState;
+            mTalkStateListener.onTalkStateUpdated(mUser.getSession(), talkState);
+        }
 
         boolean tmp = mLastAlive;
         mLastAlive = nextAlive;
 
-        return new Result(this, tmp, mBuffer, mRequestedSamples);
+        return mResult.set(tmp, mBuffer, mRequestedSamples);
     }
 
-    private void resizeBuffer(int newSize) {
-        if(newSize > mBuffer.length) {
-            float[] newBuffer = Arrays.copyOf(mBuffer, newSize);
-            mBuffer = newBuffer;
+    /**
+     * Looks for the packet following a lost one, which may carry a redundant copy of it.
+     * Only a single lost packet can be recovered this way, so the gap must match the duration of
+     * the following packet. On success its first frame is left in {@link #mFecData}.
+     * @param timestamp The timestamp of the missing frame.
+     * @return the number of samples to recover, or 0 if recovery is not possible.
+     */
+    private int prepareFec(int timestamp) {
+        if (mFecDecoder == null || timestamp == 0)
+            return 0;
+        int lookahead = MAX_FEC_LOOKAHEAD * AudioHandler.FRAME_SIZE / mFrameSize;
+        for (int frames = 1; frames <= lookahead; frames++) {
+            int length = mJitterBuffer.peek(timestamp + frames * mFrameSize, mPeekData);
+            if (length < 0)
+                continue;
+            mPeekFrames.parse(length, true);
+            int size = mPeekFrames.poll(mFecData);
+            mPeekFrames.clear();
+            if (size <= 0)
+                return 0;
+            int samples = opusPacketSamples(mFecData, size);
+            if (samples != frames * mFrameSize || samples > MAX_DECODE_SAMPLES)
+                return 0;
+            return samples;
         }
+        return 0;
+    }
+
+    /**
+     * Reads an Opus packet's duration from its TOC byte, as opus_packet_get_nb_samples does,
+     * without copying the packet to the Java heap.
+     * @return the number of samples at 48kHz, or 0 if the packet is malformed.
+     */
+    private static int opusPacketSamples(ByteBuffer packet, int length) {
+        if (length < 1)
+            return 0;
+        int toc = packet.get(0) & 0xff;
+        int frameSamples;
+        if ((toc & 0x80) != 0) {
+            // CELT-only: 2.5, 5, 10 or 20ms.
+            frameSamples = (AudioHandler.SAMPLE_RATE << ((toc >> 3) & 0x3)) / 400;
+        } else if ((toc & 0x60) == 0x60) {
+            // Hybrid: 10 or 20ms.
+            frameSamples = (toc & 0x08) != 0 ? AudioHandler.SAMPLE_RATE / 50 : AudioHandler.SAMPLE_RATE / 100;
+        } else {
+            // SILK-only: 10, 20, 40 or 60ms.
+            int size = (toc >> 3) & 0x3;
+            frameSamples = size == 3 ? AudioHandler.SAMPLE_RATE * 60 / 1000
+                    : (AudioHandler.SAMPLE_RATE << size) / 100;
+        }
+        int frames;
+        switch (toc & 0x3) {
+            case 0:
+                frames = 1;
+                break;
+            case 3:
+                if (length < 2)
+                    return 0;
+                frames = packet.get(1) & 0x3f;
+                break;
+            default:
+                frames = 2;
+                break;
+        }
+        return frames * frameSamples;
+    }
+
+    /**
+     * Decodes until at least one playback buffer of samples is ready, or the speaker stops
+     * talking. Must only be called on the decode thread.
+     * @param out Scratch space, see {@link #decode(float[])}.
+     * @return the number of samples made available to playback.
+     */
+    int decodeAhead(float[] out) {
+        if (mCulled) {
+            // Nobody will hear it; keep the queue from overflowing without spending any time.
+            mIngest.clear();
+            mSkipped = true;
+            return 0;
+        }
+        if (mSkipped) {
+            mSkipped = false;
+            restart();
+        } else if (mFinished) {
+            if (mIngest.isEmpty())
+                return 0;
+            // Talking again within the grace period; pick up where we left off.
+            restart();
+        }
+        mIngest.drainTo(mJitterBuffer);
+        int written = 0;
+        while (!mFinished && !mRetired && mPlayback.available() < mRequestedSamples
+                && mPlayback.free() >= mRequestedSamples) {
+            Result result = decode(out);
+            if (!result.isAlive()) {
+                mStretcher.flush();
+                written += drainStretcher();
+                mFinishedAt = SystemClock.uptimeMillis();
+                mFinished = true;
+                break;
+            }
+            // A pass may carry more decoded samples than requested; the rest stays for the next pass.
+            mStretcher.setRate(playoutRate());
+            mStretcher.write(result.getSamples(), 0, mRequestedSamples);
+            written += drainStretcher();
+            updateEnergy(result.getSamples(), mRequestedSamples);
+        }
+        return written;
+    }
+
+    /**
+     * Moves stretched samples to the playback buffer, as far as they fit. The rest stays in the
+     * stretcher for the next pass.
+     */
+    private int drainStretcher() {
+        int written = 0;
+        int free;
+        while ((free = mPlayback.free()) > 0 && mStretcher.available() > 0) {
+            int read = mStretcher.read(mStretchData, 0, Math.min(free, mStretchData.length));
+            written += mPlayback.write(mStretchData, 0, read);
+        }
+        return written;
+    }
+
+    /**
+     * Plays slightly faster while the jitter buffer holds more than its target, and slightly
+     * slower while it holds less, in proportion to the error. This drains latency left behind by
+     * a jitter spike without dropping audio, and absorbs clock drift between sender and receiver,
+     * which shows up as a slowly growing or shrinking buffer.
+     */
+    private float playoutRate() {
+        int target = mJitterBuffer.getTargetDelay();
+        if (target < 0)
+            return 1;
+        int depth = mJitterBuffer.getDepth();
+        if (mSmoothedDepth < 0)
+            mSmoothedDepth = depth;
+        else
+            mSmoothedDepth += DEPTH_SMOOTHING * (depth - mSmoothedDepth);
+
+        float error = mSmoothedDepth - target;
+        if (error > mFrameSize)
+            return 1 + Math.min(MAX_SPEEDUP, (error - mFrameSize) * STRETCH_GAIN);
+        if (error < -mFrameSize)
+            return 1 - Math.min(MAX_SLOWDOWN, (-error - mFrameSize) * STRETCH_GAIN);
+        return 1;
+    }
+
+    private void updateEnergy(float[] samples, int length) {
+        float sum = 0;
+        for (int i = 0; i < length; i++)
+            sum += samples[i] * samples[i];
+        float rms = (float) Math.sqrt(sum / length);
+        mEnergy += ENERGY_SMOOTHING * (rms - mEnergy);
+    }
+
+    /**
+     * Updates the level of a culled speaker, whose audio is not decoded, from the size of its
+     * packets. Variable bitrate codecs spend few bytes on silence and many on loud speech, so the
+     * speaker's rank still follows them, if roughly.
+     * @param bytes The size of a packet.
+     * @param samples The number of samples it holds.
+     */
+    private void estimateEnergy(int bytes, int samples) {
+        float rate = (float) bytes * AudioHandler.FRAME_SIZE / samples;
+        float level = LOUD_SPEECH_RMS * Math.min(1, rate / LOUD_SPEECH_BYTES);
+        mEnergy += ENERGY_SMOOTHING * (level - mEnergy);
+    }
+
+    /**
+     * Prepares a finished speaker for a new talk spurt, keeping its decoder and what the jitter
+     * buffer learned about the network. Must only be called on the decode thread.
+     */
+    private void restart() {
+        mJitterBuffer.restart();
+        mFrames.clear();
+        mFecAhead = 0;
+        mTickSamples = 0;
+        mBufferFilled = 0;
+        mLastConsume = 0;
+        mMissCount = 0;
+        mHasTerminator = false;
+        mLastAlive = true;
+        mStretcher.reset();
+        mSmoothedDepth = -1;
+        mFinished = false;
+    }
+
+    /**
+     * Takes the next playback buffer of decoded samples, padding with silence if decoding has
+     * fallen behind. Must only be called on the playback thread.
+     * @param samples The number of samples to read, at most the requested sample count.
+     * @return a mixer source holding the samples, or null if the speaker finished talking and
+     *         all of its audio has been played.
+     */
+    IAudioMixerSource<float[]> readPlayback(int samples) {
+        // Read the flag first; samples written before it was set are then guaranteed visible.
+        boolean finished = mFinished;
+        return mPlayback.read(samples, finished);
+    }
+
+    /**
+     * @return true if the decode-ahead buffer is below its watermark and the speaker is active.
+     */
+    boolean needsDecode() {
+        return !mFinished && mPlayback.available() < mRequestedSamples;
+    }
+
+    boolean isFinished() {
+        return mFinished;
+    }
+
+    /**
+     * @param now The current time in {@link SystemClock#uptimeMillis()}.
+     * @param gracePeriod How long a finished speaker is kept, in milliseconds.
+     * @return true if the speaker finished talking at least the grace period ago.
+     */
+    boolean isExpired(long now, long gracePeriod) {
+        if (mCulled)
+            return now - mLastPacketAt >= gracePeriod;
+        return mFinished && now - mFinishedAt >= gracePeriod;
+    }
+
+    /**
+     * Stops or resumes decoding for this speaker. Audio decoded before a change is discarded.
+     * Must only be called on the playback thread.
+     */
+    void setCulled(boolean culled) {
+        if (mCulled == culled)
+            return;
+        mCulled = culled;
+        mPlayback.clear();
+    }
+
+    boolean isCulled() {
+        return mCulled;
+    }
+
+    /**
+     * @return this speaker's rank for the decode governor.
+     */
+    float getScore() {
+        return DecodeGovernor.score(mUser.isPrioritySpeaker(), mDirected, mEnergy);
+    }
+
+    boolean markScheduled() {
+        return mScheduled.compareAndSet(false, true);
+    }
+
+    void clearScheduled() {
+        mScheduled.set(false);
+    }
+
+    /**
+     * @return whether this speaker's buffers were sized for the given playback buffer, and it
+     *         decodes in frames of the given size.
+     */
+    boolean matches(int requestedSamples, int frameSize) {
+        return mRequestedSamples == requestedSamples
+                && (mCodec != HumlaUDPMessageType.UDPVoiceOpus || mFrameSize == frameSize);
+    }
+
+    boolean isRetired() {
+        return mRetired;
+    }
+
+    void setRetired() {
+        mRetired = true;
     }
 
     /**
@@ -357,31 +709,46 @@ public class AudioOutputSpeech implements Callable<AudioOutputSpeech.Result> {
     }
 
     /**
-     * Cleans up all JNI refs linked to this instance.
+     * @return a snapshot of this speaker's jitter buffer statistics.
+     */
+    public JitterBufferStats getJitterStats() {
+        return mJitterBuffer.getStats().withConcealment(mRecoveredFrames, mConcealedFrames);
+    }
+
+    /**
+     * Returns the decoder and jitter buffer to the pool, which destroys them if it is full.
      * This MUST be called eventually, otherwise we get memory leaks!
      */
     public void destroy() {
-        if(mDecoder != null) mDecoder.destroy();
-        mJitterBuffer.destroy();
+        // A retired speaker may be scheduled once more by a packet that raced its removal.
+        if (mDestroyed)
+            return;
+        mDestroyed = true;
+        mPool.releaseDecoder(mCodec, mDecoder);
+        mPool.releaseJitterBuffer(mJitterBuffer);
     }
 
     /**
-     * The outcome of a decoding pass.
+     * A playback buffer's worth of decoded samples, reused for every buffer.
+     */
+    /**
+     * The outcome of a decoding pass. Each speaker reuses a single instance.
      */
     protected static class Result implements IAudioMixerSource<float[]> {
-        private AudioOutputSpeech mSpeechOutput;
+        private final AudioOutputSpeech mSpeechOutput;
         private boolean mAlive;
         private float[] mSamples;
         private int mNumSamples;
 
-        private Result(AudioOutputSpeech speechOutput,
-                      boolean alive,
-                      float[] samples,
-                      int numSamples) {
+        private Result(AudioOutputSpeech speechOutput) {
             mSpeechOutput = speechOutput;
+        }
+
+        private Result set(boolean alive, float[] samples, int numSamples) {
             mAlive = alive;
             mSamples = samples;
             mNumSamples = numSamples;
+            return this;
         }
 
         public AudioOutputSpeech getSpeechOutput() {
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.audio;
+
+/**
+ * Adapts the outgoing bitrate, packet size and forward error correction to network conditions.
+ *
+ * Fed with the server's cumulative counts of our packets that arrived, arrived late or were lost,
+ * as reported in each ping, and with the round trip time. Loss and queueing delay step the
+ * bitrate down quickly and grow packets once the bitrate bottoms out. Clean intervals step it
+ * back up slowly. Between the two thresholds nothing changes, so conditions hovering around
+ * one threshold do not make the encoder flap.
+ *
+ * The bitrate never exceeds the maximum, which callers derive from the server's bandwidth cap;
+ * larger packets only lower the overhead. Not thread-safe.
+ */
+public class BitrateController {
+    /** Loss at or above which the bitrate is stepped down. */
+    public static final float HIGH_LOSS = 0.05f;
+    /** Loss at or below which an interval counts as clean. */
+    public static final float LOW_LOSS = 0.01f;
+    /** Round trip time above the lowest seen that indicates queueing, in microseconds. */
+    public static final long QUEUEING_DELAY_US = 200000;
+    /** The number of consecutive clean intervals before stepping back up. */
+    public static final int CLEAN_INTERVALS = 3;
+    /** Intervals covering fewer packets than this are merged into the next one. */
+    public static final int MIN_PACKETS = 20;
+    public static final int MIN_BITRATE = 8000;
+    /** The largest packet used under loss, in frames. Kept short with short frames. */
+    public static final int MAX_FRAMES_PER_PACKET = 4;
+    /** The highest loss percentage the encoder is told to expect. */
+    public static final int MAX_LOSS_PERCENT = 25;
+
+    private static final float DECREASE = 0.75f;
+    private static final float INCREASE = 1.1f;
+    private static final float LOSS_SMOOTHING = 0.5f;
+
+    private int mMaxBitrate;
+    private final int mBaseFramesPerPacket;
+    private int mBitrate;
+    private int mFramesPerPacket;
+    private int mLossPercent;
+
+    private boolean mHasCounts;
+    private int mGood, mLate, mLost;
+    private float mLoss;
+    private long mMinRtt = Long.MAX_VALUE;
+    private int mCleanIntervals;
+
+    /**
+     * @param maxBitrate The highest bitrate to use, in bps. Also the starting bitrate.
+     * @param framesPerPacket The packet size to use on a clean network, in frames.
+     */
+    public BitrateController(int maxBitrate, int framesPerPacket) {
+        mMaxBitrate = Math.max(MIN_BITRATE, maxBitrate);
+        mBaseFramesPerPacket = framesPerPacket;
+        mBitrate = mMaxBitrate;
+        mFramesPerPacket = framesPerPacket;
+    }
+
+    /**
+     * Lowers or raises the bitrate cap, e.g. after the server changed its bandwidth limit.
+     */
+    public void setMaxBitrate(int maxBitrate) {
+        mMaxBitrate = Math.max(MIN_BITRATE, maxBitrate);
+        mBitrate = Math.min(mBitrate, mMaxBitrate);
+    }
+
+    /**
+     * Takes the latest network statistics into account.
+     * @param good The server's total of our packets that arrived in order.
+     * @param late The server's total of our packets that arrived late.
+     * @param lost The server's total of our packets that never arrived.
+     * @param rtt The latest round trip time in microseconds, or a negative value if unknown.
+     * @return true if the bitrate, packet size or expected loss changed.
+     */
+    public boolean update(int good, int late, int lost, long rtt) {
+        if (!mHasCounts || good < mGood || late < mLate || lost < mLost) {
+            // First report, or the counters were reset by a crypt resync.
+            mHasCounts = true;
+            mGood = good;
+            mLate = late;
+            mLost = lost;
+            return false;
+        }
+        int impaired = (late - mLate) + (lost - mLost);
+        int total = (good - mGood) + impaired;
+        if (total < MIN_PACKETS)
+            return false; // Not talking much; wait for a meaningful sample.
+        mGood = good;
+        mLate = late;
+        mLost = lost;
+        mLoss += LOSS_SMOOTHING * ((float) impaired / total - mLoss);
+
+        boolean queueing = false;
+        if (rtt >= 0) {
+            mMinRtt = Math.min(mMinRtt, rtt);
+            queueing = rtt - mMinRtt > QUEUEING_DELAY_US;
+        }
+
+        int bitrate = mBitrate;
+        int framesPerPacket = mFramesPerPacket;
+        if (mLoss >= HIGH_LOSS || queueing) {
+            mCleanIntervals = 0;
+            if (bitrate > MIN_BITRATE)
+                bitrate = Math.max(MIN_BITRATE, (int) (bitrate * DECREASE));
+            else if (framesPerPacket < MAX_FRAMES_PER_PACKET)
+                framesPerPacket = Math.min(MAX_FRAMES_PER_PACKET, framesPerPacket * 2);
+        } else if (mLoss <= LOW_LOSS) {
+            if (++mCleanIntervals >= CLEAN_INTERVALS) {
+                mCleanIntervals = 0;
+                // Undo the cheaper measure first: shrink packets, then raise the bitrate.
+                if (framesPerPacket > mBaseFramesPerPacket)
+                    framesPerPacket = Math.max(mBaseFramesPerPacket, framesPerPacket / 2);
+                else
+                    bitrate = Math.min(mMaxBitrate, (int) (bitrate * INCREASE));
+            }
+        } else {
+            mCleanIntervals = 0;
+        }
+
+        int lossPercent = Math.min(MAX_LOSS_PERCENT, Math.round(mLoss * 100));
+        boolean changed = bitrate != mBitrate || framesPerPacket != mFramesPerPacket
+                || lossPercent != mLossPercent;
+        mBitrate = bitrate;
+        mFramesPerPacket = framesPerPacket;
+        mLossPercent = lossPercent;
+        return changed;
+    }
+
+    public int getBitrate() {
+        return mBitrate;
+    }
+
+    public int getFramesPerPacket() {
+        return mFramesPerPacket;
+    }
+
+    /**
+     * @return the packet loss the encoder should expect, in percent. Non-zero values call for
+     *         in-band forward error correction.
+     */
+    public int getLossPercent() {
+        return mLossPercent;
+    }
+
+    /**
+     * @return the smoothed fraction of our packets lost or late.
+     */
+    public float getLoss() {
+        return mLoss;
+    }
+}
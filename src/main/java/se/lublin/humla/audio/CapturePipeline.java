@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package se.lublin.humla.audio;
+
+import se.lublin.humla.exception.NativeAudioException;
+
+/**
+ * Runs captured audio through a fixed order of optional stages: high-pass filtering, echo
+ * cancellation, voice activity detection, gain, resampling, preprocessing and finally encoding.
+ *
+ * Each frame is copied once into a shared buffer, which every stage then works on in place. Any
+ * stage may be replaced between frames without touching the others, so for instance toggling
+ * the preprocessor keeps the encoder and its state. The time spent in each stage is recorded.
+ *
+ * Not thread-safe; callers must serialise processing and replacing stages.
+ */
+public final class CapturePipeline {
+    public static final int STAGE_HIGH_PASS = 0;
+    public static final int STAGE_ECHO_CANCEL = 1;
+    public static final int STAGE_VOICE_ACTIVITY = 2;
+    public static final int STAGE_GAIN = 3;
+    public static final int STAGE_RESAMPLE = 4;
+    public static final int STAGE_PREPROCESS = 5;
+    public static final int STAGE_ENCODE = 6;
+    public static final int STAGE_COUNT = 7;
+
+    private static final String[] STAGE_NAMES = {
+            "high-pass", "echo cancel", "voice activity", "gain", "resample", "preprocess", "encode"
+    };
+
+    private final ICaptureStage[] mStages = new ICaptureStage[STAGE_COUNT];
+    private short[] mFrame;
+    private final long[] mLastNanos = new long[STAGE_COUNT];
+    private final long[] mTotalNanos = new long[STAGE_COUNT];
+    private final long[] mFrames = new long[STAGE_COUNT];
+
+    /**
+     * @param capacity The largest frame any stage will produce or receive, in samples.
+     */
+    public CapturePipeline(int capacity) {
+        mFrame = new short[capacity];
+    }
+
+    /**
+     * Makes room for larger frames, such as after capture moved to a higher sample rate.
+     * @param capacity The largest frame any stage will produce or receive, in samples.
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > mFrame.length)
+            mFrame = new short[capacity];
+    }
+
+    /**
+     * Replaces a stage, destroying the previous one.
+     * @param stage One of the STAGE constants.
+     * @param processor The new stage, or null to skip this step.
+     */
+    public void setStage(int stage, ICaptureStage processor) {
+        ICaptureStage previous = mStages[stage];
+        mStages[stage] = processor;
+        mLastNanos[stage] = 0;
+        mTotalNanos[stage] = 0;
+        mFrames[stage] = 0;
+        if (previous != null && previous != processor)
+            previous.destroy();
+    }
+
+    public ICaptureStage getStage(int stage) {
+        return mStages[stage];
+    }
+
+    /**
+     * Runs a frame through every stage present.
+     * @param input The captured frame, left untouched.
+     * @param size The number of samples in the frame.
+     * @return the number of samples left after the last stage, or 0 if a stage stopped the frame.
+     * @throws NativeAudioException if a native stage failed.
+     */
+    public int process(short[] input, int size) throws NativeAudioException {
+        System.arraycopy(input, 0, mFrame, 0, size);
+        for (int i = 0; i < STAGE_COUNT && size > 0; i++) {
+            ICaptureStage stage = mStages[i];
+            if (stage == null)
+                continue;
+            long start = System.nanoTime();
+            size = stage.process(mFrame, size);
+            long elapsed = System.nanoTime() - start;
+            mLastNanos[i] = elapsed;
+            mTotalNanos[i] += elapsed;
+            mFrames[i]++;
+        }
+        return size;
+    }
+
+    /**
+     * @return the time the stage took on the last frame it processed, in nanoseconds.
+     */
+    public long getLastNanos(int stage) {
+        return mLastNanos[stage];
+    }
+
+    /**
+     * @return the mean time the stage took per frame since it was set, in nanoseconds.
+     */
+    public long getMeanNanos(int stage) {
+        return mFrames[stage] > 0 ? mTotalNanos[stage] / mFrames[stage] : 0;
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /**
+     * Destroys and removes every stage.
+     */
+    public void clear() {
+        for (int i = 0; i < STAGE_COUNT; i++)
+            setStage(i, null);
+    }
+}
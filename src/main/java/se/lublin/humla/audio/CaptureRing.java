@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.audio;
+
+/**
+ * A single-producer, single-consumer ring of fixed-size 16-bit PCM frames, preallocated so that
+ * neither side ever allocates. The capture thread offers frames while the encode thread polls
+ * them, without locking.
+ */
+public final class CaptureRing {
+    private final short[] mBuffer;
+    /** The capture time of each frame. */
+    private final long[] mTimes;
+    private final int mFrameSize;
+    private final int mMask;
+    /** Total frames ever written. Only modified by the producer. */
+    private volatile long mWritePosition;
+    /** Total frames ever read. Only modified by the consumer. */
+    private volatile long mReadPosition;
+    /** The capture time of the last frame polled. Consumer only. */
+    private long mPolledTime;
+    /** Frames offered while the ring was full. Only modified by the producer. */
+    private volatile int mDropped;
+
+    /**
+     * @param frameSize The number of samples in each frame.
+     * @param minFrames The minimum number of frames the ring must hold. Rounded up to the next
+     *                  power of two.
+     */
+    public CaptureRing(int frameSize, int minFrames) {
+        int capacity = Integer.highestOneBit(Math.max(1, minFrames - 1)) << 1;
+        mBuffer = new short[capacity * frameSize];
+        mTimes = new long[capacity];
+        mFrameSize = frameSize;
+        mMask = capacity - 1;
+    }
+
+    /**
+     * @return the number of frames ready to be read.
+     */
+    public int available() {
+        return (int) (mWritePosition - mReadPosition);
+    }
+
+    /**
+     * Copies a frame into the ring. Producer only.
+     * @param time When the frame was captured, see {@link #getPolledTime()}.
+     * @return false if the ring is full and the frame was dropped.
+     */
+    public boolean offer(short[] src, long time) {
+        long write = mWritePosition;
+        if (write - mReadPosition > mMask) {
+            mDropped++;
+            return false;
+        }
+        System.arraycopy(src, 0, mBuffer, (int) (write & mMask) * mFrameSize, mFrameSize);
+        mTimes[(int) (write & mMask)] = time;
+        mWritePosition = write + 1;
+        return true;
+    }
+
+    /**
+     * Copies the oldest frame out of the ring. Consumer only.
+     * @return false if the ring is empty.
+     */
+    public boolean poll(short[] dst) {
+        long read = mReadPosition;
+        if (read == mWritePosition)
+            return false;
+        System.arraycopy(mBuffer, (int) (read & mMask) * mFrameSize, dst, 0, mFrameSize);
+        mPolledTime = mTimes[(int) (read & mMask)];
+        mReadPosition = read + 1;
+        return true;
+    }
+
+    /**
+     * @return the capture time given with the last frame polled. Consumer only.
+     */
+    public long getPolledTime() {
+        return mPolledTime;
+    }
+
+    /**
+     * @return the number of frames dropped because the ring was full.
+     */
+    public int getDropped() {
+        return mDropped;
+    }
+
+    /**
+     * Discards all unread frames. Consumer only.
+     */
+    public void clear() {
+        mReadPosition = mWritePosition;
+    }
+}
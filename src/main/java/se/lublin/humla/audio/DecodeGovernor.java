@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.audio;
+
+/**
+ * Limits how many speakers are decoded at once, so that playback keeps up on slow devices.
+ *
+ * Once per playback buffer, the time spent decoding and mixing is compared against the buffer's
+ * duration. While that load stays high, the speaker budget shrinks one speaker at a time; after a
+ * sustained period of low load, it grows back. Speakers are then ranked, and only the best
+ * ranked within budget are decoded. The rest are culled until they rank higher or the budget
+ * grows. An overrun here is an audible dropout, so the budget reacts within a few buffers.
+ */
+public final class DecodeGovernor {
+    /** The most speakers decoded at once when the device keeps up. */
+    public static final int DEFAULT_MAX_SPEAKERS = 16;
+
+    private static final float PRIORITY_SPEAKER_SCORE = 4;
+    private static final float DIRECTED_SPEECH_SCORE = 2;
+
+    /** Shrinks at three quarters of a buffer period, at most every 5 buffers; grows after 50. */
+    private final LoadMonitor mMonitor = new LoadMonitor(0.75f, 0.5f, 0.2f, 5, 50);
+    private final int mMaxSpeakers;
+    private int mBudget;
+
+    public DecodeGovernor(int maxSpeakers) {
+        if (maxSpeakers < 1)
+            throw new IllegalArgumentException("At least one speaker must be decoded");
+        mMaxSpeakers = maxSpeakers;
+        mBudget = maxSpeakers;
+    }
+
+    /**
+     * Accounts for one playback buffer.
+     * @param busyNanos The time spent decoding and mixing for this buffer.
+     * @param periodNanos The duration of the buffer.
+     * @param activeSpeakers The number of speakers that wanted to be decoded.
+     */
+    public void update(long busyNanos, long periodNanos, int activeSpeakers) {
+        switch (mMonitor.update(busyNanos, periodNanos)) {
+            case LoadMonitor.SHED:
+                // Shrink below what is actually in use, otherwise a high budget takes ages to bite.
+                int inUse = Math.min(mBudget, activeSpeakers);
+                if (inUse > 1) {
+                    mBudget = inUse - 1;
+                    mMonitor.changed();
+                }
+                break;
+            case LoadMonitor.RECOVER:
+                if (mBudget < mMaxSpeakers) {
+                    mBudget++;
+                    mMonitor.changed();
+                }
+                break;
+        }
+    }
+
+    /**
+     * Ranks a speaker. Priority speakers come first, then speech directed at us by whisper or
+     * shout, then the loudest.
+     * @param prioritySpeaker Whether the speaker has priority speaker status.
+     * @param directed Whether the speaker is whispering or shouting to us.
+     * @param energy The speaker's recent RMS level, from 0 to 1.
+     */
+    public static float score(boolean prioritySpeaker, boolean directed, float energy) {
+        float score = Math.max(0, Math.min(1, energy));
+        if (prioritySpeaker)
+            score += PRIORITY_SPEAKER_SCORE;
+        if (directed)
+            score += DIRECTED_SPEECH_SCORE;
+        return score;
+    }
+
+    /**
+     * Marks the best scored speakers within budget for decoding. Ties go to the earlier speaker.
+     * @param scores The scores of each speaker, see {@link #score(boolean, boolean, float)}.
+     * @param count The number of speakers.
+     * @param limit An additional cap on the budget, e.g. zero to decode no one.
+     * @param selected Set to whether each speaker should be decoded.
+     * @return the number of speakers culled.
+     */
+    public int select(float[] scores, int count, int limit, boolean[] selected) {
+        for (int i = 0; i < count; i++)
+            selected[i] = false;
+        int picks = Math.min(count, Math.min(mBudget, limit));
+        for (int pick = 0; pick < picks; pick++) {
+            int best = -1;
+            for (int i = 0; i < count; i++) {
+                if (!selected[i] && (best == -1 || scores[i] > scores[best]))
+                    best = i;
+            }
+            selected[best] = true;
+        }
+        return count - picks;
+    }
+
+    /**
+     * @return the number of speakers that may currently be decoded at once.
+     */
+    public int getBudget() {
+        return mBudget;
+    }
+
+    /**
+     * @return the smoothed fraction of each buffer period spent decoding and mixing.
+     */
+    public float getLoad() {
+        return mMonitor.getLoad();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package se.lublin.humla.audio;
+
+import se.lublin.humla.audio.javacpp.Speex;
+
+/**
+ * Removes the echo of our own playback from captured audio with the Speex echo canceller.
+ *
+ * The far end reference is read from an {@link EchoReference} fed by the output mix, starting a
+ * little before each frame was captured so that the echo always lags it. While nothing has
+ * played for longer than the echo tail, frames pass through untouched.
+ *
+ * The echo return loss enhancement, how much quieter echo leaves this stage than it entered, is
+ * tracked over frames where the far end is playing.
+ */
+public class EchoCancelStage implements ICaptureStage {
+    /** The length of echo cancelled, covering the acoustic path and capture latency. */
+    public static final int DEFAULT_TAIL_MS = 120;
+    /** How far ahead of capture the reference is taken. */
+    public static final int DEFAULT_REFERENCE_LEAD_MS = 20;
+    /** Weight of the newest frame in the smoothed energies. */
+    private static final float ERLE_SMOOTHING = 0.05f;
+    /** Reference energy below which the far end is taken as silent, in squared samples. */
+    private static final float MIN_REFERENCE_ENERGY = 1000;
+
+    private final Speex.SpeexEchoState mEcho;
+    private final EchoReference mReference;
+    private final int mSampleRate;
+    private final int mFrameSize;
+    private final int mTailFrames;
+    private final long mLeadNanos;
+    private final short[] mPlayed;
+    private final short[] mCaptured;
+
+    private long mCaptureTime;
+    private int mSilentFrames;
+    private float mCapturedEnergy;
+    private float mCleanedEnergy;
+
+    public EchoCancelStage(EchoReference reference, int sampleRate, int frameSize) {
+        this(reference, sampleRate, frameSize, DEFAULT_TAIL_MS, DEFAULT_REFERENCE_LEAD_MS);
+    }
+
+    /**
+     * @param reference The played audio.
+     * @param sampleRate The capture sample rate.
+     * @param frameSize The number of samples in each captured frame.
+     * @param tailMs The length of echo to cancel.
+     * @param leadMs How far ahead of capture to take the reference.
+     */
+    public EchoCancelStage(EchoReference reference, int sampleRate, int frameSize, int tailMs,
+                           int leadMs) {
+        mReference = reference;
+        mSampleRate = sampleRate;
+        mFrameSize = frameSize;
+        mTailFrames = (tailMs * sampleRate / 1000 + frameSize - 1) / frameSize;
+        mLeadNanos = leadMs * 1000000L;
+        mPlayed = new short[frameSize];
+        mCaptured = new short[frameSize];
+        mEcho = new Speex.SpeexEchoState(frameSize, mTailFrames * frameSize, sampleRate);
+    }
+
+    /**
+     * Sets when the next frame was captured.
+     * @param captureTime The {@link System#nanoTime()} of its first sample.
+     */
+    public void setCaptureTime(long captureTime) {
+        mCaptureTime = captureTime;
+    }
+
+    /**
+     * @return the native echo canceller, for residual echo suppression by a preprocessor running
+     *         on the same frames.
+     */
+    public Speex.SpeexEchoState getEchoState() {
+        return mEcho;
+    }
+
+    @Override
+    public int process(short[] frame, int size) {
+        if (size != mFrameSize)
+            throw new IllegalArgumentException("The echo canceller requires " + mFrameSize
+                    + " samples per frame, got " + size);
+        int played = mReference.read(mCaptureTime - mLeadNanos, mPlayed, size, mSampleRate);
+        if (played == 0) {
+            // Keep adapting until any echo has died away, then stop spending time on silence.
+            if (mSilentFrames > mTailFrames)
+                return size;
+            mSilentFrames++;
+        } else {
+            mSilentFrames = 0;
+        }
+
+        System.arraycopy(frame, 0, mCaptured, 0, size);
+        mEcho.cancel(mCaptured, mPlayed, frame);
+
+        long reference = 0;
+        long captured = 0;
+        long cleaned = 0;
+        for (int i = 0; i < size; i++) {
+            reference += mPlayed[i] * mPlayed[i];
+            captured += mCaptured[i] * mCaptured[i];
+            cleaned += frame[i] * frame[i];
+        }
+        if ((float) reference / size > MIN_REFERENCE_ENERGY) {
+            mCapturedEnergy += ERLE_SMOOTHING * ((float) captured / size - mCapturedEnergy);
+            mCleanedEnergy += ERLE_SMOOTHING * ((float) cleaned / size - mCleanedEnergy);
+        }
+        return size;
+    }
+
+    /**
+     * @return the smoothed echo return loss enhancement in dB while the far end plays, or 0 if
+     *         it has not played yet. Near end speech over the far end lowers it.
+     */
+    public float getErle() {
+        if (mCapturedEnergy <= 0)
+            return 0;
+        return (float) (10 * Math.log10(mCapturedEnergy / Math.max(1, mCleanedEnergy)));
+    }
+
+    @Override
+    public void destroy() {
+        mEcho.destroy();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package se.lublin.humla.audio;
+
+/**
+ * Keeps the recently played output mix, with the time each sample reached the speaker, so that
+ * an echo canceller can find what was playing when a frame was captured.
+ *
+ * The playback thread writes every mix it hands to the audio track, stamped with the time its
+ * first sample will play. Stamps that stay within a few milliseconds of the running timeline are
+ * taken as jitter and only nudge it, as jumps would upset the canceller; larger differences,
+ * such as after an underrun or a pause, start a new timeline. The capture side then reads the
+ * samples played at any recent time, resampled to its own rate. Times without audio read as
+ * silence.
+ *
+ * Neither side allocates. Reads and writes may come from different threads.
+ */
+public final class EchoReference {
+    /** Stamps further than this from the running timeline start a new one. */
+    private static final long JITTER_TOLERANCE_NANOS = 20000000L;
+    /** Share of the timing error corrected with each write. */
+    private static final int DRIFT_CORRECTION = 16;
+    private static final int MAX_ANCHORS = 128;
+
+    private final int mSampleRate;
+    private final short[] mRing;
+    private final int mMask;
+    /** Total samples ever written. */
+    private long mWritten;
+
+    /** The sample index and play time at the start of each recent write, oldest first. */
+    private final long[] mAnchorIndex = new long[MAX_ANCHORS];
+    private final long[] mAnchorTime = new long[MAX_ANCHORS];
+    /** Whether each write started a new timeline, rather than continuing the previous one. */
+    private final boolean[] mAnchorJump = new boolean[MAX_ANCHORS];
+    private int mAnchorCount;
+    private int mAnchorStart;
+
+    /**
+     * @param sampleRate The sample rate of the output mix.
+     * @param minCapacity The least number of samples to keep. Rounded up to a power of two.
+     */
+    public EchoReference(int sampleRate, int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(1, minCapacity - 1)) << 1;
+        mSampleRate = sampleRate;
+        mRing = new short[capacity];
+        mMask = capacity - 1;
+    }
+
+    /**
+     * Records played audio.
+     * @param playTimeNanos The {@link System#nanoTime()} at which the first sample will play.
+     */
+    public synchronized void write(short[] pcm, int offset, int length, long playTimeNanos) {
+        long time = playTimeNanos;
+        boolean jump = true;
+        if (mAnchorCount > 0) {
+            int last = (mAnchorStart + mAnchorCount - 1) % MAX_ANCHORS;
+            long predicted = mAnchorTime[last] + toNanos(mWritten - mAnchorIndex[last]);
+            long error = playTimeNanos - predicted;
+            if (Math.abs(error) < JITTER_TOLERANCE_NANOS) {
+                time = predicted + error / DRIFT_CORRECTION;
+                jump = false;
+            }
+        }
+        if (mAnchorCount == MAX_ANCHORS) {
+            mAnchorStart = (mAnchorStart + 1) % MAX_ANCHORS;
+            mAnchorCount--;
+        }
+        int anchor = (mAnchorStart + mAnchorCount) % MAX_ANCHORS;
+        mAnchorIndex[anchor] = mWritten;
+        mAnchorTime[anchor] = time;
+        mAnchorJump[anchor] = jump;
+        mAnchorCount++;
+
+        int position = (int) (mWritten & mMask);
+        int first = Math.min(length, mRing.length - position);
+        System.arraycopy(pcm, offset, mRing, position, first);
+        System.arraycopy(pcm, offset + first, mRing, 0, length - first);
+        mWritten += length;
+    }
+
+    /**
+     * Reads the audio played from the given time on.
+     * @param timeNanos The {@link System#nanoTime()} of the first sample wanted.
+     * @param out Receives the played samples, silence where nothing was played.
+     * @param count The number of samples to read.
+     * @param sampleRate The rate to read at. Linear interpolation converts from the output rate.
+     * @return the number of samples read that were actually played.
+     */
+    public synchronized int read(long timeNanos, short[] out, int count, int sampleRate) {
+        // Find the write the time falls into, newest first.
+        int anchor = -1;
+        long end = mWritten;
+        for (int i = mAnchorCount - 1; i >= 0; i--) {
+            int a = (mAnchorStart + i) % MAX_ANCHORS;
+            if (mAnchorTime[a] <= timeNanos) {
+                anchor = a;
+                break;
+            }
+            // Audio after a gap in playback is not part of this timeline.
+            if (mAnchorJump[a])
+                end = mAnchorIndex[a];
+        }
+        if (anchor == -1) {
+            for (int i = 0; i < count; i++)
+                out[i] = 0;
+            return 0;
+        }
+        double position = mAnchorIndex[anchor]
+                + (double) (timeNanos - mAnchorTime[anchor]) * mSampleRate / 1000000000L;
+        double step = (double) mSampleRate / sampleRate;
+        long oldest = Math.max(0, mWritten - mRing.length);
+        int played = 0;
+        for (int i = 0; i < count; i++, position += step) {
+            long index = (long) Math.floor(position);
+            if (index < oldest || index + 1 >= end) {
+                out[i] = 0;
+                continue;
+            }
+            float fraction = (float) (position - index);
+            int a = mRing[(int) (index & mMask)];
+            int b = mRing[(int) ((index + 1) & mMask)];
+            out[i] = (short) (a + (b - a) * fraction);
+            played++;
+        }
+        return played;
+    }
+
+    /**
+     * Forgets all played audio, e.g. when playback stops.
+     */
+    public synchronized void clear() {
+        mAnchorCount = 0;
+        mAnchorStart = 0;
+        mWritten = 0;
+    }
+
+    private long toNanos(long samples) {
+        return samples * 1000000000L / mSampleRate;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package se.lublin.humla.audio;
+
+/**
+ * Scales encoder complexity down when encoding cannot comfortably keep up on slow devices.
+ *
+ * Once per captured frame, the time spent encoding it is compared against the frame's duration.
+ * Preprocessing is left out, as complexity does not affect its cost. While that load stays high,
+ * complexity steps down; once it is at its lowest, the coded bandwidth is narrowed as a last
+ * resort. Recovery runs in reverse: the bandwidth is restored first, then complexity grows back
+ * one level at a time. Encoding runs far below real time on most devices, so the thresholds are
+ * low and recovery is slow, to avoid audible quality swings.
+ */
+public final class EncodeGovernor {
+    /** The highest complexity an encoder accepts, and the one to start from. */
+    public static final int MAX_COMPLEXITY = 10;
+    /** Complexity dropped per step down. Raising it back happens one level at a time. */
+    private static final int STEP_DOWN = 2;
+
+    /** Steps down at half a frame period, at most every 20 frames; steps up after 500 calm ones. */
+    private final LoadMonitor mMonitor = new LoadMonitor(0.5f, 0.2f, 0.05f, 20, 500);
+    private final int mMaxComplexity;
+    private int mComplexity;
+    private boolean mBandwidthLimited;
+
+    public EncodeGovernor(int maxComplexity) {
+        if (maxComplexity < 0 || maxComplexity > MAX_COMPLEXITY)
+            throw new IllegalArgumentException("Complexity must be between 0 and " + MAX_COMPLEXITY);
+        mMaxComplexity = maxComplexity;
+        mComplexity = maxComplexity;
+    }
+
+    /**
+     * Accounts for one captured frame.
+     * @param busyNanos The time spent encoding this frame. Frames buffered without encoding count
+     *                  as zero, so that packets of several frames average out.
+     * @param periodNanos The duration of the frame.
+     * @return true if the complexity or bandwidth limit changed and should be applied.
+     */
+    public boolean update(long busyNanos, long periodNanos) {
+        switch (mMonitor.update(busyNanos, periodNanos)) {
+            case LoadMonitor.SHED:
+                if (mComplexity > 0)
+                    mComplexity = Math.max(0, mComplexity - STEP_DOWN);
+                else if (!mBandwidthLimited)
+                    mBandwidthLimited = true;
+                else
+                    return false;
+                break;
+            case LoadMonitor.RECOVER:
+                if (mBandwidthLimited)
+                    mBandwidthLimited = false;
+                else if (mComplexity < mMaxComplexity)
+                    mComplexity++;
+                else
+                    return false;
+                break;
+            default:
+                return false;
+        }
+        mMonitor.changed();
+        return true;
+    }
+
+    /**
+     * @return the complexity to encode at, from 0 to the maximum given.
+     */
+    public int getComplexity() {
+        return mComplexity;
+    }
+
+    /**
+     * @return true if the encoder should be limited to wideband, having run out of complexity to
+     *         shed.
+     */
+    public boolean isBandwidthLimited() {
+        return mBandwidthLimited;
+    }
+
+    /**
+     * @return the smoothed fraction of each frame period spent encoding.
+     */
+    public float getLoad() {
+        return mMonitor.getLoad();
+    }
+}
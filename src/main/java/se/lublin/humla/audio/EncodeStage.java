@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package se.lublin.humla.audio;
+
+import se.lublin.humla.audio.encoder.IEncoder;
+import se.lublin.humla.exception.NativeAudioException;
+
+/**
+ * Feeds frames to an encoder. Encoded packets are left for the caller to collect once the
+ * encoder {@link IEncoder#isReady() is ready}.
+ */
+public class EncodeStage implements ICaptureStage {
+    private final IEncoder mEncoder;
+
+    /**
+     * @param encoder The encoder, owned by this stage from now on.
+     */
+    public EncodeStage(IEncoder encoder) {
+        mEncoder = encoder;
+    }
+
+    public IEncoder getEncoder() {
+        return mEncoder;
+    }
+
+    @Override
+    public int process(short[] frame, int size) throws NativeAudioException {
+        mEncoder.encode(frame, size);
+        return size;
+    }
+
+    @Override
+    public void destroy() {
+        mEncoder.destroy();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package se.lublin.humla.audio;
+
+/**
+ * Scales captured audio by a constant gain, clipping at the limits of 16 bit PCM.
+ */
+public class GainStage implements ICaptureStage {
+    private float mGain;
+
+    public GainStage(float gain) {
+        mGain = gain;
+    }
+
+    public void setGain(float gain) {
+        mGain = gain;
+    }
+
+    public float getGain() {
+        return mGain;
+    }
+
+    @Override
+    public int process(short[] frame, int size) {
+        float gain = mGain;
+        if (gain == 1.0f)
+            return size;
+        for (int i = 0; i < size; i++) {
+            // Java only guarantees the bounded preservation of sign in a narrowing
+            // primitive conversion from float -> int, not float -> int -> short.
+            float val = frame[i] * gain;
+            if (val > Short.MAX_VALUE) {
+                val = Short.MAX_VALUE;
+            } else if (val < Short.MIN_VALUE) {
+                val = Short.MIN_VALUE;
+            }
+            frame[i] = (short) val;
+        }
+        return size;
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
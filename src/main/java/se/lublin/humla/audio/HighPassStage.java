@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package se.lublin.humla.audio;
+
+/**
+ * Removes DC offset and rumble below the voice band with a second order Butterworth high-pass
+ * filter.
+ */
+public class HighPassStage implements ICaptureStage {
+    /** A cutoff below the fundamental of even low voices. */
+    public static final float DEFAULT_CUTOFF = 80;
+
+    private final float mB0, mB1, mB2, mA1, mA2;
+    // Direct form I state.
+    private float mX1, mX2, mY1, mY2;
+
+    public HighPassStage(int sampleRate, float cutoff) {
+        double w0 = 2 * Math.PI * cutoff / sampleRate;
+        double alpha = Math.sin(w0) / Math.sqrt(2);
+        double cos = Math.cos(w0);
+        double a0 = 1 + alpha;
+        mB0 = (float) ((1 + cos) / 2 / a0);
+        mB1 = (float) (-(1 + cos) / a0);
+        mB2 = mB0;
+        mA1 = (float) (-2 * cos / a0);
+        mA2 = (float) ((1 - alpha) / a0);
+    }
+
+    @Override
+    public int process(short[] frame, int size) {
+        float x1 = mX1, x2 = mX2, y1 = mY1, y2 = mY2;
+        for (int i = 0; i < size; i++) {
+            float x = frame[i];
+            float y = mB0 * x + mB1 * x1 + mB2 * x2 - mA1 * y1 - mA2 * y2;
+            x2 = x1;
+            x1 = x;
+            y2 = y1;
+            y1 = y;
+            if (y > Short.MAX_VALUE) {
+                y = Short.MAX_VALUE;
+            } else if (y < Short.MIN_VALUE) {
+                y = Short.MIN_VALUE;
+            }
+            frame[i] = (short) y;
+        }
+        // Keep denormals from creeping into the feedback path during digital silence.
+        if (Math.abs(y1) < 1e-10f) y1 = 0;
+        if (Math.abs(y2) < 1e-10f) y2 = 0;
+        mX1 = x1;
+        mX2 = x2;
+        mY1 = y1;
+        mY2 = y2;
+        return size;
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
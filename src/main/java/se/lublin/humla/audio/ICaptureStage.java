@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package se.lublin.humla.audio;
+
+import se.lublin.humla.exception.NativeAudioException;
+
+/**
+ * A step of the {@link CapturePipeline}, processing captured audio frame by frame.
+ */
+public interface ICaptureStage {
+    /**
+     * Processes a frame in place.
+     * @param frame The pipeline's shared frame buffer. It may be longer than the frame, and
+     *              stages that change the frame size may use all of it.
+     * @param size The number of samples in the frame.
+     * @return the number of samples in the frame afterwards, or 0 to stop processing this frame.
+     * @throws NativeAudioException if a native stage failed.
+     */
+    int process(short[] frame, int size) throws NativeAudioException;
+
+    /**
+     * Releases the stage's resources. It is not used afterwards.
+     */
+    void destroy();
+}
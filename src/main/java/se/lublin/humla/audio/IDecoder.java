@@ -47,6 +47,13 @@ public interface IDecoder {
      */
     public int decodeShort(ByteBuffer input, int inputSize, short[] output, int frameSize) throws NativeAudioException;
 
+    /**
+     * Clears the decoder's state so that it can decode a new, unrelated stream.
+     * @return true if the decoder was reset, false if it does not support resetting and must be
+     *         destroyed instead.
+     */
+    public boolean reset();
+
     /**
      * Deallocates native resources. The decoder must no longer be called after this.
      */
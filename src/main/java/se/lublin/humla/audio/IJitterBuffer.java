@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reorders incoming voice packets and releases them at playback time, absorbing network jitter.
+ * Timestamps and spans are measured in samples.
+ *
+ * Implementations are thread-safe: packets may be put on the network thread while the decode
+ * thread takes them.
+ */
+public interface IJitterBuffer {
+    /** Returned by {@link #get(ByteBuffer)} when no packet is available for this frame. */
+    int MISSING = -1;
+    /**
+     * Returned by {@link #get(ByteBuffer)} when the buffer holds back playback for a frame to grow
+     * its delay. Nothing was lost: the packet due, if any, is still buffered and played next.
+     */
+    int INSERTION = -2;
+
+    /**
+     * Adds a packet to the buffer.
+     * @param data The packet payload. Copied; may be reused after this call.
+     * @param length The length of the payload.
+     * @param timestamp The position of the packet in the stream, in samples.
+     * @param span The number of samples the packet decodes to.
+     * @param userData Opaque data returned by {@link #getUserData()} when the packet is taken.
+     */
+    void put(byte[] data, int length, int timestamp, int span, int userData);
+
+    /**
+     * Takes the packet due for playback, if any.
+     * @param dst A direct buffer to copy the payload to, starting at index zero.
+     * @return the length of the payload, {@link #MISSING} if no packet is available for this
+     *         frame, or {@link #INSERTION} if a frame is inserted to grow the delay.
+     */
+    int get(ByteBuffer dst);
+
+    /**
+     * Copies a buffered packet without taking it, to look ahead past a missing one.
+     * @param timestamp The exact timestamp of the packet.
+     * @param dst A direct buffer to copy the payload to, starting at index zero.
+     * @return the length of the payload, or -1 if no such packet is buffered.
+     */
+    int peek(int timestamp, ByteBuffer dst);
+
+    /**
+     * @return the user data of the last packet returned by {@link #get(ByteBuffer)}.
+     */
+    int getUserData();
+
+    /**
+     * @return the timestamp of the next frame to be played, or 0 if playback has not started.
+     */
+    int getPointerTimestamp();
+
+    /**
+     * @return the number of packets currently buffered.
+     */
+    int getAvailableCount();
+
+    /**
+     * @return the audio buffered ahead of the playback position, in samples.
+     */
+    int getDepth();
+
+    /**
+     * @return the depth the buffer aims to keep, in samples, or -1 if it manages its delay
+     *         internally and playout should not try to steer it.
+     */
+    int getTargetDelay();
+
+    /**
+     * Lets the buffer re-evaluate its playback delay. Called after a miss, and after all frames
+     * of a packet have been decoded.
+     */
+    void updateDelay();
+
+    /**
+     * Advances the buffer's notion of time by one frame.
+     */
+    void tick();
+
+    /**
+     * @return the number of samples in a frame, the unit the buffer advances by.
+     */
+    int getFrameSize();
+
+    /**
+     * @return a snapshot of the buffer's statistics.
+     */
+    JitterBufferStats getStats();
+
+    /**
+     * Discards all buffered packets and the playback position, so that a new talk spurt starts
+     * playback from its first packet. What the buffer learned about the network, and its
+     * statistics, are kept.
+     */
+    void restart();
+
+    /**
+     * Returns the buffer to its initial state, including statistics, so that it can be reused for
+     * another speaker.
+     */
+    void reset();
+
+    /**
+     * Frees any native resources. The buffer must not be used afterwards.
+     */
+    void destroy();
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package se.lublin.humla.audio;
+
+/**
+ * A cheap onset detector for raw captured frames, run on the capture thread while capture is
+ * idle. It only has to notice that something louder than the background started; the capture
+ * pipeline's own voice activity detection then decides whether it is speech.
+ *
+ * The level of a frame is its mean absolute deviation from the frame's mean, which ignores DC
+ * offset without filtering. It is compared against a noise floor that drops quickly to quieter
+ * frames and rises slowly towards louder ones, so steady noise does not count as an onset.
+ */
+public final class IdleGate {
+    /** Level over the noise floor that counts as an onset: 3.5dB. */
+    private static final int WAKE_RATIO_Q8 = 384;
+    /** The least level that may count as an onset, so that digital silence does not wake us. */
+    private static final int MIN_LEVEL = 8;
+    /** How long the noise floor takes to follow louder frames, in milliseconds. */
+    private static final int FLOOR_RISE_MS = 500;
+
+    private final int mRiseFrames;
+    private int mFloor = -1;
+
+    /**
+     * @param framesPerSecond The number of frames offered per second.
+     */
+    public IdleGate(int framesPerSecond) {
+        mRiseFrames = Math.max(1, framesPerSecond * FLOOR_RISE_MS / 1000);
+    }
+
+    /**
+     * Starts over with no noise floor, which the next frame then sets.
+     */
+    public void reset() {
+        mFloor = -1;
+    }
+
+    /**
+     * @param pcm The raw captured frame.
+     * @param length The number of samples in the frame.
+     * @return true if the frame is clearly louder than the recent background.
+     */
+    public boolean isOnset(short[] pcm, int length) {
+        if (length < 1)
+            return false;
+        long sum = 0;
+        for (int i = 0; i < length; i++)
+            sum += pcm[i];
+        int mean = (int) (sum / length);
+        long deviation = 0;
+        for (int i = 0; i < length; i++) {
+            int d = pcm[i] - mean;
+            deviation += d < 0 ? -d : d;
+        }
+        int level = (int) (deviation / length);
+
+        if (mFloor < 0) {
+            mFloor = level;
+            return false;
+        }
+        boolean onset = level >= MIN_LEVEL
+                && (long) level * 256 > (long) Math.max(mFloor, MIN_LEVEL) * WAKE_RATIO_Q8;
+        if (level < mFloor)
+            mFloor = (mFloor + level) / 2;
+        else
+            mFloor += (level - mFloor + mRiseFrames - 1) / mRiseFrames;
+        return onset;
+    }
+
+    /**
+     * @return the current noise floor, as a mean absolute deviation, or -1 if unset.
+     */
+    public int getFloor() {
+        return mFloor;
+    }
+}
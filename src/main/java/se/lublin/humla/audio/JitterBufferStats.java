@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.audio;
+
+/**
+ * A snapshot of a speaker's jitter buffer statistics. Times are measured in samples.
+ * Counters the underlying buffer cannot observe are reported as zero.
+ */
+public final class JitterBufferStats {
+    private final int mReceived;
+    private final int mPlayed;
+    private final int mLost;
+    private final int mLate;
+    private final int mDuplicates;
+    private final int mDropped;
+    private final int mInsertions;
+    private final int mBuffered;
+    private final int mTargetDelay;
+    private final int mDepth;
+    private final int mJitter;
+    private final int mRecovered;
+    private final int mConcealed;
+
+    public JitterBufferStats(int received, int played, int lost, int late, int duplicates,
+                             int dropped, int insertions, int buffered, int targetDelay,
+                             int depth, int jitter) {
+        this(received, played, lost, late, duplicates, dropped, insertions, buffered,
+                targetDelay, depth, jitter, 0, 0);
+    }
+
+    private JitterBufferStats(int received, int played, int lost, int late, int duplicates,
+                              int dropped, int insertions, int buffered, int targetDelay,
+                              int depth, int jitter, int recovered, int concealed) {
+        mReceived = received;
+        mPlayed = played;
+        mLost = lost;
+        mLate = late;
+        mDuplicates = duplicates;
+        mDropped = dropped;
+        mInsertions = insertions;
+        mBuffered = buffered;
+        mTargetDelay = targetDelay;
+        mDepth = depth;
+        mJitter = jitter;
+        mRecovered = recovered;
+        mConcealed = concealed;
+    }
+
+    /**
+     * @return a copy of these statistics with the decoder's loss handling counts added.
+     */
+    public JitterBufferStats withConcealment(int recovered, int concealed) {
+        return new JitterBufferStats(mReceived, mPlayed, mLost, mLate, mDuplicates, mDropped,
+                mInsertions, mBuffered, mTargetDelay, mDepth, mJitter, recovered, concealed);
+    }
+
+    /** @return the number of packets put into the buffer. */
+    public int getReceived() {
+        return mReceived;
+    }
+
+    /** @return the number of packets handed out for playback. */
+    public int getPlayed() {
+        return mPlayed;
+    }
+
+    /** @return the number of frames for which no packet was available when due. */
+    public int getLost() {
+        return mLost;
+    }
+
+    /** @return the number of packets discarded because they arrived after their playback time. */
+    public int getLate() {
+        return mLate;
+    }
+
+    /** @return the number of packets discarded because they were already buffered. */
+    public int getDuplicates() {
+        return mDuplicates;
+    }
+
+    /** @return the number of packets discarded to reduce delay or make room. */
+    public int getDropped() {
+        return mDropped;
+    }
+
+    /** @return the number of frames of delay inserted to grow the buffer. */
+    public int getInsertions() {
+        return mInsertions;
+    }
+
+    /** @return the number of packets currently buffered. */
+    public int getBuffered() {
+        return mBuffered;
+    }
+
+    /** @return the playback delay the buffer is aiming for. */
+    public int getTargetDelay() {
+        return mTargetDelay;
+    }
+
+    /** @return the amount of audio currently buffered ahead of playback. */
+    public int getDepth() {
+        return mDepth;
+    }
+
+    /** @return the estimated arrival jitter. */
+    public int getJitter() {
+        return mJitter;
+    }
+
+    /** @return the number of lost frames rebuilt from forward error correction data. */
+    public int getRecovered() {
+        return mRecovered;
+    }
+
+    /** @return the number of lost frames filled in by packet loss concealment. */
+    public int getConcealed() {
+        return mConcealed;
+    }
+
+    @Override
+    public String toString() {
+        return "received=" + mReceived + " played=" + mPlayed + " lost=" + mLost
+                + " late=" + mLate + " duplicates=" + mDuplicates + " dropped=" + mDropped
+                + " insertions=" + mInsertions + " buffered=" + mBuffered
+                + " target=" + mTargetDelay + " depth=" + mDepth + " jitter=" + mJitter
+                + " recovered=" + mRecovered + " concealed=" + mConcealed;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.lublin.humla.audio;
+
+/**
+ * Tracks how much of a real-time period is spent working, and paces the steps a governor takes
+ * in response.
+ *
+ * The load is an exponential moving average of busy time over period length. Above the high
+ * threshold the monitor asks to shed work, though no sooner than a number of periods after the
+ * last change, so that the previous step shows up in the average first. Below the low threshold
+ * it asks to recover work once the load has stayed there for a number of consecutive periods.
+ * Loads in between reset that count, so recovery needs uninterrupted headroom.
+ *
+ * Not thread-safe.
+ */
+public final class LoadMonitor {
+    /** Nothing to do. */
+    public static final int HOLD = 0;
+    /** The load is high; the caller should do less work per period. */
+    public static final int SHED = 1;
+    /** The load has been low for long enough; the caller may do more work per period. */
+    public static final int RECOVER = 2;
+
+    private final float mHighLoad;
+    private final float mLowLoad;
+    private final float mSmoothing;
+    private final int mShedInterval;
+    private final int mRecoverInterval;
+    private float mLoad;
+    private int mSinceChange;
+    private int mCalm;
+
+    /**
+     * @param highLoad The fraction of the period above which to shed work.
+     * @param lowLoad The fraction of the period below which work may be recovered.
+     * @param smoothing The weight of the newest measurement in the average, from 0 to 1.
+     * @param shedInterval The periods to wait after a change before shedding again.
+     * @param recoverInterval The consecutive low-load periods required to recover.
+     */
+    public LoadMonitor(float highLoad, float lowLoad, float smoothing, int shedInterval,
+                       int recoverInterval) {
+        if (lowLoad > highLoad)
+            throw new IllegalArgumentException("Low load must not exceed high load");
+        mHighLoad = highLoad;
+        mLowLoad = lowLoad;
+        mSmoothing = smoothing;
+        mShedInterval = shedInterval;
+        mRecoverInterval = recoverInterval;
+    }
+
+    /**
+     * Accounts for one period.
+     * @param busyNanos The time spent working during the period.
+     * @param periodNanos The duration of the period.
+     * @return {@link #SHED}, {@link #RECOVER} or {@link #HOLD}. Call {@link #changed()} if the
+     *         advice was acted upon.
+     */
+    public int update(long busyNanos, long periodNanos) {
+        mLoad += mSmoothing * ((float) busyNanos / periodNanos - mLoad);
+        mSinceChange++;
+        if (mLoad > mHighLoad) {
+            mCalm = 0;
+            return mSinceChange >= mShedInterval ? SHED : HOLD;
+        } else if (mLoad < mLowLoad) {
+            return ++mCalm >= mRecoverInterval ? RECOVER : HOLD;
+        }
+        mCalm = 0;
+        return HOLD;
+    }
+
+    /**
+     * Restarts both intervals after the caller changed how much work it does.
+     */
+    public void changed() {
+        mSinceChange = 0;
+        mCalm = 0;
+    }
+
+    /**
+     * @return the smoothed fraction of each period spent working.
+     */
+    public float getLoad() {
+        return mLoad;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.audio;
+
+/**
+ * A single-producer, single-consumer ring buffer of float PCM samples.
+ * One thread may write while another reads without locking.
+ */
+final class PcmRingBuffer {
+    private final float[] mBuffer;
+    private final int mMask;
+    /** Total samples ever written. Only modified by the producer. */
+    private volatile long mWritePosition;
+    /** Total samples ever read. Only modified by the consumer. */
+    private volatile long mReadPosition;
+
+    /**
+     * @param minCapacity The minimum number of samples the buffer must hold. Rounded up to the
+     *                    next power of two.
+     */
+    PcmRingBuffer(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(1, minCapacity - 1)) << 1;
+        mBuffer = new float[capacity];
+        mMask = capacity - 1;
+    }
+
+    int capacity() {
+        return mBuffer.length;
+    }
+
+    /**
+     * @return the number of samples ready to be read.
+     */
+    int available() {
+        return (int) (mWritePosition - mReadPosition);
+    }
+
+    /**
+     * @return the number of samples that can be written without overwriting unread data.
+     */
+    int free() {
+        return mBuffer.length - available();
+    }
+
+    /**
+     * Writes up to {@code length} samples. Producer only.
+     * @return the number of samples written, limited by the free space.
+     */
+    int write(float[] src, int offset, int length) {
+        long write = mWritePosition;
+        int count = Math.min(length, mBuffer.length - (int) (write - mReadPosition));
+        int start = (int) (write & mMask);
+        int first = Math.min(count, mBuffer.length - start);
+        System.arraycopy(src, offset, mBuffer, start, first);
+        System.arraycopy(src, offset + first, mBuffer, 0, count - first);
+        mWritePosition = write + count;
+        return count;
+    }
+
+    /**
+     * Discards all unread samples. Consumer only.
+     */
+    void clear() {
+        mReadPosition = mWritePosition;
+    }
+
+    /**
+     * Reads up to {@code length} samples. Consumer only.
+     * @return the number of samples read, limited by the available data.
+     */
+    int read(float[] dst, int offset, int length) {
+        long read = mReadPosition;
+        int count = Math.min(length, (int) (mWritePosition - read));
+        int start = (int) (read & mMask);
+        int first = Math.min(count, mBuffer.length - start);
+        System.arraycopy(mBuffer, start, dst, offset, first);
+        System.arraycopy(mBuffer, 0, dst, offset + first, count - first);
+        mReadPosition = read + count;
+        return count;
+    }
+}
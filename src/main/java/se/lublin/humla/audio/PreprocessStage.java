@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package se.lublin.humla.audio;
+
+import com.googlecode.javacpp.IntPointer;
+
+import se.lublin.humla.audio.javacpp.Speex;
+
+/**
+ * Applies automatic gain control, noise suppression and dereverberation using the Speex
+ * preprocessor.
+ */
+public class PreprocessStage implements ICaptureStage {
+    private final Speex.SpeexPreprocessState mPreprocessor;
+    private final int mFrameSize;
+
+    /**
+     * @param frameSize The number of samples in every frame processed.
+     */
+    public PreprocessStage(int frameSize, int sampleRate) {
+        mFrameSize = frameSize;
+        mPreprocessor = new Speex.SpeexPreprocessState(frameSize, sampleRate);
+
+        IntPointer arg = new IntPointer(1);
+
+        arg.put(0);
+        mPreprocessor.control(Speex.SpeexPreprocessState.SPEEX_PREPROCESS_SET_VAD, arg);
+        arg.put(1);
+        mPreprocessor.control(Speex.SpeexPreprocessState.SPEEX_PREPROCESS_SET_AGC, arg);
+        mPreprocessor.control(Speex.SpeexPreprocessState.SPEEX_PREPROCESS_SET_DENOISE, arg);
+        mPreprocessor.control(Speex.SpeexPreprocessState.SPEEX_PREPROCESS_SET_DEREVERB, arg);
+
+        arg.put(30000);
+        mPreprocessor.control(Speex.SpeexPreprocessState.SPEEX_PREPROCESS_SET_AGC_TARGET, arg);
+    }
+
+    /**
+     * Suppresses the echo left over by a canceller working on the same frames.
+     */
+    public void setEchoState(Speex.SpeexEchoState echo) {
+        mPreprocessor.setEchoState(echo);
+    }
+
+    @Override
+    public int process(short[] frame, int size) {
+        if (size != mFrameSize)
+            throw new IllegalArgumentException("The preprocessor requires " + mFrameSize
+                    + " samples per frame, got " + size);
+        // Speex processes the frame size it was created with, however long the buffer is.
+        mPreprocessor.preprocess(frame);
+        return size;
+    }
+
+    @Override
+    public void destroy() {
+        mPreprocessor.destroy();
+    }
+}
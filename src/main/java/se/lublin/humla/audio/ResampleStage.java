@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package se.lublin.humla.audio;
+
+import se.lublin.humla.audio.javacpp.Speex;
+
+/**
+ * Resamples captured audio to the rate of the encoder using the Speex resampler.
+ */
+public class ResampleStage implements ICaptureStage {
+    private static final int SPEEX_RESAMPLE_QUALITY = 3;
+
+    private final Speex.SpeexResampler mResampler;
+    private final short[] mInput;
+    private final int mOutputFrameSize;
+
+    /**
+     * @param inputFrameSize The number of samples in each frame received.
+     * @param outputFrameSize The number of samples in each frame produced. The pipeline's frame
+     *                        buffer must be able to hold it.
+     */
+    public ResampleStage(int inputSampleRate, int inputFrameSize, int outputSampleRate,
+                         int outputFrameSize) {
+        mResampler = new Speex.SpeexResampler(1, inputSampleRate, outputSampleRate,
+                SPEEX_RESAMPLE_QUALITY);
+        mInput = new short[inputFrameSize];
+        mOutputFrameSize = outputFrameSize;
+    }
+
+    @Override
+    public int process(short[] frame, int size) {
+        // The resampler cannot work in place.
+        System.arraycopy(frame, 0, mInput, 0, size);
+        mResampler.resample(mInput, size, frame, mOutputFrameSize);
+        return mOutputFrameSize;
+    }
+
+    @Override
+    public void destroy() {
+        mResampler.destroy();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.audio;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Mixes floating point PCM to shorts, applying a soft limiter instead of clipping.
+ *
+ * Sources are accumulated one at a time into a reused float buffer. Each pass is a plain loop over
+ * two arrays, which the JIT can unroll and vectorise, rather than one interface call per source
+ * per sample.
+ *
+ * The limiter is memoryless: levels up to {@link #KNEE} pass through unchanged, and anything above
+ * is compressed smoothly towards full scale, never reaching it. Overload from many simultaneous
+ * speakers therefore rounds off peaks instead of squaring them.
+ */
+public class SoftLimitingShortMixer implements IAudioMixer<float[], short[]> {
+    /** The level above which the limiter starts to compress, as a fraction of full scale. */
+    public static final float KNEE = 0.8f;
+    private static final float RANGE = 1 - KNEE;
+
+    private float[] mAccumulator = new float[0];
+
+    @Override
+    public void mix(Collection<IAudioMixerSource<float[]>> sources, short[] buffer, int bufferOffset,
+                    int bufferLength) {
+        if (mAccumulator.length < bufferLength)
+            mAccumulator = new float[bufferLength];
+        final float[] accumulator = mAccumulator;
+
+        if (sources instanceof List && sources instanceof RandomAccess) {
+            // Avoids allocating an iterator on every call.
+            List<IAudioMixerSource<float[]>> list = (List<IAudioMixerSource<float[]>>) sources;
+            int count = list.size();
+            if (count == 0) {
+                fill(accumulator, bufferLength);
+            } else {
+                copy(list.get(0), accumulator, bufferLength);
+                for (int i = 1; i < count; i++)
+                    accumulate(list.get(i), accumulator, bufferLength);
+            }
+        } else {
+            fill(accumulator, bufferLength);
+            for (IAudioMixerSource<float[]> source : sources)
+                accumulate(source, accumulator, bufferLength);
+        }
+
+        limit(accumulator, buffer, bufferOffset, bufferLength);
+    }
+
+    private static void fill(float[] accumulator, int length) {
+        for (int i = 0; i < length; i++)
+            accumulator[i] = 0;
+    }
+
+    private static void copy(IAudioMixerSource<float[]> source, float[] accumulator, int length) {
+        int count = Math.min(length, source.getNumSamples());
+        System.arraycopy(source.getSamples(), 0, accumulator, 0, count);
+        for (int i = count; i < length; i++)
+            accumulator[i] = 0;
+    }
+
+    private static void accumulate(IAudioMixerSource<float[]> source, float[] accumulator, int length) {
+        final float[] samples = source.getSamples();
+        final int count = Math.min(length, source.getNumSamples());
+        for (int i = 0; i < count; i++)
+            accumulator[i] += samples[i];
+    }
+
+    private static void limit(float[] accumulator, short[] buffer, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            float sample = accumulator[i];
+            float magnitude = Math.abs(sample);
+            if (magnitude > KNEE) {
+                // x / (1 + x) maps [0, inf) onto [0, 1) with unit slope at zero, so the curve
+                // joins the linear region smoothly.
+                float over = (magnitude - KNEE) / RANGE;
+                magnitude = KNEE + RANGE * over / (1 + over);
+                sample = sample < 0 ? -magnitude : magnitude;
+            }
+            buffer[offset + i] = (short) (sample * Short.MAX_VALUE);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.audio;
+
+import java.util.Arrays;
+
+/**
+ * A speaker's decoded audio waiting to be mixed. The decode thread writes samples ahead of
+ * playback while the playback thread reads a buffer's worth per mix cycle, without locking.
+ * Neither side allocates.
+ */
+public final class SpeakerPlayback {
+    private final PcmRingBuffer mRing;
+    private final float[] mMixBuffer;
+    private final Source mSource;
+
+    /**
+     * @param requestedSamples The number of samples read for each mix. Twice as many can be
+     *                         buffered ahead.
+     */
+    public SpeakerPlayback(int requestedSamples) {
+        mRing = new PcmRingBuffer(requestedSamples * 2);
+        mMixBuffer = new float[requestedSamples];
+        mSource = new Source(mMixBuffer);
+    }
+
+    /**
+     * @return the number of samples buffered.
+     */
+    public int available() {
+        return mRing.available();
+    }
+
+    /**
+     * @return the number of samples that can still be buffered.
+     */
+    public int free() {
+        return mRing.free();
+    }
+
+    /**
+     * Buffers decoded samples. Decode thread only.
+     * @return the number of samples written, limited by the free space.
+     */
+    public int write(float[] src, int offset, int length) {
+        return mRing.write(src, offset, length);
+    }
+
+    /**
+     * Discards all buffered samples. Playback thread only.
+     */
+    public void clear() {
+        mRing.clear();
+    }
+
+    /**
+     * Takes the next buffer of samples for mixing, padding with silence if decoding has fallen
+     * behind. Playback thread only.
+     * @param samples The number of samples to read, at most the requested sample count.
+     * @param finished Whether the speaker finished talking. Read it before calling; samples
+     *                 written before it was set are then guaranteed visible.
+     * @return a mixer source holding the samples, or null if the speaker finished talking and
+     *         all of its audio has been played.
+     */
+    public IAudioMixerSource<float[]> read(int samples, boolean finished) {
+        int read = mRing.read(mMixBuffer, 0, samples);
+        if (read == 0 && finished)
+            return null;
+        if (read < samples)
+            Arrays.fill(mMixBuffer, read, samples, 0);
+        mSource.mNumSamples = samples;
+        return mSource;
+    }
+
+    private static class Source implements IAudioMixerSource<float[]> {
+        private final float[] mSamples;
+        private int mNumSamples;
+
+        private Source(float[] samples) {
+            mSamples = samples;
+        }
+
+        @Override
+        public float[] getSamples() {
+            return mSamples;
+        }
+
+        @Override
+        public int getNumSamples() {
+            return mNumSamples;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.audio;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+
+import se.lublin.humla.audio.javacpp.CELT11;
+import se.lublin.humla.audio.javacpp.CELT7;
+import se.lublin.humla.audio.javacpp.Opus;
+import se.lublin.humla.audio.javacpp.Speex;
+import se.lublin.humla.exception.NativeAudioException;
+import se.lublin.humla.net.HumlaUDPMessageType;
+import se.lublin.humla.protocol.AudioHandler;
+
+/**
+ * Keeps decoders and jitter buffers of speakers that stopped talking, so that the next speaker
+ * can start without paying for native allocation and initialization.
+ *
+ * Resources are acquired on the ingest thread and released on the decode thread. Released
+ * resources are reset before they are pooled, so acquiring never does more than take one off a
+ * queue.
+ */
+final class SpeechResourcePool {
+    /** The number of idle decoders kept per codec, and of idle jitter buffers. */
+    static final int MAX_IDLE = 4;
+
+    private volatile String mJitterBufferType;
+    /** The frame size of the jitter buffers handed out, in samples. */
+    private volatile int mFrameSize;
+    private final Map<HumlaUDPMessageType, ArrayDeque<IDecoder>> mDecoders =
+            new EnumMap<>(HumlaUDPMessageType.class);
+    private final ArrayDeque<IJitterBuffer> mJitterBuffers = new ArrayDeque<>();
+
+    /**
+     * @param jitterBufferType One of {@link AudioOutput#JITTER_BUFFER_SPEEX} or
+     *                         {@link AudioOutput#JITTER_BUFFER_ADAPTIVE}.
+     * @param frameSize The number of samples jitter buffers advance by.
+     */
+    SpeechResourcePool(String jitterBufferType, int frameSize) {
+        mJitterBufferType = jitterBufferType;
+        mFrameSize = frameSize;
+    }
+
+    /**
+     * Changes the jitter buffer handed to speakers from now on, discarding idle ones that no
+     * longer match. Speakers keep the jitter buffer they have.
+     */
+    void setJitterBufferType(String jitterBufferType, int frameSize) {
+        synchronized (mJitterBuffers) {
+            if (jitterBufferType.equals(mJitterBufferType) && frameSize == mFrameSize)
+                return;
+            mJitterBufferType = jitterBufferType;
+            mFrameSize = frameSize;
+            for (IJitterBuffer jitterBuffer : mJitterBuffers)
+                jitterBuffer.destroy();
+            mJitterBuffers.clear();
+        }
+    }
+
+    /**
+     * @return an idle decoder for the codec, or a new one if none is pooled.
+     */
+    IDecoder acquireDecoder(HumlaUDPMessageType codec) throws NativeAudioException {
+        synchronized (mDecoders) {
+            ArrayDeque<IDecoder> idle = mDecoders.get(codec);
+            if (idle != null && !idle.isEmpty())
+                return idle.pop();
+        }
+        switch (codec) {
+            case UDPVoiceOpus:
+                return new Opus.OpusDecoder(AudioHandler.SAMPLE_RATE, 1);
+            case UDPVoiceCELTBeta:
+                return new CELT11.CELT11Decoder(AudioHandler.SAMPLE_RATE, 1);
+            case UDPVoiceCELTAlpha:
+                return new CELT7.CELT7Decoder(AudioHandler.SAMPLE_RATE, AudioHandler.FRAME_SIZE, 1);
+            case UDPVoiceSpeex:
+                return new Speex.SpeexDecoder();
+            default:
+                throw new NativeAudioException("Unsupported codec " + codec);
+        }
+    }
+
+    /**
+     * Resets the decoder and keeps it for reuse, or destroys it if the pool is full.
+     */
+    void releaseDecoder(HumlaUDPMessageType codec, IDecoder decoder) {
+        if (decoder.reset()) {
+            synchronized (mDecoders) {
+                ArrayDeque<IDecoder> idle = mDecoders.get(codec);
+                if (idle == null) {
+                    idle = new ArrayDeque<>(MAX_IDLE);
+                    mDecoders.put(codec, idle);
+                }
+                if (idle.size() < MAX_IDLE) {
+                    idle.push(decoder);
+                    return;
+                }
+            }
+        }
+        decoder.destroy();
+    }
+
+    /**
+     * @return an idle jitter buffer, or a new one if none is pooled.
+     */
+    IJitterBuffer acquireJitterBuffer() {
+        synchronized (mJitterBuffers) {
+            if (!mJitterBuffers.isEmpty())
+                return mJitterBuffers.pop();
+        }
+        if (AudioOutput.JITTER_BUFFER_ADAPTIVE.equals(mJitterBufferType))
+            return new AdaptiveJitterBuffer(mFrameSize, AudioHandler.SAMPLE_RATE);
+        return new SpeexJitterBuffer(mFrameSize, AudioOutputSpeech.MAX_PACKET_SIZE);
+    }
+
+    /**
+     * Resets the jitter buffer and keeps it for reuse, or destroys it if the pool is full.
+     */
+    void releaseJitterBuffer(IJitterBuffer jitterBuffer) {
+        jitterBuffer.reset();
+        synchronized (mJitterBuffers) {
+            boolean adaptive = AudioOutput.JITTER_BUFFER_ADAPTIVE.equals(mJitterBufferType);
+            if (mJitterBuffers.size() < MAX_IDLE
+                    && (jitterBuffer instanceof AdaptiveJitterBuffer) == adaptive
+                    && jitterBuffer.getFrameSize() == mFrameSize) {
+                mJitterBuffers.push(jitterBuffer);
+                return;
+            }
+        }
+        jitterBuffer.destroy();
+    }
+
+    /**
+     * Destroys all pooled resources. The pool can still be used afterwards.
+     */
+    void clear() {
+        synchronized (mDecoders) {
+            for (ArrayDeque<IDecoder> idle : mDecoders.values()) {
+                for (IDecoder decoder : idle)
+                    decoder.destroy();
+                idle.clear();
+            }
+        }
+        synchronized (mJitterBuffers) {
+            for (IJitterBuffer jitterBuffer : mJitterBuffers)
+                jitterBuffer.destroy();
+            mJitterBuffers.clear();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.audio;
+
+import com.googlecode.javacpp.IntPointer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import se.lublin.humla.audio.javacpp.Speex;
+
+/**
+ * An {@link IJitterBuffer} backed by the native Speex jitter buffer.
+ *
+ * Speex can only resynchronise to a new talk spurt by resetting, which also forgets the delay it
+ * learned. Instead, the native buffer keeps running across spurts and each new spurt's
+ * timestamps are shifted to start at its playback pointer, see {@link SpurtTimeline}.
+ */
+public class SpeexJitterBuffer implements IJitterBuffer {
+    /** Number of recent packets kept in Java for {@link #peek(int, ByteBuffer)}. */
+    private static final int LOOKAHEAD_SLOTS = 16;
+    /** More than the native buffer can hold, bounding how long a restart drains it. */
+    private static final int MAX_DRAIN = 256;
+
+    private final Speex.JitterBuffer mJitterBuffer;
+    private final int mFrameSize;
+    // Native structs reused for every call.
+    private final ByteBuffer mPutData;
+    private final Speex.JitterBufferPacket mPutPacket;
+    private final Speex.JitterBufferPacket mGetPacket;
+    private final IntPointer mAvailable = new IntPointer(1);
+    private final IntPointer mStartOffset = new IntPointer(1);
+    private final SpurtTimeline mTimeline = new SpurtTimeline();
+    private final int mMaxPacketSize;
+    private ByteBuffer mGetData;
+    private int mUserData;
+    private int mReceived;
+    private int mPlayed;
+    private int mLost;
+    private boolean mDestroyed;
+    // The native buffer can't be inspected, so recent packets are mirrored for peeking.
+    private final byte[][] mRecentData = new byte[LOOKAHEAD_SLOTS][];
+    private final int[] mRecentLength = new int[LOOKAHEAD_SLOTS];
+    private final int[] mRecentTimestamp = new int[LOOKAHEAD_SLOTS];
+    private final boolean[] mRecentValid = new boolean[LOOKAHEAD_SLOTS];
+
+    /**
+     * @param frameSize The number of samples in a frame.
+     * @param maxPacketSize The largest payload that will be put into the buffer.
+     */
+    public SpeexJitterBuffer(int frameSize, int maxPacketSize) {
+        mFrameSize = frameSize;
+        mMaxPacketSize = maxPacketSize;
+        mJitterBuffer = new Speex.JitterBuffer(frameSize);
+        IntPointer margin = new IntPointer(1);
+        margin.put(10 * frameSize);
+        mJitterBuffer.control(Speex.JitterBuffer.JITTER_BUFFER_SET_MARGIN, margin);
+        mPutData = ByteBuffer.allocateDirect(maxPacketSize);
+        mPutPacket = new Speex.JitterBufferPacket(mPutData, 0, 0, 0, 0, 0);
+        mGetPacket = new Speex.JitterBufferPacket((ByteBuffer) null, 0, 0, 0, 0, 0);
+    }
+
+    @Override
+    public synchronized void put(byte[] data, int length, int timestamp, int span, int userData) {
+        if (length > mMaxPacketSize)
+            return;
+        // Speex copies the payload, so a single direct buffer serves every put.
+        mPutData.clear();
+        mPutData.put(data, 0, length);
+        mPutPacket.setLength(length);
+        mPutPacket.setTimestamp(mTimeline.toBuffer(timestamp,
+                mJitterBuffer.getPointerTimestamp()));
+        mPutPacket.setSpan(span);
+        mPutPacket.setUserData(userData);
+        mJitterBuffer.put(mPutPacket);
+        mReceived++;
+
+        int slot = (timestamp / mFrameSize) & (LOOKAHEAD_SLOTS - 1);
+        if (mRecentData[slot] == null || mRecentData[slot].length < length)
+            mRecentData[slot] = new byte[Math.max(length, 256)];
+        System.arraycopy(data, 0, mRecentData[slot], 0, length);
+        mRecentLength[slot] = length;
+        mRecentTimestamp[slot] = timestamp;
+        mRecentValid[slot] = true;
+    }
+
+    @Override
+    public synchronized int peek(int timestamp, ByteBuffer dst) {
+        int slot = (timestamp / mFrameSize) & (LOOKAHEAD_SLOTS - 1);
+        if (!mRecentValid[slot] || mRecentTimestamp[slot] != timestamp)
+            return -1;
+        int length = mRecentLength[slot];
+        dst.clear();
+        dst.put(mRecentData[slot], 0, length);
+        dst.flip();
+        return length;
+    }
+
+    @Override
+    public synchronized int get(ByteBuffer dst) {
+        int result = getNative(dst);
+        if (result == Speex.JitterBuffer.JITTER_BUFFER_INSERTION)
+            return INSERTION;
+        if (result != Speex.JitterBuffer.JITTER_BUFFER_OK) {
+            mLost++;
+            return MISSING;
+        }
+        mPlayed++;
+        mTimeline.played();
+        mUserData = mGetPacket.getUserData();
+        return mGetPacket.getLength();
+    }
+
+    private int getNative(ByteBuffer dst) {
+        if (dst != mGetData) {
+            mGetPacket.setData(dst);
+            mGetData = dst;
+        }
+        mGetPacket.setLength(dst.capacity());
+        return mJitterBuffer.get(mGetPacket, null);
+    }
+
+    @Override
+    public synchronized int getUserData() {
+        return mUserData;
+    }
+
+    @Override
+    public synchronized int getPointerTimestamp() {
+        return mTimeline.fromBuffer(mJitterBuffer.getPointerTimestamp());
+    }
+
+    @Override
+    public synchronized int getAvailableCount() {
+        mAvailable.put(0);
+        mJitterBuffer.control(Speex.JitterBuffer.JITTER_BUFFER_GET_AVAILABLE_COUNT, mAvailable);
+        return mAvailable.get();
+    }
+
+    @Override
+    public synchronized int getDepth() {
+        return getAvailableCount() * mFrameSize;
+    }
+
+    @Override
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    @Override
+    public int getTargetDelay() {
+        // Speex adapts its delay by dropping and inserting frames itself.
+        return -1;
+    }
+
+    @Override
+    public synchronized void updateDelay() {
+        mJitterBuffer.updateDelay(null, mStartOffset);
+    }
+
+    @Override
+    public synchronized void tick() {
+        mJitterBuffer.tick();
+    }
+
+    @Override
+    public synchronized void restart() {
+        // Play out what is left of the last spurt, so that the next starts at the pointer.
+        ByteBuffer scratch = mGetData != null ? mGetData : ByteBuffer.allocateDirect(mMaxPacketSize);
+        for (int i = 0; i < MAX_DRAIN && getAvailableCount() > 0; i++) {
+            getNative(scratch);
+            mJitterBuffer.tick();
+        }
+        mTimeline.restart();
+        Arrays.fill(mRecentValid, false);
+    }
+
+    @Override
+    public synchronized void reset() {
+        mJitterBuffer.reset();
+        mTimeline.reset();
+        Arrays.fill(mRecentValid, false);
+        mUserData = 0;
+        mReceived = 0;
+        mPlayed = 0;
+        mLost = 0;
+    }
+
+    @Override
+    public synchronized JitterBufferStats getStats() {
+        // Statistics may be requested from any thread, including after the speaker was retired.
+        int available = mDestroyed ? 0 : getAvailableCount();
+        return new JitterBufferStats(mReceived, mPlayed, mLost, 0, 0, 0, 0, available, 0,
+                available * mFrameSize, 0);
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (mDestroyed)
+            return;
+        mDestroyed = true;
+        mJitterBuffer.destroy();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.audio;
+
+/**
+ * Maps a speaker's packet timestamps onto the timeline of a jitter buffer that keeps running
+ * across talk spurts. Rather than resetting such a buffer for each spurt, and with it what the
+ * buffer learned about the network, the first packet of a new spurt is placed at the buffer's
+ * playback pointer, as if the buffer had resynchronised to it. Not thread-safe.
+ */
+public final class SpurtTimeline {
+    /** Added to a speaker timestamp to get a buffer timestamp. */
+    private int mOffset;
+    /** Whether the next packet starts a new spurt. */
+    private boolean mRebase;
+    /** Whether nothing has been played since the last restart. */
+    private boolean mResyncing;
+
+    /**
+     * Starts a new talk spurt: the next packet is placed at the playback pointer.
+     */
+    public void restart() {
+        mRebase = true;
+        mResyncing = true;
+    }
+
+    /**
+     * Goes back to mapping timestamps unchanged, for a buffer that was reset itself.
+     */
+    public void reset() {
+        mOffset = 0;
+        mRebase = false;
+        mResyncing = false;
+    }
+
+    /**
+     * @param timestamp A packet's timestamp, as sent by the speaker.
+     * @param pointer The buffer's playback pointer.
+     * @return the timestamp to put the packet into the buffer with.
+     */
+    public int toBuffer(int timestamp, int pointer) {
+        if (mRebase) {
+            mOffset = pointer - timestamp;
+            mRebase = false;
+        }
+        return timestamp + mOffset;
+    }
+
+    /**
+     * @param pointer The buffer's playback pointer.
+     * @return the pointer as a speaker timestamp, or 0 until a packet of a new spurt was played,
+     *         like a freshly reset buffer.
+     */
+    public int fromBuffer(int pointer) {
+        return mResyncing ? 0 : pointer - mOffset;
+    }
+
+    /**
+     * Records that a packet was taken from the buffer for playback.
+     */
+    public void played() {
+        mResyncing = false;
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.audio;
+
+import java.util.Arrays;
+
+/**
+ * Changes the playback speed of mono PCM without changing its pitch, using WSOLA (waveform
+ * similarity overlap-add).
+ *
+ * Input is cut into overlapping segments. Each new segment is taken from around where it would
+ * nominally start at the current rate, shifted to the position whose waveform best matches the
+ * end of the previous segment, and cross-faded into it. Playing faster skips whole pitch periods
+ * instead of shortening them, so voices do not sound higher.
+ *
+ * At a rate of exactly 1 the input passes through unchanged, delayed by one overlap. Switching
+ * between pass-through and stretching is seamless in both directions.
+ *
+ * Not thread-safe.
+ */
+public final class TimeStretcher {
+    /** Segment length at 48kHz: 20ms, about two to ten pitch periods of speech. */
+    public static final int DEFAULT_SEGMENT = 960;
+    /** Cross-fade length at 48kHz: 5ms. */
+    public static final int DEFAULT_OVERLAP = 240;
+    /** Range searched for the best matching segment at 48kHz: 10ms, a deep voice's pitch period. */
+    public static final int DEFAULT_SEEK = 480;
+
+    private final int mSegment;
+    private final int mOverlap;
+    private final int mSeek;
+    private final float[] mFade;
+    private final float[] mTail;
+    private boolean mHasTail;
+    /** Whether the input is positioned right after the tail, as in pass-through. */
+    private boolean mAligned = true;
+
+    private float[] mInput;
+    private int mInputLength;
+    private float[] mOutput;
+    private int mOutputStart;
+    private int mOutputLength;
+
+    private float mRate = 1;
+    private double mSkipFraction;
+
+    public TimeStretcher() {
+        this(DEFAULT_SEGMENT, DEFAULT_OVERLAP, DEFAULT_SEEK);
+    }
+
+    /**
+     * @param segment The length of each segment, in samples.
+     * @param overlap The length of each cross-fade, in samples. At most half the segment.
+     * @param seek The number of positions searched for each segment.
+     */
+    public TimeStretcher(int segment, int overlap, int seek) {
+        if (overlap <= 0 || overlap * 2 > segment || seek <= 0)
+            throw new IllegalArgumentException("Invalid segment, overlap or seek length");
+        mSegment = segment;
+        mOverlap = overlap;
+        mSeek = seek;
+        mTail = new float[overlap];
+        mFade = new float[overlap];
+        for (int i = 0; i < overlap; i++)
+            mFade[i] = (float) (0.5 - 0.5 * Math.cos(Math.PI * (i + 0.5) / overlap));
+        mInput = new float[(seek + segment) * 2];
+        mOutput = new float[segment * 2];
+    }
+
+    /**
+     * Sets the playback rate. Above 1 plays faster, producing fewer samples than were written.
+     * @param rate The rate, between 0.5 and 2.
+     */
+    public void setRate(float rate) {
+        if (rate < 0.5f || rate > 2f)
+            throw new IllegalArgumentException("Rate out of range: " + rate);
+        mRate = rate;
+    }
+
+    public float getRate() {
+        return mRate;
+    }
+
+    /**
+     * Adds samples to be stretched.
+     */
+    public void write(float[] src, int offset, int length) {
+        if (mInputLength + length > mInput.length)
+            mInput = Arrays.copyOf(mInput, Math.max(mInput.length * 2, mInputLength + length));
+        System.arraycopy(src, offset, mInput, mInputLength, length);
+        mInputLength += length;
+        process();
+    }
+
+    /**
+     * @return the number of stretched samples ready to be read.
+     */
+    public int available() {
+        return mOutputLength;
+    }
+
+    /**
+     * Takes up to {@code length} stretched samples.
+     * @return the number of samples read.
+     */
+    public int read(float[] dst, int offset, int length) {
+        int count = Math.min(length, mOutputLength);
+        System.arraycopy(mOutput, mOutputStart, dst, offset, count);
+        mOutputStart += count;
+        mOutputLength -= count;
+        if (mOutputLength == 0)
+            mOutputStart = 0;
+        return count;
+    }
+
+    /**
+     * Makes all written input available as output, e.g. at the end of a talk spurt.
+     */
+    public void flush() {
+        if (mHasTail) {
+            if (mInputLength >= mOverlap) {
+                crossfade(0);
+                emit(mInput, mOverlap, mInputLength - mOverlap);
+            } else {
+                emit(mTail, 0, mOverlap);
+            }
+        } else {
+            emit(mInput, 0, mInputLength);
+        }
+        mInputLength = 0;
+        mHasTail = false;
+        mAligned = true;
+        mSkipFraction = 0;
+    }
+
+    /**
+     * Discards all input and output.
+     */
+    public void reset() {
+        mInputLength = 0;
+        mOutputStart = 0;
+        mOutputLength = 0;
+        mHasTail = false;
+        mAligned = true;
+        mSkipFraction = 0;
+    }
+
+    private void process() {
+        if (!mHasTail) {
+            if (mInputLength < mOverlap)
+                return;
+            // The tail always covers the same input as the start of the next segment, so the first
+            // cross-fade is between identical samples.
+            System.arraycopy(mInput, 0, mTail, 0, mOverlap);
+            mHasTail = true;
+        }
+
+        if (mRate == 1) {
+            if (!mAligned) {
+                // Leaving stretching: line up with the tail once, then pass through.
+                if (mInputLength < mSeek + 2 * mOverlap)
+                    return;
+                consume(bestOffset());
+                mAligned = true;
+            }
+            if (mInputLength < 2 * mOverlap)
+                return;
+            // Hold back one overlap as the next tail.
+            int end = mInputLength - mOverlap;
+            crossfade(0);
+            emit(mInput, mOverlap, end - mOverlap);
+            System.arraycopy(mInput, end, mTail, 0, mOverlap);
+            consume(end);
+            mSkipFraction = 0;
+            return;
+        }
+
+        while (mInputLength >= mSeek + mSegment) {
+            int offset = bestOffset();
+            crossfade(offset);
+            emit(mInput, offset + mOverlap, mSegment - 2 * mOverlap);
+            System.arraycopy(mInput, offset + mSegment - mOverlap, mTail, 0, mOverlap);
+
+            // Advance by the nominal hop at this rate, regardless of where the segment was found.
+            double advance = (mSegment - mOverlap) * (double) mRate + mSkipFraction;
+            int skip = (int) advance;
+            mSkipFraction = advance - skip;
+            consume(skip);
+            mAligned = false;
+        }
+    }
+
+    /**
+     * Finds the input position, within the seek range, whose start best matches the tail by
+     * normalised cross-correlation. Searches every other position on every other sample first,
+     * then refines around the best candidate.
+     */
+    private int bestOffset() {
+        final float[] input = mInput;
+        final float[] tail = mTail;
+        final int overlap = mOverlap;
+        int range = Math.min(mSeek, mInputLength - overlap + 1);
+
+        float energy = 0;
+        for (int i = 0; i < overlap; i += 2)
+            energy += input[i] * input[i];
+
+        int best = 0;
+        float bestScore = -Float.MAX_VALUE;
+        for (int offset = 0; offset < range; offset += 2) {
+            float correlation = 0;
+            for (int i = 0; i < overlap; i += 2)
+                correlation += tail[i] * input[offset + i];
+            float score = correlation / (float) Math.sqrt(energy + 1e-9f);
+            if (score > bestScore) {
+                bestScore = score;
+                best = offset;
+            }
+            // Slide the energy window along by two samples.
+            if (offset + overlap < mInputLength) {
+                float out = input[offset];
+                float in = input[offset + overlap];
+                energy += in * in - out * out;
+                if (energy < 0)
+                    energy = 0;
+            }
+        }
+
+        int coarse = best;
+        bestScore = score(coarse);
+        for (int offset = coarse - 1; offset <= coarse + 1; offset += 2) {
+            if (offset < 0 || offset >= range)
+                continue;
+            float score = score(offset);
+            if (score > bestScore) {
+                bestScore = score;
+                best = offset;
+            }
+        }
+        return best;
+    }
+
+    private float score(int offset) {
+        float correlation = 0;
+        float energy = 0;
+        for (int i = 0; i < mOverlap; i++) {
+            float sample = mInput[offset + i];
+            correlation += mTail[i] * sample;
+            energy += sample * sample;
+        }
+        return correlation / (float) Math.sqrt(energy + 1e-9f);
+    }
+
+    /** Cross-fades from the tail into the input at the given offset. */
+    private void crossfade(int offset) {
+        ensureOutput(mOverlap);
+        int position = mOutputStart + mOutputLength;
+        for (int i = 0; i < mOverlap; i++) {
+            float fade = mFade[i];
+            mOutput[position + i] = mTail[i] * (1 - fade) + mInput[offset + i] * fade;
+        }
+        mOutputLength += mOverlap;
+    }
+
+    private void emit(float[] src, int offset, int length) {
+        if (length <= 0)
+            return;
+        ensureOutput(length);
+        System.arraycopy(src, offset, mOutput, mOutputStart + mOutputLength, length);
+        mOutputLength += length;
+    }
+
+    private void ensureOutput(int length) {
+        if (mOutputStart + mOutputLength + length <= mOutput.length)
+            return;
+        if (mOutputStart > 0) {
+            System.arraycopy(mOutput, mOutputStart, mOutput, 0, mOutputLength);
+            mOutputStart = 0;
+        }
+        if (mOutputLength + length > mOutput.length)
+            mOutput = Arrays.copyOf(mOutput, Math.max(mOutput.length * 2, mOutputLength + length));
+    }
+
+    private void consume(int count) {
+        mInputLength -= count;
+        System.arraycopy(mInput, count, mInput, 0, mInputLength);
+    }
+}
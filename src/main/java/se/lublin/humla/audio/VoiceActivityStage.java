@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package se.lublin.humla.audio;
+
+import se.lublin.humla.audio.inputmode.IInputMode;
+
+/**
+ * Stops frames that should not be transmitted, as decided by an {@link IInputMode} or because
+ * the user is muted. Later stages then only run while talking.
+ */
+public class VoiceActivityStage implements ICaptureStage {
+    private volatile IInputMode mInputMode;
+    private volatile boolean mMuted;
+    private boolean mTalking;
+
+    public VoiceActivityStage(IInputMode inputMode) {
+        mInputMode = inputMode;
+    }
+
+    public void setInputMode(IInputMode inputMode) {
+        mInputMode = inputMode;
+    }
+
+    public void setMuted(boolean muted) {
+        mMuted = muted;
+    }
+
+    /**
+     * @return true if the last frame processed is to be transmitted.
+     */
+    public boolean isTalking() {
+        return mTalking;
+    }
+
+    @Override
+    public int process(short[] frame, int size) {
+        mTalking = mInputMode.shouldTransmit(frame, size) && !mMuted;
+        return mTalking ? size : 0;
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
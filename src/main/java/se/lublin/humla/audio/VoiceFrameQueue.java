@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.audio;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import se.lublin.humla.net.PacketBuffer;
+
+/**
+ * Splits the audio payload of a voice packet into codec frames without allocating.
+ *
+ * The packet is parsed in place; frames are then copied one at a time into a caller-provided
+ * direct buffer, since the native decoders read from the start of a buffer regardless of its
+ * position. Not thread-safe.
+ */
+public final class VoiceFrameQueue {
+    /** Legacy codecs pack at most a handful of frames per packet; anything beyond is dropped. */
+    private static final int MAX_FRAMES = 64;
+
+    private final ByteBuffer mPacket;
+    private final PacketBuffer mReader;
+    private final int[] mOffsets = new int[MAX_FRAMES];
+    private final int[] mLengths = new int[MAX_FRAMES];
+    private int mCount;
+    private int mNext;
+    private boolean mTerminator;
+
+    /**
+     * @param packet The buffer voice packets are read from. Its contents are parsed by
+     *               {@link #parse(int, boolean)} and must not change until all frames are polled.
+     */
+    public VoiceFrameQueue(ByteBuffer packet) {
+        mPacket = packet;
+        mReader = new PacketBuffer(packet);
+    }
+
+    /**
+     * Replaces the queued frames with those of the packet currently in the buffer.
+     * A malformed packet yields the frames that could be read before the error.
+     * @param length The length of the packet's audio payload.
+     * @param opus true if the payload is Opus, false for the CELT and Speex framing.
+     */
+    public void parse(int length, boolean opus) {
+        mCount = 0;
+        mNext = 0;
+        mTerminator = false;
+        mPacket.clear();
+        mPacket.limit(length);
+        try {
+            if (opus) {
+                long header = mReader.readLong();
+                int size = (int) (header & ((1 << 13) - 1));
+                mTerminator = (header & (1 << 13)) > 0;
+                add(size);
+            } else {
+                int header;
+                do {
+                    header = mReader.next();
+                    int size = header & 0x7f;
+                    if (header > 0) {
+                        add(size);
+                    } else {
+                        mTerminator = true;
+                    }
+                } while ((header & 0x80) > 0);
+            }
+        } catch (BufferUnderflowException e) {
+            // Truncated packet; keep what we have.
+        } catch (BufferOverflowException e) {
+            // Too many frames; keep what we have.
+        }
+    }
+
+    private void add(int size) {
+        if (size > mReader.left())
+            throw new BufferUnderflowException();
+        if (mCount == MAX_FRAMES)
+            throw new BufferOverflowException();
+        mOffsets[mCount] = mPacket.position();
+        mLengths[mCount] = size;
+        mCount++;
+        mReader.skip(size);
+    }
+
+    public boolean isEmpty() {
+        return mNext >= mCount;
+    }
+
+    /**
+     * @return true if the parsed packet marked the end of a transmission.
+     */
+    public boolean hasTerminator() {
+        return mTerminator;
+    }
+
+    /**
+     * Copies the next frame to the start of the given buffer.
+     * @param dst A buffer at least as large as the frame. Its position is left at zero and its
+     *            limit at the frame's length.
+     * @return the length of the frame, or -1 if the queue is empty.
+     */
+    public int poll(ByteBuffer dst) {
+        if (isEmpty())
+            return -1;
+        int offset = mOffsets[mNext];
+        int length = mLengths[mNext];
+        mNext++;
+        mPacket.limit(offset + length);
+        mPacket.position(offset);
+        dst.clear();
+        dst.put(mPacket);
+        dst.flip();
+        return length;
+    }
+
+    public void clear() {
+        mCount = 0;
+        mNext = 0;
+        mTerminator = false;
+    }
+}
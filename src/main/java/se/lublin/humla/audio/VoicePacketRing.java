@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.audio;
+
+/**
+ * A single-producer, single-consumer ring of voice packets waiting to enter a jitter buffer.
+ * The network thread offers packets while the decode thread drains them, without locking, so
+ * neither ever waits for the other.
+ */
+final class VoicePacketRing {
+    /** The initial size of each slot's payload array; grown on demand. */
+    private static final int INITIAL_PACKET_SIZE = 256;
+
+    private final byte[][] mData;
+    private final int[] mLength;
+    private final int[] mTimestamp;
+    private final int[] mSpan;
+    private final int[] mUserData;
+    private final int mMask;
+    /** Total packets ever offered. Only modified by the producer. */
+    private volatile long mWritePosition;
+    /** Total packets ever drained. Only modified by the consumer. */
+    private volatile long mReadPosition;
+
+    /**
+     * @param minCapacity The minimum number of packets the ring must hold. Rounded up to the next
+     *                    power of two.
+     */
+    VoicePacketRing(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(1, minCapacity - 1)) << 1;
+        mData = new byte[capacity][];
+        mLength = new int[capacity];
+        mTimestamp = new int[capacity];
+        mSpan = new int[capacity];
+        mUserData = new int[capacity];
+        mMask = capacity - 1;
+    }
+
+    /**
+     * Copies a packet into the ring. Producer only.
+     * @return false if the ring was full and the packet was dropped.
+     */
+    boolean offer(byte[] data, int length, int timestamp, int span, int userData) {
+        long write = mWritePosition;
+        if (write - mReadPosition >= mData.length) {
+            return false;
+        }
+        int slot = (int) (write & mMask);
+        byte[] buffer = mData[slot];
+        if (buffer == null || buffer.length < length) {
+            buffer = new byte[Math.max(length, INITIAL_PACKET_SIZE)];
+            mData[slot] = buffer;
+        }
+        System.arraycopy(data, 0, buffer, 0, length);
+        mLength[slot] = length;
+        mTimestamp[slot] = timestamp;
+        mSpan[slot] = span;
+        mUserData[slot] = userData;
+        mWritePosition = write + 1;
+        return true;
+    }
+
+    /**
+     * @return true if no packets are waiting to be drained.
+     */
+    boolean isEmpty() {
+        return mWritePosition == mReadPosition;
+    }
+
+    /**
+     * Discards all queued packets. Consumer only.
+     */
+    void clear() {
+        mReadPosition = mWritePosition;
+    }
+
+    /**
+     * Moves all queued packets into the given jitter buffer. Consumer only.
+     * @return the number of packets moved.
+     */
+    int drainTo(IJitterBuffer jitterBuffer) {
+        long read = mReadPosition;
+        long write = mWritePosition;
+        for (long i = read; i < write; i++) {
+            int slot = (int) (i & mMask);
+            jitterBuffer.put(mData[slot], mLength[slot], mTimestamp[slot], mSpan[slot],
+                    mUserData[slot]);
+        }
+        mReadPosition = write;
+        return (int) (write - read);
+    }
+}
@@ -99,6 +99,26 @@ public class CELT11Encoder implements IEncoder {
         // TODO
     }
 
+    @Override
+    public boolean setComplexity(int complexity) {
+        return false;
+    }
+
+    @Override
+    public boolean setDtx(boolean enabled) {
+        return false;
+    }
+
+    @Override
+    public boolean setSignal(int signal) {
+        return false;
+    }
+
+    @Override
+    public boolean setMaxBandwidth(int bandwidth) {
+        return false;
+    }
+
     @Override
     public void destroy() {
         CELT11.celt_encoder_destroy(mState);
@@ -112,6 +112,26 @@ public class CELT7Encoder implements IEncoder {
         mReady = true;
     }
 
+    @Override
+    public boolean setComplexity(int complexity) {
+        return false;
+    }
+
+    @Override
+    public boolean setDtx(boolean enabled) {
+        return false;
+    }
+
+    @Override
+    public boolean setSignal(int signal) {
+        return false;
+    }
+
+    @Override
+    public boolean setMaxBandwidth(int bandwidth) {
+        return false;
+    }
+
     @Override
     public void destroy() {
         CELT7.celt_encoder_destroy(mState);
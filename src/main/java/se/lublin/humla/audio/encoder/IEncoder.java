@@ -28,6 +28,20 @@ import se.lublin.humla.net.PacketBuffer;
  * Created by andrew on 07/03/14.
  */
 public interface IEncoder {
+    /** Lets the encoder choose, for {@link #setSignal(int)}. */
+    public static final int SIGNAL_AUTO = 0;
+    /** Tunes the encoder for speech, for {@link #setSignal(int)}. */
+    public static final int SIGNAL_VOICE = 1;
+    /** Tunes the encoder for music, for {@link #setSignal(int)}. */
+    public static final int SIGNAL_MUSIC = 2;
+
+    /** Audio bandwidths in Hz for {@link #setMaxBandwidth(int)}, 0 meaning no limit. */
+    public static final int BANDWIDTH_FULL = 0;
+    public static final int BANDWIDTH_NARROWBAND = 4000;
+    public static final int BANDWIDTH_MEDIUMBAND = 6000;
+    public static final int BANDWIDTH_WIDEBAND = 8000;
+    public static final int BANDWIDTH_SUPERWIDEBAND = 12000;
+
     /**
      * Encodes the provided input and returns the number of bytes encoded.
      * @param input The short PCM data to encode.
@@ -60,6 +74,35 @@ public interface IEncoder {
      */
     public void terminate() throws NativeAudioException;
 
+    /**
+     * Trades encoding quality for CPU time, from the next packet on.
+     * @param complexity From 0, the cheapest, to 10.
+     * @return false if the encoder has no such control.
+     */
+    public boolean setComplexity(int complexity);
+
+    /**
+     * Enables discontinuous transmission. While the input is silent, the encoder then produces
+     * no packets except for the occasional comfort noise update.
+     * @return false if the encoder has no such control.
+     */
+    public boolean setDtx(boolean enabled);
+
+    /**
+     * Hints at the kind of audio to be encoded.
+     * @param signal One of {@link #SIGNAL_AUTO}, {@link #SIGNAL_VOICE} or {@link #SIGNAL_MUSIC}.
+     * @return false if the encoder has no such control.
+     */
+    public boolean setSignal(int signal);
+
+    /**
+     * Limits the audio bandwidth coded, from the next packet on.
+     * @param bandwidth The highest frequency to code in Hz, e.g. {@link #BANDWIDTH_WIDEBAND}, or
+     *                  {@link #BANDWIDTH_FULL} for no limit.
+     * @return false if the encoder has no such control.
+     */
+    public boolean setMaxBandwidth(int bandwidth);
+
     /**
      * Destroys the encoder, cleaning up natively allocated resources.
      */
@@ -32,23 +32,32 @@ import se.lublin.humla.net.PacketBuffer;
 * Created by andrew on 08/12/14.
 */
 public class OpusEncoder implements IEncoder {
+    /** The largest packet size that can be switched to at runtime: 60ms, Opus' longest frame. */
+    public static final int MAX_FRAMES_PER_PACKET = 6;
+
     private final byte[] mBuffer;
     private final short[] mAudioBuffer;
-    private final int mFramesPerPacket;
+    private int mFramesPerPacket;
+    /** The packet size to switch to at the next packet boundary. */
+    private int mNextFramesPerPacket;
     private final int mFrameSize;
 
     // Stateful
     private int mBufferedFrames;
     private int mEncodedLength;
     private boolean mTerminated;
+    private boolean mDtx;
+    /** The length of the last packet if DTX dropped it, still held in the buffer. */
+    private int mDroppedLength;
 
     private Pointer mState;
 
     public OpusEncoder(int sampleRate, int channels, int frameSize, int framesPerPacket,
                        int bitrate, int maxBufferSize) throws NativeAudioException {
         mBuffer = new byte[maxBufferSize];
-        mAudioBuffer = new short[framesPerPacket * frameSize];
+        mAudioBuffer = new short[Math.max(framesPerPacket, MAX_FRAMES_PER_PACKET) * frameSize];
         mFramesPerPacket = framesPerPacket;
+        mNextFramesPerPacket = framesPerPacket;
         mFrameSize = frameSize;
         mBufferedFrames = 0;
         mEncodedLength = 0;
@@ -74,6 +83,9 @@ public class OpusEncoder implements IEncoder {
         }
 
         mTerminated = false;
+        mDroppedLength = 0;
+        if (mBufferedFrames == 0)
+            mFramesPerPacket = mNextFramesPerPacket;
         System.arraycopy(input, 0, mAudioBuffer, mFrameSize * mBufferedFrames, mFrameSize);
         mBufferedFrames++;
 
@@ -86,13 +98,22 @@ public class OpusEncoder implements IEncoder {
     private int encode() throws NativeAudioException {
         if (mBufferedFrames < mFramesPerPacket) {
             // If encoding is done before enough frames are buffered, fill rest of packet.
-            Arrays.fill(mAudioBuffer, mFrameSize * mBufferedFrames, mAudioBuffer.length, (short)0);
+            Arrays.fill(mAudioBuffer, mFrameSize * mBufferedFrames, mFrameSize * mFramesPerPacket, (short)0);
             mBufferedFrames = mFramesPerPacket;
         }
         int result = Opus.opus_encode(mState, mAudioBuffer, mFrameSize * mBufferedFrames,
                                              mBuffer, mBuffer.length);
         if(result < 0) throw new NativeAudioException("Opus encoding failed with error: "
                                                               + result);
+        if (mDtx && result <= 2 && !mTerminated) {
+            // Opus marks silence it need not transmit with a packet of at most two bytes.
+            // Dropping it leaves a gap in the sequence, just as voice activity detection would.
+            // The last packet of a transmission is always sent, as it carries the terminator.
+            mBufferedFrames = 0;
+            mEncodedLength = 0;
+            mDroppedLength = result;
+            return 0;
+        }
         mEncodedLength = result;
         return result;
     }
@@ -130,7 +151,88 @@ public class OpusEncoder implements IEncoder {
         if (mBufferedFrames > 0 && !isReady()) {
             // Perform encode operation on remaining audio if available.
             encode();
+        } else if (mBufferedFrames == 0 && mDroppedLength > 0) {
+            // DTX dropped the final packet; send it after all so that receivers see the end of
+            // the transmission instead of waiting for a timeout.
+            mBufferedFrames = mFramesPerPacket;
+            mEncodedLength = mDroppedLength;
         }
+        mDroppedLength = 0;
+    }
+
+    /**
+     * Changes the bitrate from the next packet on.
+     * @param bitrate The bitrate in bps.
+     */
+    public void setBitrate(int bitrate) {
+        Opus.opus_encoder_ctl(mState, Opus.OPUS_SET_BITRATE_REQUEST, bitrate);
+    }
+
+    /**
+     * Tells the encoder how much packet loss to expect, enabling in-band forward error correction
+     * for a non-zero loss. Opus then spends part of the bitrate on a redundant low-quality copy of
+     * each previous frame.
+     * @param percent The expected loss, from 0 to 100.
+     */
+    public void setPacketLossPercentage(int percent) {
+        Opus.opus_encoder_ctl(mState, Opus.OPUS_SET_INBAND_FEC_REQUEST, percent > 0 ? 1 : 0);
+        Opus.opus_encoder_ctl(mState, Opus.OPUS_SET_PACKET_LOSS_PERC_REQUEST, percent);
+    }
+
+    /**
+     * Changes the packet size, taking effect at the next packet boundary.
+     * @param framesPerPacket The number of frames per packet, at most
+     *                        {@link #MAX_FRAMES_PER_PACKET}.
+     */
+    public void setFramesPerPacket(int framesPerPacket) {
+        if (framesPerPacket < 1 || framesPerPacket * mFrameSize > mAudioBuffer.length)
+            throw new IllegalArgumentException("Unsupported frames per packet: " + framesPerPacket);
+        mNextFramesPerPacket = framesPerPacket;
+    }
+
+    @Override
+    public boolean setComplexity(int complexity) {
+        return Opus.opus_encoder_ctl(mState, Opus.OPUS_SET_COMPLEXITY_REQUEST, complexity) == 0;
+    }
+
+    @Override
+    public boolean setDtx(boolean enabled) {
+        if (Opus.opus_encoder_ctl(mState, Opus.OPUS_SET_DTX_REQUEST, enabled ? 1 : 0) != 0)
+            return false;
+        mDtx = enabled;
+        return true;
+    }
+
+    @Override
+    public boolean setSignal(int signal) {
+        int value;
+        switch (signal) {
+            case SIGNAL_VOICE:
+                value = Opus.OPUS_SIGNAL_VOICE;
+                break;
+            case SIGNAL_MUSIC:
+                value = Opus.OPUS_SIGNAL_MUSIC;
+                break;
+            default:
+                value = Opus.OPUS_AUTO;
+        }
+        return Opus.opus_encoder_ctl(mState, Opus.OPUS_SET_SIGNAL_REQUEST, value) == 0;
+    }
+
+    @Override
+    public boolean setMaxBandwidth(int bandwidth) {
+        int value;
+        if (bandwidth == BANDWIDTH_FULL || bandwidth > BANDWIDTH_SUPERWIDEBAND)
+            value = Opus.OPUS_BANDWIDTH_FULLBAND;
+        else if (bandwidth > BANDWIDTH_WIDEBAND)
+            value = Opus.OPUS_BANDWIDTH_SUPERWIDEBAND;
+        else if (bandwidth > BANDWIDTH_MEDIUMBAND)
+            value = Opus.OPUS_BANDWIDTH_WIDEBAND;
+        else if (bandwidth > BANDWIDTH_NARROWBAND)
+            value = Opus.OPUS_BANDWIDTH_MEDIUMBAND;
+        else
+            value = Opus.OPUS_BANDWIDTH_NARROWBAND;
+        return Opus.opus_encoder_ctl(mState, Opus.OPUS_SET_MAX_BANDWIDTH_REQUEST, value) == 0;
     }
 
     public int getBitrate() {
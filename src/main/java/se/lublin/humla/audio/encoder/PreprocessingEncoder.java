@@ -29,7 +29,11 @@ import se.lublin.humla.net.PacketBuffer;
  * Wrapper performing preprocessing options on the nested encoder.
  * Uses Speex preprocessor.
  * Created by andrew on 17/04/14.
+ * @deprecated Use a {@link se.lublin.humla.audio.PreprocessStage} in a
+ *             {@link se.lublin.humla.audio.CapturePipeline}, which can be replaced without
+ *             recreating the encoder.
  */
+@Deprecated
 public class PreprocessingEncoder implements IEncoder {
     private IEncoder mEncoder;
     private Speex.SpeexPreprocessState mPreprocessor;
@@ -83,6 +87,26 @@ public class PreprocessingEncoder implements IEncoder {
         mEncoder.terminate();
     }
 
+    @Override
+    public boolean setComplexity(int complexity) {
+        return mEncoder.setComplexity(complexity);
+    }
+
+    @Override
+    public boolean setDtx(boolean enabled) {
+        return mEncoder.setDtx(enabled);
+    }
+
+    @Override
+    public boolean setSignal(int signal) {
+        return mEncoder.setSignal(signal);
+    }
+
+    @Override
+    public boolean setMaxBandwidth(int bandwidth) {
+        return mEncoder.setMaxBandwidth(bandwidth);
+    }
+
     public void setEncoder(IEncoder encoder) {
         if(mEncoder != null) mEncoder.destroy();
         mEncoder = encoder;
@@ -26,7 +26,11 @@ import se.lublin.humla.net.PacketBuffer;
 /**
  * Wraps around another encoder, resampling up/down all input using the Speex resampler.
  * Created by andrew on 16/04/14.
+ * @deprecated Use a {@link se.lublin.humla.audio.ResampleStage} in a
+ *             {@link se.lublin.humla.audio.CapturePipeline}, which can be replaced without
+ *             recreating the encoder.
  */
+@Deprecated
 public class ResamplingEncoder implements IEncoder {
     private static final int SPEEX_RESAMPLE_QUALITY = 3;
 
@@ -72,6 +76,26 @@ public class ResamplingEncoder implements IEncoder {
         mEncoder.terminate();
     }
 
+    @Override
+    public boolean setComplexity(int complexity) {
+        return mEncoder.setComplexity(complexity);
+    }
+
+    @Override
+    public boolean setDtx(boolean enabled) {
+        return mEncoder.setDtx(enabled);
+    }
+
+    @Override
+    public boolean setSignal(int signal) {
+        return mEncoder.setSignal(signal);
+    }
+
+    @Override
+    public boolean setMaxBandwidth(int bandwidth) {
+        return mEncoder.setMaxBandwidth(bandwidth);
+    }
+
     public void setEncoder(IEncoder encoder) {
         if(mEncoder != null) mEncoder.destroy();
         mEncoder = encoder;
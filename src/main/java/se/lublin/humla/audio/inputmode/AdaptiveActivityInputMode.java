@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package se.lublin.humla.audio.inputmode;
+
+/**
+ * An input mode that sends audio when the energy in the speech band rises clearly above an
+ * adaptive estimate of the background noise.
+ *
+ * Steady noise such as fans is absorbed by the noise floor, which follows the quietest recent
+ * frames. Sounds with little of their energy between 300Hz and 3.4kHz, such as rumble and
+ * keyboard clicks, are rejected, and a few consecutive frames of speech are required before
+ * transmitting starts. Transmission then continues for a hangover after speech ends.
+ *
+ * Unless told the sample rate with {@link #setSampleRate(int)}, frames are assumed to be 10ms
+ * long, which gives it. Time constants are given for 10ms frames and scaled to the actual frame
+ * duration. Works on the integer samples without allocating, and keeps time in frames rather
+ * than wall clock time.
+ */
+public class AdaptiveActivityInputMode implements IInputMode {
+    /** Consecutive 10ms speech frames needed to start transmitting, to ignore short clicks. */
+    public static final int DEFAULT_ATTACK_FRAMES = 2;
+    /** 10ms frames to keep transmitting after speech ends, so that words are not clipped. */
+    public static final int DEFAULT_RELEASE_FRAMES = 25;
+
+    private static final int FRAMES_PER_SECOND = 100;
+    private static final int LOW_CUTOFF = 300;
+    private static final int HIGH_CUTOFF = 3400;
+    /** Fractional bits of the filter states. */
+    private static final int STATE_SHIFT = 4;
+    /** Band to noise floor energy ratio needed to detect speech: 6dB. */
+    private static final float START_SNR = 4;
+    /** The lower ratio needed to continue speech, for hysteresis: 3dB. */
+    private static final float CONTINUE_SNR = 2;
+    /** The least share of a frame's energy in the speech band for it to be speech. */
+    private static final float MIN_BAND_RATIO = 0.35f;
+    /** How quickly the noise floor follows quieter 10ms frames. */
+    private static final float FLOOR_FALL = 0.1f;
+    /** Per 10ms frame growth of the noise floor towards louder frames: 2dB a second. */
+    private static final float FLOOR_RISE = 1.0046f;
+    /** The slower growth while speech is detected, so that long sentences do not raise it. */
+    private static final float FLOOR_RISE_SPEECH = 1.0005f;
+    /** Keeps the floor meaningful in digital silence. Mean square, in squared samples. */
+    private static final float MIN_FLOOR = 1;
+
+    private final int mAttackFrames;
+    private final int mReleaseFrames;
+    /** The least mean square energy of a speech frame, set by the threshold. */
+    private float mMinEnergy;
+    /** The sample rate of the frames, or 0 to infer it from 10ms frames. */
+    private int mSampleRate;
+
+    /** The frame length the filter coefficients and time constants were derived for. */
+    private int mFrameLength;
+    private int mFrameAttack;
+    private int mFrameRelease;
+    private float mFloorFall;
+    private float mFloorRise;
+    private float mFloorRiseSpeech;
+    /** One-pole low-pass coefficients in Q15. */
+    private int mLowCoeff;
+    private int mHighCoeff;
+    private int mLowState;
+    private int mHighState;
+
+    private float mNoiseFloor = -1;
+    private int mSpeechRun;
+    private int mHangover;
+    private boolean mTalking;
+
+    public AdaptiveActivityInputMode() {
+        this(0, DEFAULT_ATTACK_FRAMES, DEFAULT_RELEASE_FRAMES);
+    }
+
+    /**
+     * @param detectionThreshold An absolute minimum level, on the same scale as
+     *                           {@link ActivityInputMode}. 0 relies on the noise floor alone.
+     * @param attackFrames Consecutive 10ms speech frames needed to start transmitting.
+     * @param releaseFrames 10ms frames to keep transmitting after speech ends.
+     */
+    public AdaptiveActivityInputMode(float detectionThreshold, int attackFrames,
+                                     int releaseFrames) {
+        if (attackFrames < 1 || releaseFrames < 0)
+            throw new IllegalArgumentException("Invalid hangover: " + attackFrames + "/" + releaseFrames);
+        mAttackFrames = attackFrames;
+        mReleaseFrames = releaseFrames;
+        setThreshold(detectionThreshold);
+    }
+
+    @Override
+    public boolean shouldTransmit(short[] pcm, int length) {
+        if (length != mFrameLength)
+            configure(length);
+
+        long total = 0;
+        long band = 0;
+        int low = mLowState;
+        int high = mHighState;
+        int lowCoeff = mLowCoeff;
+        int highCoeff = mHighCoeff;
+        for (int i = 0; i < length; i++) {
+            int x = pcm[i];
+            int scaled = x << STATE_SHIFT;
+            low += (int) (((long) (scaled - low) * lowCoeff) >> 15);
+            high += (int) (((long) (scaled - high) * highCoeff) >> 15);
+            int b = (high - low) >> STATE_SHIFT;
+            total += x * x;
+            band += (long) b * b;
+        }
+        mLowState = low;
+        mHighState = high;
+
+        float bandEnergy = (float) band / length;
+        float totalEnergy = (float) total / length;
+        boolean speech = bandEnergy > mNoiseFloor * (mTalking ? CONTINUE_SNR : START_SNR)
+                && bandEnergy >= MIN_BAND_RATIO * totalEnergy
+                && totalEnergy >= mMinEnergy;
+        updateNoiseFloor(bandEnergy, speech);
+
+        if (speech) {
+            mSpeechRun++;
+            if (mTalking || mSpeechRun >= mFrameAttack) {
+                mTalking = true;
+                mHangover = mFrameRelease;
+            }
+        } else {
+            mSpeechRun = 0;
+            if (mTalking && mHangover-- <= 0)
+                mTalking = false;
+        }
+        return mTalking;
+    }
+
+    private void updateNoiseFloor(float energy, boolean speech) {
+        if (mNoiseFloor < 0) {
+            mNoiseFloor = energy;
+        } else if (energy < mNoiseFloor) {
+            mNoiseFloor += mFloorFall * (energy - mNoiseFloor);
+        } else {
+            mNoiseFloor = Math.min(energy, mNoiseFloor * (speech ? mFloorRiseSpeech : mFloorRise));
+        }
+        if (mNoiseFloor < MIN_FLOOR)
+            mNoiseFloor = MIN_FLOOR;
+    }
+
+    /**
+     * Derives the band filters and per frame time constants for a new frame length.
+     */
+    private void configure(int length) {
+        int sampleRate = mSampleRate > 0 ? mSampleRate : length * FRAMES_PER_SECOND;
+        // The frame duration relative to 10ms.
+        double scale = (double) length * FRAMES_PER_SECOND / sampleRate;
+        mFloorFall = (float) (1 - Math.pow(1 - FLOOR_FALL, scale));
+        mFloorRise = (float) Math.pow(FLOOR_RISE, scale);
+        mFloorRiseSpeech = (float) Math.pow(FLOOR_RISE_SPEECH, scale);
+        mFrameAttack = Math.max(1, (int) Math.round(mAttackFrames / scale));
+        mFrameRelease = (int) Math.round(mReleaseFrames / scale);
+        mLowCoeff = onePole(LOW_CUTOFF, sampleRate);
+        mHighCoeff = onePole(Math.min(HIGH_CUTOFF, sampleRate * 2 / 5), sampleRate);
+        mLowState = 0;
+        mHighState = 0;
+        mFrameLength = length;
+    }
+
+    private static int onePole(int cutoff, int sampleRate) {
+        return (int) Math.round((1 - Math.exp(-2 * Math.PI * cutoff / sampleRate)) * 32768);
+    }
+
+    @Override
+    public void waitForInput() {
+
+    }
+
+    /**
+     * Sets the sample rate of the frames to come, for frames other than 10ms long.
+     * @param sampleRate The sample rate in Hz, or 0 to assume 10ms frames.
+     */
+    public void setSampleRate(int sampleRate) {
+        if (sampleRate == mSampleRate)
+            return;
+        mSampleRate = sampleRate;
+        mFrameLength = 0;
+    }
+
+    /**
+     * @param threshold An absolute minimum level, on the same scale as {@link ActivityInputMode}.
+     */
+    public void setThreshold(float threshold) {
+        float level = (float) (32768 * Math.pow(10, (threshold - 1) * 96 / 20));
+        mMinEnergy = level * level;
+    }
+
+    /**
+     * @return the current noise floor estimate, as mean square energy in the speech band.
+     */
+    public float getNoiseFloor() {
+        return mNoiseFloor;
+    }
+}
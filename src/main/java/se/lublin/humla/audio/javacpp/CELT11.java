@@ -94,6 +94,12 @@ public class CELT11 {
             return frameSize;
         }
 
+        @Override
+        public boolean reset() {
+            // Legacy codec, not worth pooling.
+            return false;
+        }
+
         @Override
         public void destroy() {
             celt_decoder_destroy(mState);
@@ -36,9 +36,26 @@ import se.lublin.humla.exception.NativeAudioException;
 public class Opus {
     public static final int OPUS_APPLICATION_VOIP = 2048;
 
+    public static final int OPUS_AUTO = -1000;
+
     public static final int OPUS_SET_BITRATE_REQUEST = 4002;
+    public static final int OPUS_SET_MAX_BANDWIDTH_REQUEST = 4004;
     public static final int OPUS_GET_BITRATE_REQUEST = 4003;
     public static final int OPUS_SET_VBR_REQUEST = 4006;
+    public static final int OPUS_SET_INBAND_FEC_REQUEST = 4012;
+    public static final int OPUS_SET_COMPLEXITY_REQUEST = 4010;
+    public static final int OPUS_SET_PACKET_LOSS_PERC_REQUEST = 4014;
+    public static final int OPUS_SET_DTX_REQUEST = 4016;
+    public static final int OPUS_SET_SIGNAL_REQUEST = 4024;
+
+    public static final int OPUS_SIGNAL_VOICE = 3001;
+    public static final int OPUS_SIGNAL_MUSIC = 3002;
+
+    public static final int OPUS_BANDWIDTH_NARROWBAND = 1101;
+    public static final int OPUS_BANDWIDTH_MEDIUMBAND = 1102;
+    public static final int OPUS_BANDWIDTH_WIDEBAND = 1103;
+    public static final int OPUS_BANDWIDTH_SUPERWIDEBAND = 1104;
+    public static final int OPUS_BANDWIDTH_FULLBAND = 1105;
 
     public static native int opus_decoder_get_size(int channels);
     public static native Pointer opus_decoder_create(int fs, int channels, IntPointer error);
@@ -71,8 +88,12 @@ public class Opus {
     public static class OpusDecoder implements IDecoder {
 
         private Pointer mState;
+        private final int mSampleRate;
+        private final int mChannels;
 
         public OpusDecoder(int sampleRate, int channels) throws NativeAudioException {
+            mSampleRate = sampleRate;
+            mChannels = channels;
             IntPointer error = new IntPointer(1);
             error.put(0);
             mState = opus_decoder_create(sampleRate, channels, error);
@@ -93,6 +114,25 @@ public class Opus {
             return result;
         }
 
+        /**
+         * Recovers a lost packet from the in-band forward error correction data carried by the
+         * packet that followed it. If the packet carries none, this conceals the loss as if
+         * decoding null.
+         * @param input The packet following the lost one.
+         * @param frameSize The duration of the lost audio, which must match the packet's.
+         */
+        public int decodeFecFloat(ByteBuffer input, int inputSize, float[] output, int frameSize) throws NativeAudioException {
+            int result = opus_decode_float(mState, input, inputSize, output, frameSize, 1);
+            if(result < 0) throw new NativeAudioException("Opus FEC decoding failed with error: "+result);
+            return result;
+        }
+
+        @Override
+        public boolean reset() {
+            // Initializing in place is equivalent to OPUS_RESET_STATE.
+            return opus_decoder_init(mState, mSampleRate, mChannels) == 0;
+        }
+
         @Override
         public void destroy() {
             opus_decoder_destroy(mState);
@@ -35,7 +35,7 @@ import se.lublin.humla.exception.NativeAudioException;
  * JavaCPP interface for Speex JNI.
  * Created by andrew on 18/10/13.
  */
-@Platform(library= "jnispeex", cinclude={"<speex/speex.h>","<speex/speex_types.h>", "<speex/speex_bits.h>","<speex/speex_jitter.h>", "<speex/speex_preprocess.h>", "<speex/speex_resampler.h>"})
+@Platform(library= "jnispeex", cinclude={"<speex/speex.h>","<speex/speex_types.h>", "<speex/speex_bits.h>","<speex/speex_jitter.h>", "<speex/speex_preprocess.h>", "<speex/speex_resampler.h>", "<speex/speex_echo.h>"})
 public class Speex {
 
     /**
@@ -249,6 +249,13 @@ public class Speex {
     private static native void speex_preprocess_estimate_update(@Cast("SpeexPreprocessState*") Pointer state, short[] x);
     private static native int speex_preprocess_ctl(@Cast("SpeexPreprocessState*") Pointer state, int request, Pointer ptr);
 
+    // Echo canceller
+    private static native Pointer speex_echo_state_init(int frameSize, int filterLength);
+    private static native void speex_echo_state_destroy(@Cast("SpeexEchoState*") Pointer state);
+    private static native void speex_echo_state_reset(@Cast("SpeexEchoState*") Pointer state);
+    private static native void speex_echo_cancellation(@Cast("SpeexEchoState*") Pointer state, @Cast("const spx_int16_t*") short[] rec, @Cast("const spx_int16_t*") short[] play, @Cast("spx_int16_t*") short[] out);
+    private static native int speex_echo_ctl(@Cast("SpeexEchoState*") Pointer state, int request, Pointer ptr);
+
     // Bits
     private static native void speex_bits_init(@Cast("SpeexBits*") SpeexBits bits);
     private static native void speex_bits_read_from(@Cast("SpeexBits*") SpeexBits bits, @Cast("const char*") ByteBuffer data, int size);
@@ -315,7 +322,7 @@ public class Speex {
 
         public static final int JITTER_BUFFER_OK = 0;
         public static final int JITTER_BUFFER_MISSING = 1;
-        public static final int JITTER_BUFFER_INCOMPLETE = 2;
+        public static final int JITTER_BUFFER_INSERTION = 2;
         public static final int JITTER_BUFFER_INTERNAL_ERROR = -1;
         public static final int JITTER_BUFFER_BAD_ARGUMENT = -2;
         public static final int JITTER_BUFFER_SET_MARGIN = 0;
@@ -423,14 +430,63 @@ public class Speex {
             return speex_preprocess_ctl(mNativeState, request, pointer);
         }
 
+        /**
+         * Suppresses the residual echo left by an echo canceller, which must run on the same
+         * frames first.
+         * @param echoState The echo canceller, or null to stop.
+         */
+        public void setEchoState(SpeexEchoState echoState) {
+            speex_preprocess_ctl(mNativeState, SPEEX_PREPROCESS_SET_ECHO_STATE,
+                    echoState != null ? echoState.mNativeState : null);
+        }
+
         public void destroy() {
             speex_preprocess_state_destroy(mNativeState);
         }
 
     }
 
+    public static class SpeexEchoState {
+        public static final int SPEEX_ECHO_SET_SAMPLING_RATE = 24;
+        public static final int SPEEX_ECHO_GET_SAMPLING_RATE = 25;
+
+        private Pointer mNativeState;
+
+        /**
+         * @param frameSize The number of samples processed at once.
+         * @param filterLength The echo tail to cancel, in samples.
+         */
+        public SpeexEchoState(int frameSize, int filterLength, int sampleRate) {
+            mNativeState = speex_echo_state_init(frameSize, filterLength);
+            IntPointer rate = new IntPointer(1);
+            rate.put(sampleRate);
+            speex_echo_ctl(mNativeState, SPEEX_ECHO_SET_SAMPLING_RATE, rate);
+        }
+
+        /**
+         * Removes the echo of the played audio from the recorded audio.
+         * @param record A frame of captured audio.
+         * @param play The audio played at the time the frame was captured.
+         * @param out The cleaned frame. Must not be the same array as record.
+         */
+        public void cancel(short[] record, short[] play, short[] out) {
+            speex_echo_cancellation(mNativeState, record, play, out);
+        }
+
+        public void reset() {
+            speex_echo_state_reset(mNativeState);
+        }
+
+        public void destroy() {
+            speex_echo_state_destroy(mNativeState);
+        }
+
+    }
+
     public static class SpeexResampler {
         private Pointer mNativeState;
+        private final int[] mInLength = new int[1];
+        private final int[] mOutLength = new int[1];
 
         public SpeexResampler(int channels, int inSampleRate, int outSampleRate, int quality) {
             mNativeState = speex_resampler_init(channels, inSampleRate, outSampleRate, quality, null);
@@ -440,6 +496,17 @@ public class Speex {
             speex_resampler_process_int(mNativeState, 0, in, new int[] { in.length }, out, new int[] { out.length });
         }
 
+        /**
+         * Resamples part of an array, without allocating.
+         * @return the number of samples written to out.
+         */
+        public int resample(short[] in, int inLength, short[] out, int outLength) {
+            mInLength[0] = inLength;
+            mOutLength[0] = outLength;
+            speex_resampler_process_int(mNativeState, 0, in, mInLength, out, mOutLength);
+            return mOutLength[0];
+        }
+
         public void destroy() {
             speex_resampler_destroy(mNativeState);
         }
@@ -501,6 +568,12 @@ public class Speex {
             return frameSize;
         }
 
+        @Override
+        public boolean reset() {
+            speex_decoder_ctl(mState, SPEEX_RESET_STATE, null);
+            return true;
+        }
+
         @Override
         public void destroy() {
             speex_decoder_destroy(mState);
@@ -19,9 +19,39 @@ package se.lublin.humla.model;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.TreeSet;
 
 public final class Channel implements IChannel, Comparable<Channel> {
+    /**
+     * Orders users by name, falling back to the session so that users with equal names may
+     * coexist in the same channel.
+     */
+    private static final Comparator<User> USER_ORDER = new Comparator<User>() {
+        @Override
+        public int compare(User a, User b) {
+            int result = a.compareTo(b);
+            return result != 0 ? result : Integer.compare(a.getSession(), b.getSession());
+        }
+    };
+
+    /**
+     * Orders channels by position and name, falling back to the channel ID.
+     * Unlike {@link #compareTo(Channel)}, this tolerates channels that have yet to be named.
+     */
+    private static final Comparator<Channel> CHANNEL_ORDER = new Comparator<Channel>() {
+        @Override
+        public int compare(Channel a, Channel b) {
+            if (a.mPosition != b.mPosition)
+                return Integer.compare(a.mPosition, b.mPosition);
+            String nameA = a.mName != null ? a.mName : "";
+            String nameB = b.mName != null ? b.mName : "";
+            int result = nameA.compareTo(nameB);
+            return result != 0 ? result : Integer.compare(a.mId, b.mId);
+        }
+    };
+
     private int mId;
     private int mPosition;
     private int mLevel;
@@ -30,14 +60,20 @@ public final class Channel implements IChannel, Comparable<Channel> {
     private String mName;
     private String mDescription;
     private byte[] mDescriptionHash;
-    private List<Channel> mSubchannels;
-    private List<User> mUsers;
+    private TreeSet<Channel> mSubchannels;
+    private TreeSet<User> mUsers;
     private List<Channel> mLinks;
     private int mPermissions;
+    /** The number of users in this channel and all of its subchannels. */
+    private int mSubchannelUserCount;
+
+    // Sorted snapshots handed out to callers, rebuilt lazily after modification.
+    private List<Channel> mSubchannelList;
+    private List<User> mUserList;
 
     public Channel() {
-        mSubchannels = new ArrayList<Channel>();
-        mUsers = new ArrayList<User>();
+        mSubchannels = new TreeSet<Channel>(CHANNEL_ORDER);
+        mUsers = new TreeSet<User>(USER_ORDER);
         mLinks = new ArrayList<Channel>();
     }
 
@@ -51,26 +87,45 @@ public final class Channel implements IChannel, Comparable<Channel> {
      * @see User#setChannel(Channel)
      */
     protected void addUser(User user) {
-        for (int i = 0; i < mUsers.size(); i++) {
-            User u = mUsers.get(i);
-            if (user.compareTo(u) <= 0) {
-                mUsers.add(i, user);
-                return;
-            }
+        if (mUsers.add(user)) {
+            mUserList = null;
+            adjustSubchannelUserCount(1);
         }
-        mUsers.add(user);
     }
 
     /**
      * @see User#setChannel(Channel)
      */
     protected void removeUser(User user) {
+        if (mUsers.remove(user)) {
+            mUserList = null;
+            adjustSubchannelUserCount(-1);
+        }
+    }
+
+    /**
+     * Removes the user from the sorted user set before a change to its sort key is applied.
+     * Must be followed by a call to {@link #reinsertUser(User)}.
+     * @see User#setName(String)
+     */
+    protected void detachUser(User user) {
         mUsers.remove(user);
     }
 
+    /**
+     * Re-inserts a user detached with {@link #detachUser(User)} at its new sorted position.
+     */
+    protected void reinsertUser(User user) {
+        mUsers.add(user);
+        mUserList = null;
+    }
+
     @Override
     public List<User> getUsers() {
-        return Collections.unmodifiableList(mUsers);
+        if (mUserList == null) {
+            mUserList = Collections.unmodifiableList(new ArrayList<User>(mUsers));
+        }
+        return mUserList;
     }
 
     @Override
@@ -88,7 +143,12 @@ public final class Channel implements IChannel, Comparable<Channel> {
     }
 
     public void setPosition(int mPosition) {
+        if (this.mPosition == mPosition)
+            return;
+        Channel parent = mParent;
+        if (parent != null) parent.detachSubchannel(this);
         this.mPosition = mPosition;
+        if (parent != null) parent.reinsertSubchannel(this);
     }
 
     @Override
@@ -105,8 +165,27 @@ public final class Channel implements IChannel, Comparable<Channel> {
         return mParent;
     }
 
-    public void setParent(Channel mParent) {
-        this.mParent = mParent;
+    /**
+     * Moves this channel under the given parent, updating the user counts and levels of both the
+     * old and new ancestry.
+     * @param parent The new parent channel, or null to detach this channel from the tree.
+     */
+    public void setParent(Channel parent) {
+        if (parent == mParent)
+            return;
+        if (parent != null)
+            parent.addSubchannel(this);
+        else
+            mParent.removeSubchannel(this);
+    }
+
+    /**
+     * Returns the depth of this channel in the channel tree. The root channel has level 0.
+     * @return The number of ancestors of this channel.
+     */
+    @Override
+    public int getLevel() {
+        return mLevel;
     }
 
     @Override
@@ -115,7 +194,10 @@ public final class Channel implements IChannel, Comparable<Channel> {
     }
 
     public void setName(String mName) {
+        Channel parent = mParent;
+        if (parent != null) parent.detachSubchannel(this);
         this.mName = mName;
+        if (parent != null) parent.reinsertSubchannel(this);
     }
 
     @Override
@@ -138,22 +220,72 @@ public final class Channel implements IChannel, Comparable<Channel> {
 
     @Override
     public List<Channel> getSubchannels() {
-        return Collections.unmodifiableList(mSubchannels);
+        if (mSubchannelList == null) {
+            mSubchannelList = Collections.unmodifiableList(new ArrayList<Channel>(mSubchannels));
+        }
+        return mSubchannelList;
     }
 
+    /**
+     * Adds the given channel as a subchannel of this channel, removing it from its previous
+     * parent (if set).
+     * @param channel The channel to adopt.
+     */
     public void addSubchannel(Channel channel) {
-        for (int i = 0; i < mSubchannels.size(); i++) {
-            Channel sc = mSubchannels.get(i);
-            if (channel.compareTo(sc) <= 0) {
-                mSubchannels.add(i, channel);
-                return;
-            }
-        }
+        if (channel.mParent == this)
+            return;
+        if (channel.mParent != null)
+            channel.mParent.removeSubchannel(channel);
+
         mSubchannels.add(channel);
+        mSubchannelList = null;
+        channel.mParent = this;
+        channel.updateLevel(mLevel + 1);
+        adjustSubchannelUserCount(channel.mSubchannelUserCount);
     }
 
     public void removeSubchannel(Channel channel) {
+        if (channel.mParent != this)
+            return;
+
         mSubchannels.remove(channel);
+        mSubchannelList = null;
+        channel.mParent = null;
+        channel.updateLevel(0);
+        adjustSubchannelUserCount(-channel.mSubchannelUserCount);
+    }
+
+    private void detachSubchannel(Channel channel) {
+        mSubchannels.remove(channel);
+    }
+
+    private void reinsertSubchannel(Channel channel) {
+        mSubchannels.add(channel);
+        mSubchannelList = null;
+    }
+
+    /**
+     * Sets the level of this channel, and propagates the change to all subchannels.
+     * Only called when a channel is reparented, which is rare in comparison to user movement.
+     */
+    private void updateLevel(int level) {
+        if (mLevel == level)
+            return;
+        mLevel = level;
+        for (Channel subchannel : mSubchannels) {
+            subchannel.updateLevel(level + 1);
+        }
+    }
+
+    /**
+     * Adds the given delta to the recursive user count of this channel and all of its ancestors.
+     */
+    private void adjustSubchannelUserCount(int delta) {
+        if (delta == 0)
+            return;
+        for (Channel c = this; c != null; c = c.mParent) {
+            c.mSubchannelUserCount += delta;
+        }
     }
 
     @Override
@@ -181,16 +313,12 @@ public final class Channel implements IChannel, Comparable<Channel> {
     }
 
     /**
-     * Recursively fetches the subchannel user count.
-     * FIXME: is it necessary to cache this?
-     * @return The sum of users in this channel and its subchannel.
+     * Returns the subchannel user count, maintained incrementally as users and channels move.
+     * @return The sum of users in this channel and its subchannels.
      */
+    @Override
     public int getSubchannelUserCount() {
-        int userCount = mUsers.size();
-        for (Channel subc : mSubchannels) {
-            userCount += subc.getSubchannelUserCount();
-        }
-        return userCount;
+        return mSubchannelUserCount;
     }
 
     @Override
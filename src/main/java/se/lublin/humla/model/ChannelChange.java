@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.model;
+
+/**
+ * Bit flags describing which fields of a {@link IChannel} changed in a state update.
+ * @see se.lublin.humla.util.IHumlaObserver#onChannelStateUpdated(IChannel, int)
+ */
+public final class ChannelChange {
+    public static final int NONE = 0;
+    public static final int NAME = 1;
+    public static final int POSITION = 1 << 1;
+    public static final int PARENT = 1 << 2;
+    /** The description or its hash changed. */
+    public static final int DESCRIPTION = 1 << 3;
+    public static final int LINKS = 1 << 4;
+    public static final int ALL = (1 << 5) - 1;
+
+    private ChannelChange() {
+    }
+}
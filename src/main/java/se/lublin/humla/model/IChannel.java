@@ -30,6 +30,11 @@ public interface IChannel {
 
     IChannel getParent();
 
+    /**
+     * @return the depth of the channel in the channel tree, where the root channel is 0.
+     */
+    int getLevel();
+
     String getName();
 
     String getDescription();
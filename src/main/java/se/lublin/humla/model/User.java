@@ -99,7 +99,11 @@ public class User implements IUser, Comparable<User> {
     }
 
     public void setName(String mName) {
+        // The name is the user's sort key within their channel; reposition them on change.
+        Channel channel = mChannel;
+        if (channel != null) channel.detachUser(this);
         this.mName = mName;
+        if (channel != null) channel.reinsertUser(this);
     }
 
     @Override
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.model;
+
+/**
+ * Bit flags describing which fields of a {@link IUser} changed in a state update.
+ * @see se.lublin.humla.util.IHumlaObserver#onUserStateUpdated(IUser, int)
+ */
+public final class UserChange {
+    public static final int NONE = 0;
+    public static final int NAME = 1;
+    public static final int CHANNEL = 1 << 1;
+    /** The registered user ID changed, i.e. the user registered. */
+    public static final int USER_ID = 1 << 2;
+    /** The certificate hash changed. */
+    public static final int HASH = 1 << 3;
+    public static final int MUTE = 1 << 4;
+    public static final int DEAF = 1 << 5;
+    public static final int SUPPRESS = 1 << 6;
+    public static final int SELF_MUTE = 1 << 7;
+    public static final int SELF_DEAF = 1 << 8;
+    public static final int PRIORITY_SPEAKER = 1 << 9;
+    public static final int RECORDING = 1 << 10;
+    /** The texture or its hash changed. Cached avatars must be invalidated. */
+    public static final int TEXTURE = 1 << 11;
+    /** The comment or its hash changed. */
+    public static final int COMMENT = 1 << 12;
+    /** Local mute or ignore state was restored from history. */
+    public static final int LOCAL_STATE = 1 << 13;
+
+    /** Mute, deafen and suppression state, both server-side and self-set. */
+    public static final int MUTE_DEAF_STATE = MUTE | DEAF | SUPPRESS | SELF_MUTE | SELF_DEAF;
+    public static final int ALL = (1 << 14) - 1;
+
+    private UserChange() {
+    }
+}
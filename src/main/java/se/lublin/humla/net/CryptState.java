@@ -40,6 +40,8 @@ import javax.crypto.spec.SecretKeySpec;
  */
 public class CryptState {
     public static final int AES_BLOCK_SIZE = 16;
+    /** The size of the header preceding each encrypted packet: the IV byte and 3 tag bytes. */
+    public static final int HEADER_SIZE = 4;
     private static final String AES_TRANSFORMATION = "AES/ECB/NoPadding";
 
     byte[] mRawKey = new byte[AES_BLOCK_SIZE];
@@ -60,6 +62,14 @@ public class CryptState {
     long mLastRequestStart;
     boolean mInit = false;
 
+    // Encryption scratch, guarded by this.
+    private final byte[] mEncryptTag = new byte[AES_BLOCK_SIZE];
+    private final byte[] mEncryptChecksum = new byte[AES_BLOCK_SIZE];
+    private final byte[] mEncryptTmp = new byte[AES_BLOCK_SIZE];
+    private final byte[] mEncryptDelta = new byte[AES_BLOCK_SIZE];
+    private final byte[] mEncryptPad = new byte[AES_BLOCK_SIZE];
+    private final byte[] mEncryptBlock = new byte[AES_BLOCK_SIZE];
+
     public boolean isValid() {
         return mInit;
     }
@@ -274,8 +284,19 @@ public class CryptState {
     }
 
     public synchronized byte[] encrypt(final byte[] source, final int length) throws BadPaddingException, IllegalBlockSizeException, ShortBufferException {
-        final byte[] tag = new byte[AES_BLOCK_SIZE];
+        final byte[] dst = new byte[length + HEADER_SIZE];
+        System.arraycopy(source, 0, dst, HEADER_SIZE, length);
+        encryptInPlace(dst, length);
+        return dst;
+    }
 
+    /**
+     * Encrypts a packet without copying or allocating.
+     * @param buffer Holds the plain text after {@link #HEADER_SIZE} bytes of headroom. The cipher
+     *               text replaces it, and the header is written into the headroom.
+     * @param length The length of the plain text.
+     */
+    public synchronized void encryptInPlace(final byte[] buffer, final int length) throws BadPaddingException, IllegalBlockSizeException, ShortBufferException {
         // First, increase our IV.
         for (int i = 0; i < AES_BLOCK_SIZE; i++) {
             if ((++mEncryptIV[i]) != 0) {
@@ -283,37 +304,45 @@ public class CryptState {
             }
         }
 
-        final byte[] dst = new byte[length + 4];
-        ocbEncrypt(source, dst, length, mEncryptIV, tag);
-
-        System.arraycopy(dst, 0, dst, 4, length);
-        dst[0] = mEncryptIV[0];
-        dst[1] = tag[0];
-        dst[2] = tag[1];
-        dst[3] = tag[2];
+        ocbEncrypt(buffer, HEADER_SIZE, buffer, HEADER_SIZE, length, mEncryptIV, mEncryptTag);
 
-        return dst;
+        buffer[0] = mEncryptIV[0];
+        buffer[1] = mEncryptTag[0];
+        buffer[2] = mEncryptTag[1];
+        buffer[3] = mEncryptTag[2];
     }
 
     public void ocbEncrypt(byte[] plain, byte[] encrypted, int plainLength, byte[] nonce, byte[] tag) throws BadPaddingException, IllegalBlockSizeException, ShortBufferException {
-        final byte[] checksum = new byte[AES_BLOCK_SIZE];
-        final byte[] tmp = new byte[AES_BLOCK_SIZE];
+        ocbEncrypt(plain, 0, encrypted, 0, plainLength, nonce, tag);
+    }
 
-        final byte[] delta = mEncryptCipher.doFinal(nonce);
+    /**
+     * Encrypts using OCB-AES128. Each block is read before it is written, so the plain and
+     * encrypted ranges may be the same.
+     */
+    public synchronized void ocbEncrypt(byte[] plain, int plainOffset, byte[] encrypted, int encryptedOffset, int plainLength, byte[] nonce, byte[] tag) throws BadPaddingException, IllegalBlockSizeException, ShortBufferException {
+        final byte[] checksum = mEncryptChecksum;
+        final byte[] tmp = mEncryptTmp;
+        final byte[] delta = mEncryptDelta;
+        final byte[] pad = mEncryptPad;
+        final byte[] buffer = mEncryptBlock;
+        CryptSupport.ZERO(checksum);
+
+        mEncryptCipher.doFinal(nonce, 0, AES_BLOCK_SIZE, delta, 0);
 
         int offset = 0;
         int len = plainLength;
         while (len > AES_BLOCK_SIZE) {
-            final byte[] buffer = new byte[AES_BLOCK_SIZE];
             CryptSupport.S2(delta);
-            System.arraycopy(plain, offset, buffer, 0, AES_BLOCK_SIZE);
+            System.arraycopy(plain, plainOffset + offset, buffer, 0, AES_BLOCK_SIZE);
             CryptSupport.XOR(checksum, checksum, buffer);
             CryptSupport.XOR(tmp, delta, buffer);
 
-            mEncryptCipher.doFinal(tmp, 0, AES_BLOCK_SIZE, tmp);
+            // Separate output arrays spare the cipher a defensive copy of its input.
+            mEncryptCipher.doFinal(tmp, 0, AES_BLOCK_SIZE, pad, 0);
 
-            CryptSupport.XOR(buffer, delta, tmp);
-            System.arraycopy(buffer, 0, encrypted, offset, AES_BLOCK_SIZE);
+            CryptSupport.XOR(buffer, delta, pad);
+            System.arraycopy(buffer, 0, encrypted, encryptedOffset + offset, AES_BLOCK_SIZE);
             len -= AES_BLOCK_SIZE;
             offset += AES_BLOCK_SIZE;
         }
@@ -325,14 +354,14 @@ public class CryptState {
         tmp[AES_BLOCK_SIZE - 1] = (byte) (num & 0xFF);
         CryptSupport.XOR(tmp, tmp, delta);
 
-        final byte[] pad = mEncryptCipher.doFinal(tmp);
+        mEncryptCipher.doFinal(tmp, 0, AES_BLOCK_SIZE, pad, 0);
 
-        System.arraycopy(plain, offset, tmp, 0, len);
+        System.arraycopy(plain, plainOffset + offset, tmp, 0, len);
         System.arraycopy(pad, len, tmp, len, AES_BLOCK_SIZE - len);
         CryptSupport.XOR(checksum, checksum, tmp);
         CryptSupport.XOR(tmp, pad, tmp);
 
-        System.arraycopy(tmp, 0, encrypted, offset, len);
+        System.arraycopy(tmp, 0, encrypted, encryptedOffset + offset, len);
         CryptSupport.S3(delta);
         CryptSupport.XOR(tmp, delta, checksum);
         mEncryptCipher.doFinal(tmp, 0, AES_BLOCK_SIZE, tag);
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.net;
+
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+
+/**
+ * An outgoing voice datagram, written once and sent without copying. The plain text is written
+ * after {@link #HEADROOM} bytes, which {@link CryptState#encryptInPlace(byte[], int)} fills with
+ * its header while encrypting the plain text in place. The same array then goes to the socket.
+ *
+ * Buffers from a {@link DatagramBufferPool} must be released by whoever holds them last.
+ */
+public final class DatagramBuffer {
+    /** Room reserved before the plain text for the encryption header. */
+    public static final int HEADROOM = CryptState.HEADER_SIZE;
+
+    private final DatagramBufferPool mPool;
+    private final byte[] mData;
+    private final ByteBuffer mPayloadBuffer;
+    private final PacketBuffer mPayload;
+    private final DatagramPacket mPacket;
+    private int mLength;
+    /** Whether the buffer is idle in its pool. Guarded by the pool. */
+    boolean mPooled;
+
+    /**
+     * Creates a buffer that is not pooled.
+     * @param capacity The largest plain text length the buffer can hold.
+     */
+    public DatagramBuffer(int capacity) {
+        this(null, capacity);
+    }
+
+    DatagramBuffer(DatagramBufferPool pool, int capacity) {
+        mPool = pool;
+        mData = new byte[HEADROOM + capacity];
+        mPayloadBuffer = ByteBuffer.wrap(mData, HEADROOM, capacity).slice();
+        mPayload = new PacketBuffer(mPayloadBuffer);
+        mPacket = new DatagramPacket(mData, mData.length);
+    }
+
+    /**
+     * @return a packet buffer positioned at the start of the plain text, to write it with.
+     *         Resets any previous contents. Call {@link #setLength(int)} once written.
+     */
+    public PacketBuffer getPayload() {
+        mPayloadBuffer.clear();
+        return mPayload;
+    }
+
+    /**
+     * @return the backing array. The plain text, or cipher text, starts at {@link #HEADROOM}.
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    /**
+     * @return the length of the plain text, excluding the headroom.
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    public void setLength(int length) {
+        if (length < 0 || HEADROOM + length > mData.length)
+            throw new IllegalArgumentException("Invalid datagram length " + length);
+        mLength = length;
+    }
+
+    /**
+     * @return a datagram covering the header and cipher text, reused for every send.
+     */
+    DatagramPacket getPacket() {
+        mPacket.setData(mData, 0, HEADROOM + mLength);
+        return mPacket;
+    }
+
+    /**
+     * Returns the buffer to its pool, if any. The buffer must not be used afterwards.
+     */
+    public void release() {
+        if (mPool != null)
+            mPool.release(this);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.net;
+
+import java.util.ArrayDeque;
+
+/**
+ * Recycles {@link DatagramBuffer}s, so that sending voice does not allocate once the pool has
+ * warmed up. Thread-safe: buffers are typically acquired on the encode thread and released on the
+ * network send thread.
+ */
+public class DatagramBufferPool {
+    private final int mCapacity;
+    private final int mMaxIdle;
+    private final ArrayDeque<DatagramBuffer> mIdle;
+
+    /**
+     * @param capacity The largest plain text length each buffer can hold.
+     * @param maxIdle The number of released buffers to keep. Further ones are left to the GC.
+     */
+    public DatagramBufferPool(int capacity, int maxIdle) {
+        mCapacity = capacity;
+        mMaxIdle = maxIdle;
+        mIdle = new ArrayDeque<>(maxIdle);
+    }
+
+    /**
+     * @return an idle buffer, or a new one if none is idle.
+     */
+    public DatagramBuffer acquire() {
+        synchronized (mIdle) {
+            DatagramBuffer buffer = mIdle.poll();
+            if (buffer != null) {
+                buffer.mPooled = false;
+                return buffer;
+            }
+        }
+        return new DatagramBuffer(this, mCapacity);
+    }
+
+    /**
+     * @return the number of released buffers waiting to be reused.
+     */
+    public int getIdleCount() {
+        synchronized (mIdle) {
+            return mIdle.size();
+        }
+    }
+
+    void release(DatagramBuffer buffer) {
+        synchronized (mIdle) {
+            // Tolerate double releases, which would otherwise hand one buffer out twice.
+            if (buffer.mPooled || mIdle.size() >= mMaxIdle)
+                return;
+            buffer.mPooled = true;
+            mIdle.push(buffer);
+        }
+    }
+}
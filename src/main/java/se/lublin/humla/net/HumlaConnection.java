@@ -54,6 +54,7 @@ import java.util.concurrent.TimeUnit;
 import se.lublin.humla.exception.NotConnectedException;
 import se.lublin.humla.exception.NotSynchronizedException;
 import se.lublin.humla.protobuf.Mumble;
+import se.lublin.humla.protocol.AudioHandler;
 import se.lublin.humla.protocol.HumlaTCPMessageListener;
 import se.lublin.humla.protocol.HumlaUDPMessageListener;
 import se.lublin.humla.util.HumlaException;
@@ -299,9 +300,21 @@ public class HumlaConnection implements HumlaTCP.TCPConnectionListener, HumlaUDP
      * @return The bandwidth in bps used by the given configuration.
      */
     public static int calculateAudioBandwidth(int bitrate, int framesPerPacket) {
+        return calculateAudioBandwidth(bitrate, framesPerPacket, AudioHandler.FRAME_SIZE);
+    }
+
+    /**
+     * Calculates the bandwidth required to send audio with the given parameters.
+     * Includes packet overhead.
+     * @param bitrate The bitrate in bps.
+     * @param framesPerPacket The number of frames per audio packet.
+     * @param frameSize The number of samples in a frame at {@link AudioHandler#SAMPLE_RATE}.
+     * @return The bandwidth in bps used by the given configuration.
+     */
+    public static int calculateAudioBandwidth(int bitrate, int framesPerPacket, int frameSize) {
         // FIXME: assumes worst-case using TCP
         int overhead = 20 + 8 + 4 + 1 + 2 + 12 + framesPerPacket;
-        overhead *= (800 / framesPerPacket);
+        overhead *= 8 * AudioHandler.SAMPLE_RATE / (frameSize * framesPerPacket);
         return overhead + bitrate;
     }
 
@@ -577,7 +590,7 @@ public class HumlaConnection implements HumlaTCP.TCPConnectionListener, HumlaUDP
             throw new IllegalArgumentException("Requested length " + length + " is longer than " +
                     "available data length " + data.length + "!");
         }
-        if (mServerVersion == 0x10202) applyLegacyCodecWorkaround(data);
+        if (mServerVersion == 0x10202) applyLegacyCodecWorkaround(data, 0);
         if (!force && (shouldForceTCP() || !mUsingUDP) && mTCP != null) {
             mTCP.sendMessage(data, length, HumlaTCPMessageType.UDPTunnel);
         } else if (!shouldForceTCP() && mUDP != null) {
@@ -585,6 +598,28 @@ public class HumlaConnection implements HumlaTCP.TCPConnectionListener, HumlaUDP
         }
     }
 
+    /**
+     * Sends a pooled datagram over UDP without copying it. Can silently fail, or be tunneled
+     * through TCP unless forced.
+     * @param datagram The datagram to send. Ownership passes to this call, which releases it.
+     * @param force Whether to avoid tunneling this data over TCP.
+     */
+    public void sendUDPMessage(final DatagramBuffer datagram, final boolean force) {
+        if (!mConnected) {
+            datagram.release();
+            return;
+        }
+        if (mServerVersion == 0x10202)
+            applyLegacyCodecWorkaround(datagram.getData(), DatagramBuffer.HEADROOM);
+        if (!force && (shouldForceTCP() || !mUsingUDP) && mTCP != null) {
+            mTCP.sendMessage(datagram, HumlaTCPMessageType.UDPTunnel);
+        } else if (!shouldForceTCP() && mUDP != null) {
+            mUDP.sendMessage(datagram);
+        } else {
+            datagram.release();
+        }
+    }
+
     /**
      * Sends a message to the server, asking it to tunnel future voice packets over TCP.
      */
@@ -661,7 +696,7 @@ public class HumlaConnection implements HumlaTCP.TCPConnectionListener, HumlaUDP
 
     @Override
     public void onUDPDataReceived(byte[] data) {
-        if(mServerVersion == 0x10202) applyLegacyCodecWorkaround(data);
+        if(mServerVersion == 0x10202) applyLegacyCodecWorkaround(data, 0);
         int dataType = data[0] >> 5 & 0x7;
         if(dataType < 0 || dataType > HumlaUDPMessageType.values().length - 1) return; // Discard invalid data types
         HumlaUDPMessageType udpDataType = HumlaUDPMessageType.values()[dataType];
@@ -692,13 +727,13 @@ public class HumlaConnection implements HumlaTCP.TCPConnectionListener, HumlaUDP
      * Workaround for 1.2.2 servers that report the old types for CELT alpha and beta.
      * @param data The UDP data to be patched, if we're on a 1.2.2 server.
      */
-    private void applyLegacyCodecWorkaround(byte[] data) {
-        HumlaUDPMessageType dataType = HumlaUDPMessageType.values()[data[0] >> 5 & 0x7];
+    private void applyLegacyCodecWorkaround(byte[] data, int offset) {
+        HumlaUDPMessageType dataType = HumlaUDPMessageType.values()[data[offset] >> 5 & 0x7];
         if(dataType == HumlaUDPMessageType.UDPVoiceCELTBeta)
             dataType = HumlaUDPMessageType.UDPVoiceCELTAlpha;
         else if(dataType == HumlaUDPMessageType.UDPVoiceCELTAlpha)
             dataType = HumlaUDPMessageType.UDPVoiceCELTBeta;
-        data[0] = (byte) ((dataType.ordinal() << 5) & 0xFF);
+        data[offset] = (byte) ((dataType.ordinal() << 5) & 0xFF);
     }
 
     /**
@@ -211,6 +211,31 @@ public class HumlaTCP extends HumlaNetworkThread {
         });
     }
 
+    /**
+     * Sends the plain text of a datagram over TCP, releasing the datagram once written.
+     * Thread-safe, executes on a single threaded executor.
+     * @param datagram The datagram to send. Ownership passes to this call.
+     * @param messageType The type of the message to send.
+     */
+    public void sendMessage(final DatagramBuffer datagram, final HumlaTCPMessageType messageType) {
+        executeOnSendThread(new Runnable() {
+            @Override
+            public void run() {
+                if (!HumlaConnection.UNLOGGED_MESSAGES.contains(messageType))
+                    Log.v(TAG, "OUT: " + messageType);
+                try {
+                    mDataOutput.writeShort(messageType.ordinal());
+                    mDataOutput.writeInt(datagram.getLength());
+                    mDataOutput.write(datagram.getData(), DatagramBuffer.HEADROOM, datagram.getLength());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    datagram.release();
+                }
+            }
+        });
+    }
+
     /**
      * Attempts to disconnect gracefully on the Tx thread.
      * Disconnects interrupt the socket listening on the Tx thread, suppressing any exceptions
@@ -26,8 +26,9 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
@@ -41,6 +42,8 @@ public class HumlaUDP implements Runnable {
     private static final String TAG = HumlaUDP.class.getName();
 
     private static final int BUFFER_SIZE = 2048;
+    /** The number of datagrams that may wait to be sent; over a second of voice. */
+    private static final int SEND_QUEUE_CAPACITY = 64;
     private final CryptState mCryptState;
 
     private DatagramSocket mUDPSocket;
@@ -56,8 +59,8 @@ public class HumlaUDP implements Runnable {
     /** Handler to invoke listener callback invocations on. */
     private final Handler mCallbackHandler;
 
-    /** Unbounded queue of outgoing packets to be sent. */
-    private final BlockingQueue<DatagramPacket> mSendQueue;
+    /** Bounded queue of encrypted datagrams to be sent, preallocated so queueing never allocates. */
+    private final BlockingQueue<DatagramBuffer> mSendQueue;
 
     /**
      * Sets up a new UDP connection context.
@@ -71,7 +74,7 @@ public class HumlaUDP implements Runnable {
         mListener = listener;
         mCallbackHandler = callbackHandler;
         mDatagramThread = new Thread(this);
-        mSendQueue = new LinkedBlockingQueue<>();
+        mSendQueue = new ArrayBlockingQueue<>(SEND_QUEUE_CAPACITY);
     }
 
     public void connect(@NotNull String host, @NotNull int port) {
@@ -90,7 +93,7 @@ public class HumlaUDP implements Runnable {
         mConnected = true;
         try {
             mResolvedHost = InetAddress.getByName(mHost);
-            mUDPSocket = new DatagramSocket();
+            mUDPSocket = createSocket();
 
             mUDPSocket.connect(mResolvedHost, mPort);
             Log.d(TAG, "Created socket");
@@ -167,37 +170,57 @@ public class HumlaUDP implements Runnable {
             }
 
             // Clear the outgoing queue, in case the caller decides to reconnect with the same socket.
-            mSendQueue.clear();
+            DatagramBuffer datagram;
+            while ((datagram = mSendQueue.poll()) != null)
+                datagram.release();
 
             mUDPSocket.close();
         }
     }
 
+    /**
+     * Opens the unconnected socket used to send and receive datagrams. Tests may override this to
+     * observe the send path.
+     */
+    protected DatagramSocket createSocket() throws SocketException {
+        return new DatagramSocket();
+    }
+
     public void sendMessage(@NotNull final byte[] data, final int length) {
+        DatagramBuffer datagram = new DatagramBuffer(length);
+        System.arraycopy(data, 0, datagram.getData(), DatagramBuffer.HEADROOM, length);
+        datagram.setLength(length);
+        sendMessage(datagram);
+    }
+
+    /**
+     * Encrypts the datagram in place and queues it for sending. Takes ownership of the datagram,
+     * releasing it once sent or dropped.
+     */
+    public void sendMessage(@NotNull final DatagramBuffer datagram) {
         if (!mCryptState.isValid()) {
             Log.w(TAG, "Invalid cryptstate prior to sendMessage call.");
+            datagram.release();
             return;
         }
         if (!mConnected) {
             Log.w(TAG, "Tried to send UDP message without an active connection.");
+            datagram.release();
             return;
         }
 
         try {
-            byte[] encryptedData = mCryptState.encrypt(data, length);
-            final DatagramPacket packet = new DatagramPacket(encryptedData, encryptedData.length);
+            mCryptState.encryptInPlace(datagram.getData(), datagram.getLength());
+            final DatagramPacket packet = datagram.getPacket();
             packet.setAddress(mResolvedHost);
             packet.setPort(mPort);
-            mSendQueue.add(packet);
-        } catch (BadPaddingException e) {
-            // TODO
-            e.printStackTrace();
-        } catch (IllegalBlockSizeException e) {
-            // TODO
-            e.printStackTrace();
-        } catch (ShortBufferException e) {
-            // TODO
+            if (!mSendQueue.offer(datagram)) {
+                Log.w(TAG, "Send queue full, dropping datagram");
+                datagram.release();
+            }
+        } catch (BadPaddingException | IllegalBlockSizeException | ShortBufferException e) {
             e.printStackTrace();
+            datagram.release();
         }
     }
 
@@ -227,10 +250,10 @@ public class HumlaUDP implements Runnable {
      */
     private static class OutgoingConsumer implements Runnable {
         private final DatagramSocket mSocket;
-        private final BlockingQueue<DatagramPacket> mQueue;
+        private final BlockingQueue<DatagramBuffer> mQueue;
 
         public OutgoingConsumer(@NotNull DatagramSocket socket,
-                                @NotNull BlockingQueue<DatagramPacket> queue) {
+                                @NotNull BlockingQueue<DatagramBuffer> queue) {
             mSocket = socket;
             mQueue = queue;
         }
@@ -241,8 +264,12 @@ public class HumlaUDP implements Runnable {
             boolean interrupted = false;
             while (!interrupted) {
                 try {
-                    DatagramPacket packet = mQueue.take();
-                    mSocket.send(packet);
+                    DatagramBuffer datagram = mQueue.take();
+                    try {
+                        mSocket.send(datagram.getPacket());
+                    } finally {
+                        datagram.release();
+                    }
                 } catch (IOException e) {
                     e.printStackTrace();
                 } catch (InterruptedException e) {
@@ -25,17 +25,31 @@ import android.util.Log;
 import se.lublin.humla.R;
 import se.lublin.humla.audio.AudioInput;
 import se.lublin.humla.audio.AudioOutput;
+import se.lublin.humla.audio.BitrateController;
+import se.lublin.humla.audio.CapturePipeline;
+import se.lublin.humla.audio.EchoCancelStage;
+import se.lublin.humla.audio.EchoReference;
+import se.lublin.humla.audio.EncodeGovernor;
+import se.lublin.humla.audio.EncodeStage;
+import se.lublin.humla.audio.GainStage;
+import se.lublin.humla.audio.HighPassStage;
+import se.lublin.humla.audio.JitterBufferStats;
+import se.lublin.humla.audio.PreprocessStage;
+import se.lublin.humla.audio.ResampleStage;
+import se.lublin.humla.audio.VoiceActivityStage;
 import se.lublin.humla.audio.encoder.CELT11Encoder;
 import se.lublin.humla.audio.encoder.CELT7Encoder;
 import se.lublin.humla.audio.encoder.IEncoder;
 import se.lublin.humla.audio.encoder.OpusEncoder;
-import se.lublin.humla.audio.encoder.PreprocessingEncoder;
-import se.lublin.humla.audio.encoder.ResamplingEncoder;
+import se.lublin.humla.audio.inputmode.AdaptiveActivityInputMode;
 import se.lublin.humla.audio.inputmode.IInputMode;
 import se.lublin.humla.exception.AudioException;
 import se.lublin.humla.exception.AudioInitializationException;
 import se.lublin.humla.exception.NativeAudioException;
+import se.lublin.humla.exception.NotConnectedException;
 import se.lublin.humla.model.User;
+import se.lublin.humla.net.DatagramBuffer;
+import se.lublin.humla.net.DatagramBufferPool;
 import se.lublin.humla.net.HumlaConnection;
 import se.lublin.humla.net.HumlaUDPMessageType;
 import se.lublin.humla.net.PacketBuffer;
@@ -47,8 +61,8 @@ import se.lublin.humla.util.HumlaNetworkListener;
  * Bridges the protocol's audio messages to our input and output threads.
  * A useful intermediate for reducing code coupling.
  * Audio playback and recording is exclusively controlled by the protocol.
- * Changes to input/output instance vars after the audio threads have been initialized will recreate
- * them in most cases (they're immutable for the purpose of avoiding threading issues).
+ * Settings changed after the audio threads have been initialized are applied in place by
+ * {@link #reconfigure(Builder)}, which reopens only the affected audio device.
  * Calling shutdown() will cleanup both input and output threads. It is safe to restart after.
  * Created by andrew on 23/04/14.
  */
@@ -57,40 +71,86 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
 
     public static final int SAMPLE_RATE = 48000;
     public static final int FRAME_SIZE = SAMPLE_RATE/100;
+    /** 5ms frames, for low latency. Only supported by Opus. */
+    public static final int FRAME_SIZE_5MS = SAMPLE_RATE/200;
+    /** 2.5ms frames, for the lowest latency. Only supported by Opus. */
+    public static final int FRAME_SIZE_2_5MS = SAMPLE_RATE/400;
+    /** The largest voice packet we build, before encryption. */
+    public static final int MAX_PACKET_SIZE = 1024;
     public static final int MAX_BUFFER_SIZE = 960;
+    /** How much of the played mix is kept for echo cancellation, about 1.4 seconds. */
+    private static final int ECHO_REFERENCE_SAMPLES = 65536;
+    /** How long capture must be silent before it idles until an onset. */
+    private static final long IDLE_AFTER_NANOS = 2000000000L;
 
     private final Context mContext;
     private final HumlaLogger mLogger;
     private final AudioManager mAudioManager;
-    private final AudioInput mInput;
+    /** Replaced when the microphone is reopened, with the handler's lock held. */
+    private volatile AudioInput mInput;
     private final AudioOutput mOutput;
+    /** The played mix, kept for software echo cancellation. Null unless it is enabled. */
+    private EchoReference mEchoReference;
     private AudioOutput.AudioOutputListener mOutputListener;
     private AudioEncodeListener mEncodeListener;
 
     private int mSession;
     private HumlaUDPMessageType mCodec;
     private IEncoder mEncoder;
+    /** Counts frames of {@link #mFrameSize}, from which voice packets are numbered. */
     private int mFrameCounter;
-
-    private final int mAudioStream;
-    private final int mAudioSource;
+    /** The frame size asked for. */
+    private int mRequestedFrameSize;
+    /** The frame size captured and encoded in, which the input may have forced back to 10ms. */
+    private int mFrameSize;
+    /** The duration of one frame, the budget for encoding it. */
+    private long mFrameNanos;
+    /** When the first frame of the packet being encoded was captured, in nanoTime. */
+    private long mPacketCaptureTime;
+    /** Smoothed time from capture to a packet being sent. Guarded by the encoder lock. */
+    private long mCaptureLatencyNanos;
+
+    private int mAudioStream;
+    /** The audio source asked for, which echo cancellation may override. */
+    private int mRequestedAudioSource;
+    private int mAudioSource;
     private int mSampleRate;
     private int mBitrate;
     private int mFramesPerPacket;
-    private final IInputMode mInputMode;
-    private final float mAmplitudeBoost;
+    /** The configured bitrate and packet size, before limiting to the server's bandwidth. */
+    private int mTargetBitrate;
+    private int mTargetFramesPerPacket;
+    private volatile IInputMode mInputMode;
+    private float mAmplitudeBoost;
 
     private boolean mInitialized;
-    /** True if the user is muted on the server. */
-    private boolean mMuted;
     private boolean mBluetoothOn;
     private boolean mHalfDuplex;
     private boolean mPreprocessorEnabled;
     private String mEchoCancellationMethod;
+    private boolean mDtxEnabled;
+    /** The server's bandwidth limit in bps, or -1 if unknown. */
+    private int mMaxBandwidth = -1;
     /** The last observed talking state. False if muted, or the input mode is not active. */
     private boolean mTalking;
+    /** Consecutive frames not transmitted. Only touched by the encode thread. */
+    private int mSilentFrames;
+    /** Smoothed time taken to process a frame that is not transmitted, in nanoseconds. */
+    private volatile long mSilentFrameNanos;
 
     private final Object mEncoderLock;
+    /** Processes and encodes captured audio. Guarded by the encoder lock. */
+    private final CapturePipeline mPipeline;
+    private final VoiceActivityStage mVoiceActivity;
+    /** The Opus encoder at the core of {@link #mEncoder}, if any. Guarded by the encoder lock. */
+    private OpusEncoder mOpusEncoder;
+    /** Adapts the encoder to network conditions. Guarded by the encoder lock. */
+    private BitrateController mBitrateController;
+    /** Scales encoder complexity to the CPU time available. Guarded by the encoder lock. */
+    private EncodeGovernor mEncodeGovernor;
+    /** Supplies round trip times, if set. */
+    private volatile HumlaConnection mConnection;
+    private final DatagramBufferPool mDatagramPool = new DatagramBufferPool(MAX_PACKET_SIZE, 16);
     private byte mTargetId;
 
     public AudioHandler(Context context, HumlaLogger logger, int audioStream, int audioSource,
@@ -98,7 +158,8 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
                         IInputMode inputMode, byte targetId, float amplitudeBoost,
                         boolean bluetoothEnabled, boolean halfDuplexEnabled,
                         boolean preprocessorEnabled, String echoCancellationMethod,
-                        AudioEncodeListener encodeListener,
+                        boolean dtxEnabled, String jitterBuffer, int speakerGracePeriod,
+                        int frameSize, AudioEncodeListener encodeListener,
                         AudioOutput.AudioOutputListener outputListener) throws AudioInitializationException, NativeAudioException {
         mContext = context;
         mLogger = logger;
@@ -106,12 +167,15 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
         mSampleRate = sampleRate;
         mBitrate = targetBitrate;
         mFramesPerPacket = targetFramesPerPacket;
+        mTargetBitrate = targetBitrate;
+        mTargetFramesPerPacket = targetFramesPerPacket;
         mInputMode = inputMode;
         mAmplitudeBoost = amplitudeBoost;
         mBluetoothOn = bluetoothEnabled;
         mHalfDuplex = halfDuplexEnabled;
         mPreprocessorEnabled = preprocessorEnabled;
         mEchoCancellationMethod = echoCancellationMethod;
+        mDtxEnabled = dtxEnabled;
         mEncodeListener = encodeListener;
         mOutputListener = outputListener;
         mTalking = false;
@@ -120,17 +184,13 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
         mAudioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
         mEncoderLock = new Object();
 
-        int actualSource = audioSource;
-        if (echoCancellationMethod.equals("system") /* android.media.audiofx.AcousticEchoCanceler */) {
-            // Enforce MODE_IN_COMMUNICATION for AudioManager, some AECs won't function without this.
-            AudioManager audioManager = (AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE);
-            audioManager.setMode(AudioManager.MODE_IN_COMMUNICATION);
-            actualSource = MediaRecorder.AudioSource.VOICE_COMMUNICATION;
-        }
-        mAudioSource = actualSource;
-
-        mInput = new AudioInput(this, mAudioSource, mSampleRate, mEchoCancellationMethod);
-        mOutput = new AudioOutput(mOutputListener);
+        mRequestedAudioSource = audioSource;
+        mRequestedFrameSize = frameSize;
+        mInput = openInput();
+        mOutput = new AudioOutput(mOutputListener, jitterBuffer, speakerGracePeriod, mFrameSize);
+        updateEchoReference();
+        mPipeline = new CapturePipeline(Math.max(mInput.getFrameSize(), mFrameSize));
+        mVoiceActivity = new VoiceActivityStage(mInputMode);
     }
 
     /**
@@ -141,17 +201,236 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
         if(mInitialized) return;
         mSession = self.getSession();
 
+        mMaxBandwidth = maxBandwidth;
+        mFramesPerPacket = getSupportedFramesPerPacket(mTargetFramesPerPacket);
         setMaxBandwidth(maxBandwidth);
-        setCodec(codec);
+        warnIfShortPackets();
+        mBitrateController = new BitrateController(mBitrate, mFramesPerPacket);
+        mEncodeGovernor = new EncodeGovernor(EncodeGovernor.MAX_COMPLEXITY);
+        synchronized (mEncoderLock) {
+            configurePipeline();
+            setCodec(codec);
+        }
         setServerMuted(self.isMuted() || self.isLocalMuted() || self.isSuppressed());
+        mOutput.setDeafened(self.isDeafened() || self.isSelfDeafened());
         startRecording();
         // Ensure that if a bluetooth SCO connection is active, we use the VOICE_CALL stream.
         // This is required by Android for compatibility with SCO.
-        mOutput.startPlaying(mBluetoothOn ? AudioManager.STREAM_VOICE_CALL : mAudioStream);
+        mOutput.startPlaying(getPlaybackStream());
 
         mInitialized = true;
     }
 
+    /**
+     * Applies changed settings without tearing the handler down. Only the audio device whose
+     * configuration changed is reopened: the microphone for a new source, sample rate or echo
+     * cancellation method, the speaker for a new stream, and both for a new frame size. A
+     * Bluetooth SCO change reopens the
+     * speaker and restarts capture, so that both follow the new route. Capture stages are only
+     * replaced if their parameters changed, and the encoder only if the bitrate or packet size
+     * did. Speakers keep their decoders and jitter buffers throughout.
+     * @param builder The new settings. Its context and listeners are ignored.
+     * @throws AudioException if a device failed to reopen, or anything else went wrong. The
+     *                        handler is then shut down, and has to be replaced.
+     */
+    public synchronized void reconfigure(Builder builder) throws AudioException {
+        if (!mInitialized)
+            return;
+
+        try {
+            applyConfiguration(builder);
+        } catch (AudioException e) {
+            // Capture may be stopped and the settings half applied. Rather than leave the handler
+            // silently broken, shut it down so that it gets rebuilt.
+            Log.e(TAG, "Failed to reconfigure audio, shutting down", e);
+            shutdown();
+            throw e;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to reconfigure audio, shutting down", e);
+            shutdown();
+            // Callers rebuild the handler on an AudioException, so report it as one.
+            throw new AudioException(e);
+        }
+    }
+
+    /**
+     * Applies the settings of {@link #reconfigure(Builder)}.
+     */
+    private void applyConfiguration(Builder builder) throws AudioException {
+        boolean frameSizeChanged = builder.mFrameSize != mRequestedFrameSize;
+        boolean reopenInput = builder.mAudioSource != mRequestedAudioSource
+                || builder.mInputSampleRate != mSampleRate
+                || !builder.mEchoCancellationMethod.equals(mEchoCancellationMethod)
+                || frameSizeChanged;
+        boolean bluetoothChanged = builder.mBluetoothEnabled != mBluetoothOn;
+        boolean reopenOutput = builder.mAudioStream != mAudioStream || bluetoothChanged
+                || frameSizeChanged;
+        // The encode thread has to be stopped to wake it from the old input mode, and to keep
+        // half duplex muting consistent.
+        boolean restartInput = reopenInput || bluetoothChanged
+                || builder.mInputMode != mInputMode
+                || builder.mHalfDuplexEnabled != mHalfDuplex
+                || (mHalfDuplex && builder.mAudioStream != mAudioStream);
+
+        if (restartInput) {
+            synchronized (mInput) {
+                mInput.stopRecording();
+            }
+            if (mTalking && mHalfDuplex)
+                mAudioManager.setStreamMute(getAudioStream(), false);
+        }
+        int oldFrameSize = mFrameSize;
+        if (reopenInput) {
+            synchronized (mInput) {
+                mInput.shutdown();
+            }
+            mRequestedAudioSource = builder.mAudioSource;
+            mSampleRate = builder.mInputSampleRate;
+            mEchoCancellationMethod = builder.mEchoCancellationMethod;
+            mRequestedFrameSize = builder.mFrameSize;
+            mInput = openInput();
+            updateEchoReference();
+        }
+        mAudioStream = builder.mAudioStream;
+        mBluetoothOn = builder.mBluetoothEnabled;
+        mHalfDuplex = builder.mHalfDuplexEnabled;
+        mInputMode = builder.mInputMode;
+        // Set before reopening, so that the new track is sized for the new frames.
+        mOutput.setJitterBuffer(builder.mJitterBuffer, mFrameSize);
+        mOutput.setGracePeriod(builder.mSpeakerGracePeriod);
+        if (reopenOutput) {
+            synchronized (mOutput) {
+                mOutput.reopen(getPlaybackStream());
+            }
+        }
+
+        synchronized (mEncoderLock) {
+            mVoiceActivity.setInputMode(mInputMode);
+            if (mInputMode instanceof AdaptiveActivityInputMode)
+                ((AdaptiveActivityInputMode) mInputMode).setSampleRate(mInput.getSampleRate());
+            boolean boostChanged = builder.mAmplitudeBoost != mAmplitudeBoost;
+            boolean preprocessorChanged = builder.mPreprocessorEnabled != mPreprocessorEnabled;
+            mAmplitudeBoost = builder.mAmplitudeBoost;
+            mPreprocessorEnabled = builder.mPreprocessorEnabled;
+            if (reopenInput) {
+                mPipeline.ensureCapacity(Math.max(mInput.getFrameSize(), mFrameSize));
+                configurePipeline();
+            } else {
+                if (boostChanged) {
+                    mPipeline.setStage(CapturePipeline.STAGE_GAIN,
+                            mAmplitudeBoost != 1.0f ? new GainStage(mAmplitudeBoost) : null);
+                }
+                if (preprocessorChanged) {
+                    mPipeline.setStage(CapturePipeline.STAGE_PREPROCESS,
+                            mPreprocessorEnabled ? createPreprocessStage() : null);
+                }
+            }
+
+            boolean dtxChanged = builder.mDtxEnabled != mDtxEnabled;
+            mDtxEnabled = builder.mDtxEnabled;
+            if (mFrameSize != oldFrameSize) {
+                // Keep sequence numbers increasing across the change of frame size.
+                mFrameCounter = (int) ((long) mFrameCounter * oldFrameSize / mFrameSize) + 1;
+            }
+            if (builder.mTargetBitrate != mTargetBitrate
+                    || builder.mTargetFramesPerPacket != mTargetFramesPerPacket
+                    || mFrameSize != oldFrameSize) {
+                mTargetBitrate = builder.mTargetBitrate;
+                mTargetFramesPerPacket = builder.mTargetFramesPerPacket;
+                mBitrate = mTargetBitrate;
+                mFramesPerPacket = getSupportedFramesPerPacket(mTargetFramesPerPacket);
+                setMaxBandwidth(mMaxBandwidth);
+                warnIfShortPackets();
+                mBitrateController = new BitrateController(mBitrate, mFramesPerPacket);
+                setCodec(mCodec);
+            } else if (dtxChanged && mEncoder != null) {
+                mEncoder.setDtx(mDtxEnabled);
+            }
+        }
+
+        if (restartInput) {
+            mTalking = false;
+            mEncodeListener.onTalkingStateChanged(false);
+            startRecording();
+        }
+    }
+
+    /**
+     * Creates the audio input for the requested source, sample rate and echo cancellation.
+     */
+    private AudioInput openInput() throws AudioInitializationException, NativeAudioException {
+        int actualSource = mRequestedAudioSource;
+        if (mEchoCancellationMethod.equals("system") /* android.media.audiofx.AcousticEchoCanceler */) {
+            // Enforce MODE_IN_COMMUNICATION for AudioManager, some AECs won't function without this.
+            mAudioManager.setMode(AudioManager.MODE_IN_COMMUNICATION);
+            actualSource = MediaRecorder.AudioSource.VOICE_COMMUNICATION;
+        }
+        mAudioSource = actualSource;
+        AudioInput input = new AudioInput(this, mAudioSource, mSampleRate,
+                mEchoCancellationMethod, mRequestedFrameSize);
+        mFrameSize = input.getOutputFrameSize();
+        mFrameNanos = 1000000000L * mFrameSize / SAMPLE_RATE;
+        return input;
+    }
+
+    /**
+     * Opus packets of frames shorter than 10ms must still add up to 2.5, 5, 10, 20, 40 or 60ms,
+     * so their number is rounded down to a power of two.
+     * @return the number of frames of the current size to send per packet.
+     */
+    private int getSupportedFramesPerPacket(int framesPerPacket) {
+        if (mFrameSize >= FRAME_SIZE || framesPerPacket < 1)
+            return framesPerPacket;
+        return Integer.highestOneBit(framesPerPacket);
+    }
+
+    /**
+     * Voice packets are numbered in 10ms units, which is what stock Mumble clients expect. Packets
+     * shorter than that cannot be, so they are numbered in frames of their own duration instead,
+     * which only Humla receivers understand.
+     * @param packetSamples The duration of the packet, in samples.
+     * @param frameSamples The duration of each frame in the packet, in samples.
+     * @return the number of samples one step of the sequence number stands for.
+     */
+    public static int getSequenceUnit(int packetSamples, int frameSamples) {
+        if (packetSamples >= FRAME_SIZE || frameSamples <= 0)
+            return FRAME_SIZE;
+        return frameSamples;
+    }
+
+    /**
+     * Warns the user if the configured packets are shorter than 10ms, so that stock Mumble
+     * clients would play what we send as gaps. See {@link #getSequenceUnit(int, int)}.
+     */
+    private void warnIfShortPackets() {
+        int packetSamples = mFramesPerPacket * mFrameSize;
+        if (packetSamples >= FRAME_SIZE)
+            return;
+        Log.w(TAG, "Sending " + packetSamples + " sample packets, only Humla clients will understand them");
+        mLogger.logWarning(mContext.getString(R.string.audio_short_packets,
+                packetSamples * 1000f / SAMPLE_RATE));
+    }
+
+    /**
+     * Starts or stops keeping the played mix, as needed by the echo cancellation method.
+     */
+    private void updateEchoReference() {
+        if (mEchoCancellationMethod.equals("speex")) {
+            if (mEchoReference == null)
+                mEchoReference = new EchoReference(SAMPLE_RATE, ECHO_REFERENCE_SAMPLES);
+        } else {
+            mEchoReference = null;
+        }
+        mOutput.setEchoReference(mEchoReference);
+    }
+
+    /**
+     * @return the stream to play on, which is the voice call stream while Bluetooth SCO is on.
+     */
+    private int getPlaybackStream() {
+        return mBluetoothOn ? AudioManager.STREAM_VOICE_CALL : mAudioStream;
+    }
+
     /**
      * Starts a recording AudioInput thread.
      * @throws AudioException if the input thread failed to initialize, or if a thread was already
@@ -186,7 +465,79 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
      * @param muted Whether the user is muted on the server.
      */
     private void setServerMuted(boolean muted) throws AudioException {
-        mMuted = muted;
+        mVoiceActivity.setMuted(muted);
+    }
+
+    /**
+     * Sets up every capture stage but the encoder. The encoder lock must be held.
+     */
+    private void configurePipeline() {
+        int inputSampleRate = mInput.getSampleRate();
+        if (mInputMode instanceof AdaptiveActivityInputMode)
+            ((AdaptiveActivityInputMode) mInputMode).setSampleRate(inputSampleRate);
+        mPipeline.setStage(CapturePipeline.STAGE_HIGH_PASS,
+                new HighPassStage(inputSampleRate, HighPassStage.DEFAULT_CUTOFF));
+        mPipeline.setStage(CapturePipeline.STAGE_ECHO_CANCEL, mEchoReference != null ?
+                new EchoCancelStage(mEchoReference, inputSampleRate, mInput.getFrameSize())
+                : null);
+        mPipeline.setStage(CapturePipeline.STAGE_VOICE_ACTIVITY, mVoiceActivity);
+        mPipeline.setStage(CapturePipeline.STAGE_GAIN,
+                mAmplitudeBoost != 1.0f ? new GainStage(mAmplitudeBoost) : null);
+        mPipeline.setStage(CapturePipeline.STAGE_RESAMPLE, inputSampleRate != SAMPLE_RATE ?
+                new ResampleStage(inputSampleRate, mInput.getFrameSize(), SAMPLE_RATE, mFrameSize)
+                : null);
+        mPipeline.setStage(CapturePipeline.STAGE_PREPROCESS,
+                mPreprocessorEnabled ? createPreprocessStage() : null);
+    }
+
+    /**
+     * Creates a preprocessor, suppressing residual echo if the echo canceller runs on the same
+     * frames. The encoder lock must be held.
+     */
+    private PreprocessStage createPreprocessStage() {
+        PreprocessStage stage = new PreprocessStage(mFrameSize, SAMPLE_RATE);
+        EchoCancelStage echo = (EchoCancelStage) mPipeline.getStage(CapturePipeline.STAGE_ECHO_CANCEL);
+        if (echo != null && mInput.getSampleRate() == SAMPLE_RATE)
+            stage.setEchoState(echo.getEchoState());
+        return stage;
+    }
+
+    /**
+     * Enables or disables the Speex preprocessor, leaving the encoder and the other capture
+     * stages as they are.
+     */
+    public void setPreprocessorEnabled(boolean enabled) {
+        synchronized (mEncoderLock) {
+            if (enabled == mPreprocessorEnabled)
+                return;
+            mPreprocessorEnabled = enabled;
+            if (mInitialized) {
+                mPipeline.setStage(CapturePipeline.STAGE_PREPROCESS,
+                        enabled ? createPreprocessStage() : null);
+            }
+        }
+    }
+
+    /**
+     * @param stage One of the STAGE constants of {@link CapturePipeline}.
+     * @return the mean time the capture stage takes per frame, in nanoseconds, or 0 if unused.
+     */
+    public long getCaptureStageNanos(int stage) {
+        synchronized (mEncoderLock) {
+            return mPipeline.getMeanNanos(stage);
+        }
+    }
+
+    /**
+     * @return the echo return loss enhancement of the software echo canceller in dB, or 0 if it
+     *         is not in use. Its CPU cost is given by {@link #getCaptureStageNanos(int)} for
+     *         {@link CapturePipeline#STAGE_ECHO_CANCEL}.
+     */
+    public float getEchoReturnLossEnhancement() {
+        synchronized (mEncoderLock) {
+            EchoCancelStage echo = (EchoCancelStage) mPipeline.getStage(CapturePipeline.STAGE_ECHO_CANCEL);
+            return echo != null ? echo.getErle() : 0;
+        }
     }
 
     /**
@@ -208,21 +559,27 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
     }
 
     public void recreateEncoder() throws NativeAudioException {
-        setCodec(mCodec);
+        synchronized (mEncoderLock) {
+            setCodec(mCodec);
+        }
     }
 
     public void setCodec(HumlaUDPMessageType codec) throws NativeAudioException {
         mCodec = codec;
 
-        if (mEncoder != null) {
-            mEncoder.destroy();
-            mEncoder = null;
-        }
+        // Destroys the previous encoder.
+        mPipeline.setStage(CapturePipeline.STAGE_ENCODE, null);
+        mEncoder = null;
+        mOpusEncoder = null;
 
         if (codec == null) {
             Log.w(TAG, "setCodec(null) Input disabled.");
             return;
         }
+        if (mFrameSize != FRAME_SIZE && codec != HumlaUDPMessageType.UDPVoiceOpus) {
+            Log.w(TAG, "Only Opus supports " + mFrameSize + " sample frames, input disabled.");
+            return;
+        }
 
         IEncoder encoder;
         switch (codec) {
@@ -234,23 +591,21 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
                 encoder = new CELT11Encoder(SAMPLE_RATE, 1, mFramesPerPacket);
                 break;
             case UDPVoiceOpus:
-                encoder = new OpusEncoder(SAMPLE_RATE, 1, FRAME_SIZE, mFramesPerPacket, mBitrate,
-                        MAX_BUFFER_SIZE);
+                mOpusEncoder = new OpusEncoder(SAMPLE_RATE, 1, mFrameSize, mFramesPerPacket,
+                        mBitrate, MAX_BUFFER_SIZE);
+                applyNetworkAdaptation();
+                encoder = mOpusEncoder;
                 break;
             default:
                 Log.w(TAG, "Unsupported codec, input disabled.");
                 return;
         }
 
-        if (mPreprocessorEnabled) {
-            encoder = new PreprocessingEncoder(encoder, FRAME_SIZE, SAMPLE_RATE);
-        }
-
-        if (mInput.getSampleRate() != SAMPLE_RATE) {
-            encoder = new ResamplingEncoder(encoder, 1, mInput.getSampleRate(), FRAME_SIZE, SAMPLE_RATE);
-        }
-
+        encoder.setSignal(IEncoder.SIGNAL_VOICE);
+        encoder.setDtx(mDtxEnabled);
         mEncoder = encoder;
+        mPipeline.setStage(CapturePipeline.STAGE_ENCODE, new EncodeStage(encoder));
+        applyEncodeGovernor();
     }
 
     public int getAudioStream() {
@@ -265,8 +620,14 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
         return mSampleRate;
     }
 
+    /**
+     * @return the bitrate currently encoded at, which may be lower than configured while the
+     *         network is congested.
+     */
     public int getBitrate() {
-        return mBitrate;
+        synchronized (mEncoderLock) {
+            return mBitrateController != null ? mBitrateController.getBitrate() : mBitrate;
+        }
     }
 
     /**
@@ -281,7 +642,8 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
         int bitrate = mBitrate;
         int framesPerPacket = mFramesPerPacket;
         // Logic as per desktop Mumble's AudioInput::adjustBandwidth for consistency.
-        if (HumlaConnection.calculateAudioBandwidth(bitrate, framesPerPacket) > maxBandwidth) {
+        if (HumlaConnection.calculateAudioBandwidth(bitrate, framesPerPacket, mFrameSize)
+                > maxBandwidth) {
             if (framesPerPacket <= 4 && maxBandwidth <= 32000) {
                 framesPerPacket = 4;
             } else if (framesPerPacket == 1 && maxBandwidth <= 64000) {
@@ -289,7 +651,7 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
             } else if (framesPerPacket == 2 && maxBandwidth <= 48000) {
                 framesPerPacket = 4;
             }
-            while (HumlaConnection.calculateAudioBandwidth(bitrate, framesPerPacket)
+            while (HumlaConnection.calculateAudioBandwidth(bitrate, framesPerPacket, mFrameSize)
                     > maxBandwidth && bitrate > 8000) {
                 bitrate -= 1000;
             }
@@ -300,14 +662,24 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
                 framesPerPacket != mFramesPerPacket) {
             mBitrate = bitrate;
             mFramesPerPacket = framesPerPacket;
+            synchronized (mEncoderLock) {
+                if (mBitrateController != null) {
+                    mBitrateController.setMaxBitrate(bitrate);
+                    applyNetworkAdaptation();
+                }
+            }
 
             mLogger.logInfo(mContext.getString(R.string.audio_max_bandwidth,
-                    maxBandwidth/1000, maxBandwidth/1000, framesPerPacket * 10));
+                    maxBandwidth/1000, maxBandwidth/1000,
+                    framesPerPacket * mFrameSize * 1000 / SAMPLE_RATE));
         }
     }
 
     public int getFramesPerPacket() {
-        return mFramesPerPacket;
+        synchronized (mEncoderLock) {
+            return mBitrateController != null ? mBitrateController.getFramesPerPacket()
+                    : mFramesPerPacket;
+        }
     }
 
     public float getAmplitudeBoost() {
@@ -323,8 +695,99 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
         return mHalfDuplex;
     }
 
+    /**
+     * Returns the jitter buffer statistics of a user whose audio is being played back.
+     * @param session The session of the user.
+     * @return a snapshot of the statistics, or null if the user has no active audio.
+     */
+    public JitterBufferStats getJitterStats(int session) {
+        return mOutput.getJitterStats(session);
+    }
+
+    /**
+     * @return the number of speakers that may currently be decoded at once.
+     * @see AudioOutput#getSpeakerBudget()
+     */
+    public int getSpeakerBudget() {
+        return mOutput.getSpeakerBudget();
+    }
+
+    /**
+     * @return the number of talking speakers not being decoded to stay within budget.
+     */
+    public int getCulledSpeakerCount() {
+        return mOutput.getCulledSpeakerCount();
+    }
+
+    /**
+     * @return the number of captured frames dropped because encoding fell behind.
+     * @see AudioInput#getDroppedFrames()
+     */
+    public int getDroppedCaptureFrames() {
+        return mInput.getDroppedFrames();
+    }
+
+    /**
+     * @return the number of times capture was late enough to overrun the hardware buffer.
+     */
+    public int getCaptureOverruns() {
+        return mInput.getCaptureOverruns();
+    }
+
+    /**
+     * @return the encoder complexity in use, which may be lower than the maximum while the device
+     *         struggles to keep up.
+     */
+    public int getEncoderComplexity() {
+        synchronized (mEncoderLock) {
+            return mEncodeGovernor != null ? mEncodeGovernor.getComplexity()
+                    : EncodeGovernor.MAX_COMPLEXITY;
+        }
+    }
+
     public int getCurrentBandwidth() {
-        return HumlaConnection.calculateAudioBandwidth(mBitrate, mFramesPerPacket);
+        return HumlaConnection.calculateAudioBandwidth(getBitrate(), getFramesPerPacket(),
+                mFrameSize);
+    }
+
+    /**
+     * @return the number of samples at {@link #SAMPLE_RATE} in each frame captured and encoded.
+     */
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /**
+     * @return the smoothed time from the first sample of a packet being captured to the packet
+     *         being sent, in nanoseconds. This includes the packet duration, the capture buffer
+     *         and processing, but not the network.
+     */
+    public long getCaptureLatencyNanos() {
+        synchronized (mEncoderLock) {
+            return mCaptureLatencyNanos;
+        }
+    }
+
+    /**
+     * @return how long mixed audio waits in the playback track before it is played, in
+     *         nanoseconds. Excludes the jitter buffer and the device below the track.
+     * @see AudioOutput#getPlaybackLatencyNanos()
+     */
+    public long getPlaybackLatencyNanos() {
+        return mOutput.getPlaybackLatencyNanos();
+    }
+
+    /**
+     * Estimates the CPU time saved by idling capture through silence since the microphone was
+     * opened: each idle frame was only checked for an onset, instead of being processed like any
+     * other silent frame. Fewer wakeups of the encode thread are saved on top, so this is a lower
+     * bound.
+     * @return the time saved, in nanoseconds.
+     * @see AudioInput#enterIdle()
+     */
+    public long getIdleCpuSavedNanos() {
+        AudioInput input = mInput;
+        return Math.max(0, mSilentFrameNanos - input.getIdleGateNanos()) * input.getIdleFrames();
     }
 
     /**
@@ -334,14 +797,16 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
         synchronized (mInput) {
             mInput.shutdown();
         }
+        Log.i(TAG, "Idle capture saved " + getIdleCpuSavedNanos() / 1000000 + "ms of CPU time");
         synchronized (mOutput) {
             mOutput.stopPlaying();
         }
         synchronized (mEncoderLock) {
-            if (mEncoder != null) {
-                mEncoder.destroy();
-                mEncoder = null;
-            }
+            mPipeline.clear();
+            mEncoder = null;
+            mOpusEncoder = null;
+            mBitrateController = null;
+            mEncodeGovernor = null;
         }
         mInitialized = false;
         mBluetoothOn = false;
@@ -350,6 +815,63 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
     }
 
 
+    /**
+     * Sets the connection to take round trip times from when adapting the bitrate.
+     */
+    public void setConnection(HumlaConnection connection) {
+        mConnection = connection;
+    }
+
+    @Override
+    public void messagePing(Mumble.Ping msg) {
+        long rtt = -1;
+        HumlaConnection connection = mConnection;
+        if (connection != null) {
+            try {
+                rtt = connection.getUDPLatency();
+                if (rtt <= 0)
+                    rtt = connection.getTCPLatency();
+            } catch (NotConnectedException e) {
+                return;
+            }
+        }
+        synchronized (mEncoderLock) {
+            if (mBitrateController == null)
+                return;
+            if (mBitrateController.update(msg.getGood(), msg.getLate(), msg.getLost(), rtt)) {
+                Log.i(TAG, "Network loss " + Math.round(mBitrateController.getLoss() * 100)
+                        + "%, now sending " + mBitrateController.getBitrate() + "bps in "
+                        + mBitrateController.getFramesPerPacket() * mFrameSize
+                        / (SAMPLE_RATE / 1000) + "ms packets");
+                applyNetworkAdaptation();
+            }
+        }
+    }
+
+    /**
+     * Applies the bitrate controller's settings to the Opus encoder, without recreating it.
+     * Must be called with the encoder lock held.
+     */
+    private void applyNetworkAdaptation() {
+        if (mOpusEncoder == null || mBitrateController == null)
+            return;
+        mOpusEncoder.setBitrate(mBitrateController.getBitrate());
+        mOpusEncoder.setFramesPerPacket(mBitrateController.getFramesPerPacket());
+        mOpusEncoder.setPacketLossPercentage(mBitrateController.getLossPercent());
+    }
+
+    /**
+     * Applies the encode governor's complexity and bandwidth limit to the encoder.
+     * Must be called with the encoder lock held.
+     */
+    private void applyEncodeGovernor() {
+        if (mEncoder == null || mEncodeGovernor == null)
+            return;
+        mEncoder.setComplexity(mEncodeGovernor.getComplexity());
+        mEncoder.setMaxBandwidth(mEncodeGovernor.isBandwidthLimited() ?
+                IEncoder.BANDWIDTH_WIDEBAND : IEncoder.BANDWIDTH_FULL);
+    }
+
     @Override
     public void messageCodecVersion(Mumble.CodecVersion msg) {
         if (!mInitialized)
@@ -398,6 +920,11 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
                 e.printStackTrace();
             }
         }
+        // There's no point decoding speech we won't play.
+        if (msg.hasSession() && msg.getSession() == mSession &&
+                (msg.hasDeaf() || msg.hasSelfDeaf())) {
+            mOutput.setDeafened(msg.getDeaf() || msg.getSelfDeaf());
+        }
     }
 
     @Override
@@ -408,9 +935,33 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
     }
 
     @Override
-    public void onAudioInputReceived(short[] frame, int frameSize) {
-        boolean talking = mInputMode.shouldTransmit(frame, frameSize);
-        talking &= !mMuted;
+    public void onAudioInputReceived(short[] frame, int frameSize, long captureTime) {
+        long start = System.nanoTime();
+        synchronized (mEncoderLock) {
+            try {
+                EchoCancelStage echo = (EchoCancelStage) mPipeline.getStage(CapturePipeline.STAGE_ECHO_CANCEL);
+                if (echo != null)
+                    echo.setCaptureTime(captureTime);
+                // Stages after voice activity detection, including the encoder, only run while
+                // talking.
+                if (mPipeline.process(frame, frameSize) > 0 && mEncoder != null) {
+                    mFrameCounter++;
+                    if (mEncoder.getBufferedFrames() == 1)
+                        mPacketCaptureTime = captureTime;
+                    if (mEncodeGovernor != null && mEncodeGovernor.update(
+                            mPipeline.getLastNanos(CapturePipeline.STAGE_ENCODE), mFrameNanos)) {
+                        Log.i(TAG, "Encoding takes " + Math.round(mEncodeGovernor.getLoad() * 100)
+                                + "% of each frame, now at complexity "
+                                + mEncodeGovernor.getComplexity()
+                                + (mEncodeGovernor.isBandwidthLimited() ? " in wideband" : ""));
+                        applyEncodeGovernor();
+                    }
+                }
+            } catch (NativeAudioException e) {
+                e.printStackTrace();
+            }
+        }
+        boolean talking = mVoiceActivity.isTalking();
 
         if (mTalking ^ talking) {
             mEncodeListener.onTalkingStateChanged(talking);
@@ -430,44 +981,30 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
             }
         }
 
-        if (talking) {
-            // Boost/reduce amplitude based on user preference
-            // TODO: perhaps amplify to the largest value that does not result in clipping.
-            if (mAmplitudeBoost != 1.0f) {
-                for (int i = 0; i < frameSize; i++) {
-                    // Java only guarantees the bounded preservation of sign in a narrowing
-                    // primitive conversion from float -> int, not float -> int -> short.
-                    float val = frame[i] * mAmplitudeBoost;
-                    if (val > Short.MAX_VALUE) {
-                        val = Short.MAX_VALUE;
-                    } else if (val < Short.MIN_VALUE) {
-                        val = Short.MIN_VALUE;
-                    }
-                    frame[i] = (short) val;
-                }
-            }
-
-            synchronized (mEncoderLock) {
-                if (mEncoder != null) {
-                    try {
-                        mEncoder.encode(frame, frameSize);
-                        mFrameCounter++;
-                    } catch (NativeAudioException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
-        }
-
         synchronized (mEncoderLock) {
             if (mEncoder != null && mEncoder.isReady()) {
                 sendEncodedAudio();
             }
         }
 
+        if (talking) {
+            mSilentFrames = 0;
+        } else {
+            long elapsed = System.nanoTime() - start;
+            long mean = mSilentFrameNanos;
+            mSilentFrameNanos = mean == 0 ? elapsed : mean + (elapsed - mean) / 16;
+            // Nobody has spoken for a while; stop processing until something is heard.
+            if (++mSilentFrames * mFrameNanos >= IDLE_AFTER_NANOS) {
+                mSilentFrames = 0;
+                mInput.enterIdle();
+            }
+        }
+
         mTalking = talking;
         if (!talking) {
+            mInput.setEncoderIdle(true);
             mInputMode.waitForInput();
+            mInput.setEncoderIdle(false);
         }
     }
 
@@ -490,22 +1027,33 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
         flags |= mCodec.ordinal() << 5;
         flags |= mTargetId & 0x1F;
 
-        final byte[] packetBuffer = new byte[1024];
-        packetBuffer[0] = (byte) (flags & 0xFF);
-
-        PacketBuffer ds = new PacketBuffer(packetBuffer, 1024);
-        ds.skip(1);
-        ds.writeLong(mFrameCounter - frames);
+        // Written once here, then encrypted in place and handed to the socket.
+        DatagramBuffer datagram = mDatagramPool.acquire();
+        PacketBuffer ds = datagram.getPayload();
+        ds.append(flags & 0xFF);
+        // Round up to whole sequence units, in case a packet of 10ms or more does not start on a
+        // 10ms boundary after a shorter one.
+        long start = (long) (mFrameCounter - frames) * mFrameSize;
+        int unit = getSequenceUnit(frames * mFrameSize, mFrameSize);
+        ds.writeLong((start + unit - 1) / unit);
         mEncoder.getEncodedData(ds);
-        int length = ds.size();
-        ds.rewind();
-
-        byte[] packet = ds.dataBlock(length);
-        mEncodeListener.onAudioEncoded(packet, length);
+        datagram.setLength(ds.size());
+        mEncodeListener.onAudioEncoded(datagram);
+
+        long latency = System.nanoTime() - mPacketCaptureTime;
+        if (mCaptureLatencyNanos == 0)
+            mCaptureLatencyNanos = latency;
+        else
+            mCaptureLatencyNanos += (latency - mCaptureLatencyNanos) / 8;
     }
 
     public interface AudioEncodeListener {
-        void onAudioEncoded(byte[] data, int length);
+        /**
+         * Called on the encode thread with a voice packet ready to send.
+         * @param datagram The packet, owned by the listener from now on. It must be released
+         *                 once sent or discarded.
+         */
+        void onAudioEncoded(DatagramBuffer datagram);
         void onTalkingStateChanged(boolean talking);
     }
 
@@ -525,6 +1073,10 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
         private boolean mHalfDuplexEnabled;
         private boolean mPreprocessorEnabled;
         private String mEchoCancellationMethod;
+        private boolean mDtxEnabled;
+        private String mJitterBuffer = AudioOutput.JITTER_BUFFER_SPEEX;
+        private int mSpeakerGracePeriod = AudioOutput.DEFAULT_GRACE_PERIOD_MS;
+        private int mFrameSize = FRAME_SIZE;
         private IInputMode mInputMode;
         private AudioEncodeListener mEncodeListener;
         private AudioOutput.AudioOutputListener mTalkingListener;
@@ -589,6 +1141,50 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
             return this;
         }
 
+        /**
+         * Stops sending packets while the input is silent, even in continuous transmission.
+         * Only supported by Opus.
+         */
+        public Builder setDtxEnabled(boolean dtxEnabled) {
+            mDtxEnabled = dtxEnabled;
+            return this;
+        }
+
+        /**
+         * @param jitterBuffer One of {@link AudioOutput#JITTER_BUFFER_SPEEX} or
+         *                     {@link AudioOutput#JITTER_BUFFER_ADAPTIVE}.
+         */
+        public Builder setJitterBuffer(String jitterBuffer) {
+            mJitterBuffer = jitterBuffer;
+            return this;
+        }
+
+        /**
+         * @param speakerGracePeriod How long to keep a speaker's decoder warm after they stop
+         *                           talking, in milliseconds.
+         */
+        public Builder setSpeakerGracePeriod(int speakerGracePeriod) {
+            mSpeakerGracePeriod = speakerGracePeriod;
+            return this;
+        }
+
+        /**
+         * Sets the duration of the frames captured, encoded and played, for lower latency.
+         * Packet sizes set by {@link #setTargetFramesPerPacket(int)} count frames of this size.
+         * Frames shorter than 10ms need Opus, and fall back to 10ms if the input sample rate
+         * cannot represent them. Packets shorter than 10ms are only understood by Humla
+         * receivers; the user is warned when they are configured.
+         * @param frameSize One of {@link #FRAME_SIZE}, {@link #FRAME_SIZE_5MS} or
+         *                  {@link #FRAME_SIZE_2_5MS}.
+         */
+        public Builder setFrameSize(int frameSize) {
+            if (frameSize != FRAME_SIZE && frameSize != FRAME_SIZE_5MS
+                    && frameSize != FRAME_SIZE_2_5MS)
+                throw new IllegalArgumentException("Unsupported frame size: " + frameSize);
+            mFrameSize = frameSize;
+            return this;
+        }
+
         public Builder setEncodeListener(AudioEncodeListener encodeListener) {
             mEncodeListener = encodeListener;
             return this;
@@ -612,7 +1208,8 @@ public class AudioHandler extends HumlaNetworkListener implements AudioInput.Aud
             AudioHandler handler = new AudioHandler(mContext, mLogger, mAudioStream, mAudioSource,
                     mInputSampleRate, mTargetBitrate, mTargetFramesPerPacket, mInputMode, targetId,
                     mAmplitudeBoost, mBluetoothEnabled, mHalfDuplexEnabled,
-                    mPreprocessorEnabled, mEchoCancellationMethod, mEncodeListener, mTalkingListener);
+                    mPreprocessorEnabled, mEchoCancellationMethod, mDtxEnabled, mJitterBuffer, mSpeakerGracePeriod,
+                    mFrameSize, mEncodeListener, mTalkingListener);
             handler.initialize(self, maxBandwidth, codec);
             return handler;
         }
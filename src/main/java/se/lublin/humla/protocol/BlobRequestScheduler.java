@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.protocol;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import se.lublin.humla.net.HumlaConnection;
+import se.lublin.humla.net.HumlaTCPMessageType;
+import se.lublin.humla.protobuf.Mumble;
+
+/**
+ * Coalesces requests for user textures, user comments and channel descriptions into batched
+ * RequestBlob messages.
+ *
+ * Requests are collected for a short window and then sent together. A blob that has already been
+ * requested is not requested again until the server answers or the request times out. The
+ * estimated size of unanswered blobs is capped, so that scrolling through a large channel doesn't
+ * queue up megabytes of avatars on the server's TCP stream ahead of audio and state updates.
+ *
+ * Comments and descriptions are only requested when the user opens them, so they are sent before
+ * textures. Textures are sent newest first, since the most recently requested avatars are the
+ * ones currently on screen.
+ *
+ * Not thread-safe; must be used on the handler's thread, which must also be the thread TCP
+ * messages are dispatched on.
+ */
+public class BlobRequestScheduler extends HumlaTCPMessageListener.Stub {
+    /** How long to collect requests before sending them, in milliseconds. */
+    public static final long DEFAULT_WINDOW_MS = 50;
+    public static final int DEFAULT_MAX_IN_FLIGHT_BYTES = 256 * 1024;
+    /** Unanswered requests release their share of the budget after this long. */
+    private static final long REQUEST_TIMEOUT_MS = 10000;
+
+    public enum BlobType {
+        /** A user's texture, by session. Murmur caps textures at 128KiB by default. */
+        TEXTURE(32 * 1024, false),
+        /** A user's comment, by session. */
+        COMMENT(2 * 1024, true),
+        /** A channel's description, by channel ID. */
+        DESCRIPTION(2 * 1024, true);
+
+        private final int mEstimatedSize;
+        private final boolean mUrgent;
+
+        BlobType(int estimatedSize, boolean urgent) {
+            mEstimatedSize = estimatedSize;
+            mUrgent = urgent;
+        }
+    }
+
+    /**
+     * Tells the time and runs delayed tasks for the scheduler, on the scheduler's thread.
+     */
+    public interface Timer {
+        /** @return the current time in milliseconds. */
+        long now();
+
+        void postDelayed(Runnable task, long delayMs);
+
+        void removeCallbacks(Runnable task);
+    }
+
+    private final HumlaConnection mConnection;
+    private final Timer mTimer;
+    private final long mWindow;
+    private final int mMaxInFlightBytes;
+    /** Pending request keys in order of last request; urgent types go in their own queue. */
+    private final LinkedHashSet<Long> mPendingUrgent;
+    private final LinkedHashSet<Long> mPending;
+    /** Send times of unanswered requests, by key. */
+    private final Map<Long, Long> mInFlight;
+    private int mInFlightBytes;
+    private boolean mFlushScheduled;
+    private long mFlushDue;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mFlushScheduled = false;
+            flush();
+        }
+    };
+
+    public BlobRequestScheduler(HumlaConnection connection, final Handler handler) {
+        this(connection, new Timer() {
+            @Override
+            public long now() {
+                return SystemClock.uptimeMillis();
+            }
+
+            @Override
+            public void postDelayed(Runnable task, long delayMs) {
+                handler.postDelayed(task, delayMs);
+            }
+
+            @Override
+            public void removeCallbacks(Runnable task) {
+                handler.removeCallbacks(task);
+            }
+        }, DEFAULT_WINDOW_MS, DEFAULT_MAX_IN_FLIGHT_BYTES);
+    }
+
+    public BlobRequestScheduler(HumlaConnection connection, Timer timer, long windowMs,
+                                int maxInFlightBytes) {
+        mConnection = connection;
+        mTimer = timer;
+        mWindow = windowMs;
+        mMaxInFlightBytes = maxInFlightBytes;
+        mPendingUrgent = new LinkedHashSet<>();
+        mPending = new LinkedHashSet<>();
+        mInFlight = new HashMap<>();
+    }
+
+    private static long key(BlobType type, int id) {
+        return ((long) type.ordinal() << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    private static BlobType typeOf(long key) {
+        return BlobType.values()[(int) (key >>> 32)];
+    }
+
+    /**
+     * Requests a blob from the server. Duplicate requests are ignored while the blob is pending or
+     * in flight, though a pending texture moves to the front of the queue.
+     * @param type The kind of blob to request.
+     * @param id The session of the user, or the ID of the channel for descriptions.
+     */
+    public void request(BlobType type, int id) {
+        long key = key(type, id);
+        if (mInFlight.containsKey(key))
+            return;
+        LinkedHashSet<Long> queue = type.mUrgent ? mPendingUrgent : mPending;
+        queue.remove(key);
+        queue.add(key);
+        scheduleFlush(mWindow);
+    }
+
+    /**
+     * Drops all pending and in-flight requests. Call when the connection is torn down.
+     */
+    public void cancel() {
+        mTimer.removeCallbacks(mFlushRunnable);
+        mFlushScheduled = false;
+        mPendingUrgent.clear();
+        mPending.clear();
+        mInFlight.clear();
+        mInFlightBytes = 0;
+    }
+
+    public int getInFlightBytes() {
+        return mInFlightBytes;
+    }
+
+    /**
+     * Schedules a flush after the given delay, unless one is already due sooner. A flush waiting
+     * on a timeout is brought forward when an answer frees up the budget.
+     */
+    private void scheduleFlush(long delay) {
+        long due = mTimer.now() + delay;
+        if (mFlushScheduled) {
+            if (mFlushDue <= due)
+                return;
+            mTimer.removeCallbacks(mFlushRunnable);
+        }
+        mFlushScheduled = true;
+        mFlushDue = due;
+        mTimer.postDelayed(mFlushRunnable, delay);
+    }
+
+    private void flush() {
+        long now = mTimer.now();
+        long oldest = Long.MAX_VALUE;
+        Iterator<Map.Entry<Long, Long>> iterator = mInFlight.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Long> entry = iterator.next();
+            if (entry.getValue() + REQUEST_TIMEOUT_MS <= now) {
+                mInFlightBytes -= typeOf(entry.getKey()).mEstimatedSize;
+                iterator.remove();
+            } else {
+                oldest = Math.min(oldest, entry.getValue());
+            }
+        }
+
+        Mumble.RequestBlob.Builder rbb = Mumble.RequestBlob.newBuilder();
+        boolean any = take(mPendingUrgent, rbb, now);
+        any |= take(mPending, rbb, now);
+        if (any)
+            mConnection.sendTCPMessage(rbb.build(), HumlaTCPMessageType.RequestBlob);
+
+        // If the budget is exhausted, the remainder goes out as answers or timeouts free it up.
+        // Anything left pending implies something is in flight, as take() always makes progress.
+        if (!mPendingUrgent.isEmpty() || !mPending.isEmpty()) {
+            long expiry = Math.min(oldest, now) + REQUEST_TIMEOUT_MS;
+            scheduleFlush(Math.max(mWindow, expiry - now));
+        }
+    }
+
+    /**
+     * Moves requests from the given queue into the message, newest first, while the in-flight
+     * budget allows. At least one request is always sent if nothing is in flight.
+     * @return true if any request was added.
+     */
+    private boolean take(LinkedHashSet<Long> queue, Mumble.RequestBlob.Builder rbb, long now) {
+        if (queue.isEmpty())
+            return false;
+        List<Long> keys = new ArrayList<>(queue);
+        boolean added = false;
+        for (int i = keys.size() - 1; i >= 0; i--) {
+            long key = keys.get(i);
+            BlobType type = typeOf(key);
+            if (!mInFlight.isEmpty() && mInFlightBytes + type.mEstimatedSize > mMaxInFlightBytes)
+                break;
+            int id = (int) key;
+            switch (type) {
+                case TEXTURE:
+                    rbb.addSessionTexture(id);
+                    break;
+                case COMMENT:
+                    rbb.addSessionComment(id);
+                    break;
+                case DESCRIPTION:
+                    rbb.addChannelDescription(id);
+                    break;
+            }
+            queue.remove(key);
+            mInFlight.put(key, now);
+            mInFlightBytes += type.mEstimatedSize;
+            added = true;
+        }
+        return added;
+    }
+
+    private void complete(BlobType type, int id) {
+        long key = key(type, id);
+        if (mInFlight.remove(key) != null) {
+            mInFlightBytes -= type.mEstimatedSize;
+            if (!mPendingUrgent.isEmpty() || !mPending.isEmpty())
+                scheduleFlush(mWindow);
+        }
+    }
+
+    private void forget(BlobType type, int id) {
+        long key = key(type, id);
+        mPendingUrgent.remove(key);
+        mPending.remove(key);
+        complete(type, id);
+    }
+
+    @Override
+    public void messageUserState(Mumble.UserState msg) {
+        if (msg.hasTexture())
+            complete(BlobType.TEXTURE, msg.getSession());
+        if (msg.hasComment())
+            complete(BlobType.COMMENT, msg.getSession());
+    }
+
+    @Override
+    public void messageUserRemove(Mumble.UserRemove msg) {
+        forget(BlobType.TEXTURE, msg.getSession());
+        forget(BlobType.COMMENT, msg.getSession());
+    }
+
+    @Override
+    public void messageChannelState(Mumble.ChannelState msg) {
+        if (msg.hasDescription())
+            complete(BlobType.DESCRIPTION, msg.getChannelId());
+    }
+
+    @Override
+    public void messageChannelRemove(Mumble.ChannelRemove msg) {
+        forget(BlobType.DESCRIPTION, msg.getChannelId());
+    }
+}
@@ -20,9 +20,13 @@ package se.lublin.humla.protocol;
 import android.content.Context;
 import android.util.Log;
 
+import com.google.protobuf.ByteString;
+
 import org.jetbrains.annotations.Nullable;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -30,11 +34,14 @@ import java.util.Map;
 
 import se.lublin.humla.R;
 import se.lublin.humla.model.Channel;
+import se.lublin.humla.model.ChannelChange;
 import se.lublin.humla.model.IServerSettings;
 import se.lublin.humla.model.Message;
 import se.lublin.humla.model.ServerSettings;
 import se.lublin.humla.model.User;
+import se.lublin.humla.model.UserChange;
 import se.lublin.humla.protobuf.Mumble;
+import se.lublin.humla.util.BlobCache;
 import se.lublin.humla.util.HumlaLogger;
 import se.lublin.humla.util.IHumlaObserver;
 import se.lublin.humla.util.MessageFormatter;
@@ -54,13 +61,15 @@ public class ModelHandler extends HumlaTCPMessageListener.Stub {
     private final List<Integer> mLocalIgnoreHistory;
     private final IHumlaObserver mObserver;
     private final HumlaLogger mLogger;
+    private final BlobCache mBlobCache;
     private ServerSettings mServerSettings;
     private int mPermissions;
     private int mSession;
 
     public ModelHandler(Context context, IHumlaObserver observer, HumlaLogger logger,
                         @Nullable List<Integer> localMuteHistory,
-                        @Nullable List<Integer> localIgnoreHistory) {
+                        @Nullable List<Integer> localIgnoreHistory,
+                        @Nullable BlobCache blobCache) {
         mContext = context;
         mChannels = new HashMap<Integer, Channel>();
         mUsers = new HashMap<Integer, User>();
@@ -68,6 +77,98 @@ public class ModelHandler extends HumlaTCPMessageListener.Stub {
         mLocalIgnoreHistory = localIgnoreHistory;
         mObserver = observer;
         mLogger = logger;
+        mBlobCache = blobCache;
+    }
+
+    private byte[] getCachedBlob(byte[] hash) {
+        return mBlobCache != null ? mBlobCache.getCached(hash) : null;
+    }
+
+    private void putCachedBlob(ByteString blob) {
+        // Empty blobs are how the server clears a texture or comment; nothing worth caching.
+        if (mBlobCache != null && !blob.isEmpty())
+            mBlobCache.put(blob.toByteArray());
+    }
+
+    /**
+     * Fills in a user's texture from the disk cache, if the cache holds the user's texture hash.
+     * The observer is notified with {@link UserChange#TEXTURE} once the texture is loaded.
+     * @param session The user's session.
+     * @param onMiss Run on the main thread if the cached blob turns out to be unreadable.
+     * @return true if the texture is being loaded from the cache, false if it must be requested.
+     */
+    public boolean loadCachedTexture(int session, final Runnable onMiss) {
+        final User user = mUsers.get(session);
+        if (mBlobCache == null || user == null || user.getTextureHash() == null
+                || !mBlobCache.contains(user.getTextureHash()))
+            return false;
+        mBlobCache.load(user.getTextureHash(), new BlobCache.BlobCallback() {
+            @Override
+            public void onBlobLoaded(byte[] hash, byte[] data) {
+                if (!Arrays.equals(hash, user.getTextureHash()))
+                    return; // Superseded while loading.
+                if (data == null) {
+                    onMiss.run();
+                    return;
+                }
+                user.setTexture(ByteString.copyFrom(data));
+                mObserver.onUserStateUpdated(user, UserChange.TEXTURE);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Fills in a user's comment from the disk cache, if the cache holds the user's comment hash.
+     * The observer is notified with {@link UserChange#COMMENT} once the comment is loaded.
+     * @see #loadCachedTexture(int, Runnable)
+     */
+    public boolean loadCachedComment(int session, final Runnable onMiss) {
+        final User user = mUsers.get(session);
+        if (mBlobCache == null || user == null || user.getCommentHash() == null
+                || !mBlobCache.contains(user.getCommentHash()))
+            return false;
+        mBlobCache.load(user.getCommentHash(), new BlobCache.BlobCallback() {
+            @Override
+            public void onBlobLoaded(byte[] hash, byte[] data) {
+                if (!Arrays.equals(hash, user.getCommentHash()))
+                    return;
+                if (data == null) {
+                    onMiss.run();
+                    return;
+                }
+                user.setComment(new String(data, StandardCharsets.UTF_8));
+                mObserver.onUserStateUpdated(user, UserChange.COMMENT);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Fills in a channel's description from the disk cache, if the cache holds the channel's
+     * description hash. The observer is notified with {@link ChannelChange#DESCRIPTION} once the
+     * description is loaded.
+     * @see #loadCachedTexture(int, Runnable)
+     */
+    public boolean loadCachedDescription(int channelId, final Runnable onMiss) {
+        final Channel channel = mChannels.get(channelId);
+        if (mBlobCache == null || channel == null || channel.getDescriptionHash() == null
+                || !mBlobCache.contains(channel.getDescriptionHash()))
+            return false;
+        mBlobCache.load(channel.getDescriptionHash(), new BlobCache.BlobCallback() {
+            @Override
+            public void onBlobLoaded(byte[] hash, byte[] data) {
+                if (!Arrays.equals(hash, channel.getDescriptionHash()))
+                    return;
+                if (data == null) {
+                    onMiss.run();
+                    return;
+                }
+                channel.setDescription(new String(data, StandardCharsets.UTF_8));
+                mObserver.onChannelStateUpdated(channel, ChannelChange.DESCRIPTION);
+            }
+        });
+        return true;
     }
 
     public Channel getChannel(int id) {
@@ -130,31 +231,47 @@ public class ModelHandler extends HumlaTCPMessageListener.Stub {
             mChannels.put(msg.getChannelId(), channel);
         }
 
-        if(msg.hasName())
+        int changes = ChannelChange.NONE;
+
+        if(msg.hasName() && !msg.getName().equals(channel.getName())) {
             channel.setName(msg.getName());
+            changes |= ChannelChange.NAME;
+        }
 
-        if(msg.hasPosition())
+        if(msg.hasPosition() && msg.getPosition() != channel.getPosition()) {
             channel.setPosition(msg.getPosition());
+            changes |= ChannelChange.POSITION;
+        }
 
-        if(msg.hasParent()) {
-            Channel oldParent = channel.getParent();
+        if(msg.hasParent() && channel.getParent() != parent) {
+            // Reparenting updates the subtree user counts of both the old and new ancestry.
             channel.setParent(parent);
-            parent.addSubchannel(channel);
-            if(oldParent != null) {
-                oldParent.removeSubchannel(channel);
-            }
+            changes |= ChannelChange.PARENT;
         }
 
         if(msg.hasDescriptionHash()) {
-            channel.setDescriptionHash(msg.getDescriptionHash().toByteArray());
-            channel.setDescription(null);
+            byte[] hash = msg.getDescriptionHash().toByteArray();
+            // Keep the cached description if the server resends the hash we already have.
+            if(!Arrays.equals(hash, channel.getDescriptionHash())) {
+                byte[] cached = getCachedBlob(hash);
+                channel.setDescriptionHash(hash);
+                channel.setDescription(cached != null ? new String(cached, StandardCharsets.UTF_8) : null);
+                changes |= ChannelChange.DESCRIPTION;
+            }
         }
 
         if(msg.hasDescription()) {
+            if(!msg.getDescription().equals(channel.getDescription())
+                    || channel.getDescriptionHash() != null)
+                changes |= ChannelChange.DESCRIPTION;
             channel.setDescription(msg.getDescription());
             channel.setDescriptionHash(null);
+            putCachedBlob(msg.getDescriptionBytes());
         }
 
+        if(msg.getLinksCount() > 0 || msg.getLinksRemoveCount() > 0 || msg.getLinksAddCount() > 0)
+            changes |= ChannelChange.LINKS;
+
         if(msg.getLinksCount() > 0) {
             channel.clearLinks();
             for(int link : msg.getLinksList()) {
@@ -185,7 +302,7 @@ public class ModelHandler extends HumlaTCPMessageListener.Stub {
         if(newChannel)
             mObserver.onChannelAdded(channel);
         else
-            mObserver.onChannelStateUpdated(channel);
+            mObserver.onChannelStateUpdated(channel, changes);
     }
 
     @Override
@@ -242,19 +359,28 @@ public class ModelHandler extends HumlaTCPMessageListener.Stub {
             actor = getUser(msg.getActor());
 
         final User finalUser = user;
+        int changes = UserChange.NONE;
 
         if(msg.hasUserId()) {
+            if(msg.getUserId() != user.getUserId())
+                changes |= UserChange.USER_ID;
             user.setUserId(msg.getUserId());
             // Restore local mute and ignore from history
-            if (mLocalMuteHistory != null && mLocalMuteHistory.contains(user.getUserId())) {
+            if (mLocalMuteHistory != null && mLocalMuteHistory.contains(user.getUserId())
+                    && !user.isLocalMuted()) {
                 user.setLocalMuted(true);
+                changes |= UserChange.LOCAL_STATE;
             }
-            if (mLocalIgnoreHistory != null && mLocalIgnoreHistory.contains(user.getUserId())) {
+            if (mLocalIgnoreHistory != null && mLocalIgnoreHistory.contains(user.getUserId())
+                    && !user.isLocalIgnored()) {
                 user.setLocalIgnored(true);
+                changes |= UserChange.LOCAL_STATE;
             }
         }
 
         if(msg.hasHash()) {
+            if(!msg.getHash().equals(user.getHash()))
+                changes |= UserChange.HASH;
             user.setHash(msg.getHash());
 
             /*
@@ -268,10 +394,14 @@ public class ModelHandler extends HumlaTCPMessageListener.Stub {
             mLogger.logInfo(mContext.getString(R.string.chat_notify_connected, MessageFormatter.highlightString(user.getName())));
 
         if(msg.hasSelfDeaf() || msg.hasSelfMute()) {
-            if(msg.hasSelfMute())
+            if(msg.hasSelfMute() && msg.getSelfMute() != user.isSelfMuted()) {
                 user.setSelfMuted(msg.getSelfMute());
-            if(msg.hasSelfDeaf())
+                changes |= UserChange.SELF_MUTE;
+            }
+            if(msg.hasSelfDeaf() && msg.getSelfDeaf() != user.isSelfDeafened()) {
                 user.setSelfDeafened(msg.getSelfDeaf());
+                changes |= UserChange.SELF_DEAF;
+            }
 
             if (self != null) {
                 Channel userChan = user.getChannel();
@@ -294,6 +424,8 @@ public class ModelHandler extends HumlaTCPMessageListener.Stub {
         }
 
         if(msg.hasRecording()) {
+            if(msg.getRecording() != user.isRecording())
+                changes |= UserChange.RECORDING;
             user.setRecording(msg.getRecording());
 
             if(self != null) {
@@ -316,14 +448,22 @@ public class ModelHandler extends HumlaTCPMessageListener.Stub {
         }
 
         if(msg.hasDeaf() || msg.hasMute() || msg.hasSuppress() || msg.hasPrioritySpeaker()) {
-            if(msg.hasDeaf())
+            if(msg.hasDeaf() && msg.getDeaf() != user.isDeafened()) {
                 user.setDeafened(msg.getDeaf());
-            if(msg.hasMute())
+                changes |= UserChange.DEAF;
+            }
+            if(msg.hasMute() && msg.getMute() != user.isMuted()) {
                 user.setMuted(msg.getMute());
-            if(msg.hasSuppress())
+                changes |= UserChange.MUTE;
+            }
+            if(msg.hasSuppress() && msg.getSuppress() != user.isSuppressed()) {
                 user.setSuppressed(msg.getSuppress());
-            if(msg.hasPrioritySpeaker())
+                changes |= UserChange.SUPPRESS;
+            }
+            if(msg.hasPrioritySpeaker() && msg.getPrioritySpeaker() != user.isPrioritySpeaker()) {
                 user.setPrioritySpeaker(msg.getPrioritySpeaker());
+                changes |= UserChange.PRIORITY_SPEAKER;
+            }
 
 //            if(self != null && ((user.getChannelId() == self.getChannelId()) || (actor.getSessionId() == self.getSessionId()))) {
 //                if(user.getSessionId() == self.getSessionId()) {
@@ -346,6 +486,8 @@ public class ModelHandler extends HumlaTCPMessageListener.Stub {
                 return; // TODO handle better
             }
             final Channel old = user.getChannel();
+            if(old != channel)
+                changes |= UserChange.CHANNEL;
 
             user.setChannel(channel);
 
@@ -386,34 +528,52 @@ public class ModelHandler extends HumlaTCPMessageListener.Stub {
              */
         }
 
-        if(msg.hasName())
+        if(msg.hasName() && !msg.getName().equals(user.getName())) {
             user.setName(msg.getName());
+            changes |= UserChange.NAME;
+        }
 
         if (msg.hasTextureHash()) {
-            user.setTextureHash(msg.getTextureHash());
-            user.setTexture(null); // clear cached texture when we receive a new hash
+            // Only clear the cached texture when we receive a different hash.
+            byte[] hash = msg.getTextureHash().toByteArray();
+            if (!Arrays.equals(hash, user.getTextureHash())) {
+                byte[] cached = getCachedBlob(hash);
+                user.setTextureHash(msg.getTextureHash());
+                user.setTexture(cached != null ? ByteString.copyFrom(cached) : null);
+                changes |= UserChange.TEXTURE;
+            }
         }
 
         if (msg.hasTexture()) {
             // FIXME: is it reasonable to create a bitmap here? How expensive?
             user.setTexture(msg.getTexture());
             user.setTextureHash(null);
+            changes |= UserChange.TEXTURE;
+            putCachedBlob(msg.getTexture());
         }
 
         if(msg.hasCommentHash()) {
-            user.setCommentHash(msg.getCommentHash());
-            user.setComment(null);
+            byte[] hash = msg.getCommentHash().toByteArray();
+            if(!Arrays.equals(hash, user.getCommentHash())) {
+                byte[] cached = getCachedBlob(hash);
+                user.setCommentHash(msg.getCommentHash());
+                user.setComment(cached != null ? new String(cached, StandardCharsets.UTF_8) : null);
+                changes |= UserChange.COMMENT;
+            }
         }
 
         if(msg.hasComment()) {
+            if(!msg.getComment().equals(user.getComment()) || user.getCommentHash() != null)
+                changes |= UserChange.COMMENT;
             user.setComment(msg.getComment());
             user.setCommentHash(null);
+            putCachedBlob(msg.getCommentBytes());
         }
 
         if (newUser)
             mObserver.onUserConnected(user);
         else
-            mObserver.onUserStateUpdated(user);
+            mObserver.onUserStateUpdated(user, changes);
     }
 
     @Override
@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.util;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A content-addressed cache for blobs sent by the server: user textures, user comments and
+ * channel descriptions. Murmur identifies each blob by the SHA-1 of its contents, so a hash seen
+ * in a UserState or ChannelState can be satisfied locally if we have received that blob before,
+ * even in a previous session.
+ *
+ * Recently used blobs are kept in a bounded in-memory LRU. All blobs are persisted to one file per
+ * hash in the given directory, which is likewise trimmed to a size limit in LRU order. Disk access
+ * happens on a dedicated thread; lookups that miss the memory cache are asynchronous.
+ */
+public class BlobCache {
+    private static final String TAG = BlobCache.class.getName();
+
+    public static final int DEFAULT_MEMORY_LIMIT = 4 * 1024 * 1024;
+    public static final long DEFAULT_DISK_LIMIT = 32 * 1024 * 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public interface BlobCallback {
+        /**
+         * Called once a blob has been looked up on disk.
+         * @param hash The requested hash.
+         * @param data The blob, or null if it could not be read.
+         */
+        void onBlobLoaded(byte[] hash, byte[] data);
+    }
+
+    private final File mDirectory;
+    private final Executor mCallbackExecutor;
+    private final ExecutorService mDiskExecutor;
+    /** In-memory blobs by hex hash, in access order. */
+    private final LinkedHashMap<String, byte[]> mMemory;
+    /** Sizes of blobs on disk by hex hash, in access order. Null until the directory is scanned. */
+    private LinkedHashMap<String, Long> mDiskIndex;
+    private int mMemorySize;
+    private long mDiskSize;
+    private int mMemoryLimit;
+    private long mDiskLimit;
+
+    /**
+     * @param directory The directory to store blobs in. Created if necessary.
+     * @param callbackExecutor The executor to deliver {@link BlobCallback}s on.
+     */
+    public BlobCache(File directory, Executor callbackExecutor) {
+        mDirectory = directory;
+        mCallbackExecutor = callbackExecutor;
+        mDiskExecutor = Executors.newSingleThreadExecutor();
+        mMemory = new LinkedHashMap<>(16, 0.75f, true);
+        mMemoryLimit = DEFAULT_MEMORY_LIMIT;
+        mDiskLimit = DEFAULT_DISK_LIMIT;
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                scanDirectory();
+            }
+        });
+    }
+
+    /**
+     * @return the SHA-1 digest of the given data, as used by Murmur to identify blobs.
+     */
+    public static byte[] hash(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // Every Java platform must provide SHA-1.
+        }
+    }
+
+    private static String toHex(byte[] hash) {
+        char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            chars[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Sets the maximum number of bytes to keep in memory and on disk.
+     * Existing entries are evicted if they exceed the new limits.
+     */
+    public synchronized void setLimits(int memoryLimit, long diskLimit) {
+        mMemoryLimit = memoryLimit;
+        mDiskLimit = diskLimit;
+        trimMemoryLocked();
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                trimDisk();
+            }
+        });
+    }
+
+    public synchronized int getMemoryLimit() {
+        return mMemoryLimit;
+    }
+
+    public synchronized long getDiskLimit() {
+        return mDiskLimit;
+    }
+
+    /**
+     * Stores a blob under its SHA-1 hash. The disk write happens asynchronously.
+     * @return the blob's hash.
+     */
+    public byte[] put(final byte[] data) {
+        final byte[] hash = hash(data);
+        final String key = toHex(hash);
+        synchronized (this) {
+            putMemoryLocked(key, data);
+            if (mDiskIndex != null && mDiskIndex.containsKey(key))
+                return hash;
+        }
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeFile(key, data);
+            }
+        });
+        return hash;
+    }
+
+    /**
+     * Returns the blob with the given hash if it is held in memory. Never touches the disk.
+     */
+    public synchronized byte[] getCached(byte[] hash) {
+        return mMemory.get(toHex(hash));
+    }
+
+    /**
+     * @return true if a blob with the given hash is held in memory or was written to disk.
+     *         A blob on disk may still be evicted before it can be loaded.
+     */
+    public synchronized boolean contains(byte[] hash) {
+        String key = toHex(hash);
+        return mMemory.containsKey(key) || (mDiskIndex != null && mDiskIndex.containsKey(key));
+    }
+
+    /**
+     * Looks up a blob in memory, then on disk. The callback is always invoked on the callback
+     * executor, with null data if the blob is not cached.
+     */
+    public void load(final byte[] hash, final BlobCallback callback) {
+        final String key = toHex(hash);
+        final byte[] cached;
+        synchronized (this) {
+            cached = mMemory.get(key);
+        }
+        if (cached != null) {
+            deliver(callback, hash, cached);
+            return;
+        }
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                byte[] data = readFile(key);
+                if (data != null && !Arrays.equals(hash, hash(data))) {
+                    Log.w(TAG, "Discarding corrupt blob " + key);
+                    deleteFile(key);
+                    data = null;
+                }
+                if (data != null) {
+                    synchronized (BlobCache.this) {
+                        putMemoryLocked(key, data);
+                    }
+                }
+                deliver(callback, hash, data);
+            }
+        });
+    }
+
+    /**
+     * Drops all blobs from memory and disk.
+     */
+    public void clear() {
+        synchronized (this) {
+            mMemory.clear();
+            mMemorySize = 0;
+        }
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = mDirectory.listFiles();
+                if (files != null) {
+                    for (File file : files)
+                        file.delete();
+                }
+                synchronized (BlobCache.this) {
+                    mDiskIndex = new LinkedHashMap<>(16, 0.75f, true);
+                    mDiskSize = 0;
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the disk thread once pending writes are done, without waiting for them, so that it is
+     * safe to call from the main thread. The cache must not be used afterwards.
+     */
+    public void close() {
+        mDiskExecutor.shutdown();
+    }
+
+    /**
+     * Waits for the disk thread to finish pending writes after {@link #close()}.
+     * @return false if the timeout elapsed first.
+     */
+    public boolean awaitClosed(long timeout, TimeUnit unit) throws InterruptedException {
+        return mDiskExecutor.awaitTermination(timeout, unit);
+    }
+
+    private void deliver(final BlobCallback callback, final byte[] hash, final byte[] data) {
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onBlobLoaded(hash, data);
+            }
+        });
+    }
+
+    private void putMemoryLocked(String key, byte[] data) {
+        // Don't let a single blob flush the whole cache.
+        if (data.length > mMemoryLimit / 4)
+            return;
+        byte[] old = mMemory.put(key, data);
+        if (old != null)
+            mMemorySize -= old.length;
+        mMemorySize += data.length;
+        trimMemoryLocked();
+    }
+
+    private void trimMemoryLocked() {
+        Iterator<byte[]> iterator = mMemory.values().iterator();
+        while (mMemorySize > mMemoryLimit && iterator.hasNext()) {
+            mMemorySize -= iterator.next().length;
+            iterator.remove();
+        }
+    }
+
+    // The following methods are only called on the disk thread.
+
+    private void scanDirectory() {
+        LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+        long size = 0;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Could not create blob cache directory " + mDirectory);
+        }
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            // Oldest first, so that iteration order matches access order.
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    return Long.compare(a.lastModified(), b.lastModified());
+                }
+            });
+            for (File file : files) {
+                if (file.getName().endsWith(".tmp")) {
+                    file.delete();
+                    continue;
+                }
+                index.put(file.getName(), file.length());
+                size += file.length();
+            }
+        }
+        synchronized (this) {
+            mDiskIndex = index;
+            mDiskSize = size;
+        }
+        trimDisk();
+    }
+
+    private void writeFile(String key, byte[] data) {
+        synchronized (this) {
+            if (mDiskIndex.containsKey(key) || data.length > mDiskLimit)
+                return;
+        }
+        File tmp = new File(mDirectory, key + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(data);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write blob " + key + ": " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(new File(mDirectory, key))) {
+            tmp.delete();
+            return;
+        }
+        synchronized (this) {
+            mDiskIndex.put(key, (long) data.length);
+            mDiskSize += data.length;
+        }
+        trimDisk();
+    }
+
+    private byte[] readFile(String key) {
+        File file = new File(mDirectory, key);
+        synchronized (this) {
+            if (mDiskIndex.get(key) == null)
+                return null;
+        }
+        byte[] data = new byte[(int) file.length()];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0)
+                    return null;
+                read += n;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read blob " + key + ": " + e.getMessage());
+            return null;
+        }
+        // Keep the modification time in line with access order for the next scan.
+        file.setLastModified(System.currentTimeMillis());
+        return data;
+    }
+
+    private void deleteFile(String key) {
+        synchronized (this) {
+            Long size = mDiskIndex.remove(key);
+            if (size != null)
+                mDiskSize -= size;
+        }
+        new File(mDirectory, key).delete();
+    }
+
+    private void trimDisk() {
+        while (true) {
+            String eldest;
+            synchronized (this) {
+                if (mDiskIndex == null || mDiskSize <= mDiskLimit || mDiskIndex.isEmpty())
+                    return;
+                Map.Entry<String, Long> entry = mDiskIndex.entrySet().iterator().next();
+                eldest = entry.getKey();
+            }
+            deleteFile(eldest);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import se.lublin.humla.model.ChannelChange;
+import se.lublin.humla.model.IChannel;
+import se.lublin.humla.model.IUser;
+import se.lublin.humla.model.UserChange;
+
+/**
+ * An observer that coalesces per-entity model callbacks into periodic {@link HumlaModelDelta}
+ * batches. Register it with {@link se.lublin.humla.IHumlaService#registerObserver(IHumlaObserver)}
+ * like any other observer; the per-event interface remains available for everything else.
+ *
+ * Events may arrive on any thread. Batches are delivered on the given looper, no more often than
+ * once per interval. The first change after an idle period is delivered after at most one
+ * interval, so latency is bounded by the interval.
+ */
+public class HumlaBatchingObserver extends HumlaObserver {
+    /** Roughly one display frame at 60Hz. */
+    public static final long DEFAULT_INTERVAL_MS = 16;
+
+    private final IHumlaBatchObserver mObserver;
+    private final Handler mHandler;
+    private final long mInterval;
+    private final HumlaModelDelta.Builder mPending;
+    private boolean mScheduled;
+    private long mLastDelivery;
+
+    private final Runnable mDeliverRunnable = new Runnable() {
+        @Override
+        public void run() {
+            HumlaModelDelta delta;
+            synchronized (mPending) {
+                mScheduled = false;
+                if (mPending.isEmpty())
+                    return;
+                delta = mPending.build();
+                mLastDelivery = SystemClock.uptimeMillis();
+            }
+            mObserver.onModelChanged(delta);
+        }
+    };
+
+    /**
+     * Creates a batching observer delivering on the main thread every
+     * {@link #DEFAULT_INTERVAL_MS} milliseconds.
+     */
+    public HumlaBatchingObserver(IHumlaBatchObserver observer) {
+        this(observer, DEFAULT_INTERVAL_MS, Looper.getMainLooper());
+    }
+
+    /**
+     * @param observer The observer to deliver batches to.
+     * @param intervalMs The minimum time between two deliveries, in milliseconds.
+     * @param looper The looper to deliver batches on.
+     */
+    public HumlaBatchingObserver(IHumlaBatchObserver observer, long intervalMs, Looper looper) {
+        if (intervalMs < 0) {
+            throw new IllegalArgumentException("Interval must not be negative");
+        }
+        mObserver = observer;
+        mInterval = intervalMs;
+        mHandler = new Handler(looper);
+        mPending = new HumlaModelDelta.Builder();
+    }
+
+    public long getInterval() {
+        return mInterval;
+    }
+
+    /**
+     * Delivers any pending changes now, on the calling thread, instead of waiting for the
+     * interval. Does nothing if there are no pending changes.
+     */
+    public void flush() {
+        mHandler.removeCallbacks(mDeliverRunnable);
+        mDeliverRunnable.run();
+    }
+
+    /**
+     * Schedules a delivery if none is pending. Must be called with the pending lock held.
+     */
+    private void scheduleLocked() {
+        if (mScheduled)
+            return;
+        mScheduled = true;
+        long elapsed = SystemClock.uptimeMillis() - mLastDelivery;
+        mHandler.postDelayed(mDeliverRunnable, Math.max(0, mInterval - elapsed));
+    }
+
+    @Override
+    public void onDisconnected(HumlaException e) {
+        // Sessions and channel IDs are meaningless once the connection is gone.
+        synchronized (mPending) {
+            mPending.clear();
+        }
+    }
+
+    @Override
+    public void onChannelAdded(IChannel channel) {
+        synchronized (mPending) {
+            mPending.channelUpdated(channel.getId());
+            scheduleLocked();
+        }
+    }
+
+    @Override
+    public void onChannelStateUpdated(IChannel channel, int changes) {
+        if (changes == ChannelChange.NONE)
+            return;
+        synchronized (mPending) {
+            mPending.channelUpdated(channel.getId());
+            scheduleLocked();
+        }
+    }
+
+    @Override
+    public void onChannelRemoved(IChannel channel) {
+        synchronized (mPending) {
+            mPending.channelRemoved(channel.getId());
+            scheduleLocked();
+        }
+    }
+
+    @Override
+    public void onChannelPermissionsUpdated(IChannel channel) {
+        synchronized (mPending) {
+            mPending.channelUpdated(channel.getId());
+            scheduleLocked();
+        }
+    }
+
+    @Override
+    public void onUserConnected(IUser user) {
+        synchronized (mPending) {
+            mPending.userUpdated(user.getSession());
+            if (user.getChannel() != null)
+                mPending.channelUpdated(user.getChannel().getId());
+            scheduleLocked();
+        }
+    }
+
+    @Override
+    public void onUserStateUpdated(IUser user, int changes) {
+        if (changes == UserChange.NONE)
+            return;
+        synchronized (mPending) {
+            mPending.userUpdated(user.getSession());
+            scheduleLocked();
+        }
+    }
+
+    @Override
+    public void onUserTalkStateUpdated(IUser user) {
+        synchronized (mPending) {
+            mPending.userTalkStateUpdated(user.getSession());
+            scheduleLocked();
+        }
+    }
+
+    @Override
+    public void onUserJoinedChannel(IUser user, IChannel newChannel, IChannel oldChannel) {
+        synchronized (mPending) {
+            mPending.userUpdated(user.getSession());
+            if (newChannel != null)
+                mPending.channelUpdated(newChannel.getId());
+            if (oldChannel != null)
+                mPending.channelUpdated(oldChannel.getId());
+            scheduleLocked();
+        }
+    }
+
+    @Override
+    public void onUserRemoved(IUser user, String reason) {
+        if (user == null)
+            return;
+        synchronized (mPending) {
+            mPending.userRemoved(user.getSession());
+            scheduleLocked();
+        }
+    }
+}
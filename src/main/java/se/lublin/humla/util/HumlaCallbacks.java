@@ -87,6 +87,13 @@ public class HumlaCallbacks implements IHumlaObserver {
         }
     }
 
+    @Override
+    public void onChannelStateUpdated(IChannel channel, int changes) {
+        for (IHumlaObserver observer : mCallbacks) {
+            observer.onChannelStateUpdated(channel, changes);
+        }
+    }
+
     @Override
     public void onChannelRemoved(IChannel channel) {
         for (IHumlaObserver observer : mCallbacks) {
@@ -115,6 +122,13 @@ public class HumlaCallbacks implements IHumlaObserver {
         }
     }
 
+    @Override
+    public void onUserStateUpdated(IUser user, int changes) {
+        for (IHumlaObserver observer : mCallbacks) {
+            observer.onUserStateUpdated(user, changes);
+        }
+    }
+
     @Override
     public void onUserTalkStateUpdated(IUser user) {
         for (IHumlaObserver observer : mCallbacks) {
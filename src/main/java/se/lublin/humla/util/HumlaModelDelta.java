@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.util;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A coalesced set of model changes accumulated over one delivery interval of a
+ * {@link HumlaBatchingObserver}. Each entity appears at most once per set, no matter how many
+ * times it was updated during the interval. An entity that was removed is never also reported as
+ * updated.
+ */
+public final class HumlaModelDelta {
+    private final Set<Integer> mUpdatedUsers;
+    private final Set<Integer> mTalkStateUsers;
+    private final Set<Integer> mRemovedUsers;
+    private final Set<Integer> mUpdatedChannels;
+    private final Set<Integer> mRemovedChannels;
+
+    HumlaModelDelta(Set<Integer> updatedUsers, Set<Integer> talkStateUsers,
+                    Set<Integer> removedUsers, Set<Integer> updatedChannels,
+                    Set<Integer> removedChannels) {
+        mUpdatedUsers = Collections.unmodifiableSet(updatedUsers);
+        mTalkStateUsers = Collections.unmodifiableSet(talkStateUsers);
+        mRemovedUsers = Collections.unmodifiableSet(removedUsers);
+        mUpdatedChannels = Collections.unmodifiableSet(updatedChannels);
+        mRemovedChannels = Collections.unmodifiableSet(removedChannels);
+    }
+
+    /**
+     * @return the sessions of users that connected, changed state or moved channel.
+     */
+    public Set<Integer> getUpdatedUsers() {
+        return mUpdatedUsers;
+    }
+
+    /**
+     * @return the sessions of users whose talk state changed, and nothing else.
+     */
+    public Set<Integer> getTalkStateUsers() {
+        return mTalkStateUsers;
+    }
+
+    /**
+     * @return the sessions of users that disconnected.
+     */
+    public Set<Integer> getRemovedUsers() {
+        return mRemovedUsers;
+    }
+
+    /**
+     * @return the IDs of channels that were added, changed state or changed permissions. This
+     *         includes the source and destination channels of users that moved.
+     */
+    public Set<Integer> getUpdatedChannels() {
+        return mUpdatedChannels;
+    }
+
+    /**
+     * @return the IDs of channels that were removed.
+     */
+    public Set<Integer> getRemovedChannels() {
+        return mRemovedChannels;
+    }
+
+    public boolean isEmpty() {
+        return mUpdatedUsers.isEmpty() && mTalkStateUsers.isEmpty() && mRemovedUsers.isEmpty()
+                && mUpdatedChannels.isEmpty() && mRemovedChannels.isEmpty();
+    }
+
+    /**
+     * Accumulates model changes, collapsing repeated changes to the same entity.
+     * Not thread-safe.
+     */
+    static class Builder {
+        private Set<Integer> mUpdatedUsers = new HashSet<>();
+        private Set<Integer> mTalkStateUsers = new HashSet<>();
+        private Set<Integer> mRemovedUsers = new HashSet<>();
+        private Set<Integer> mUpdatedChannels = new HashSet<>();
+        private Set<Integer> mRemovedChannels = new HashSet<>();
+
+        void userUpdated(int session) {
+            mRemovedUsers.remove(session);
+            mTalkStateUsers.remove(session);
+            mUpdatedUsers.add(session);
+        }
+
+        void userTalkStateUpdated(int session) {
+            // A full update already implies a talk state refresh.
+            if (!mUpdatedUsers.contains(session) && !mRemovedUsers.contains(session)) {
+                mTalkStateUsers.add(session);
+            }
+        }
+
+        void userRemoved(int session) {
+            mUpdatedUsers.remove(session);
+            mTalkStateUsers.remove(session);
+            mRemovedUsers.add(session);
+        }
+
+        void channelUpdated(int id) {
+            mRemovedChannels.remove(id);
+            mUpdatedChannels.add(id);
+        }
+
+        void channelRemoved(int id) {
+            mUpdatedChannels.remove(id);
+            mRemovedChannels.add(id);
+        }
+
+        boolean isEmpty() {
+            return mUpdatedUsers.isEmpty() && mTalkStateUsers.isEmpty() && mRemovedUsers.isEmpty()
+                    && mUpdatedChannels.isEmpty() && mRemovedChannels.isEmpty();
+        }
+
+        /**
+         * Builds a delta from the accumulated changes and resets the builder.
+         */
+        HumlaModelDelta build() {
+            HumlaModelDelta delta = new HumlaModelDelta(mUpdatedUsers, mTalkStateUsers,
+                    mRemovedUsers, mUpdatedChannels, mRemovedChannels);
+            mUpdatedUsers = new HashSet<>();
+            mTalkStateUsers = new HashSet<>();
+            mRemovedUsers = new HashSet<>();
+            mUpdatedChannels = new HashSet<>();
+            mRemovedChannels = new HashSet<>();
+            return delta;
+        }
+
+        void clear() {
+            mUpdatedUsers.clear();
+            mTalkStateUsers.clear();
+            mRemovedUsers.clear();
+            mUpdatedChannels.clear();
+            mRemovedChannels.clear();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.util;
+
+/**
+ * Receives batched model changes from a {@link HumlaBatchingObserver}.
+ * Intended for UIs that would otherwise rebind once per protocol message.
+ */
+public interface IHumlaBatchObserver {
+    /**
+     * Called at most once per delivery interval with all model changes since the last call.
+     * Never called with an empty delta.
+     * @param delta The coalesced set of changed users and channels.
+     */
+    void onModelChanged(HumlaModelDelta delta);
+}
@@ -39,6 +39,17 @@ public interface IHumlaObserver {
 
     void onChannelStateUpdated(IChannel channel);
 
+    /**
+     * Called when an existing channel's state changes.
+     * The default implementation ignores the mask and calls {@link #onChannelStateUpdated(IChannel)}.
+     * @param channel The updated channel.
+     * @param changes A mask of {@link se.lublin.humla.model.ChannelChange} flags. May be zero if
+     *                the server resent unchanged state.
+     */
+    default void onChannelStateUpdated(IChannel channel, int changes) {
+        onChannelStateUpdated(channel);
+    }
+
     void onChannelRemoved(IChannel channel);
 
     void onChannelPermissionsUpdated(IChannel channel);
@@ -47,6 +58,17 @@ public interface IHumlaObserver {
 
     void onUserStateUpdated(IUser user);
 
+    /**
+     * Called when an existing user's state changes.
+     * The default implementation ignores the mask and calls {@link #onUserStateUpdated(IUser)}.
+     * @param user The updated user.
+     * @param changes A mask of {@link se.lublin.humla.model.UserChange} flags. May be zero if
+     *                the server resent unchanged state.
+     */
+    default void onUserStateUpdated(IUser user, int changes) {
+        onUserStateUpdated(user);
+    }
+
     void onUserTalkStateUpdated(IUser user);
 
     void onUserJoinedChannel(IUser user, IChannel newChannel, IChannel oldChannel);
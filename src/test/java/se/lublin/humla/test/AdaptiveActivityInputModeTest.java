@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package se.lublin.humla.test;
+
+import junit.framework.TestCase;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import se.lublin.humla.audio.inputmode.AdaptiveActivityInputMode;
+import se.lublin.humla.audio.inputmode.IInputMode;
+
+/**
+ * An offline evaluation of {@link AdaptiveActivityInputMode} on WAV fixtures, measuring how
+ * often it transmits non-speech, how much speech it catches and its CPU time per frame.
+ *
+ * Synthetic fixtures of speech, fan noise and typing are written out as WAV files and read back.
+ * Set the {@code humla.test.vad} system property to a directory of mono 16-bit WAV files to also
+ * check recordings; files named {@code noise*.wav} are taken to contain no speech at all, and
+ * must rarely be transmitted.
+ */
+public class AdaptiveActivityInputModeTest extends TestCase {
+    private static final int SAMPLE_RATE = 48000;
+
+    /** Samples with per-frame ground truth. */
+    private static class Fixture {
+        final String name;
+        final short[] samples;
+        final int sampleRate;
+        /** Whether each 10ms frame contains speech, or null if unknown. */
+        final boolean[] speech;
+
+        Fixture(String name, short[] samples, int sampleRate, boolean[] speech) {
+            this.name = name;
+            this.samples = samples;
+            this.sampleRate = sampleRate;
+            this.speech = speech;
+        }
+    }
+
+    private static class Result {
+        int frames;
+        int speechFrames;
+        int transmitted;
+        int falseTransmits;
+        int caughtSpeech;
+        long nanos;
+
+        float falseTransmitRatio() {
+            int silent = frames - speechFrames;
+            return silent > 0 ? (float) falseTransmits / silent : 0;
+        }
+
+        float detectionRatio() {
+            return speechFrames > 0 ? (float) caughtSpeech / speechFrames : 1;
+        }
+
+        @Override
+        public String toString() {
+            String caught = speechFrames > 0 ?
+                    String.format(", speech caught %.1f%%", detectionRatio() * 100) : "";
+            return String.format("false transmit %.1f%%%s, transmitting %.1f%%, %dns per frame",
+                    falseTransmitRatio() * 100, caught, 100f * transmitted / frames,
+                    nanos / frames);
+        }
+    }
+
+    private static Result evaluate(IInputMode mode, Fixture fixture) {
+        int frameSize = fixture.sampleRate / 100;
+        short[] frame = new short[frameSize];
+        Result result = new Result();
+        for (int offset = 0; offset + frameSize <= fixture.samples.length; offset += frameSize) {
+            System.arraycopy(fixture.samples, offset, frame, 0, frameSize);
+            long start = System.nanoTime();
+            boolean transmit = mode.shouldTransmit(frame, frameSize);
+            result.nanos += System.nanoTime() - start;
+
+            boolean speech = fixture.speech != null && fixture.speech[result.frames];
+            result.frames++;
+            if (speech)
+                result.speechFrames++;
+            if (transmit) {
+                result.transmitted++;
+                if (speech)
+                    result.caughtSpeech++;
+                else
+                    result.falseTransmits++;
+            }
+        }
+        return result;
+    }
+
+    /** Quiet white noise, as from a microphone preamp. */
+    private static void addHiss(float[] out, Random random, float level) {
+        for (int i = 0; i < out.length; i++)
+            out[i] += level * (float) random.nextGaussian();
+    }
+
+    /**
+     * A glottal pulse train through three formant resonators, in talk spurts separated by
+     * pauses, with a syllable-rate envelope.
+     */
+    private static Fixture speech(Random random, int seconds) {
+        float[] out = new float[SAMPLE_RATE * seconds];
+        boolean[] speech = new boolean[seconds * 100];
+        float[][] formants = { { 700, 130 }, { 1220, 70 }, { 2600, 160 } };
+        double[][] coeffs = new double[3][2];
+        for (int f = 0; f < 3; f++) {
+            double r = Math.exp(-Math.PI * formants[f][1] / SAMPLE_RATE);
+            coeffs[f][0] = 2 * r * Math.cos(2 * Math.PI * formants[f][0] / SAMPLE_RATE);
+            coeffs[f][1] = -r * r;
+        }
+        double[][] state = new double[3][2];
+        double glottis = 0;
+        double phase = 0;
+
+        int i = SAMPLE_RATE / 2;
+        while (i < out.length) {
+            int spurt = Math.min(out.length - i, SAMPLE_RATE + random.nextInt(2 * SAMPLE_RATE));
+            double f0 = 110 + random.nextInt(80);
+            for (int n = 0; n < spurt; n++, i++) {
+                double t = (double) n / SAMPLE_RATE;
+                double pitch = f0 * (1 + 0.1 * Math.sin(2 * Math.PI * 0.7 * t));
+                phase += pitch / SAMPLE_RATE;
+                double pulse = 0;
+                if (phase >= 1) {
+                    phase -= 1;
+                    pulse = 1;
+                }
+                glottis += 0.1 * (pulse - glottis);
+                double y = glottis;
+                for (int f = 0; f < 3; f++) {
+                    double v = y + coeffs[f][0] * state[f][0] + coeffs[f][1] * state[f][1];
+                    state[f][1] = state[f][0];
+                    state[f][0] = v;
+                    y = v;
+                }
+                double envelope = 0.3 + 0.7 * Math.abs(Math.sin(Math.PI * 4 * t));
+                out[i] = (float) (y * envelope);
+            }
+            for (int frame = (i - spurt) / 480; frame < i / 480; frame++)
+                speech[frame] = true;
+            i += SAMPLE_RATE / 2 + random.nextInt(SAMPLE_RATE);
+        }
+        normalise(out, 0.25f);
+        addHiss(out, random, 30);
+        return new Fixture("speech", toShorts(out), SAMPLE_RATE, speech);
+    }
+
+    /** Airflow rumble and hiss with motor hum, slowly changing speed. */
+    private static Fixture fan(Random random, int seconds) {
+        float[] out = new float[SAMPLE_RATE * seconds];
+        double brown = 0;
+        for (int i = 0; i < out.length; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            brown = 0.995 * brown + random.nextGaussian();
+            double hum = 50 * (1 + 0.05 * Math.sin(2 * Math.PI * 0.2 * t));
+            out[i] = (float) (brown * 0.2 + 3 * Math.sin(2 * Math.PI * hum * t)
+                    + 1.5 * Math.sin(4 * Math.PI * hum * t) + 0.8 * random.nextGaussian());
+        }
+        normalise(out, 0.05f);
+        addHiss(out, random, 30);
+        return new Fixture("fan", toShorts(out), SAMPLE_RATE, new boolean[seconds * 100]);
+    }
+
+    /** Sharp decaying clicks at typing speed, with key release clicks after. */
+    private static Fixture typing(Random random, int seconds) {
+        float[] out = new float[SAMPLE_RATE * seconds];
+        int i = 0;
+        while (i < out.length) {
+            i += SAMPLE_RATE / 20 + random.nextInt(SAMPLE_RATE / 5);
+            for (int click = 0; click < 2; click++) {
+                int at = i + click * (SAMPLE_RATE * 8 / 100);
+                float peak = 10000 + random.nextInt(12000);
+                float previous = 0;
+                for (int n = 0; n < SAMPLE_RATE / 200 && at + n < out.length; n++) {
+                    float noise = (float) random.nextGaussian();
+                    // Differentiated noise, for the bright spectrum of a click.
+                    out[at + n] += peak * (noise - previous) * (float) Math.exp(-n / 48.0) / 3;
+                    previous = noise;
+                }
+            }
+        }
+        addHiss(out, random, 30);
+        return new Fixture("typing", toShorts(out), SAMPLE_RATE, new boolean[seconds * 100]);
+    }
+
+    private static void normalise(float[] samples, float peak) {
+        float max = 0;
+        for (float sample : samples)
+            max = Math.max(max, Math.abs(sample));
+        for (int i = 0; i < samples.length; i++)
+            samples[i] *= peak * Short.MAX_VALUE / max;
+    }
+
+    private static short[] toShorts(float[] samples) {
+        short[] out = new short[samples.length];
+        for (int i = 0; i < samples.length; i++)
+            out[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, samples[i]));
+        return out;
+    }
+
+    private static void writeWav(File file, short[] samples, int sampleRate) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeBytes("RIFF");
+            out.writeInt(Integer.reverseBytes(36 + samples.length * 2));
+            out.writeBytes("WAVEfmt ");
+            out.writeInt(Integer.reverseBytes(16));
+            out.writeShort(Short.reverseBytes((short) 1)); // PCM
+            out.writeShort(Short.reverseBytes((short) 1)); // Mono
+            out.writeInt(Integer.reverseBytes(sampleRate));
+            out.writeInt(Integer.reverseBytes(sampleRate * 2));
+            out.writeShort(Short.reverseBytes((short) 2));
+            out.writeShort(Short.reverseBytes((short) 16));
+            out.writeBytes("data");
+            out.writeInt(Integer.reverseBytes(samples.length * 2));
+            for (short sample : samples)
+                out.writeShort(Short.reverseBytes(sample));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a 16-bit PCM WAV file, keeping the first channel only.
+     */
+    private static Fixture readWav(File file, boolean[] speech) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] id = new byte[4];
+            in.readFully(id);
+            if (!"RIFF".equals(new String(id, "US-ASCII")))
+                throw new IOException(file + " is not a RIFF file");
+            in.readInt();
+            in.readFully(id);
+            int channels = 0;
+            int sampleRate = 0;
+            while (true) {
+                in.readFully(id);
+                String chunk = new String(id, "US-ASCII");
+                int size = Integer.reverseBytes(in.readInt());
+                if (chunk.equals("fmt ")) {
+                    int format = Short.reverseBytes(in.readShort());
+                    channels = Short.reverseBytes(in.readShort());
+                    sampleRate = Integer.reverseBytes(in.readInt());
+                    in.skipBytes(6);
+                    int bits = Short.reverseBytes(in.readShort());
+                    if (format != 1 || bits != 16)
+                        throw new IOException(file + " is not 16-bit PCM");
+                    in.skipBytes(size - 16);
+                } else if (chunk.equals("data")) {
+                    short[] samples = new short[size / 2 / channels];
+                    for (int i = 0; i < samples.length; i++) {
+                        samples[i] = Short.reverseBytes(in.readShort());
+                        in.skipBytes(2 * (channels - 1));
+                    }
+                    String name = file.getName();
+                    return new Fixture(name.substring(0, name.lastIndexOf('.')), samples,
+                            sampleRate, speech);
+                } else {
+                    in.skipBytes(size + (size & 1));
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Fixture roundTrip(Fixture fixture) throws IOException {
+        File file = File.createTempFile("humla-vad-" + fixture.name, ".wav");
+        try {
+            writeWav(file, fixture.samples, fixture.sampleRate);
+            Fixture read = readWav(file, fixture.speech);
+            assertEquals(fixture.sampleRate, read.sampleRate);
+            assertEquals(fixture.samples.length, read.samples.length);
+            return read;
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testSyntheticFixtures() throws IOException {
+        Random random = new Random(46);
+        Fixture speech = roundTrip(speech(random, 30));
+        Fixture fan = roundTrip(fan(random, 20));
+        Fixture typing = roundTrip(typing(random, 20));
+
+        Result speechResult = evaluate(new AdaptiveActivityInputMode(), speech);
+        Result fanResult = evaluate(new AdaptiveActivityInputMode(), fan);
+        Result typingResult = evaluate(new AdaptiveActivityInputMode(), typing);
+
+        assertTrue(speechResult.toString(), speechResult.detectionRatio() > 0.9f);
+        // The hangover after each talk spurt counts against it here.
+        assertTrue(speechResult.toString(), speechResult.falseTransmitRatio() < 0.25f);
+        assertTrue(fanResult.toString(), fanResult.falseTransmitRatio() < 0.02f);
+        assertTrue(typingResult.toString(), typingResult.falseTransmitRatio() < 0.05f);
+    }
+
+    public void testRecordedFixtures() throws IOException {
+        String path = System.getProperty("humla.test.vad");
+        if (path == null)
+            return;
+        File[] files = new File(path).listFiles();
+        assertNotNull("Not a directory: " + path, files);
+        for (File file : files) {
+            if (!file.getName().startsWith("noise") || !file.getName().endsWith(".wav"))
+                continue;
+            Fixture fixture = readWav(file, null);
+            fixture = new Fixture(fixture.name, fixture.samples, fixture.sampleRate,
+                    new boolean[fixture.samples.length / (fixture.sampleRate / 100)]);
+            Result result = evaluate(new AdaptiveActivityInputMode(), fixture);
+            assertTrue(fixture.name + ": " + result, result.falseTransmitRatio() < 0.05f);
+        }
+    }
+
+    public void testOtherSampleRates() {
+        // Frames of 160 samples are 10ms at 16kHz.
+        AdaptiveActivityInputMode mode = new AdaptiveActivityInputMode();
+        short[] frame = new short[160];
+        Random random = new Random(1);
+        for (int n = 0; n < 200; n++) {
+            for (int i = 0; i < frame.length; i++)
+                frame[i] = (short) (random.nextGaussian() * 30);
+            assertFalse(mode.shouldTransmit(frame, frame.length));
+        }
+        // A loud 1kHz tone well above the floor is speech band energy.
+        boolean transmitted = false;
+        for (int n = 0; n < 5; n++) {
+            for (int i = 0; i < frame.length; i++)
+                frame[i] = (short) (8000 * Math.sin(2 * Math.PI * 1000 * (n * 160 + i) / 16000.0));
+            transmitted |= mode.shouldTransmit(frame, frame.length);
+        }
+        assertTrue(transmitted);
+    }
+
+    public void testAllocationFree() {
+        final AdaptiveActivityInputMode mode = new AdaptiveActivityInputMode();
+        final Fixture speech = speech(new Random(2), 2);
+        final short[] frame = new short[480];
+        long allocated = AllocationMeter.measure(new Runnable() {
+            @Override
+            public void run() {
+                for (int offset = 0; offset + 480 <= speech.samples.length; offset += 480) {
+                    System.arraycopy(speech.samples, offset, frame, 0, 480);
+                    mode.shouldTransmit(frame, 480);
+                }
+            }
+        });
+        if (allocated == AllocationMeter.UNSUPPORTED)
+            return;
+        assertTrue("Detection allocated " + allocated + " bytes", allocated < 1024);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.test;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Counts the bytes a piece of work allocates on the calling thread, for tests of code paths that
+ * should not allocate in steady state.
+ */
+final class AllocationMeter {
+    /** Returned by {@link #measure(Runnable)} when the VM cannot count allocations. */
+    static final long UNSUPPORTED = -1;
+
+    private AllocationMeter() {
+    }
+
+    /**
+     * Runs the work once to warm it up, then again while counting what it allocates.
+     * @return the bytes allocated by the second run, or {@link #UNSUPPORTED}.
+     */
+    static long measure(Runnable work) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return UNSUPPORTED;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported())
+            return UNSUPPORTED;
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        long thread = Thread.currentThread().getId();
+        work.run();
+        long before = threads.getThreadAllocatedBytes(thread);
+        work.run();
+        return threads.getThreadAllocatedBytes(thread) - before;
+    }
+}
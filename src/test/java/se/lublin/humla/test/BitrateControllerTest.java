@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.test;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+import se.lublin.humla.audio.BitrateController;
+
+/**
+ * Drives the bitrate controller with simulated ping reports.
+ */
+public class BitrateControllerTest extends TestCase {
+    /** Packets sent between two pings: 5s of 20ms packets. */
+    private static final int PACKETS_PER_PING = 250;
+    private static final long RTT = 50000;
+
+    /** Replays a per-ping loss trace as the server's cumulative counters would report it. */
+    private static class Trace {
+        private final BitrateController mController;
+        private final Random mRandom = new Random(7);
+        private int mGood, mLost;
+        int mChanges;
+
+        Trace(BitrateController controller) {
+            mController = controller;
+            mController.update(0, 0, 0, RTT);
+        }
+
+        void ping(float loss, long rtt) {
+            for (int i = 0; i < PACKETS_PER_PING; i++) {
+                if (mRandom.nextFloat() < loss)
+                    mLost++;
+                else
+                    mGood++;
+            }
+            if (mController.update(mGood, 0, mLost, rtt))
+                mChanges++;
+        }
+
+        void ping(float loss, int count) {
+            for (int i = 0; i < count; i++)
+                ping(loss, RTT);
+        }
+    }
+
+    public void testBacksOffUnderLoss() {
+        BitrateController controller = new BitrateController(40000, 2);
+        Trace trace = new Trace(controller);
+        trace.ping(0.15f, 8);
+        assertEquals(BitrateController.MIN_BITRATE, controller.getBitrate());
+        assertEquals(BitrateController.MAX_FRAMES_PER_PACKET, controller.getFramesPerPacket());
+        assertEquals(15, controller.getLossPercent(), 3);
+    }
+
+    public void testRecoversSlowly() {
+        BitrateController controller = new BitrateController(40000, 2);
+        Trace trace = new Trace(controller);
+        trace.ping(0.15f, 8);
+        trace.ping(0f, 2);
+        int lowered = controller.getBitrate();
+        // The first clean intervals only decay the expected loss.
+        trace.ping(0f, BitrateController.CLEAN_INTERVALS - 1);
+        assertEquals(lowered, controller.getBitrate());
+        trace.ping(0f, 200);
+        assertEquals(40000, controller.getBitrate());
+        assertEquals(2, controller.getFramesPerPacket());
+        assertEquals(0, controller.getLossPercent());
+    }
+
+    public void testHoldsBetweenThresholds() {
+        BitrateController controller = new BitrateController(40000, 2);
+        Trace trace = new Trace(controller);
+        trace.ping(0.03f, 50);
+        // Moderate loss neither backs off nor climbs; only the expected loss is tuned.
+        assertEquals(40000, controller.getBitrate());
+        assertTrue(controller.getLossPercent() > 0);
+    }
+
+    public void testStaysWithinCap() {
+        BitrateController controller = new BitrateController(40000, 2);
+        Trace trace = new Trace(controller);
+        trace.ping(0f, 100);
+        assertEquals(40000, controller.getBitrate());
+        controller.setMaxBitrate(20000);
+        assertEquals(20000, controller.getBitrate());
+        trace.ping(0f, 100);
+        assertEquals(20000, controller.getBitrate());
+    }
+
+    public void testBacksOffOnQueueing() {
+        BitrateController controller = new BitrateController(40000, 2);
+        Trace trace = new Trace(controller);
+        trace.ping(0f, 5);
+        trace.ping(0f, RTT + BitrateController.QUEUEING_DELAY_US * 2);
+        assertTrue(controller.getBitrate() < 40000);
+    }
+
+    public void testIgnoresIdleIntervals() {
+        BitrateController controller = new BitrateController(40000, 2);
+        controller.update(100, 0, 0, RTT);
+        // Two lost out of five is noise, not a trend.
+        assertFalse(controller.update(103, 0, 2, RTT));
+        assertEquals(40000, controller.getBitrate());
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.test;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import se.lublin.humla.util.BlobCache;
+
+/**
+ * Tests the content-addressed blob cache.
+ */
+public class BlobCacheTest extends TestCase {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        mDirectory = File.createTempFile("blobs", "");
+        mDirectory.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    private static byte[] load(BlobCache cache, byte[] hash) throws InterruptedException {
+        final byte[][] result = new byte[1][];
+        final CountDownLatch latch = new CountDownLatch(1);
+        cache.load(hash, new BlobCache.BlobCallback() {
+            @Override
+            public void onBlobLoaded(byte[] hash, byte[] data) {
+                result[0] = data;
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        return result[0];
+    }
+
+    public void testMumbleHash() {
+        // Murmur hashes the UTF-8 encoding of comments with SHA-1.
+        byte[] hash = BlobCache.hash("abc".getBytes(StandardCharsets.UTF_8));
+        assertEquals(20, hash.length);
+        assertEquals((byte) 0xa9, hash[0]);
+        assertEquals((byte) 0x9d, hash[19]);
+    }
+
+    public void testPersistence() throws InterruptedException {
+        byte[] blob = "An avatar".getBytes(StandardCharsets.UTF_8);
+        BlobCache cache = new BlobCache(mDirectory, DIRECT);
+        byte[] hash = cache.put(blob);
+        assertTrue(Arrays.equals(blob, cache.getCached(hash)));
+        cache.close();
+        assertTrue(cache.awaitClosed(5, TimeUnit.SECONDS));
+
+        BlobCache reopened = new BlobCache(mDirectory, DIRECT);
+        assertNull(reopened.getCached(hash));
+        assertTrue(Arrays.equals(blob, load(reopened, hash)));
+        assertTrue(reopened.contains(hash));
+        // Loading from disk promotes the blob into memory.
+        assertTrue(Arrays.equals(blob, reopened.getCached(hash)));
+        assertNull(load(reopened, BlobCache.hash(new byte[] { 1 })));
+        reopened.close();
+        assertTrue(reopened.awaitClosed(5, TimeUnit.SECONDS));
+    }
+
+    public void testLimits() throws InterruptedException {
+        BlobCache cache = new BlobCache(mDirectory, DIRECT);
+        cache.setLimits(300, 250);
+        byte[][] hashes = new byte[3][];
+        for (int i = 0; i < hashes.length; i++) {
+            byte[] blob = new byte[100];
+            Arrays.fill(blob, (byte) i);
+            hashes[i] = cache.put(blob);
+        }
+        cache.close();
+        assertTrue(cache.awaitClosed(5, TimeUnit.SECONDS));
+
+        BlobCache reopened = new BlobCache(mDirectory, DIRECT);
+        reopened.setLimits(300, 250);
+        // Only the two most recent blobs fit on disk.
+        assertNull(load(reopened, hashes[0]));
+        assertNotNull(load(reopened, hashes[1]));
+        assertNotNull(load(reopened, hashes[2]));
+        // Blobs larger than a quarter of the memory limit are only cached on disk.
+        assertNull(reopened.getCached(hashes[1]));
+        reopened.close();
+        assertTrue(reopened.awaitClosed(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.lublin.humla.test;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import se.lublin.humla.net.HumlaConnection;
+import se.lublin.humla.net.HumlaTCPMessageType;
+import se.lublin.humla.protobuf.Mumble;
+import se.lublin.humla.protocol.BlobRequestScheduler;
+import se.lublin.humla.protocol.BlobRequestScheduler.BlobType;
+
+/**
+ * Drives {@link BlobRequestScheduler} with a fake clock and a fake connection, checking when
+ * requests go out and what each RequestBlob message contains.
+ */
+public class BlobRequestSchedulerTest extends TestCase {
+    private static final long WINDOW = 50;
+    private static final long TIMEOUT = 10000;
+    /** Room for two textures in flight. */
+    private static final int BUDGET = 64 * 1024;
+
+    /** Runs delayed tasks as the test advances time. */
+    private static class FakeTimer implements BlobRequestScheduler.Timer {
+        long mNow;
+        /** Pending tasks with their due times. */
+        final List<Runnable> mTasks = new ArrayList<>();
+        final List<Long> mDue = new ArrayList<>();
+
+        @Override
+        public long now() {
+            return mNow;
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMs) {
+            mTasks.add(task);
+            mDue.add(mNow + delayMs);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+            for (int i = mTasks.size() - 1; i >= 0; i--) {
+                if (mTasks.get(i) == task) {
+                    mTasks.remove(i);
+                    mDue.remove(i);
+                }
+            }
+        }
+
+        /** Moves the clock forward, running tasks as they fall due. */
+        void advance(long ms) {
+            long end = mNow + ms;
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < mDue.size(); i++) {
+                    if (mDue.get(i) <= end && (next == -1 || mDue.get(i) < mDue.get(next)))
+                        next = i;
+                }
+                if (next == -1)
+                    break;
+                mNow = Math.max(mNow, mDue.remove(next));
+                mTasks.remove(next).run();
+            }
+            mNow = end;
+        }
+    }
+
+    /** Records the requests instead of sending them. */
+    private static class FakeConnection extends HumlaConnection {
+        final List<Mumble.RequestBlob> mSent = new ArrayList<>();
+
+        FakeConnection() {
+            super(null);
+        }
+
+        @Override
+        public void sendTCPMessage(Message message, HumlaTCPMessageType messageType) {
+            assertEquals(HumlaTCPMessageType.RequestBlob, messageType);
+            mSent.add((Mumble.RequestBlob) message);
+        }
+    }
+
+    private FakeTimer mTimer;
+    private FakeConnection mConnection;
+    private BlobRequestScheduler mScheduler;
+
+    @Override
+    protected void setUp() {
+        mTimer = new FakeTimer();
+        mConnection = new FakeConnection();
+        mScheduler = new BlobRequestScheduler(mConnection, mTimer, WINDOW, BUDGET);
+    }
+
+    /** @return the only request sent since the last call. */
+    private Mumble.RequestBlob sent() {
+        assertEquals("Requests sent", 1, mConnection.mSent.size());
+        return mConnection.mSent.remove(0);
+    }
+
+    private void assertNothingSent() {
+        assertEquals("Requests sent", 0, mConnection.mSent.size());
+    }
+
+    private void answerTexture(int session) {
+        mScheduler.messageUserState(Mumble.UserState.newBuilder()
+                .setSession(session)
+                .setTexture(ByteString.EMPTY)
+                .build());
+    }
+
+    public void testBatchesWithinWindow() {
+        mScheduler.request(BlobType.COMMENT, 1);
+        mTimer.advance(20);
+        mScheduler.request(BlobType.COMMENT, 2);
+        mScheduler.request(BlobType.DESCRIPTION, 7);
+        mTimer.advance(WINDOW - 21);
+        assertNothingSent();
+
+        // The window runs from the first request; later ones don't push it back.
+        mTimer.advance(1);
+        Mumble.RequestBlob request = sent();
+        assertEquals(Arrays.asList(2, 1), request.getSessionCommentList());
+        assertEquals(Arrays.asList(7), request.getChannelDescriptionList());
+        assertEquals(0, request.getSessionTextureCount());
+        mTimer.advance(TIMEOUT);
+        assertNothingSent();
+    }
+
+    public void testDeduplication() {
+        mScheduler.request(BlobType.TEXTURE, 1);
+        mScheduler.request(BlobType.TEXTURE, 1);
+        mTimer.advance(WINDOW);
+        assertEquals(Arrays.asList(1), sent().getSessionTextureList());
+
+        // Already in flight.
+        mScheduler.request(BlobType.TEXTURE, 1);
+        mTimer.advance(WINDOW);
+        assertNothingSent();
+
+        // Once answered, it may be requested again.
+        answerTexture(1);
+        mScheduler.request(BlobType.TEXTURE, 1);
+        mTimer.advance(WINDOW);
+        assertEquals(Arrays.asList(1), sent().getSessionTextureList());
+    }
+
+    public void testBudgetAndPriority() {
+        for (int session = 1; session <= 4; session++)
+            mScheduler.request(BlobType.TEXTURE, session);
+        // Requested after the textures, but sent ahead of them.
+        mScheduler.request(BlobType.COMMENT, 1);
+        mTimer.advance(WINDOW);
+        Mumble.RequestBlob request = sent();
+        assertEquals(Arrays.asList(1), request.getSessionCommentList());
+        // The newest texture goes first; a comment and one texture leave no room for another.
+        assertEquals(Arrays.asList(4), request.getSessionTextureList());
+        assertEquals(32 * 1024 + 2 * 1024, mScheduler.getInFlightBytes());
+
+        // A pending texture requested again moves to the front.
+        mScheduler.request(BlobType.TEXTURE, 1);
+        mScheduler.messageUserState(Mumble.UserState.newBuilder()
+                .setSession(1)
+                .setComment("")
+                .build());
+        mTimer.advance(WINDOW);
+        assertEquals(Arrays.asList(1), sent().getSessionTextureList());
+
+        // Nothing more fits until an answer frees the budget.
+        mTimer.advance(WINDOW);
+        assertNothingSent();
+        answerTexture(4);
+        mTimer.advance(WINDOW);
+        assertEquals(Arrays.asList(3), sent().getSessionTextureList());
+        answerTexture(1);
+        mTimer.advance(WINDOW);
+        assertEquals(Arrays.asList(2), sent().getSessionTextureList());
+    }
+
+    public void testTimeoutRetry() {
+        mScheduler.request(BlobType.TEXTURE, 1);
+        mScheduler.request(BlobType.TEXTURE, 2);
+        mScheduler.request(BlobType.TEXTURE, 3);
+        mTimer.advance(WINDOW);
+        assertEquals(Arrays.asList(3, 2), sent().getSessionTextureList());
+
+        // The server never answers. The budget is freed once the requests time out, and not
+        // before.
+        mTimer.advance(TIMEOUT - 1);
+        assertNothingSent();
+        mTimer.advance(1);
+        assertEquals(Arrays.asList(1), sent().getSessionTextureList());
+
+        // Timed out requests may be retried.
+        mScheduler.request(BlobType.TEXTURE, 3);
+        mTimer.advance(WINDOW);
+        assertEquals(Arrays.asList(3), sent().getSessionTextureList());
+    }
+
+    public void testRemovalAndCancel() {
+        mScheduler.request(BlobType.TEXTURE, 1);
+        mScheduler.request(BlobType.TEXTURE, 2);
+        mScheduler.messageUserRemove(Mumble.UserRemove.newBuilder().setSession(1).build());
+        mTimer.advance(WINDOW);
+        assertEquals(Arrays.asList(2), sent().getSessionTextureList());
+
+        mScheduler.request(BlobType.DESCRIPTION, 3);
+        mScheduler.cancel();
+        mTimer.advance(TIMEOUT);
+        assertNothingSent();
+        assertEquals(0, mScheduler.getInFlightBytes());
+        assertTrue(mTimer.mTasks.isEmpty());
+    }
+}
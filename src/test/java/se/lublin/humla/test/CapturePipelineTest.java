@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package se.lublin.humla.test;
+
+import junit.framework.TestCase;
+
+import se.lublin.humla.audio.CapturePipeline;
+import se.lublin.humla.audio.GainStage;
+import se.lublin.humla.audio.HighPassStage;
+import se.lublin.humla.audio.ICaptureStage;
+import se.lublin.humla.audio.VoiceActivityStage;
+import se.lublin.humla.audio.inputmode.IInputMode;
+
+/**
+ * Tests capture stage ordering, replacement and the pure Java stages.
+ */
+public class CapturePipelineTest extends TestCase {
+    private static final int FRAME_SIZE = 480;
+
+    /** Records the first sample it sees, and whether it was destroyed. */
+    private static class ProbeStage implements ICaptureStage {
+        short seen;
+        int frames;
+        boolean destroyed;
+
+        @Override
+        public int process(short[] frame, int size) {
+            seen = frame[0];
+            frames++;
+            return size;
+        }
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+        }
+    }
+
+    private static short[] constant(short value) {
+        short[] frame = new short[FRAME_SIZE];
+        for (int i = 0; i < FRAME_SIZE; i++)
+            frame[i] = value;
+        return frame;
+    }
+
+    public void testStagesRunInOrderInPlace() throws Exception {
+        CapturePipeline pipeline = new CapturePipeline(FRAME_SIZE);
+        ProbeStage probe = new ProbeStage();
+        pipeline.setStage(CapturePipeline.STAGE_ENCODE, probe);
+        pipeline.setStage(CapturePipeline.STAGE_GAIN, new GainStage(2));
+
+        short[] input = constant((short) 100);
+        assertEquals(FRAME_SIZE, pipeline.process(input, FRAME_SIZE));
+        assertEquals(200, probe.seen);
+        assertEquals(100, input[0]); // The captured frame is left alone.
+        assertEquals(1, probe.frames);
+    }
+
+    public void testVoiceActivityStopsFrame() throws Exception {
+        final boolean[] transmit = { false };
+        VoiceActivityStage activity = new VoiceActivityStage(new IInputMode() {
+            @Override
+            public boolean shouldTransmit(short[] pcm, int length) {
+                return transmit[0];
+            }
+
+            @Override
+            public void waitForInput() {
+            }
+        });
+        CapturePipeline pipeline = new CapturePipeline(FRAME_SIZE);
+        ProbeStage probe = new ProbeStage();
+        pipeline.setStage(CapturePipeline.STAGE_VOICE_ACTIVITY, activity);
+        pipeline.setStage(CapturePipeline.STAGE_ENCODE, probe);
+
+        assertEquals(0, pipeline.process(constant((short) 1), FRAME_SIZE));
+        assertFalse(activity.isTalking());
+        assertEquals(0, probe.frames);
+
+        transmit[0] = true;
+        assertEquals(FRAME_SIZE, pipeline.process(constant((short) 1), FRAME_SIZE));
+        assertTrue(activity.isTalking());
+        assertEquals(1, probe.frames);
+
+        activity.setMuted(true);
+        assertEquals(0, pipeline.process(constant((short) 1), FRAME_SIZE));
+        assertFalse(activity.isTalking());
+    }
+
+    public void testReplacingStageKeepsOthers() throws Exception {
+        CapturePipeline pipeline = new CapturePipeline(FRAME_SIZE);
+        ProbeStage first = new ProbeStage();
+        ProbeStage encoder = new ProbeStage();
+        pipeline.setStage(CapturePipeline.STAGE_PREPROCESS, first);
+        pipeline.setStage(CapturePipeline.STAGE_ENCODE, encoder);
+        pipeline.process(constant((short) 1), FRAME_SIZE);
+
+        ProbeStage second = new ProbeStage();
+        pipeline.setStage(CapturePipeline.STAGE_PREPROCESS, second);
+        assertTrue(first.destroyed);
+        assertFalse(encoder.destroyed);
+        pipeline.process(constant((short) 1), FRAME_SIZE);
+        assertEquals(1, second.frames);
+        assertEquals(2, encoder.frames);
+        assertTrue(pipeline.getMeanNanos(CapturePipeline.STAGE_ENCODE) >= 0);
+        assertEquals(0, pipeline.getMeanNanos(CapturePipeline.STAGE_GAIN));
+
+        pipeline.clear();
+        assertTrue(second.destroyed);
+        assertTrue(encoder.destroyed);
+        assertNull(pipeline.getStage(CapturePipeline.STAGE_ENCODE));
+    }
+
+    public void testHighPassRemovesOffset() {
+        HighPassStage filter = new HighPassStage(48000, HighPassStage.DEFAULT_CUTOFF);
+        short[] frame = new short[FRAME_SIZE];
+        // A 1kHz tone on a large DC offset.
+        int t = 0;
+        for (int n = 0; n < 100; n++) {
+            for (int i = 0; i < FRAME_SIZE; i++, t++)
+                frame[i] = (short) (8000 + 4000 * Math.sin(2 * Math.PI * 1000 * t / 48000.0));
+            filter.process(frame, FRAME_SIZE);
+        }
+        long sum = 0;
+        int peak = 0;
+        for (int i = 0; i < FRAME_SIZE; i++) {
+            sum += frame[i];
+            peak = Math.max(peak, Math.abs(frame[i]));
+        }
+        assertTrue("Offset left: " + sum / FRAME_SIZE, Math.abs(sum / FRAME_SIZE) < 50);
+        // The tone itself passes.
+        assertTrue("Peak " + peak, peak > 3800 && peak < 4200);
+    }
+}
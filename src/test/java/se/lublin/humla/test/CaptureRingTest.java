@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.lublin.humla.test;
+
+import junit.framework.TestCase;
+
+import se.lublin.humla.audio.CaptureRing;
+
+/**
+ * Tests the ring of captured frames between the capture and encode threads.
+ */
+public class CaptureRingTest extends TestCase {
+    private static final int FRAME = 4;
+
+    private static short[] frame(int n) {
+        short[] frame = new short[FRAME];
+        for (int i = 0; i < FRAME; i++)
+            frame[i] = (short) (n * FRAME + i);
+        return frame;
+    }
+
+    private static void assertFrame(int n, short[] frame) {
+        for (int i = 0; i < FRAME; i++)
+            assertEquals("Frame " + n + ", sample " + i, (short) (n * FRAME + i), frame[i]);
+    }
+
+    public void testCapacityRoundsUp() {
+        CaptureRing ring = new CaptureRing(FRAME, 3);
+        for (int n = 0; n < 4; n++)
+            assertTrue(ring.offer(frame(n), n));
+        assertFalse(ring.offer(frame(4), 4));
+        assertEquals(4, ring.available());
+    }
+
+    public void testWrapAround() {
+        CaptureRing ring = new CaptureRing(FRAME, 4);
+        short[] out = new short[FRAME];
+        // Keep the ring part full, so reads and writes cross its end many times.
+        int written = 0;
+        int read = 0;
+        for (int round = 0; round < 25; round++) {
+            while (ring.available() < 3)
+                assertTrue(ring.offer(frame(written), 1000 + written++));
+            for (int i = 0; i < 2; i++) {
+                assertTrue(ring.poll(out));
+                assertFrame(read, out);
+                assertEquals(1000 + read, ring.getPolledTime());
+                read++;
+            }
+        }
+        while (ring.poll(out))
+            assertFrame(read++, out);
+        assertEquals(written, read);
+        assertEquals(0, ring.available());
+        assertEquals(0, ring.getDropped());
+    }
+
+    public void testOverrun() {
+        CaptureRing ring = new CaptureRing(FRAME, 4);
+        short[] out = new short[FRAME];
+        for (int n = 0; n < 4; n++)
+            assertTrue(ring.offer(frame(n), n));
+        // The encoder fell behind; new frames are dropped and the queued ones kept intact.
+        assertFalse(ring.offer(frame(4), 4));
+        assertFalse(ring.offer(frame(5), 5));
+        assertEquals(2, ring.getDropped());
+        assertEquals(4, ring.available());
+        assertTrue(ring.poll(out));
+        assertFrame(0, out);
+
+        // Room for exactly one more.
+        assertTrue(ring.offer(frame(6), 6));
+        assertFalse(ring.offer(frame(7), 7));
+        assertEquals(3, ring.getDropped());
+        for (int n : new int[] { 1, 2, 3, 6 }) {
+            assertTrue(ring.poll(out));
+            assertFrame(n, out);
+            assertEquals(n, ring.getPolledTime());
+        }
+        assertFalse(ring.poll(out));
+    }
+
+    public void testClear() {
+        CaptureRing ring = new CaptureRing(FRAME, 4);
+        short[] out = new short[FRAME];
+        for (int n = 0; n < 3; n++)
+            ring.offer(frame(n), n);
+        ring.clear();
+        assertEquals(0, ring.available());
+        assertFalse(ring.poll(out));
+        // Discarded frames are not drops, and the full capacity is free again.
+        assertEquals(0, ring.getDropped());
+        for (int n = 3; n < 7; n++)
+            assertTrue(ring.offer(frame(n), n));
+        assertTrue(ring.poll(out));
+        assertFrame(3, out);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.test;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+import se.lublin.humla.net.CryptState;
+import se.lublin.humla.net.DatagramBuffer;
+
+/**
+ * Tests in-place OCB encryption against the copying path.
+ */
+public class CryptStateTest extends TestCase {
+    private static final byte[] KEY = new byte[CryptState.AES_BLOCK_SIZE];
+    private static final byte[] CLIENT_NONCE = new byte[CryptState.AES_BLOCK_SIZE];
+    private static final byte[] SERVER_NONCE = new byte[CryptState.AES_BLOCK_SIZE];
+
+    static {
+        for (int i = 0; i < CryptState.AES_BLOCK_SIZE; i++) {
+            KEY[i] = (byte) i;
+            CLIENT_NONCE[i] = (byte) (0x10 + i);
+            SERVER_NONCE[i] = (byte) (0x80 + i);
+        }
+    }
+
+    private static CryptState client() throws Exception {
+        CryptState state = new CryptState();
+        state.setKeys(KEY, CLIENT_NONCE, SERVER_NONCE);
+        return state;
+    }
+
+    private static CryptState server() throws Exception {
+        CryptState state = new CryptState();
+        state.setKeys(KEY, SERVER_NONCE, CLIENT_NONCE);
+        return state;
+    }
+
+    private static byte[] payload(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (byte) (i * 7 + 3);
+        return data;
+    }
+
+    public void testInPlaceMatchesCopy() throws Exception {
+        CryptState copying = client();
+        CryptState inPlace = client();
+        // Cover empty, partial, exact and multi-block lengths.
+        for (int length : new int[] { 0, 1, 15, 16, 17, 32, 61, 300 }) {
+            byte[] plain = payload(length);
+            byte[] expected = copying.encrypt(plain, length);
+
+            byte[] buffer = new byte[DatagramBuffer.HEADROOM + length];
+            System.arraycopy(plain, 0, buffer, DatagramBuffer.HEADROOM, length);
+            inPlace.encryptInPlace(buffer, length);
+            assertTrue("Length " + length, Arrays.equals(expected, buffer));
+        }
+    }
+
+    public void testRoundTrip() throws Exception {
+        CryptState client = client();
+        CryptState server = server();
+        for (int i = 0; i < 300; i++) {
+            int length = 20 + i % 100;
+            DatagramBuffer datagram = new DatagramBuffer(length);
+            datagram.getPayload().append(payload(length), length);
+            datagram.setLength(length);
+            client.encryptInPlace(datagram.getData(), length);
+
+            byte[] decrypted = server.decrypt(datagram.getData(), DatagramBuffer.HEADROOM + length);
+            assertNotNull("Packet " + i, decrypted);
+            assertTrue("Packet " + i, Arrays.equals(payload(length), decrypted));
+        }
+    }
+}
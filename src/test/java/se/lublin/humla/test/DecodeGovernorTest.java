@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.test;
+
+import junit.framework.TestCase;
+
+import se.lublin.humla.audio.DecodeGovernor;
+
+/**
+ * Tests how the decode governor sizes its speaker budget and ranks speakers. Load pacing itself
+ * is covered by {@link LoadMonitorTest}.
+ */
+public class DecodeGovernorTest extends TestCase {
+    private static final long PERIOD = 10000000L;
+
+    public void testShrinksFromSpeakersInUse() {
+        DecodeGovernor governor = new DecodeGovernor(DecodeGovernor.DEFAULT_MAX_SPEAKERS);
+        // Three speakers overrunning the buffer: the first cut goes straight to two.
+        int updates = 0;
+        while (governor.getBudget() == DecodeGovernor.DEFAULT_MAX_SPEAKERS && updates < 100) {
+            governor.update(PERIOD * 2, PERIOD, 3);
+            updates++;
+        }
+        assertEquals(2, governor.getBudget());
+        // One speaker is always decoded.
+        for (int i = 0; i < 100; i++)
+            governor.update(PERIOD * 2, PERIOD, 3);
+        assertEquals(1, governor.getBudget());
+
+        // Recovery adds one speaker at a time, up to the maximum.
+        int budget = governor.getBudget();
+        for (int i = 0; i < 5000; i++) {
+            governor.update(0, PERIOD, 3);
+            assertTrue(governor.getBudget() - budget <= 1);
+            budget = governor.getBudget();
+        }
+        assertEquals(DecodeGovernor.DEFAULT_MAX_SPEAKERS, budget);
+    }
+
+    public void testSelection() {
+        DecodeGovernor governor = new DecodeGovernor(2);
+        float[] scores = {
+                DecodeGovernor.score(false, false, 0.9f),
+                DecodeGovernor.score(true, false, 0.01f),
+                DecodeGovernor.score(false, false, 0.2f),
+                DecodeGovernor.score(false, true, 0.05f),
+        };
+        boolean[] selected = new boolean[4];
+        assertEquals(2, governor.select(scores, 4, Integer.MAX_VALUE, selected));
+        // The priority speaker and the whisperer beat the loudest speaker.
+        assertFalse(selected[0]);
+        assertTrue(selected[1]);
+        assertFalse(selected[2]);
+        assertTrue(selected[3]);
+
+        assertEquals(4, governor.select(scores, 4, 0, selected));
+        for (boolean decoded : selected)
+            assertFalse(decoded);
+
+        assertEquals(0, governor.select(scores, 1, Integer.MAX_VALUE, selected));
+        assertTrue(selected[0]);
+    }
+}
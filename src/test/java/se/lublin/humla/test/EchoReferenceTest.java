@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package se.lublin.humla.test;
+
+import junit.framework.TestCase;
+
+import se.lublin.humla.audio.EchoReference;
+
+/**
+ * Tests that the echo reference lines played audio up with capture times.
+ */
+public class EchoReferenceTest extends TestCase {
+    private static final int RATE = 48000;
+    /** One 10ms buffer. */
+    private static final int SIZE = 480;
+    private static final long BUFFER_NANOS = 10000000L;
+    private static final long START = 5000000000L;
+
+    /** Writes buffers whose samples count up from the given value. */
+    private static void play(EchoReference reference, int buffers, long start, int first) {
+        short[] pcm = new short[SIZE];
+        for (int b = 0; b < buffers; b++) {
+            for (int i = 0; i < SIZE; i++)
+                pcm[i] = (short) (first + b * SIZE + i);
+            reference.write(pcm, 0, SIZE, start + b * BUFFER_NANOS);
+        }
+    }
+
+    public void testAlignment() {
+        EchoReference reference = new EchoReference(RATE, 8192);
+        play(reference, 10, START, 0);
+        short[] out = new short[SIZE];
+
+        // 25ms in is sample 1200.
+        assertEquals(SIZE, reference.read(START + 25000000L, out, SIZE, RATE));
+        assertEquals(1200, out[0]);
+        assertEquals(1200 + SIZE - 1, out[SIZE - 1]);
+
+        // At half the rate, every other sample.
+        assertEquals(SIZE, reference.read(START, out, SIZE, RATE / 2));
+        assertEquals(0, out[0]);
+        assertEquals(2, out[1]);
+        assertEquals(2 * (SIZE - 1), out[SIZE - 1]);
+    }
+
+    public void testSilenceOutsidePlayback() {
+        EchoReference reference = new EchoReference(RATE, 8192);
+        short[] out = new short[SIZE];
+        assertEquals(0, reference.read(START, out, SIZE, RATE));
+
+        play(reference, 2, START, 100);
+        // Before playback started.
+        assertEquals(0, reference.read(START - BUFFER_NANOS, out, SIZE, RATE));
+        assertEquals(0, out[SIZE - 1]);
+        // Half of it after playback ended.
+        int played = reference.read(START + 15000000L, out, SIZE, RATE);
+        assertTrue(played >= SIZE / 2 - 1 && played <= SIZE / 2);
+        assertEquals(0, out[SIZE - 1]);
+
+        // After a pause, the next buffer starts a new timeline and the gap stays silent.
+        play(reference, 2, START + 1000000000L, 5000);
+        assertEquals(0, reference.read(START + 500000000L, out, SIZE, RATE));
+        assertEquals(SIZE, reference.read(START + 1000000000L, out, SIZE, RATE));
+        assertEquals(5000, out[0]);
+    }
+
+    public void testJitterIsSmoothed() {
+        EchoReference reference = new EchoReference(RATE, 65536);
+        short[] pcm = new short[SIZE];
+        for (int b = 0; b < 100; b++) {
+            for (int i = 0; i < SIZE; i++)
+                pcm[i] = (short) ((b * SIZE + i) % 30000);
+            // Stamps wobble by up to 3ms around the true timeline.
+            long jitter = (b % 3 - 1) * 3000000L;
+            reference.write(pcm, 0, SIZE, START + b * BUFFER_NANOS + jitter);
+        }
+        short[] out = new short[1];
+        reference.read(START + 500000000L, out, 1, RATE);
+        // Sample 24000, off by well under the jitter of 144 samples.
+        assertTrue("read " + out[0], Math.abs(out[0] - 24000) < 48);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package se.lublin.humla.test;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import se.lublin.humla.audio.EncodeGovernor;
+
+/**
+ * Tests the order in which the encode governor sheds and restores quality. Load pacing itself is
+ * covered by {@link LoadMonitorTest}.
+ */
+public class EncodeGovernorTest extends TestCase {
+    private static final long PERIOD = 10000000L;
+
+    /** @return the settings after each change, for as many frames as it takes to stop changing. */
+    private static List<String> steps(EncodeGovernor governor, long busyNanos) {
+        List<String> steps = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            if (governor.update(busyNanos, PERIOD))
+                steps.add(governor.getComplexity() + (governor.isBandwidthLimited() ? "w" : ""));
+        }
+        return steps;
+    }
+
+    public void testShedsComplexityThenBandwidth() {
+        EncodeGovernor governor = new EncodeGovernor(EncodeGovernor.MAX_COMPLEXITY);
+        assertEquals(EncodeGovernor.MAX_COMPLEXITY, governor.getComplexity());
+        assertFalse(governor.isBandwidthLimited());
+
+        assertEquals(Arrays.asList("8", "6", "4", "2", "0", "0w"),
+                steps(governor, PERIOD * 8 / 10));
+        // Bandwidth returns first, then complexity one level at a time.
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10"),
+                steps(governor, PERIOD / 10));
+    }
+
+    public void testOddMaximum() {
+        EncodeGovernor governor = new EncodeGovernor(5);
+        assertEquals(Arrays.asList("3", "1", "0", "0w"), steps(governor, PERIOD));
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4", "5"), steps(governor, 0));
+    }
+
+    public void testRejectsBadComplexity() {
+        try {
+            new EncodeGovernor(EncodeGovernor.MAX_COMPLEXITY + 1);
+            fail("Complexity above the maximum was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
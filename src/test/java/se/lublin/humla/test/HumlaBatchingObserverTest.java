@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.lublin.humla.test;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import se.lublin.humla.model.Channel;
+import se.lublin.humla.model.ChannelChange;
+import se.lublin.humla.model.User;
+import se.lublin.humla.model.UserChange;
+import se.lublin.humla.util.HumlaBatchingObserver;
+import se.lublin.humla.util.HumlaModelDelta;
+import se.lublin.humla.util.IHumlaBatchObserver;
+
+/**
+ * Tests how {@link HumlaBatchingObserver} coalesces model callbacks into
+ * {@link HumlaModelDelta} batches. Batches are delivered with {@link HumlaBatchingObserver#flush()}
+ * rather than on a looper.
+ */
+public class HumlaBatchingObserverTest extends TestCase {
+    private final List<HumlaModelDelta> mDeltas = new ArrayList<>();
+    private HumlaBatchingObserver mObserver;
+    private Channel mRoot;
+    private Channel mSub;
+    private User mUser;
+
+    @Override
+    protected void setUp() {
+        mObserver = new HumlaBatchingObserver(new IHumlaBatchObserver() {
+            @Override
+            public void onModelChanged(HumlaModelDelta delta) {
+                mDeltas.add(delta);
+            }
+        }, HumlaBatchingObserver.DEFAULT_INTERVAL_MS, null);
+        mRoot = new Channel(0, false);
+        mSub = new Channel(1, false);
+        mRoot.addSubchannel(mSub);
+        mUser = new User(5, "Test user");
+        mUser.setChannel(mRoot);
+    }
+
+    private static Set<Integer> ids(Integer... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+
+    /** @return the only delta delivered by a flush. */
+    private HumlaModelDelta flush() {
+        mObserver.flush();
+        assertEquals("Deltas delivered", 1, mDeltas.size());
+        HumlaModelDelta delta = mDeltas.remove(0);
+        assertFalse(delta.isEmpty());
+        return delta;
+    }
+
+    public void testCoalescesRepeatedUpdates() {
+        mObserver.onUserStateUpdated(mUser, UserChange.MUTE);
+        mObserver.onUserTalkStateUpdated(mUser);
+        mObserver.onUserStateUpdated(mUser, UserChange.NAME);
+        mObserver.onUserTalkStateUpdated(mUser);
+        mObserver.onChannelStateUpdated(mSub, ChannelChange.NAME);
+        mObserver.onChannelPermissionsUpdated(mSub);
+        HumlaModelDelta delta = flush();
+        assertEquals(ids(5), delta.getUpdatedUsers());
+        assertEquals("A full update implies the talk state", ids(), delta.getTalkStateUsers());
+        assertEquals(ids(1), delta.getUpdatedChannels());
+        assertEquals(ids(), delta.getRemovedUsers());
+        assertEquals(ids(), delta.getRemovedChannels());
+
+        // Talk state alone is reported separately, once.
+        mObserver.onUserTalkStateUpdated(mUser);
+        mObserver.onUserTalkStateUpdated(mUser);
+        delta = flush();
+        assertEquals(ids(), delta.getUpdatedUsers());
+        assertEquals(ids(5), delta.getTalkStateUsers());
+
+        // A later full update absorbs an earlier talk state change.
+        mObserver.onUserTalkStateUpdated(mUser);
+        mObserver.onUserJoinedChannel(mUser, mSub, mRoot);
+        delta = flush();
+        assertEquals(ids(5), delta.getUpdatedUsers());
+        assertEquals(ids(), delta.getTalkStateUsers());
+        assertEquals("Both ends of a move are updated", ids(0, 1), delta.getUpdatedChannels());
+    }
+
+    public void testRemovalReplacesUpdate() {
+        mObserver.onUserConnected(mUser);
+        mObserver.onUserTalkStateUpdated(mUser);
+        mObserver.onUserRemoved(mUser, "Left");
+        // Stragglers after the removal don't resurrect the user.
+        mObserver.onUserTalkStateUpdated(mUser);
+        mObserver.onChannelStateUpdated(mSub, ChannelChange.DESCRIPTION);
+        mObserver.onChannelRemoved(mSub);
+        HumlaModelDelta delta = flush();
+        assertEquals(ids(), delta.getUpdatedUsers());
+        assertEquals(ids(), delta.getTalkStateUsers());
+        assertEquals(ids(5), delta.getRemovedUsers());
+        assertEquals("The user's channel is still updated", ids(0), delta.getUpdatedChannels());
+        assertEquals(ids(1), delta.getRemovedChannels());
+
+        // An entity added again after a removal within the same batch is an update.
+        mObserver.onUserRemoved(mUser, "Left");
+        mObserver.onUserConnected(mUser);
+        mObserver.onChannelRemoved(mSub);
+        mObserver.onChannelAdded(mSub);
+        delta = flush();
+        assertEquals(ids(5), delta.getUpdatedUsers());
+        assertEquals(ids(), delta.getRemovedUsers());
+        assertEquals(ids(0, 1), delta.getUpdatedChannels());
+        assertEquals(ids(), delta.getRemovedChannels());
+    }
+
+    public void testNothingToDeliver() {
+        mObserver.flush();
+        mObserver.onUserStateUpdated(mUser, UserChange.NONE);
+        mObserver.onChannelStateUpdated(mSub, ChannelChange.NONE);
+        mObserver.onUserRemoved(null, "Unknown");
+        mObserver.flush();
+        assertEquals(Collections.emptyList(), mDeltas);
+
+        // Pending changes are dropped on disconnect.
+        mObserver.onUserConnected(mUser);
+        mObserver.onDisconnected(null);
+        mObserver.flush();
+        assertEquals(Collections.emptyList(), mDeltas);
+    }
+}
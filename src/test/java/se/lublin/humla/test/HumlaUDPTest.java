@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.test;
+
+import android.os.Handler;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import se.lublin.humla.net.CryptState;
+import se.lublin.humla.net.DatagramBuffer;
+import se.lublin.humla.net.DatagramBufferPool;
+import se.lublin.humla.net.HumlaUDP;
+import se.lublin.humla.net.PacketBuffer;
+
+/**
+ * Drives the voice send path of {@link HumlaUDP} against a loopback socket: datagrams written in
+ * place are encrypted, queued, sent and returned to their pool.
+ */
+public class HumlaUDPTest extends TestCase {
+    private static final int TIMEOUT_MS = 5000;
+    private static final byte[] KEY = new byte[CryptState.AES_BLOCK_SIZE];
+    private static final byte[] CLIENT_NONCE = new byte[CryptState.AES_BLOCK_SIZE];
+    private static final byte[] SERVER_NONCE = new byte[CryptState.AES_BLOCK_SIZE];
+    /** A 20ms Opus frame at 24kbps. */
+    private static final byte[] ENCODED = new byte[60];
+
+    static {
+        for (int i = 0; i < CryptState.AES_BLOCK_SIZE; i++) {
+            KEY[i] = (byte) i;
+            CLIENT_NONCE[i] = (byte) (0x10 + i);
+            SERVER_NONCE[i] = (byte) (0x80 + i);
+        }
+        for (int i = 0; i < ENCODED.length; i++)
+            ENCODED[i] = (byte) (i * 7 + 3);
+    }
+
+    private static final HumlaUDP.UDPConnectionListener LISTENER = new HumlaUDP.UDPConnectionListener() {
+        @Override
+        public void onUDPDataReceived(byte[] data) {
+        }
+
+        @Override
+        public void onUDPConnectionError(Exception e) {
+        }
+
+        @Override
+        public void resyncCryptState() {
+        }
+    };
+
+    /** A socket whose sends wait for its gate to open, holding datagrams in the send queue. */
+    private static class GatedSocket extends DatagramSocket {
+        final CountDownLatch mCreated = new CountDownLatch(1);
+        final CountDownLatch mSending = new CountDownLatch(1);
+        final CountDownLatch mGate;
+
+        GatedSocket(boolean open) throws SocketException {
+            mGate = new CountDownLatch(open ? 0 : 1);
+        }
+
+        @Override
+        public void send(DatagramPacket packet) throws IOException {
+            mSending.countDown();
+            try {
+                mGate.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            super.send(packet);
+        }
+    }
+
+    private static class GatedUDP extends HumlaUDP {
+        private final GatedSocket mSocket;
+
+        GatedUDP(CryptState cryptState, GatedSocket socket) {
+            super(cryptState, LISTENER, new Handler());
+            mSocket = socket;
+        }
+
+        @Override
+        protected DatagramSocket createSocket() {
+            mSocket.mCreated.countDown();
+            return mSocket;
+        }
+    }
+
+    private DatagramSocket mServer;
+    private GatedSocket mSocket;
+    private HumlaUDP mUDP;
+    private DatagramBufferPool mPool;
+
+    @Override
+    protected void setUp() throws Exception {
+        mServer = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        mServer.setSoTimeout(TIMEOUT_MS);
+        mPool = new DatagramBufferPool(256, 256);
+    }
+
+    @Override
+    protected void tearDown() {
+        if (mSocket != null)
+            mSocket.mGate.countDown();
+        if (mUDP != null)
+            mUDP.disconnect();
+        mServer.close();
+    }
+
+    private static CryptState crypt(byte[] encrypt, byte[] decrypt) throws Exception {
+        CryptState state = new CryptState();
+        state.setKeys(KEY, encrypt, decrypt);
+        return state;
+    }
+
+    /** Opens the client, waiting until it is connected to our loopback server. */
+    private void connect(boolean open) throws Exception {
+        mSocket = new GatedSocket(open);
+        mUDP = new GatedUDP(crypt(CLIENT_NONCE, SERVER_NONCE), mSocket);
+        mUDP.connect(mServer.getLocalAddress().getHostAddress(), mServer.getLocalPort());
+        assertTrue(mSocket.mCreated.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    /** Writes a voice packet the way the encoder does, straight into a pooled datagram. */
+    private DatagramBuffer voicePacket(int sequence) {
+        DatagramBuffer datagram = mPool.acquire();
+        PacketBuffer ds = datagram.getPayload();
+        ds.append(0x80);
+        ds.writeLong(sequence);
+        ds.writeLong(ENCODED.length);
+        ds.append(ENCODED, ENCODED.length);
+        datagram.setLength(ds.size());
+        return datagram;
+    }
+
+    private static byte[] plainText(DatagramBuffer datagram) {
+        return Arrays.copyOfRange(datagram.getData(), DatagramBuffer.HEADROOM,
+                DatagramBuffer.HEADROOM + datagram.getLength());
+    }
+
+    private void awaitIdle(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mPool.getIdleCount() < count && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertEquals(count, mPool.getIdleCount());
+    }
+
+    public void testSend() throws Exception {
+        connect(true);
+        CryptState server = crypt(SERVER_NONCE, CLIENT_NONCE);
+        for (int sequence = 0; sequence < 10; sequence++) {
+            DatagramBuffer datagram = voicePacket(sequence);
+            byte[] expected = plainText(datagram);
+            mUDP.sendMessage(datagram);
+
+            DatagramPacket packet = new DatagramPacket(new byte[256], 256);
+            mServer.receive(packet);
+            assertEquals(DatagramBuffer.HEADROOM + expected.length, packet.getLength());
+            byte[] decrypted = server.decrypt(packet.getData(), packet.getLength());
+            assertTrue("Packet " + sequence, Arrays.equals(expected, decrypted));
+
+            // Released by the sending thread once on the wire.
+            awaitIdle(1);
+        }
+    }
+
+    public void testReleaseUnsent() throws Exception {
+        // Without a connection, the datagram is released rather than queued.
+        mUDP = new HumlaUDP(crypt(CLIENT_NONCE, SERVER_NONCE), LISTENER, new Handler());
+        mUDP.sendMessage(voicePacket(0));
+        assertEquals(1, mPool.getIdleCount());
+        mUDP = null;
+
+        // Hold up the sending thread on the first datagram, then fill the queue behind it.
+        connect(false);
+        mUDP.sendMessage(voicePacket(0));
+        assertTrue(mSocket.mSending.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        int queued = 0;
+        while (mPool.getIdleCount() == 0 && queued < 1000)
+            mUDP.sendMessage(voicePacket(++queued));
+        assertEquals("Queue never filled", 1, mPool.getIdleCount());
+        // The datagram that did not fit was released right away; the rest wait to be sent.
+        queued--;
+        assertTrue("Queued " + queued, queued > 0);
+
+        mSocket.mGate.countDown();
+        awaitIdle(queued + 2);
+    }
+
+    public void testSendPathAllocation() throws Exception {
+        connect(true);
+        final int iterations = 10000;
+        long allocated = AllocationMeter.measure(new Runnable() {
+            @Override
+            public void run() {
+                sendAll(iterations);
+            }
+        });
+        if (allocated == AllocationMeter.UNSUPPORTED)
+            return;
+
+        // Contention on the send queue's lock may allocate a wait node now and then, but that
+        // must stay far below one object per packet.
+        assertTrue("Send path allocated " + allocated + " bytes", allocated < iterations);
+    }
+
+    /** Sends packets one at a time, waiting for each to return to the pool. */
+    private void sendAll(int count) {
+        for (int sequence = 0; sequence < count; sequence++) {
+            mUDP.sendMessage(voicePacket(sequence));
+            while (mPool.getIdleCount() == 0)
+                Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package se.lublin.humla.test;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+import se.lublin.humla.audio.CapturePipeline;
+import se.lublin.humla.audio.HighPassStage;
+import se.lublin.humla.audio.IdleGate;
+import se.lublin.humla.audio.VoiceActivityStage;
+import se.lublin.humla.audio.inputmode.AdaptiveActivityInputMode;
+
+/**
+ * Tests onset detection during idle capture, and reports what it costs next to processing.
+ */
+public class IdleGateTest extends TestCase {
+    private static final int FRAME = 480;
+
+    private final Random mRandom = new Random(42);
+    private final short[] mFrame = new short[FRAME];
+
+    private short[] noise(double level) {
+        for (int i = 0; i < FRAME; i++)
+            mFrame[i] = (short) (mRandom.nextGaussian() * level);
+        return mFrame;
+    }
+
+    private short[] voiced(double level, double noise) {
+        for (int i = 0; i < FRAME; i++) {
+            double t = (double) i / 48000;
+            mFrame[i] = (short) (level * (Math.sin(2 * Math.PI * 150 * t)
+                    + 0.5 * Math.sin(2 * Math.PI * 450 * t)) + mRandom.nextGaussian() * noise);
+        }
+        return mFrame;
+    }
+
+    public void testWakesOnOnsetOnly() {
+        IdleGate gate = new IdleGate(100);
+        for (int i = 0; i < 500; i++)
+            assertFalse("Woke on noise at frame " + i, gate.isOnset(noise(300), FRAME));
+        assertTrue(gate.isOnset(voiced(3000, 300), FRAME));
+    }
+
+    public void testFollowsRisingNoise() {
+        IdleGate gate = new IdleGate(100);
+        // A fan spinning up over ten seconds, 20dB in all.
+        for (int i = 0; i < 1000; i++)
+            assertFalse(gate.isOnset(noise(100 * Math.pow(10, i / 1000.0)), FRAME));
+        assertTrue(gate.isOnset(voiced(10000, 1000), FRAME));
+    }
+
+    public void testIgnoresDigitalSilence() {
+        IdleGate gate = new IdleGate(100);
+        for (int i = 0; i < 100; i++)
+            assertFalse(gate.isOnset(noise(0), FRAME));
+        // Dither is louder than silence, but not a sound.
+        assertFalse(gate.isOnset(noise(2), FRAME));
+        gate.reset();
+        assertEquals(-1, gate.getFloor());
+    }
+
+    public void testCost() throws Exception {
+        IdleGate gate = new IdleGate(100);
+        // What a silent frame costs without idling: high-pass filtering and voice activity.
+        CapturePipeline pipeline = new CapturePipeline(FRAME);
+        pipeline.setStage(CapturePipeline.STAGE_HIGH_PASS,
+                new HighPassStage(48000, HighPassStage.DEFAULT_CUTOFF));
+        pipeline.setStage(CapturePipeline.STAGE_VOICE_ACTIVITY,
+                new VoiceActivityStage(new AdaptiveActivityInputMode()));
+        short[] frame = noise(300).clone();
+        int frames = 20000;
+        for (int i = 0; i < frames; i++) { // Warm up.
+            gate.isOnset(frame, FRAME);
+            pipeline.process(frame, FRAME);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++)
+            gate.isOnset(frame, FRAME);
+        long gateNanos = (System.nanoTime() - start) / frames;
+        start = System.nanoTime();
+        for (int i = 0; i < frames; i++)
+            pipeline.process(frame, FRAME);
+        long pipelineNanos = (System.nanoTime() - start) / frames;
+        assertTrue("Idle frame " + gateNanos + "ns, processed silent frame " + pipelineNanos + "ns",
+                gateNanos < pipelineNanos);
+    }
+}
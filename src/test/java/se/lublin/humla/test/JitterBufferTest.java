@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.test;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import se.lublin.humla.audio.AdaptiveJitterBuffer;
+import se.lublin.humla.audio.IJitterBuffer;
+import se.lublin.humla.audio.JitterBufferStats;
+import se.lublin.humla.audio.SpurtTimeline;
+
+/**
+ * Deterministic network simulations of the adaptive jitter buffer. Time advances one frame per
+ * playback tick; packets are sent one per frame and arrive after a simulated network delay.
+ */
+public class JitterBufferTest extends TestCase {
+    private static final int FRAME = 480;
+
+    private long mNow;
+    private AdaptiveJitterBuffer mBuffer;
+    private final ByteBuffer mOut = ByteBuffer.allocate(64);
+    private final List<Integer> mPlayed = new ArrayList<>();
+
+    @Override
+    protected void setUp() {
+        mNow = 0;
+        mPlayed.clear();
+        mBuffer = new AdaptiveJitterBuffer(FRAME, new AdaptiveJitterBuffer.Clock() {
+            @Override
+            public long now() {
+                return mNow;
+            }
+        });
+    }
+
+    private void put(int seq) {
+        byte[] data = ByteBuffer.allocate(4).putInt(seq).array();
+        mBuffer.put(data, data.length, seq * FRAME, FRAME, 0);
+    }
+
+    /**
+     * Runs a simulation to completion.
+     * @param arrivals The arrival time of each sequence number, in frames, or -1 if lost.
+     */
+    private void simulate(int[] arrivals) {
+        int last = 0;
+        for (int arrival : arrivals)
+            last = Math.max(last, arrival);
+        for (int tick = 0; tick <= last + 64; tick++) {
+            mNow = (long) tick * FRAME;
+            for (int seq = 0; seq < arrivals.length; seq++) {
+                if (arrivals[seq] == tick)
+                    put(seq);
+            }
+            int length = mBuffer.get(mOut);
+            if (length >= 0) {
+                assertEquals(4, length);
+                mPlayed.add(mOut.getInt(0));
+            }
+        }
+    }
+
+    private static int[] steady(int count) {
+        int[] arrivals = new int[count];
+        for (int i = 0; i < count; i++)
+            arrivals[i] = i;
+        return arrivals;
+    }
+
+    private void assertPlayedInOrder() {
+        for (int i = 1; i < mPlayed.size(); i++)
+            assertTrue("Played " + mPlayed, mPlayed.get(i) > mPlayed.get(i - 1));
+    }
+
+    public void testInOrder() {
+        simulate(steady(200));
+        JitterBufferStats stats = mBuffer.getStats();
+        assertEquals(200, mPlayed.size());
+        assertPlayedInOrder();
+        assertEquals(0, stats.getLost());
+        assertEquals(0, stats.getLate());
+        assertEquals(0, stats.getJitter());
+        assertTrue(stats.getTargetDelay() <= 2 * FRAME);
+    }
+
+    public void testReordered() {
+        int[] arrivals = steady(200);
+        // Swap every pair of packets on the wire.
+        for (int i = 0; i + 1 < arrivals.length; i += 2)
+            arrivals[i]++;
+        simulate(arrivals);
+        assertEquals(200, mPlayed.size());
+        assertPlayedInOrder();
+        assertEquals(0, mBuffer.getStats().getLost());
+    }
+
+    public void testLost() {
+        int[] arrivals = steady(200);
+        for (int i = 5; i < arrivals.length; i += 10)
+            arrivals[i] = -1;
+        simulate(arrivals);
+        JitterBufferStats stats = mBuffer.getStats();
+        assertEquals(180, mPlayed.size());
+        assertPlayedInOrder();
+        assertEquals(20, stats.getLost());
+        assertFalse(mPlayed.contains(5));
+    }
+
+    public void testBursty() {
+        // Random delay of up to 60ms, delivered in bursts every 30ms as by a radio in power save.
+        Random random = new Random(42);
+        int[] arrivals = new int[1000];
+        for (int i = 0; i < arrivals.length; i++) {
+            int delayed = i + random.nextInt(7);
+            arrivals[i] = (delayed + 2) / 3 * 3;
+        }
+        simulate(arrivals);
+        JitterBufferStats stats = mBuffer.getStats();
+        assertPlayedInOrder();
+        assertTrue("Target " + stats.getTargetDelay(), stats.getTargetDelay() >= 6 * FRAME);
+        assertTrue(stats.getInsertions() > 0);
+
+        // Once adapted, almost everything arrives in time.
+        int played = 0;
+        for (int seq : mPlayed) {
+            if (seq >= 500)
+                played++;
+        }
+        assertTrue("Played " + played + " of 500", played >= 490);
+    }
+
+    public void testAdaptsDown() {
+        Random random = new Random(7);
+        int[] arrivals = new int[2000];
+        for (int i = 0; i < arrivals.length; i++)
+            arrivals[i] = i < 500 ? i + random.nextInt(8) : i + 8;
+        simulate(arrivals);
+        JitterBufferStats stats = mBuffer.getStats();
+        assertPlayedInOrder();
+        assertTrue("Target " + stats.getTargetDelay(), stats.getTargetDelay() <= 2 * FRAME);
+        assertTrue(stats.getDropped() > 0);
+    }
+
+    public void testInsertionIsNotLoss() {
+        // Every other packet arrives four frames late, so the buffer aims for five frames of delay.
+        for (int seq = 0; seq < 16; seq++) {
+            mNow = (seq + (seq % 2) * 4) * FRAME;
+            put(seq);
+        }
+        // Playback drains the buffer until it holds back a frame to restore its depth.
+        int pointer;
+        int result;
+        do {
+            pointer = mBuffer.getPointerTimestamp();
+            result = mBuffer.get(mOut);
+        } while (result >= 0);
+        assertEquals(IJitterBuffer.INSERTION, result);
+
+        // The packet due was held back, not lost, and plays next.
+        assertEquals(pointer, mBuffer.getPointerTimestamp());
+        assertEquals(4, mBuffer.get(mOut));
+        assertEquals(pointer / FRAME, mOut.getInt(0));
+        JitterBufferStats stats = mBuffer.getStats();
+        assertEquals(1, stats.getInsertions());
+        assertEquals(0, stats.getLost());
+    }
+
+    public void testRestartAndReset() {
+        int[] arrivals = new int[300];
+        for (int i = 0; i < arrivals.length; i++)
+            arrivals[i] = i + (i % 4) * 2;
+        simulate(arrivals);
+        int target = mBuffer.getStats().getTargetDelay();
+        int received = mBuffer.getStats().getReceived();
+        assertTrue(target > 2 * FRAME);
+
+        // A new talk spurt keeps what was learned about the network.
+        mBuffer.restart();
+        assertEquals(0, mBuffer.getPointerTimestamp());
+        assertEquals(0, mBuffer.getAvailableCount());
+        assertEquals(target, mBuffer.getStats().getTargetDelay());
+        assertEquals(received, mBuffer.getStats().getReceived());
+
+        // Reuse by another speaker starts from scratch.
+        mBuffer.reset();
+        assertEquals(2 * FRAME, mBuffer.getStats().getTargetDelay());
+        assertEquals(0, mBuffer.getStats().getReceived());
+    }
+
+    /**
+     * The Speex buffer, the default, cannot resynchronise without forgetting its delay, so it
+     * keeps running across talk spurts and shifts each new spurt onto its playback pointer.
+     */
+    public void testSpeexSpurtTimeline() {
+        SpurtTimeline timeline = new SpurtTimeline();
+        // The first spurt plays on the sender's timeline, as after a native reset.
+        assertEquals(2 * FRAME, timeline.toBuffer(2 * FRAME, 0));
+        timeline.played();
+        assertEquals(5 * FRAME, timeline.fromBuffer(5 * FRAME));
+
+        // The sender's clock moved on while it was quiet; the buffer's pointer did not.
+        timeline.restart();
+        int pointer = 6 * FRAME;
+        int first = 400 * FRAME;
+        assertEquals(pointer, timeline.toBuffer(first, pointer));
+        assertEquals(pointer + 2 * FRAME, timeline.toBuffer(first + 2 * FRAME, pointer));
+        // Nothing played yet reads as a fresh buffer, so the speaker still prefills and fades in.
+        assertEquals(0, timeline.fromBuffer(pointer));
+        timeline.played();
+        assertEquals(first + FRAME, timeline.fromBuffer(pointer + FRAME));
+        // A late packet from before the spurt's first lands behind the pointer and is dropped.
+        assertTrue(timeline.toBuffer(first - FRAME, pointer + FRAME) < pointer);
+
+        timeline.reset();
+        assertEquals(first, timeline.toBuffer(first, pointer));
+        assertEquals(pointer, timeline.fromBuffer(pointer));
+    }
+
+    public void testPeekPastLoss() {
+        for (int seq = 0; seq < 6; seq++) {
+            if (seq != 3)
+                put(seq);
+        }
+        assertEquals(-1, mBuffer.peek(3 * FRAME, mOut));
+        assertEquals(4, mBuffer.peek(4 * FRAME, mOut));
+        assertEquals(4, mOut.getInt(0));
+        // Peeking leaves the packet in place.
+        assertEquals(5, mBuffer.getAvailableCount());
+        assertEquals(-1, mBuffer.peek(4 * FRAME + 1, mOut));
+    }
+
+    public void testLateAndDuplicate() {
+        for (int seq = 0; seq < 10; seq++) {
+            mNow = seq * FRAME;
+            put(seq);
+            if (seq == 4)
+                put(seq);
+            if (seq != 9)
+                mBuffer.get(mOut);
+        }
+        JitterBufferStats stats = mBuffer.getStats();
+        assertEquals(1, stats.getDuplicates());
+
+        // The pointer has moved past the first packets; replaying one is late.
+        put(1);
+        stats = mBuffer.getStats();
+        assertEquals(1, stats.getLate());
+        assertEquals(12, stats.getReceived());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package se.lublin.humla.test;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import se.lublin.humla.audio.AdaptiveJitterBuffer;
+
+/**
+ * Measures mouth-to-ear latency for each supported frame size in a simulation of capture,
+ * packetisation, a jittery network and the adaptive jitter buffer. Device buffers are left out;
+ * they are reported at runtime by AudioHandler instead.
+ */
+public class LatencyHarnessTest extends TestCase {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int DURATION_SECONDS = 20;
+    /** Network delay common to every packet, in samples: 20ms. */
+    private static final int BASE_DELAY = 960;
+    /** The largest extra delay of a packet, in samples: 4ms. */
+    private static final int MAX_JITTER = 192;
+
+    private long mNow;
+
+    /**
+     * @return the capture to playout latency of every packet played, in samples, sorted.
+     */
+    private long[] simulate(int frameSize) {
+        int packets = DURATION_SECONDS * SAMPLE_RATE / frameSize;
+        AdaptiveJitterBuffer buffer = new AdaptiveJitterBuffer(frameSize,
+                new AdaptiveJitterBuffer.Clock() {
+                    @Override
+                    public long now() {
+                        return mNow;
+                    }
+                });
+        Random random = new Random(42);
+        // Arrival time in the upper bits, sequence number in the lower, so sorting orders arrivals.
+        long[] arrivals = new long[packets];
+        for (int seq = 0; seq < packets; seq++) {
+            // A frame is sent once its last sample has been captured.
+            long sent = (long) (seq + 1) * frameSize;
+            arrivals[seq] = (sent + BASE_DELAY + random.nextInt(MAX_JITTER + 1)) << 32 | seq;
+        }
+        Arrays.sort(arrivals);
+
+        ByteBuffer out = ByteBuffer.allocate(4);
+        long[] latencies = new long[packets];
+        int played = 0;
+        int next = 0;
+        long end = (arrivals[packets - 1] >> 32) + SAMPLE_RATE;
+        for (mNow = 0; mNow < end; mNow += frameSize) {
+            while (next < packets && arrivals[next] >> 32 <= mNow) {
+                int seq = (int) arrivals[next++];
+                byte[] data = ByteBuffer.allocate(4).putInt(seq).array();
+                buffer.put(data, data.length, seq * frameSize, frameSize, 0);
+            }
+            if (buffer.get(out) >= 0) {
+                int seq = out.getInt(0);
+                // The frame plays out over the tick following the one it was taken in.
+                latencies[played++] = mNow + frameSize - (long) seq * frameSize;
+            }
+            buffer.tick();
+        }
+        assertTrue("Only played " + played + " of " + packets, played >= packets * 95 / 100);
+        long[] result = Arrays.copyOf(latencies, played);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static double millis(double samples) {
+        return samples * 1000 / SAMPLE_RATE;
+    }
+
+    public void testShorterFramesLowerLatency() {
+        int[] frameSizes = { 480, 240, 120 };
+        double[] means = new double[frameSizes.length];
+        long[] tails = new long[frameSizes.length];
+        StringBuilder report = new StringBuilder();
+        for (int i = 0; i < frameSizes.length; i++) {
+            long[] latencies = simulate(frameSizes[i]);
+            long sum = 0;
+            for (long latency : latencies)
+                sum += latency;
+            means[i] = (double) sum / latencies.length;
+            tails[i] = latencies[latencies.length * 95 / 100];
+            report.append(String.format("%.1fms frames: mean %.1fms, 95th percentile %.1fms; ",
+                    millis(frameSizes[i]), millis(means[i]), millis(tails[i])));
+        }
+        for (int i = 1; i < frameSizes.length; i++) {
+            assertTrue(report.toString(), means[i] < means[i - 1]);
+            assertTrue(report.toString(), tails[i] <= tails[i - 1]);
+        }
+        // Nothing but the network should take more than a few frames.
+        assertTrue(report.toString(), means[2] < BASE_DELAY + MAX_JITTER + 8 * frameSizes[2]);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.lublin.humla.test;
+
+import junit.framework.TestCase;
+
+import se.lublin.humla.audio.LoadMonitor;
+
+/**
+ * Tests the load smoothing and step pacing shared by the encode and decode governors.
+ */
+public class LoadMonitorTest extends TestCase {
+    private static final long PERIOD = 10000000L;
+
+    public void testShedPacing() {
+        LoadMonitor monitor = new LoadMonitor(0.5f, 0.2f, 0.5f, 4, 10);
+        assertEquals(LoadMonitor.HOLD, monitor.update(PERIOD, PERIOD));
+        assertEquals(0.5f, monitor.getLoad(), 0.001f);
+        // Over the threshold from the second period, but the interval counts from the start.
+        assertEquals(LoadMonitor.HOLD, monitor.update(PERIOD, PERIOD));
+        assertEquals(LoadMonitor.HOLD, monitor.update(PERIOD, PERIOD));
+        assertEquals(LoadMonitor.SHED, monitor.update(PERIOD, PERIOD));
+        // Advice that isn't acted on repeats.
+        assertEquals(LoadMonitor.SHED, monitor.update(PERIOD, PERIOD));
+        monitor.changed();
+        for (int i = 0; i < 3; i++)
+            assertEquals(LoadMonitor.HOLD, monitor.update(PERIOD, PERIOD));
+        assertEquals(LoadMonitor.SHED, monitor.update(PERIOD, PERIOD));
+    }
+
+    public void testRecoverNeedsUninterruptedHeadroom() {
+        LoadMonitor monitor = new LoadMonitor(0.5f, 0.2f, 1, 1, 10);
+        for (int i = 0; i < 9; i++)
+            assertEquals(LoadMonitor.HOLD, monitor.update(0, PERIOD));
+        // A period between the thresholds restarts the count.
+        assertEquals(LoadMonitor.HOLD, monitor.update(PERIOD * 3 / 10, PERIOD));
+        for (int i = 0; i < 9; i++)
+            assertEquals(LoadMonitor.HOLD, monitor.update(0, PERIOD));
+        assertEquals(LoadMonitor.RECOVER, monitor.update(0, PERIOD));
+        monitor.changed();
+        for (int i = 0; i < 9; i++)
+            assertEquals(LoadMonitor.HOLD, monitor.update(0, PERIOD));
+        assertEquals(LoadMonitor.RECOVER, monitor.update(0, PERIOD));
+
+        // So does a high load.
+        monitor.changed();
+        for (int i = 0; i < 9; i++)
+            monitor.update(0, PERIOD);
+        assertEquals(LoadMonitor.SHED, monitor.update(PERIOD, PERIOD));
+        for (int i = 0; i < 9; i++)
+            assertEquals(LoadMonitor.HOLD, monitor.update(0, PERIOD));
+    }
+
+    public void testModerateLoadHolds() {
+        LoadMonitor monitor = new LoadMonitor(0.75f, 0.5f, 0.2f, 5, 50);
+        for (int i = 0; i < 1000; i++)
+            assertEquals(LoadMonitor.HOLD, monitor.update(PERIOD * 6 / 10, PERIOD));
+        assertEquals(0.6f, monitor.getLoad(), 0.001f);
+    }
+
+    public void testSmoothingAveragesBursts() {
+        // Work done in every other period, such as encoding packets of two frames, averages out.
+        LoadMonitor monitor = new LoadMonitor(0.5f, 0.2f, 0.05f, 20, 500);
+        for (int i = 0; i < 2000; i++)
+            assertEquals(LoadMonitor.HOLD, monitor.update(i % 2 == 0 ? 0 : PERIOD * 6 / 10, PERIOD));
+        assertEquals(0.3f, monitor.getLoad(), 0.05f);
+    }
+}
@@ -3,11 +3,15 @@ package se.lublin.humla.test;
 import junit.framework.TestCase;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Random;
 
 import se.lublin.humla.audio.BasicClippingShortMixer;
 import se.lublin.humla.audio.IAudioMixer;
 import se.lublin.humla.audio.IAudioMixerSource;
+import se.lublin.humla.audio.SoftLimitingShortMixer;
 
 /**
  * Created by andrew on 16/07/15.
@@ -44,6 +48,125 @@ public class MixerTest extends TestCase {
         testMixerCommutativity(new BasicClippingShortMixer());
     }
 
+    public void testSoftLimitingShortMixer() {
+        testMixerCommutativity(new SoftLimitingShortMixer());
+    }
+
+    private static List<IAudioMixerSource<float[]>> randomSources(Random random, int count,
+                                                                  int length, float amplitude) {
+        List<IAudioMixerSource<float[]>> sources = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            float[] samples = new float[length];
+            for (int j = 0; j < length; j++)
+                samples[j] = (random.nextFloat() * 2 - 1) * amplitude;
+            sources.add(new BasicSource<>(samples, length));
+        }
+        return sources;
+    }
+
+    /**
+     * Tests that shuffling many sources, and passing them as a non-list collection, changes the
+     * output by no more than float rounding.
+     */
+    public void testSoftLimitingShortMixerPermutations() {
+        Random random = new Random(1);
+        SoftLimitingShortMixer mixer = new SoftLimitingShortMixer();
+        List<IAudioMixerSource<float[]>> sources = randomSources(random, 16, 480, 0.3f);
+        short[] expected = new short[480];
+        mixer.mix(sources, expected, 0, 480);
+
+        for (int round = 0; round < 10; round++) {
+            Collections.shuffle(sources, random);
+            short[] output = new short[480];
+            if (round % 2 == 0)
+                mixer.mix(sources, output, 0, 480);
+            else
+                mixer.mix(new LinkedHashSet<>(sources), output, 0, 480);
+            for (int i = 0; i < 480; i++)
+                assertTrue("Mixing should be commutative.", Math.abs(expected[i] - output[i]) <= 1);
+        }
+    }
+
+    /**
+     * Tests that the limiter is transparent below its knee, and that loud mixes are compressed
+     * monotonically without reaching full scale.
+     */
+    public void testSoftLimiterHeadroom() {
+        SoftLimitingShortMixer mixer = new SoftLimitingShortMixer();
+        int steps = 200;
+        float[] ramp = new float[steps];
+        for (int i = 0; i < steps; i++)
+            ramp[i] = i * 0.05f;
+
+        // Sum the ramp with itself 64 times, as if 64 speakers were shouting at once.
+        List<IAudioMixerSource<float[]>> sources = new ArrayList<>();
+        for (int i = 0; i < 64; i++)
+            sources.add(new BasicSource<>(ramp, steps));
+        short[] loud = new short[steps];
+        mixer.mix(sources, loud, 0, steps);
+        for (int i = 1; i < steps; i++) {
+            assertTrue("Limiting should be monotonic.", loud[i] >= loud[i - 1]);
+            assertTrue("Limiting should never reach full scale.", loud[i] < Short.MAX_VALUE);
+        }
+        assertTrue(loud[steps - 1] > SoftLimitingShortMixer.KNEE * Short.MAX_VALUE);
+
+        short[] quiet = new short[steps];
+        sources.clear();
+        sources.add(new BasicSource<>(ramp, steps));
+        mixer.mix(sources, quiet, 0, steps);
+        for (int i = 0; ramp[i] <= SoftLimitingShortMixer.KNEE; i++)
+            assertEquals((short) (ramp[i] * Short.MAX_VALUE), quiet[i]);
+
+        float[] negative = new float[steps];
+        for (int i = 0; i < steps; i++)
+            negative[i] = -ramp[i];
+        sources.clear();
+        sources.add(new BasicSource<>(negative, steps));
+        short[] inverted = new short[steps];
+        mixer.mix(sources, inverted, 0, steps);
+        for (int i = 0; i < steps; i++)
+            assertEquals("Limiting should be symmetric.", -quiet[i], inverted[i]);
+    }
+
+    /**
+     * Compares mixing time against the clipping mixer for one to 64 speakers: limiting must not
+     * cost more than twice as much. Timing depends on the machine and its load, so this only runs
+     * when the {@code humla.test.benchmark} system property is set.
+     */
+    public void testMixerBenchmark() {
+        if (!Boolean.getBoolean("humla.test.benchmark"))
+            return;
+        Random random = new Random(2);
+        IAudioMixer<float[], short[]> basic = new BasicClippingShortMixer();
+        IAudioMixer<float[], short[]> limiting = new SoftLimitingShortMixer();
+        short[] output = new short[480];
+        for (int count = 1; count <= 64; count *= 2) {
+            List<IAudioMixerSource<float[]>> sources = randomSources(random, count, 480, 0.2f);
+            long basicNanos = Long.MAX_VALUE;
+            long limitingNanos = Long.MAX_VALUE;
+            // Alternate between the two and keep the best of each, so a burst of load elsewhere
+            // does not count against either.
+            for (int round = 0; round < 5; round++) {
+                basicNanos = Math.min(basicNanos, time(basic, sources, output));
+                limitingNanos = Math.min(limitingNanos, time(limiting, sources, output));
+            }
+            assertTrue(String.format("Mixing %d source(s): clipping %dns, limiting %dns",
+                    count, basicNanos, limitingNanos), limitingNanos <= basicNanos * 2);
+        }
+    }
+
+    private static long time(IAudioMixer<float[], short[]> mixer,
+                             List<IAudioMixerSource<float[]>> sources, short[] output) {
+        final int warmup = 2000;
+        final int iterations = 2000;
+        for (int i = 0; i < warmup; i++)
+            mixer.mix(sources, output, 0, output.length);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            mixer.mix(sources, output, 0, output.length);
+        return (System.nanoTime() - start) / iterations;
+    }
+
     private static class BasicSource<T> implements IAudioMixerSource<T> {
         private T mSamples;
         private int mLength;
@@ -47,4 +47,67 @@ public class ModelTest extends TestCase {
         assertEquals("Moving a user to a subchannel does not change the recursive user count of the root", 2, root.getSubchannelUserCount());
         assertEquals("Subchannel user count is sane", 2, sub.getUsers().size());
     }
+
+    public void testChannelReparent() {
+        Channel root = new Channel(0, false);
+        root.setName("Root");
+        Channel a = new Channel(1, false);
+        a.setName("A");
+        Channel b = new Channel(2, false);
+        b.setName("B");
+        Channel leaf = new Channel(3, false);
+        leaf.setName("Leaf");
+        a.setParent(root);
+        b.setParent(root);
+        leaf.setParent(a);
+        assertEquals("Levels are derived from the parent", 2, leaf.getLevel());
+
+        new User(0, "First").setChannel(leaf);
+        new User(1, "Second").setChannel(leaf);
+        new User(2, "Third").setChannel(b);
+        assertEquals("Subtree count includes nested users", 2, a.getSubchannelUserCount());
+        assertEquals("Root count includes all users", 3, root.getSubchannelUserCount());
+
+        leaf.setParent(b);
+        assertEquals("Reparenting removes users from the old ancestry", 0, a.getSubchannelUserCount());
+        assertEquals("Reparenting adds users to the new ancestry", 3, b.getSubchannelUserCount());
+        assertEquals("Reparenting does not change the root count", 3, root.getSubchannelUserCount());
+        assertEquals("Old parent no longer lists the subchannel", 0, a.getSubchannels().size());
+
+        b.setParent(a);
+        assertEquals("Levels propagate to the moved subtree", 3, leaf.getLevel());
+        assertEquals("Counts propagate through multiple levels", 3, a.getSubchannelUserCount());
+
+        leaf.setParent(null);
+        assertEquals("Detaching a subtree removes its users from all ancestors", 1, root.getSubchannelUserCount());
+    }
+
+    public void testSortedMembers() {
+        Channel root = new Channel(0, false);
+        root.setName("Root");
+        User bob = new User(0, "bob");
+        User alice = new User(1, "Alice");
+        User otherAlice = new User(2, "alice");
+        bob.setChannel(root);
+        alice.setChannel(root);
+        otherAlice.setChannel(root);
+        assertEquals("Users with equal names may share a channel", 3, root.getUsers().size());
+        assertEquals("Users are sorted by name", bob, root.getUsers().get(2));
+
+        bob.setName("Aaron");
+        assertEquals("Renamed users are repositioned", bob, root.getUsers().get(0));
+
+        Channel second = new Channel(1, false);
+        second.setName("Second");
+        second.setPosition(2);
+        Channel first = new Channel(2, false);
+        first.setName("First");
+        first.setPosition(1);
+        root.addSubchannel(second);
+        root.addSubchannel(first);
+        assertEquals("Subchannels are sorted by position", first, root.getSubchannels().get(0));
+
+        first.setPosition(3);
+        assertEquals("Repositioned subchannels are reordered", second, root.getSubchannels().get(0));
+    }
 }
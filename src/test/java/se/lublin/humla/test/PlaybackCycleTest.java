@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.lublin.humla.test;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import se.lublin.humla.audio.IAudioMixer;
+import se.lublin.humla.audio.IAudioMixerSource;
+import se.lublin.humla.audio.SoftLimitingShortMixer;
+import se.lublin.humla.audio.SpeakerPlayback;
+
+/**
+ * Runs the playback thread's side of a mix cycle: reading each speaker's buffered audio and
+ * mixing it. Decoding is bypassed by writing synthetic PCM straight into each speaker's buffer,
+ * as the decode thread would.
+ */
+public class PlaybackCycleTest extends TestCase {
+    private static final int SAMPLES = 480;
+
+    private SpeakerPlayback[] mSpeakers;
+    private float[][] mDecoded;
+    private final List<IAudioMixerSource<float[]>> mSources = new ArrayList<>();
+    private final IAudioMixer<float[], short[]> mMixer = new SoftLimitingShortMixer();
+    private final short[] mOutput = new short[SAMPLES];
+
+    /** Sets up speakers, each with a different constant level. */
+    private void speakers(int count) {
+        mSpeakers = new SpeakerPlayback[count];
+        mDecoded = new float[count][SAMPLES];
+        for (int i = 0; i < count; i++) {
+            mSpeakers[i] = new SpeakerPlayback(SAMPLES);
+            for (int j = 0; j < SAMPLES; j++)
+                mDecoded[i][j] = 0.01f * (i % 8 + 1) * (j % 2 == 0 ? 1 : -1);
+        }
+    }
+
+    /** Tops each speaker up, then reads and mixes a buffer, as AudioOutput.fetchAudio does. */
+    private void cycle() {
+        for (int i = 0; i < mSpeakers.length; i++) {
+            if (mSpeakers[i].available() < SAMPLES)
+                mSpeakers[i].write(mDecoded[i], 0, SAMPLES);
+        }
+        mSources.clear();
+        for (SpeakerPlayback speaker : mSpeakers) {
+            IAudioMixerSource<float[]> source = speaker.read(SAMPLES, false);
+            if (source != null)
+                mSources.add(source);
+        }
+        mMixer.mix(mSources, mOutput, 0, SAMPLES);
+    }
+
+    public void testCycleMixesEverySpeaker() {
+        speakers(8);
+        cycle();
+        // 0.01 + 0.02 + ... + 0.08, well below the limiter's knee.
+        assertEquals((short) (0.36f * Short.MAX_VALUE), mOutput[0], 1);
+        assertEquals((short) (-0.36f * Short.MAX_VALUE), mOutput[1], 1);
+    }
+
+    public void testUnderrunAndFinish() {
+        SpeakerPlayback speaker = new SpeakerPlayback(SAMPLES);
+        float[] decoded = new float[SAMPLES / 2];
+        Arrays.fill(decoded, 0.5f);
+        assertEquals(SAMPLES / 2, speaker.write(decoded, 0, decoded.length));
+
+        // Decoding fell behind: the rest of the buffer is silence.
+        IAudioMixerSource<float[]> source = speaker.read(SAMPLES, false);
+        assertEquals(SAMPLES, source.getNumSamples());
+        assertEquals(0.5f, source.getSamples()[SAMPLES / 2 - 1]);
+        assertEquals(0f, source.getSamples()[SAMPLES / 2]);
+
+        // Still talking, so an empty buffer is played as silence rather than dropped.
+        assertNotNull(speaker.read(SAMPLES, false));
+        assertNull(speaker.read(SAMPLES, true));
+    }
+
+    public void testCycleAllocation() {
+        speakers(32);
+        final int cycles = 1000;
+        long allocated = AllocationMeter.measure(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < cycles; i++)
+                    cycle();
+            }
+        });
+        if (allocated == AllocationMeter.UNSUPPORTED)
+            return;
+        // The VM may allocate a little on our thread while compiling the loop, but that must stay
+        // far below one object per cycle.
+        assertTrue("Mix cycles allocated " + allocated + " bytes", allocated < cycles);
+    }
+
+    /**
+     * Measures the cost of a mix cycle for 1, 8 and 32 speakers, which must grow no faster than
+     * the number of speakers. Timing depends on the machine and its load, so this only runs when
+     * the {@code humla.test.benchmark} system property is set.
+     */
+    public void testCycleBenchmark() {
+        if (!Boolean.getBoolean("humla.test.benchmark"))
+            return;
+        int[] counts = { 1, 8, 32 };
+        long[] nanos = new long[counts.length];
+        StringBuilder report = new StringBuilder();
+        for (int i = 0; i < counts.length; i++) {
+            speakers(counts[i]);
+            nanos[i] = Long.MAX_VALUE;
+            // Keep the best of several rounds, so a burst of load elsewhere does not count.
+            for (int round = 0; round < 5; round++)
+                nanos[i] = Math.min(nanos[i], time(2000));
+            report.append(counts[i]).append(" speaker(s): ").append(nanos[i]).append("ns per cycle; ");
+        }
+        // Reading and mixing are linear in the number of speakers; allow for fixed costs and noise.
+        assertTrue(report.toString(), nanos[2] < nanos[1] * 32 / 8 * 2);
+        assertTrue(report.toString(), nanos[1] < nanos[0] * 8 * 2);
+    }
+
+    private long time(int cycles) {
+        for (int i = 0; i < cycles; i++) // Warm up.
+            cycle();
+        long start = System.nanoTime();
+        for (int i = 0; i < cycles; i++)
+            cycle();
+        return (System.nanoTime() - start) / cycles;
+    }
+}
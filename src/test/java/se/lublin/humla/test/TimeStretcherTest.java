@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.test;
+
+import junit.framework.TestCase;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import se.lublin.humla.audio.TimeStretcher;
+
+/**
+ * Tests WSOLA time-stretching for length, pitch and continuity, and benchmarks it. Set the
+ * {@code humla.test.pcm} system property to a file of 48kHz mono 16-bit little-endian PCM to run
+ * the benchmark on recorded speech instead of a synthetic voice, and {@code humla.test.benchmark}
+ * to check that it keeps up with real time.
+ */
+public class TimeStretcherTest extends TestCase {
+    private static final int SAMPLE_RATE = 48000;
+    /** 125Hz, a typical male voice. */
+    private static final int PERIOD = 384;
+
+    /** A harmonic-rich tone with a syllable-rate envelope, a crude stand-in for voiced speech. */
+    private static float[] voice(int length) {
+        float[] samples = new float[length];
+        for (int i = 0; i < length; i++) {
+            double t = (double) i / PERIOD;
+            double sum = 0;
+            for (int harmonic = 1; harmonic <= 10; harmonic++)
+                sum += Math.sin(2 * Math.PI * harmonic * t + harmonic) / harmonic;
+            double envelope = 0.6 + 0.4 * Math.sin(2 * Math.PI * 4 * i / SAMPLE_RATE);
+            samples[i] = (float) (0.2 * envelope * sum);
+        }
+        return samples;
+    }
+
+    private static float[] stretch(TimeStretcher stretcher, float[] input, int chunk, float[] rates) {
+        float[] output = new float[input.length * 2];
+        float[] buffer = new float[input.length];
+        int length = 0;
+        for (int offset = 0, pass = 0; offset < input.length; offset += chunk, pass++) {
+            stretcher.setRate(rates[pass % rates.length]);
+            stretcher.write(input, offset, Math.min(chunk, input.length - offset));
+            int read = stretcher.read(buffer, 0, buffer.length);
+            System.arraycopy(buffer, 0, output, length, read);
+            length += read;
+        }
+        stretcher.flush();
+        int read = stretcher.read(buffer, 0, buffer.length);
+        System.arraycopy(buffer, 0, output, length, read);
+        return Arrays.copyOf(output, length + read);
+    }
+
+    /** The lag with the highest normalised autocorrelation, between 2.5 and 12.5ms. */
+    private static int pitchPeriod(float[] samples, int start, int length) {
+        int best = 0;
+        double bestScore = -Double.MAX_VALUE;
+        for (int lag = 120; lag <= 600; lag++) {
+            double correlation = 0, energy = 0;
+            for (int i = start; i < start + length; i++) {
+                correlation += samples[i] * samples[i + lag];
+                energy += samples[i + lag] * samples[i + lag];
+            }
+            double score = correlation / Math.sqrt(energy + 1e-9);
+            if (score > bestScore) {
+                bestScore = score;
+                best = lag;
+            }
+        }
+        return best;
+    }
+
+    private static float maxStep(float[] samples) {
+        float max = 0;
+        for (int i = 1; i < samples.length; i++)
+            max = Math.max(max, Math.abs(samples[i] - samples[i - 1]));
+        return max;
+    }
+
+    public void testPassThrough() {
+        float[] input = voice(SAMPLE_RATE);
+        float[] output = stretch(new TimeStretcher(), input, 437, new float[] { 1f });
+        assertEquals(input.length, output.length);
+        for (int i = 0; i < input.length; i++)
+            assertEquals("Sample " + i, input[i], output[i], 1e-6f);
+    }
+
+    public void testRatePreservesPitch() {
+        float[] input = voice(SAMPLE_RATE * 2);
+        float inputStep = maxStep(input);
+        for (float rate : new float[] { 0.95f, 1.05f, 1.1f }) {
+            float[] output = stretch(new TimeStretcher(), input, 480, new float[] { rate });
+            float expected = input.length / rate;
+            assertEquals("Length at rate " + rate, expected, output.length, expected * 0.01f);
+            assertEquals("Pitch at rate " + rate, PERIOD, pitchPeriod(output, SAMPLE_RATE / 2, 4800), 2);
+            // Splices must not add clicks beyond the signal's own slope.
+            assertTrue("Discontinuity at rate " + rate, maxStep(output) < inputStep * 1.25f);
+        }
+    }
+
+    public void testSwitchingRates() {
+        float[] input = voice(SAMPLE_RATE * 2);
+        float[] output = stretch(new TimeStretcher(), input, 480,
+                new float[] { 1f, 1f, 1.1f, 1.1f, 1.1f, 1f, 0.95f, 0.95f, 1f });
+        assertTrue(output.length < input.length);
+        assertTrue(maxStep(output) < maxStep(input) * 1.25f);
+        assertEquals(PERIOD, pitchPeriod(output, SAMPLE_RATE / 2, 4800), 2);
+    }
+
+    public void testStretchBenchmark() throws IOException {
+        String path = System.getProperty("humla.test.pcm");
+        float[] input = path != null ? readPcm(new File(path)) : voice(SAMPLE_RATE * 10);
+        for (float rate : new float[] { 1f, 0.95f, 1.05f, 1.1f }) {
+            TimeStretcher stretcher = new TimeStretcher();
+            stretch(stretcher, input, 480, new float[] { rate }); // Warm up.
+            stretcher.reset();
+            long start = System.nanoTime();
+            float[] output = stretch(stretcher, input, 480, new float[] { rate });
+            long nanos = System.nanoTime() - start;
+            String report = String.format(
+                    "Stretching at %.2f: %.1fns per sample, length ratio %.3f, max step %.4f (input %.4f)",
+                    rate, (double) nanos / input.length, (double) output.length / input.length,
+                    maxStep(output), maxStep(input));
+            assertEquals(report, 1 / rate, (double) output.length / input.length, 0.01);
+            // Timing depends on the machine and its load, so it is only checked when asked for.
+            // A tenth of real time leaves a margin for slower devices.
+            if (Boolean.getBoolean("humla.test.benchmark"))
+                assertTrue(report, nanos < input.length * (100000000L / SAMPLE_RATE));
+        }
+    }
+
+    private static float[] readPcm(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            float[] samples = new float[(int) (file.length() / 2)];
+            for (int i = 0; i < samples.length; i++) {
+                int low = in.readUnsignedByte();
+                int high = in.readByte();
+                samples[i] = ((high << 8) | low) / 32768f;
+            }
+            return samples;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2026 Humla contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.lublin.humla.test;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+
+import se.lublin.humla.audio.VoiceFrameQueue;
+
+/**
+ * Tests voice packet framing on the decode path, and that it does not allocate.
+ */
+public class VoiceFrameQueueTest extends TestCase {
+
+    private static ByteBuffer opusPacket(int size, boolean terminator) {
+        ByteBuffer packet = ByteBuffer.allocateDirect(4096);
+        int header = size | (terminator ? 1 << 13 : 0);
+        // Mumble varint: two-byte form for values below 0x4000.
+        packet.put((byte) (0x80 | (header >> 8)));
+        packet.put((byte) header);
+        for (int i = 0; i < size; i++)
+            packet.put((byte) i);
+        return packet;
+    }
+
+    public void testOpusFraming() {
+        ByteBuffer packet = opusPacket(200, true);
+        int length = packet.position();
+        VoiceFrameQueue frames = new VoiceFrameQueue(packet);
+        ByteBuffer frame = ByteBuffer.allocateDirect(4096);
+
+        frames.parse(length, true);
+        assertTrue(frames.hasTerminator());
+        assertEquals(200, frames.poll(frame));
+        assertEquals(0, frame.position());
+        assertEquals(200, frame.limit());
+        assertEquals((byte) 199, frame.get(199));
+        assertTrue(frames.isEmpty());
+        assertEquals(-1, frames.poll(frame));
+    }
+
+    public void testLegacyFraming() {
+        ByteBuffer packet = ByteBuffer.allocateDirect(4096);
+        packet.put((byte) (0x80 | 3)).put(new byte[] { 1, 2, 3 });
+        packet.put((byte) (0x80 | 2)).put(new byte[] { 4, 5 });
+        packet.put((byte) 0); // Terminator.
+        VoiceFrameQueue frames = new VoiceFrameQueue(packet);
+        ByteBuffer frame = ByteBuffer.allocateDirect(4096);
+
+        frames.parse(packet.position(), false);
+        assertTrue(frames.hasTerminator());
+        assertEquals(3, frames.poll(frame));
+        assertEquals(1, frame.get(0));
+        assertEquals(2, frames.poll(frame));
+        assertEquals(5, frame.get(1));
+        assertTrue(frames.isEmpty());
+    }
+
+    public void testTruncatedPacket() {
+        ByteBuffer packet = opusPacket(200, false);
+        VoiceFrameQueue frames = new VoiceFrameQueue(packet);
+        frames.parse(100, true);
+        assertTrue(frames.isEmpty());
+    }
+
+    public void testSteadyStateAllocation() {
+        ByteBuffer packet = opusPacket(120, false);
+        final int length = packet.position();
+        final VoiceFrameQueue frames = new VoiceFrameQueue(packet);
+        final ByteBuffer frame = ByteBuffer.allocateDirect(4096);
+        long allocated = AllocationMeter.measure(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 10000; i++) {
+                    frames.parse(length, true);
+                    frames.poll(frame);
+                }
+            }
+        });
+        if (allocated == AllocationMeter.UNSUPPORTED)
+            return;
+        // Leave slack for the measurement itself, but far less than one object per packet.
+        assertTrue("Decode path allocated " + allocated + " bytes", allocated < 1024);
+    }
+}